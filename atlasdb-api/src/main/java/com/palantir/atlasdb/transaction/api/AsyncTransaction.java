@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.api;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.ColumnSelection;
+import com.palantir.atlasdb.keyvalue.api.RowResult;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.common.annotation.Idempotent;
+
+/**
+ * A {@link Transaction} whose reads and commit can also be performed without blocking the calling thread, so that a
+ * single thread can issue many independent reads and compose their results.
+ * <p>
+ * Each operation runs on an executor supplied by the caller, which keeps it apart from the thread pools the
+ * transaction manager uses internally, and so lets the caller bound it and decide whether dependent stages may
+ * block. The returned futures complete exceptionally with the exception the corresponding blocking method would have
+ * thrown. Reads must complete before the
+ * transaction is committed or aborted; in particular, when a transaction is run by a {@link TransactionManager},
+ * the task should wait for any reads it issued before returning.
+ */
+public interface AsyncTransaction extends Transaction {
+
+    /**
+     * Asynchronous version of {@link #getRows(TableReference, Iterable, ColumnSelection)}.
+     */
+    @Idempotent
+    CompletableFuture<SortedMap<byte[], RowResult<byte[]>>> getRowsAsync(
+            TableReference tableRef,
+            Iterable<byte[]> rows,
+            ColumnSelection columnSelection,
+            Executor executor);
+
+    /**
+     * Asynchronous version of {@link #get(TableReference, Set)}.
+     */
+    @Idempotent
+    CompletableFuture<Map<Cell, byte[]>> getAsync(TableReference tableRef, Set<Cell> cells, Executor executor);
+
+    /**
+     * Asynchronous version of {@link #commit()}.
+     */
+    @Idempotent
+    CompletableFuture<Void> commitAsync(Executor executor);
+}
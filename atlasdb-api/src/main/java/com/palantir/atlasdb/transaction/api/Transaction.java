@@ -108,6 +108,28 @@ public interface Transaction {
     Stream<BatchingVisitable<RowResult<byte[]>>> getRangesLazy(
             final TableReference tableRef, Iterable<RangeRequest> rangeRequests);
 
+    /**
+     * Returns visitibles that scan the provided ranges, reading ahead of the consumer in bounded memory.
+     * <p>
+     * The first pages of up to {@code maxInFlightRanges} ranges following the one most recently taken from the
+     * stream are read concurrently, and while a range is visited up to {@code prefetchedBatchesPerRange} of its
+     * batches are read ahead of the visitor. More ranges are only read as the stream is consumed, so the stream
+     * should be consumed incrementally (for example, with forEach) rather than collected. As with
+     * {@link #getRanges(TableReference, Iterable)}, the batch hint of each range request sets the size of its first
+     * page. Closing the stream cancels reads of ranges that have not been taken from it, and stops reading ahead
+     * in ranges that are being visited.
+     * <p>
+     * By default this does no reading ahead, and is the same as {@link #getRangesLazy(TableReference, Iterable)}.
+     */
+    @Idempotent
+    default Stream<BatchingVisitable<RowResult<byte[]>>> getRangesLazy(
+            TableReference tableRef,
+            Iterable<RangeRequest> rangeRequests,
+            int maxInFlightRanges,
+            int prefetchedBatchesPerRange) {
+        return getRangesLazy(tableRef, rangeRequests);
+    }
+
     /**
      * Puts values into the key-value store. If you put a null or the empty byte array, then
      * this is treated like a delete to the store.
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.keyvalue.cassandra;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Bytes;
+import com.google.common.primitives.Longs;
+import com.palantir.atlasdb.AtlasDbConstants;
+import com.palantir.atlasdb.cassandra.CassandraKeyValueServiceConfigManager;
+import com.palantir.atlasdb.cassandra.ImmutableCassandraKeyValueServiceConfig;
+import com.palantir.atlasdb.containers.CassandraContainer;
+import com.palantir.atlasdb.containers.Containers;
+import com.palantir.atlasdb.encoding.PtBytes;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.ColumnSelection;
+import com.palantir.atlasdb.keyvalue.api.KeyValueService;
+import com.palantir.atlasdb.keyvalue.api.RangeRequests;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.api.Value;
+
+/**
+ * Reads of whole rows are paged according to {@code fetchBatchSizeBytes}, so these run with budgets ranging from a
+ * single column per page to whole rows, to put page boundaries in every position.
+ */
+@RunWith(Parameterized.class)
+public class CassandraKeyValueServiceGetRowsIntegrationTest {
+    @ClassRule
+    public static final Containers CONTAINERS = new Containers(CassandraKeyValueServiceGetRowsIntegrationTest.class)
+            .with(new CassandraContainer());
+
+    private static final TableReference TABLE = TableReference.createFromFullyQualifiedName("ns.get_rows");
+    private static final byte[] ROW = PtBytes.toBytes("row");
+    private static final int NUM_VERSIONS = 10;
+    private static final long READ_TS = 6;
+
+    @Parameterized.Parameter
+    public int fetchBatchSizeBytes;
+
+    @Parameterized.Parameters(name = "fetchBatchSizeBytes = {0}")
+    public static Iterable<?> parameters() {
+        return Arrays.asList(1, 300, 2_000, 16 * 1024 * 1024);
+    }
+
+    private KeyValueService kvs;
+
+    @Before
+    public void setUp() {
+        kvs = CassandraKeyValueService.create(
+                CassandraKeyValueServiceConfigManager.createSimpleManager(
+                        ImmutableCassandraKeyValueServiceConfig.copyOf(CassandraContainer.KVS_CONFIG)
+                                .withFetchBatchSizeBytes(fetchBatchSizeBytes)),
+                CassandraContainer.LEADER_CONFIG,
+                Mockito.mock(Logger.class));
+        kvs.createTable(TABLE, AtlasDbConstants.GENERIC_TABLE_METADATA);
+    }
+
+    @After
+    public void tearDown() {
+        kvs.dropTable(TABLE);
+        kvs.close();
+    }
+
+    @Test
+    public void readsTheLatestVisibleVersionOfColumnsWithManyVersions() {
+        Map<Cell, Value> expected = Maps.newHashMap();
+        for (int col = 0; col < 20; col++) {
+            Cell cell = Cell.create(ROW, column(col));
+            for (long ts = 1; ts <= NUM_VERSIONS; ts++) {
+                put(cell, ts);
+            }
+            expected.put(cell, Value.create(value(cell, READ_TS - 1), READ_TS - 1));
+        }
+
+        assertThat(getRow()).isEqualTo(expected);
+    }
+
+    @Test
+    public void skipsColumnsWithOnlyVersionsAtOrAfterTheReadTimestamp() {
+        Map<Cell, Value> expected = Maps.newHashMap();
+        for (int col = 0; col < 20; col++) {
+            Cell cell = Cell.create(ROW, column(col));
+            if (col % 3 == 0) {
+                put(cell, 1);
+                expected.put(cell, Value.create(value(cell, 1), 1));
+            }
+            for (long ts = READ_TS; ts <= NUM_VERSIONS; ts++) {
+                put(cell, ts);
+            }
+        }
+
+        assertThat(getRow()).isEqualTo(expected);
+    }
+
+    @Test
+    public void readsTheLastPossibleColumn() {
+        Map<Cell, Value> expected = Maps.newHashMap();
+        for (byte[] col : ImmutableList.of(column(0), column(1), RangeRequests.getLastRowName())) {
+            Cell cell = Cell.create(ROW, col);
+            for (long ts = 1; ts <= NUM_VERSIONS; ts++) {
+                put(cell, ts);
+            }
+            expected.put(cell, Value.create(value(cell, READ_TS - 1), READ_TS - 1));
+        }
+
+        assertThat(getRow()).isEqualTo(expected);
+    }
+
+    @Test
+    public void readsManyWideRowsTogether() {
+        List<byte[]> rows = Lists.newArrayList();
+        Map<Cell, byte[]> values = Maps.newHashMap();
+        for (int row = 0; row < 30; row++) {
+            rows.add(row(row));
+            for (int col = 0; col < 150; col++) {
+                Cell cell = Cell.create(row(row), column(col));
+                values.put(cell, value(cell, 1));
+            }
+        }
+        kvs.put(TABLE, values, 1);
+
+        assertThat(kvs.getRows(TABLE, rows, ColumnSelection.all(), READ_TS))
+                .isEqualTo(Maps.transformValues(values, value -> Value.create(value, 1)));
+    }
+
+    @Test
+    public void readsManyRowsWithManyVersionsTogether() {
+        List<byte[]> rows = Lists.newArrayList();
+        List<Cell> cells = Lists.newArrayList();
+        for (int row = 0; row < 10; row++) {
+            rows.add(row(row));
+            for (int col = 0; col < 20; col++) {
+                cells.add(Cell.create(row(row), column(col)));
+            }
+        }
+        for (long ts = 1; ts <= NUM_VERSIONS; ts++) {
+            long timestamp = ts;
+            kvs.put(TABLE, Maps.toMap(cells, cell -> value(cell, timestamp)), timestamp);
+        }
+
+        assertThat(kvs.getRows(TABLE, rows, ColumnSelection.all(), READ_TS))
+                .isEqualTo(Maps.toMap(cells, cell -> Value.create(value(cell, READ_TS - 1), READ_TS - 1)));
+    }
+
+    private Map<Cell, Value> getRow() {
+        return kvs.getRows(TABLE, ImmutableList.of(ROW), ColumnSelection.all(), READ_TS);
+    }
+
+    private void put(Cell cell, long ts) {
+        kvs.put(TABLE, ImmutableMap.of(cell, value(cell, ts)), ts);
+    }
+
+    private static byte[] row(int index) {
+        return PtBytes.toBytes(String.format("row%04d", index));
+    }
+
+    private static byte[] column(int index) {
+        return PtBytes.toBytes(String.format("col%04d", index));
+    }
+
+    private static byte[] value(Cell cell, long ts) {
+        return Bytes.concat(cell.getColumnName(), Longs.toByteArray(ts));
+    }
+}
@@ -97,6 +97,43 @@ public abstract class CassandraKeyValueServiceConfig implements KeyValueServiceC
         return 2 * 60;
     }
 
+    /**
+     * If true, queries are routed to whichever of two randomly chosen candidate hosts has the lower recent latency,
+     * weighted by its in-flight requests, so that slow replicas receive less traffic. If false, hosts are chosen at
+     * random, weighted only by their in-flight requests.
+     */
+    @Value.Default
+    public boolean latencyAwareHostSelection() {
+        return false;
+    }
+
+    /**
+     * If true, a multiget that a host has not answered within {@link #hedgedReadLatencyPercentile()} of its recent
+     * latency is also sent to another host, and whichever answers first is used. This cuts tail latency when a host
+     * stalls, at the cost of some duplicate reads.
+     */
+    @Value.Default
+    public boolean hedgedReads() {
+        return false;
+    }
+
+    /**
+     * The percentile of a host's recent latency after which reads are hedged, if {@link #hedgedReads()} is set.
+     */
+    @Value.Default
+    public double hedgedReadLatencyPercentile() {
+        return 0.99;
+    }
+
+    /**
+     * The largest proportion of reads that may be hedged, if {@link #hedgedReads()} is set. This bounds the extra load
+     * that hedging puts on the cluster when many hosts are slow at once.
+     */
+    @Value.Default
+    public double maxHedgedReadProportion() {
+        return 0.05;
+    }
+
     /**
      * The gc_grace_seconds for all tables(column families). This is the maximum TTL for tombstones in Cassandra
      * as data marked with a tombstone is removed during the normal compaction process every gc_grace_seconds.
@@ -158,6 +195,15 @@ public abstract class CassandraKeyValueServiceConfig implements KeyValueServiceC
         return 5000;
     }
 
+    /**
+     * Roughly the most bytes of columns that a single read of whole rows asks Cassandra for. Reads of rows that do
+     * not fit are split into several requests, paging through the columns of wide rows.
+     */
+    @Value.Default
+    public int fetchBatchSizeBytes() {
+        return 16 * 1024 * 1024;
+    }
+
     @Value.Default
     public boolean ignoreNodeTopologyChecks() {
         return false;
@@ -262,5 +308,12 @@ public abstract class CassandraKeyValueServiceConfig implements KeyValueServiceC
         double evictionCheckProportion = proportionConnectionsToCheckPerEvictionRun();
         Preconditions.checkArgument(evictionCheckProportion > 0.01 && evictionCheckProportion <= 1,
                 "'proportionConnectionsToCheckPerEvictionRun' must be between 0.01 and 1");
+        double hedgedReadLatencyPercentile = hedgedReadLatencyPercentile();
+        Preconditions.checkArgument(hedgedReadLatencyPercentile > 0 && hedgedReadLatencyPercentile < 1,
+                "'hedgedReadLatencyPercentile' must be between 0 and 1");
+        double maxHedgedReadProportion = maxHedgedReadProportion();
+        Preconditions.checkArgument(maxHedgedReadProportion >= 0 && maxHedgedReadProportion <= 1,
+                "'maxHedgedReadProportion' must be between 0 and 1");
+        Preconditions.checkArgument(fetchBatchSizeBytes() > 0, "'fetchBatchSizeBytes' must be positive");
     }
 }
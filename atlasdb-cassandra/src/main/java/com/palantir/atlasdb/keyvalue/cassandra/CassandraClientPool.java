@@ -21,6 +21,7 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,13 +29,22 @@ import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 
 import org.apache.cassandra.thrift.Cassandra;
@@ -48,8 +58,11 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.MessageFormatter;
 
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableRangeMap;
@@ -106,6 +119,18 @@ public class CassandraClientPool {
     @VisibleForTesting
     static final int MAX_TRIES_TOTAL = 6;
 
+    private static final double LATENCY_EWMA_WEIGHT = 0.1;
+    private static final long LATENCY_DECAY_HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // Failed requests count as at least this slow, so that a host that fails fast does not look like a fast host.
+    private static final long FAILED_REQUEST_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Hosts are not hedged against until we have seen enough of their requests to know what is slow for them.
+    private static final long MIN_LATENCY_SAMPLES_FOR_HEDGING = 100;
+    private static final long HEDGE_DELAY_RECOMPUTE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Hedges beyond these are dropped rather than queued, as a late hedge is no use to anyone.
+    private static final int MAX_CONCURRENT_HEDGED_READS = 16;
+    private static final double MAX_HEDGED_READ_BURST = 10;
+
     volatile RangeMap<LightweightOppToken, List<InetSocketAddress>> tokenMap = ImmutableRangeMap.of();
     Map<InetSocketAddress, Long> blacklistedHosts = Maps.newConcurrentMap();
     Map<InetSocketAddress, CassandraClientPoolingContainer> currentPools = Maps.newConcurrentMap();
@@ -114,7 +139,19 @@ public class CassandraClientPool {
 
     private final MetricsManager metricsManager = new MetricsManager();
     private final RequestMetrics aggregateMetrics = new RequestMetrics(null);
-    private final Map<InetSocketAddress, RequestMetrics> metricsByHost = new HashMap<>();
+    private final Map<InetSocketAddress, RequestMetrics> metricsByHost = Maps.newConcurrentMap();
+    private final Meter hedgedReadsIssued = metricsManager.registerMeter(
+            CassandraClientPool.class, "hedgedReads", "issued");
+    private final Meter hedgedReadsWon = metricsManager.registerMeter(
+            CassandraClientPool.class, "hedgedReads", "won");
+    private final HedgeBudget hedgeBudget = new HedgeBudget();
+    private final ScheduledExecutorService hedgeTimer = Tracers.wrap(createHedgeTimer());
+    private final ExecutorService hedgedReadExecutor = Tracers.wrap(PTExecutors.newThreadPoolExecutor(
+            0, MAX_CONCURRENT_HEDGED_READS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("CassandraClientPoolHedgedRead-%d")
+                    .build()));
 
     public static class LightweightOppToken implements Comparable<LightweightOppToken> {
         final byte[] bytes;
@@ -156,6 +193,16 @@ public class CassandraClientPool {
         private final Meter totalRequestExceptions;
         private final Meter totalRequestConnectionExceptions;
 
+        // Exponentially weighted moving average of request latency, for latency aware host selection
+        private boolean hasLatency = false;
+        private double latencyEwmaNanos = 0;
+        private long latencyUpdatedNanos = 0;
+
+        // Distribution of recent request latencies, for hedged reads
+        private final Timer requestLatency = new Timer();
+        private volatile long hedgeDelayNanos = -1;
+        private volatile long hedgeDelayComputedNanos = 0;
+
         RequestMetrics(String metricPrefix) {
             totalRequests = metricsManager.registerMeter(
                     CassandraClientPool.class, metricPrefix, "requests");
@@ -165,6 +212,17 @@ public class CassandraClientPool {
                     CassandraClientPool.class, metricPrefix, "requestConnectionExceptions");
         }
 
+        void registerHostMetrics(String metricPrefix) {
+            metricsManager.registerMetric(
+                    CassandraClientPool.class, metricPrefix, "requestLatency", requestLatency);
+            metricsManager.registerMetric(
+                    CassandraClientPool.class, metricPrefix, "requestFailureProportion",
+                    this::getExceptionProportion);
+            metricsManager.registerMetric(
+                    CassandraClientPool.class, metricPrefix, "requestConnectionExceptionProportion",
+                    this::getConnectionExceptionProportion);
+        }
+
         void markRequest() {
             totalRequests.mark();
         }
@@ -186,6 +244,127 @@ public class CassandraClientPool {
         double getConnectionExceptionProportion() {
             return ((double) totalRequestConnectionExceptions.getCount()) / ((double) totalRequests.getCount());
         }
+
+        void markRequestLatency(long latencyNanos, long nowNanos) {
+            requestLatency.update(latencyNanos, TimeUnit.NANOSECONDS);
+            updateLatencyEwma(latencyNanos, nowNanos);
+        }
+
+        /**
+         * Failed requests only count towards the average latency used for host selection, with a penalty; they are
+         * left out of the latency distribution, which should tell how long successful reads take.
+         */
+        void markFailedRequestLatency(long latencyNanos, long nowNanos) {
+            updateLatencyEwma(Math.max(latencyNanos, FAILED_REQUEST_LATENCY_NANOS), nowNanos);
+        }
+
+        private synchronized void updateLatencyEwma(long latencyNanos, long nowNanos) {
+            latencyEwmaNanos = hasLatency
+                    ? latencyEwmaNanos + LATENCY_EWMA_WEIGHT * (latencyNanos - latencyEwmaNanos)
+                    : latencyNanos;
+            latencyUpdatedNanos = nowNanos;
+            hasLatency = true;
+        }
+
+        /**
+         * The average latency decays while the host serves no requests, so that a host that was slow is retried
+         * once in a while rather than being avoided forever.
+         */
+        synchronized OptionalDouble getLatencyNanos(long nowNanos) {
+            if (!hasLatency) {
+                return OptionalDouble.empty();
+            }
+            double halfLives = (double) (nowNanos - latencyUpdatedNanos) / LATENCY_DECAY_HALF_LIFE_NANOS;
+            return OptionalDouble.of(latencyEwmaNanos * Math.pow(0.5, halfLives));
+        }
+
+        /**
+         * The given percentile of this host's recent request latencies, or empty if it has served too few requests
+         * for that to be meaningful. Recomputed at most once a second, as taking a snapshot is not free.
+         */
+        Optional<Long> getLatencyPercentileNanos(double percentile, long nowNanos) {
+            if (requestLatency.getCount() < MIN_LATENCY_SAMPLES_FOR_HEDGING) {
+                return Optional.empty();
+            }
+            if (hedgeDelayNanos < 0 || nowNanos - hedgeDelayComputedNanos > HEDGE_DELAY_RECOMPUTE_INTERVAL_NANOS) {
+                hedgeDelayNanos = (long) requestLatency.getSnapshot().getValue(percentile);
+                hedgeDelayComputedNanos = nowNanos;
+            }
+            return Optional.of(hedgeDelayNanos);
+        }
+    }
+
+    /**
+     * Allows hedges for at most a given proportion of hedgeable reads, with bursts of up to
+     * {@link #MAX_HEDGED_READ_BURST} hedges. It starts with one hedge's worth, so a fresh client can hedge at once.
+     */
+    private static final class HedgeBudget {
+        private double balance = 1;
+
+        synchronized void deposit(double proportion) {
+            balance = Math.min(balance + proportion, MAX_HEDGED_READ_BURST);
+        }
+
+        synchronized boolean tryWithdraw() {
+            if (balance < 1) {
+                return false;
+            }
+            balance -= 1;
+            return true;
+        }
+    }
+
+    /**
+     * One attempt of a hedged read. Interrupting a thread does not stop a Thrift read, so abandoning an attempt closes
+     * the transport of the client it is using instead; the client is then discarded by its pool. An abandoned attempt
+     * fails with {@link AbandonedAttemptException}, which is not retried.
+     */
+    private static final class HedgedAttempt {
+        private Cassandra.Client client = null;
+        private boolean abandoned = false;
+
+        <V, K extends Exception> FunctionCheckedException<Cassandra.Client, V, K> wrap(
+                FunctionCheckedException<Cassandra.Client, V, K> fn) {
+            return attemptClient -> {
+                start(attemptClient);
+                try {
+                    return fn.apply(attemptClient);
+                } catch (Exception e) {
+                    if (isAbandoned()) {
+                        throw new AbandonedAttemptException();
+                    }
+                    throw e;
+                } finally {
+                    finish();
+                }
+            };
+        }
+
+        private synchronized void start(Cassandra.Client newClient) {
+            if (abandoned) {
+                throw new AbandonedAttemptException();
+            }
+            client = newClient;
+        }
+
+        private synchronized void finish() {
+            client = null;
+        }
+
+        private synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            if (client != null) {
+                client.getInputProtocol().getTransport().close();
+            }
+        }
+    }
+
+    private static final class AbandonedAttemptException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
     }
 
     private enum StartupChecks {
@@ -228,6 +407,8 @@ public class CassandraClientPool {
 
     public void shutdown() {
         refreshDaemon.shutdown();
+        hedgeTimer.shutdownNow();
+        hedgedReadExecutor.shutdownNow();
         currentPools.forEach((address, cassandraClientPoolingContainer) ->
                 cassandraClientPoolingContainer.shutdownPooling());
         metricsManager.deregisterMetrics();
@@ -286,11 +467,18 @@ public class CassandraClientPool {
 
     @VisibleForTesting
     void addPool(InetSocketAddress server, CassandraClientPoolingContainer container) {
+        metricsByHost.computeIfAbsent(server, host -> {
+            RequestMetrics hostMetrics = new RequestMetrics(host.getHostString());
+            hostMetrics.registerHostMetrics(host.getHostString());
+            return hostMetrics;
+        });
         currentPools.put(server, container);
     }
 
     private void removePool(InetSocketAddress removedServerAddress) {
         blacklistedHosts.remove(removedServerAddress);
+        metricsByHost.remove(removedServerAddress);
+        metricsManager.deregisterMetricsWithPrefix(CassandraClientPool.class, removedServerAddress.getHostString());
         try {
             currentPools.get(removedServerAddress).shutdownPooling();
         } catch (Exception e) {
@@ -377,8 +565,7 @@ public class CassandraClientPool {
             livingHosts = filteredHosts;
         }
 
-        InetSocketAddress randomLivingHost = getRandomHostByActiveConnections(
-                Maps.filterKeys(currentPools, livingHosts::contains));
+        InetSocketAddress randomLivingHost = getRandomHost(Maps.filterKeys(currentPools, livingHosts::contains));
         return Optional.ofNullable(pools.get(randomLivingHost));
     }
 
@@ -403,15 +590,73 @@ public class CassandraClientPool {
             log.debug("Current ring view is: {} and our current host blacklist is {}", tokenMap, blacklistedHosts);
             return getRandomGoodHost().getHost();
         } else {
-            return getRandomHostByActiveConnections(Maps.filterKeys(currentPools, liveOwnerHosts::contains));
+            return getRandomHost(Maps.filterKeys(currentPools, liveOwnerHosts::contains));
         }
     }
 
-    private static InetSocketAddress getRandomHostByActiveConnections(
-            Map<InetSocketAddress, CassandraClientPoolingContainer> pools) {
+    private InetSocketAddress getRandomHost(Map<InetSocketAddress, CassandraClientPoolingContainer> pools) {
+        if (config.latencyAwareHostSelection()) {
+            long now = System.nanoTime();
+            Supplier<Double> meanLatencyNanos = Suppliers.memoize(() -> getMeanLatencyNanos(now));
+            return chooseByPowerOfTwoChoices(
+                    ImmutableList.copyOf(pools.keySet()),
+                    host -> getExpectedLatency(host, pools.get(host), now, meanLatencyNanos));
+        }
         return WeightedHosts.create(pools).getRandomHost();
     }
 
+    /**
+     * The latency a new request to the given host can expect: the host's average latency, scaled by the number of
+     * requests already in flight to it, which it will have to serve first. Hosts that have not served any requests
+     * yet are assumed to be as fast as the average host, so that new hosts are not flooded with requests.
+     */
+    private double getExpectedLatency(
+            InetSocketAddress host,
+            CassandraClientPoolingContainer pool,
+            long nowNanos,
+            Supplier<Double> meanLatencyNanos) {
+        RequestMetrics hostMetrics = metricsByHost.get(host);
+        OptionalDouble hostLatencyNanos = hostMetrics == null
+                ? OptionalDouble.empty()
+                : hostMetrics.getLatencyNanos(nowNanos);
+        double latencyNanos = hostLatencyNanos.isPresent() ? hostLatencyNanos.getAsDouble() : meanLatencyNanos.get();
+        int openRequests = pool == null ? 0 : Math.max(pool.getOpenRequests(), 0);
+        return latencyNanos * (openRequests + 1);
+    }
+
+    private double getMeanLatencyNanos(long nowNanos) {
+        return metricsByHost.values().stream()
+                .map(hostMetrics -> hostMetrics.getLatencyNanos(nowNanos))
+                .filter(OptionalDouble::isPresent)
+                .mapToDouble(OptionalDouble::getAsDouble)
+                .average()
+                .orElse(0);
+    }
+
+    /**
+     * Picks two distinct hosts at random and returns the one with the lower cost. Unlike always picking the
+     * cheapest host, this spreads load across similar hosts and does not herd every client onto the host that
+     * happened to be fastest a moment ago, while still steering most requests away from slow hosts.
+     */
+    @VisibleForTesting
+    static InetSocketAddress chooseByPowerOfTwoChoices(
+            List<InetSocketAddress> hosts,
+            ToDoubleFunction<InetSocketAddress> cost) {
+        Preconditions.checkArgument(!hosts.isEmpty(), "hosts should be non-empty");
+        if (hosts.size() == 1) {
+            return hosts.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(hosts.size());
+        int second = random.nextInt(hosts.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        InetSocketAddress firstHost = hosts.get(first);
+        InetSocketAddress secondHost = hosts.get(second);
+        return cost.applyAsDouble(firstHost) <= cost.applyAsDouble(secondHost) ? firstHost : secondHost;
+    }
+
     public void runOneTimeStartupChecks() {
         try {
             CassandraVerifier.ensureKeyspaceExistsAndIsUpToDate(this, config);
@@ -597,6 +842,132 @@ public class CassandraClientPool {
         }
     }
 
+    /**
+     * Runs an idempotent read on the given host, as {@link #runWithRetryOnHost} does, on the calling thread. If hedged
+     * reads are enabled, the host has not answered within the configured percentile of its recent latency, and the
+     * hedge budget allows, the read is also sent to another live host that owns all the given row keys, or failing
+     * that to any other live host, which will coordinate the read. The first answer is returned, and the other
+     * attempt is abandoned by closing its connection.
+     */
+    public <V, K extends Exception> V runWithHedgingOnHost(
+            InetSocketAddress specifiedHost,
+            Collection<byte[]> rowKeys,
+            FunctionCheckedException<Cassandra.Client, V, K> fn) throws K {
+        Optional<Long> hedgeDelayNanos = getHedgeDelayNanos(specifiedHost);
+        if (!hedgeDelayNanos.isPresent()) {
+            return runWithRetryOnHost(specifiedHost, fn);
+        }
+
+        hedgeBudget.deposit(config.maxHedgedReadProportion());
+        HedgedAttempt primary = new HedgedAttempt();
+        HedgedAttempt hedge = new HedgedAttempt();
+        // Completed by the hedge timer, whether or not it ends up issuing a hedge.
+        CompletableFuture<V> hedgeResult = new CompletableFuture<>();
+        ScheduledFuture<?> hedgeTask = hedgeTimer.schedule(
+                () -> issueHedge(specifiedHost, rowKeys, fn, primary, hedge, hedgeResult),
+                hedgeDelayNanos.get(),
+                TimeUnit.NANOSECONDS);
+        try {
+            return runWithRetryOnHost(specifiedHost, primary.wrap(fn));
+        } catch (AbandonedAttemptException e) {
+            // The hedge answered first.
+            hedgedReadsWon.mark();
+            return hedgeResult.join();
+        } catch (Exception e) {
+            if (hedgeTask.cancel(false)) {
+                throw e;
+            }
+            // The hedge may still succeed.
+            try {
+                V result = hedgeResult.get();
+                hedgedReadsWon.mark();
+                return result;
+            } catch (ExecutionException hedgeFailure) {
+                throw e;
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        } finally {
+            hedgeTask.cancel(false);
+            hedge.abandon();
+        }
+    }
+
+    private <V, K extends Exception> void issueHedge(
+            InetSocketAddress specifiedHost,
+            Collection<byte[]> rowKeys,
+            FunctionCheckedException<Cassandra.Client, V, K> fn,
+            HedgedAttempt primary,
+            HedgedAttempt hedge,
+            CompletableFuture<V> hedgeResult) {
+        try {
+            Optional<InetSocketAddress> hedgeHost = getHedgeHost(specifiedHost, rowKeys);
+            if (!hedgeHost.isPresent() || !hedgeBudget.tryWithdraw()) {
+                hedgeResult.completeExceptionally(new RejectedExecutionException("Read was not hedged"));
+                return;
+            }
+            hedgedReadExecutor.execute(() -> {
+                try {
+                    hedgeResult.complete(runWithRetryOnHost(hedgeHost.get(), hedge.wrap(fn)));
+                    primary.abandon();
+                } catch (Throwable t) {
+                    hedgeResult.completeExceptionally(t);
+                }
+            });
+            hedgedReadsIssued.mark();
+        } catch (Throwable t) {
+            // Includes rejection by the hedged read executor when too many hedges are outstanding.
+            hedgeResult.completeExceptionally(t);
+        }
+    }
+
+    private static ScheduledExecutorService createHedgeTimer() {
+        ScheduledThreadPoolExecutor timer = PTExecutors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("CassandraClientPoolHedgeTimer-%d")
+                .build());
+        // Most reads finish before their hedge is due, so do not keep their cancelled hedges around until then.
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private Optional<Long> getHedgeDelayNanos(InetSocketAddress host) {
+        if (!config.hedgedReads()) {
+            return Optional.empty();
+        }
+        RequestMetrics hostMetrics = metricsByHost.get(host);
+        if (hostMetrics == null) {
+            return Optional.empty();
+        }
+        return hostMetrics.getLatencyPercentileNanos(config.hedgedReadLatencyPercentile(), System.nanoTime());
+    }
+
+    private Optional<InetSocketAddress> getHedgeHost(InetSocketAddress specifiedHost, Collection<byte[]> rowKeys) {
+        Set<InetSocketAddress> candidates = Sets.newHashSet(currentPools.keySet());
+        candidates.remove(specifiedHost);
+        candidates.removeAll(blacklistedHosts.keySet());
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Set<InetSocketAddress> commonOwners = Sets.newHashSet(candidates);
+        RangeMap<LightweightOppToken, List<InetSocketAddress>> ring = tokenMap;
+        for (byte[] rowKey : rowKeys) {
+            List<InetSocketAddress> owners = ring.get(new LightweightOppToken(rowKey));
+            if (owners == null) {
+                commonOwners.clear();
+                break;
+            }
+            commonOwners.retainAll(owners);
+            if (commonOwners.isEmpty()) {
+                break;
+            }
+        }
+        Set<InetSocketAddress> hedgeHosts = commonOwners.isEmpty() ? candidates : commonOwners;
+        return Optional.of(getRandomHost(Maps.filterKeys(currentPools, hedgeHosts::contains)));
+    }
+
     public <V, K extends Exception> V run(FunctionCheckedException<Cassandra.Client, V, K> fn) throws K {
         return runOnHost(getRandomGoodHost().getHost(), fn);
     }
@@ -613,14 +984,32 @@ public class CassandraClientPool {
             FunctionCheckedException<Cassandra.Client, V, K> fn) throws K {
 
         recordRequestOnHost(hostPool);
+        long startNanos = System.nanoTime();
+        boolean succeeded = false;
         try {
-            return hostPool.runWithPooledResource(fn);
+            V result = hostPool.runWithPooledResource(fn);
+            succeeded = true;
+            return result;
         } catch (Exception e) {
             recordExceptionOnHost(hostPool);
             if (isConnectionException(e)) {
                 recordConnectionExceptionOnHost(hostPool);
             }
             throw e;
+        } finally {
+            recordLatencyOnHost(hostPool, startNanos, succeeded);
+        }
+    }
+
+    private void recordLatencyOnHost(CassandraClientPoolingContainer hostPool, long startNanos, boolean succeeded) {
+        RequestMetrics requestMetricsForHost = metricsByHost.get(hostPool.getHost());
+        if (requestMetricsForHost != null) {
+            long now = System.nanoTime();
+            if (succeeded) {
+                requestMetricsForHost.markRequestLatency(now - startNanos, now);
+            } else {
+                requestMetricsForHost.markFailedRequestLatency(now - startNanos, now);
+            }
         }
     }
 
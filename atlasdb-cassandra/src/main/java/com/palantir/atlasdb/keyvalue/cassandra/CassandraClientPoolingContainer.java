@@ -17,13 +17,10 @@ package com.palantir.atlasdb.keyvalue.cassandra;
 
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
-import java.time.Instant;
-import java.time.format.DateTimeFormatter;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.cassandra.thrift.Cassandra.Client;
 import org.apache.commons.pool2.impl.GenericObjectPool;
@@ -50,7 +47,6 @@ public class CassandraClientPoolingContainer implements PoolingContainer<Client>
     private final InetSocketAddress host;
     private CassandraKeyValueServiceConfig config;
     private final MetricsManager metricsManager = new MetricsManager();
-    private final AtomicLong count = new AtomicLong();
     private final AtomicInteger openRequests = new AtomicInteger();
     private final GenericObjectPool<Client> clientPool;
 
@@ -87,11 +83,8 @@ public class CassandraClientPoolingContainer implements PoolingContainer<Client>
     @Override
     public <V, K extends Exception> V runWithPooledResource(FunctionCheckedException<Client, V, K> fn)
             throws K {
-        final String origName = Thread.currentThread().getName();
-        Thread.currentThread().setName(origName
-                + " calling cassandra host " + host
-                + " started at " + DateTimeFormatter.ISO_INSTANT.format(Instant.now())
-                + " - " + count.getAndIncrement());
+        CassandraRequestContext context = CassandraRequestContext.current();
+        context.startRequest(host);
         try {
             openRequests.getAndIncrement();
             return runWithGoodResource(fn);
@@ -100,7 +93,7 @@ public class CassandraClientPoolingContainer implements PoolingContainer<Client>
             throw t;
         } finally {
             openRequests.getAndDecrement();
-            Thread.currentThread().setName(origName);
+            context.endRequest();
         }
     }
 
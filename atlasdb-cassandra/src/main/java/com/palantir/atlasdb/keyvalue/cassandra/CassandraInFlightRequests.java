@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.keyvalue.cassandra;
+
+import com.palantir.util.JMXUtils;
+
+/**
+ * Exposes the Cassandra requests in flight in this JVM over JMX.
+ */
+public final class CassandraInFlightRequests implements CassandraInFlightRequestsMBean {
+    private static final String OBJECT_NAME = "com.palantir.atlasdb:type=CassandraInFlightRequests";
+
+    private CassandraInFlightRequests() {
+        // Only registered by register
+    }
+
+    static void register() {
+        JMXUtils.registerMBeanCatchAndLogExceptions(new CassandraInFlightRequests(), OBJECT_NAME);
+    }
+
+    @Override
+    public String[] getInFlightRequests() {
+        return CassandraRequestContext.describeInFlight().toArray(new String[0]);
+    }
+}
@@ -31,6 +31,7 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -103,6 +104,7 @@ import com.palantir.atlasdb.keyvalue.api.Value;
 import com.palantir.atlasdb.keyvalue.cassandra.CassandraKeyValueServices.AllTimestampsCollector;
 import com.palantir.atlasdb.keyvalue.cassandra.CassandraKeyValueServices.StartTsResultsCollector;
 import com.palantir.atlasdb.keyvalue.cassandra.CassandraKeyValueServices.ThreadSafeResultVisitor;
+import com.palantir.atlasdb.keyvalue.cassandra.CassandraRequestContext.Operation;
 import com.palantir.atlasdb.keyvalue.cassandra.jmx.CassandraJmxCompaction;
 import com.palantir.atlasdb.keyvalue.cassandra.jmx.CassandraJmxCompactionManager;
 import com.palantir.atlasdb.keyvalue.cassandra.paging.CassandraRangePagingIterable;
@@ -116,8 +118,6 @@ import com.palantir.atlasdb.keyvalue.impl.Cells;
 import com.palantir.atlasdb.keyvalue.impl.GetCandidateCellsForSweepingShim;
 import com.palantir.atlasdb.keyvalue.impl.KeyValueServices;
 import com.palantir.atlasdb.keyvalue.impl.LocalRowColumnRangeIterator;
-import com.palantir.atlasdb.util.AnnotatedCallable;
-import com.palantir.atlasdb.util.AnnotationType;
 import com.palantir.common.annotation.Idempotent;
 import com.palantir.common.base.ClosableIterator;
 import com.palantir.common.base.ClosableIterators;
@@ -146,6 +146,12 @@ import com.palantir.util.paging.TokenBackedBasicResultsPage;
 public class CassandraKeyValueService extends AbstractKeyValueService {
     private final Logger log;
 
+    private static final int GET_ROWS_PAGE_SIZE = 1000;
+    // The first page of a read of whole rows is sized for few enough rows that each gets at least this many columns.
+    private static final int MIN_GET_ROWS_FIRST_PAGE_SIZE = 100;
+    // Below this, the round trips of paging through a row cost more than reading the versions they skip.
+    private static final int MIN_VERSION_SKIPPING_PAGE_SIZE = 16;
+
     private static final Function<Entry<Cell, Value>, Long> ENTRY_SIZING_FUNCTION = input ->
             input.getValue().getContents().length + 4L + Cells.getApproxSizeOfCell(input.getKey());
 
@@ -207,6 +213,7 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
 
         this.queryRunner = new TracingQueryRunner(log, tracingPrefs);
         this.cassandraTables = new CassandraTables(clientPool, configManager);
+        CassandraInFlightRequests.register();
     }
 
     private LockLeader whoIsTheLockCreator() {
@@ -347,65 +354,39 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
         }
 
         Set<Entry<InetSocketAddress, List<byte[]>>> rowsByHost = partitionByHost(rows, Functions.identity()).entrySet();
-        List<Callable<Map<Cell, Value>>> tasks = Lists.newArrayListWithCapacity(rowsByHost.size());
+        // Each host reads distinct rows, so the hosts can extract their responses into the same map as they arrive.
+        Map<Cell, Value> result = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(rowsByHost.size());
         for (final Map.Entry<InetSocketAddress, List<byte[]>> hostAndRows : rowsByHost) {
-            tasks.add(AnnotatedCallable.wrapWithThreadName(AnnotationType.PREPEND,
-                    "Atlas getRows " + hostAndRows.getValue().size()
-                            + " rows from " + tableRef + " on " + hostAndRows.getKey(),
-                    () -> getRowsForSingleHost(hostAndRows.getKey(), tableRef, hostAndRows.getValue(), startTs)));
-        }
-        List<Map<Cell, Value>> perHostResults = runAllTasksCancelOnFailure(tasks);
-        Map<Cell, Value> result = Maps.newHashMapWithExpectedSize(Iterables.size(rows));
-        for (Map<Cell, Value> perHostResult : perHostResults) {
-            result.putAll(perHostResult);
+            tasks.add(CassandraRequestContext.wrap(Operation.GET_ROWS,
+                    hostAndRows.getValue().size(), tableRef, hostAndRows.getKey(),
+                    () -> {
+                        getRowsForSingleHost(hostAndRows.getKey(), tableRef, hostAndRows.getValue(), startTs, result);
+                        return null;
+                    }));
         }
+        runAllTasksCancelOnFailure(tasks);
         return result;
     }
 
-    private Map<Cell, Value> getRowsForSingleHost(final InetSocketAddress host,
-                                                  final TableReference tableRef,
-                                                  final List<byte[]> rows,
-                                                  final long startTs) {
+    private void getRowsForSingleHost(final InetSocketAddress host,
+                                      final TableReference tableRef,
+                                      final List<byte[]> rows,
+                                      final long startTs,
+                                      final Map<Cell, Value> result) {
         try {
             int rowCount = 0;
-            final Map<Cell, Value> result = Maps.newHashMap();
             int fetchBatchCount = configManager.getConfig().fetchBatchCount();
-            for (final List<byte[]> batch : Lists.partition(rows, fetchBatchCount)) {
-                rowCount += batch.size();
-                result.putAll(clientPool.runWithRetryOnHost(host,
-                        new FunctionCheckedException<Client, Map<Cell, Value>, Exception>() {
-                            @Override
-                            public Map<Cell, Value> apply(Client client) throws Exception {
-                                // We want to get all the columns in the row so set start and end to empty.
-                                SliceRange slice = new SliceRange(
-                                        ByteBuffer.wrap(PtBytes.EMPTY_BYTE_ARRAY),
-                                        ByteBuffer.wrap(PtBytes.EMPTY_BYTE_ARRAY),
-                                        false,
-                                        Integer.MAX_VALUE);
-                                SlicePredicate pred = new SlicePredicate();
-                                pred.setSlice_range(slice);
-
-                                List<ByteBuffer> rowNames = wrap(batch);
-
-                                ColumnParent colFam = new ColumnParent(internalTableName(tableRef));
-                                Map<ByteBuffer, List<ColumnOrSuperColumn>> results = multigetInternal(
-                                        client,
-                                        tableRef,
-                                        rowNames,
-                                        colFam,
-                                        pred,
-                                        readConsistency);
-                                Map<Cell, Value> ret = Maps.newHashMapWithExpectedSize(batch.size());
-                                new ValueExtractor(ret).extractResults(results, startTs, ColumnSelection.all());
-                                return ret;
-                            }
-
-                            @Override
-                            public String toString() {
-                                return "multiget_slice(" + tableRef.getQualifiedName() + ", "
-                                        + batch.size() + " rows" + ")";
-                            }
-                        }));
+            RowSliceBudget budget = new RowSliceBudget(
+                    configManager.getConfig().fetchBatchSizeBytes(), GET_ROWS_PAGE_SIZE);
+            for (final List<byte[]> fetchBatch : Lists.partition(rows, fetchBatchCount)) {
+                rowCount += fetchBatch.size();
+                // Thrift slices every row of a multiget the same way, so rows that do not fit in the first page are
+                // paged through one at a time. Reading fewer rows per multiget keeps that to genuinely wide rows.
+                int rowsPerBatch = budget.getRowsPerSlice(MIN_GET_ROWS_FIRST_PAGE_SIZE);
+                for (List<byte[]> batch : Lists.partition(fetchBatch, rowsPerBatch)) {
+                    getFirstPageOfRows(host, tableRef, batch, startTs, budget, result);
+                }
             }
             if (rowCount > fetchBatchCount) {
                 log.warn("Rebatched in getRows a call to {} that attempted to multiget {} rows; "
@@ -414,12 +395,138 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
                         SafeArg.of("rowCount", rowCount),
                         SafeArg.of("stacktrace", CassandraKeyValueServices.getFilteredStackTrace("com.palantir")));
             }
-            return ImmutableMap.copyOf(result);
         } catch (Exception e) {
             throw Throwables.throwUncheckedException(e);
         }
     }
 
+    /**
+     * Reads the first page of columns of each of the given rows in a single multiget, then pages through the rest of
+     * the rows that did not fit.
+     */
+    private void getFirstPageOfRows(InetSocketAddress host,
+                                    TableReference tableRef,
+                                    List<byte[]> batch,
+                                    long startTs,
+                                    RowSliceBudget budget,
+                                    Map<Cell, Value> result) throws Exception {
+        int columnsPerRow = budget.getColumnsPerRow(batch.size());
+        Map<ByteBuffer, List<ColumnOrSuperColumn>> results = clientPool.runWithHedgingOnHost(host, batch,
+                new FunctionCheckedException<Client, Map<ByteBuffer, List<ColumnOrSuperColumn>>, Exception>() {
+                    @Override
+                    public Map<ByteBuffer, List<ColumnOrSuperColumn>> apply(Client client) throws Exception {
+                        // Start at the beginning of every row, but only read the first page of columns;
+                        // rows that fill it are paged through below.
+                        SliceRange slice = new SliceRange(
+                                ByteBuffer.wrap(PtBytes.EMPTY_BYTE_ARRAY),
+                                ByteBuffer.wrap(PtBytes.EMPTY_BYTE_ARRAY),
+                                false,
+                                columnsPerRow);
+                        SlicePredicate pred = new SlicePredicate();
+                        pred.setSlice_range(slice);
+
+                        List<ByteBuffer> rowNames = wrap(batch);
+
+                        ColumnParent colFam = new ColumnParent(internalTableName(tableRef));
+                        return multigetInternal(client, tableRef, rowNames, colFam, pred, readConsistency);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "multiget_slice(" + tableRef.getQualifiedName() + ", "
+                                + batch.size() + " rows, " + columnsPerRow + " max columns)";
+                    }
+                });
+        new ValueExtractor(result).extractResults(results, startTs, ColumnSelection.all());
+        for (Entry<ByteBuffer, List<ColumnOrSuperColumn>> rowAndColumns : results.entrySet()) {
+            List<ColumnOrSuperColumn> columns = rowAndColumns.getValue();
+            budget.recordColumns(columns);
+            if (columns.size() < columnsPerRow) {
+                continue;
+            }
+            byte[] row = CassandraKeyValueServices.getBytesFromByteBuffer(rowAndColumns.getKey());
+            byte[] lastCol = CassandraKeyValueServices.decomposeName(
+                    columns.get(columns.size() - 1).getColumn()).getLhSide();
+            boolean completedCell = result.containsKey(Cell.create(row, lastCol));
+            if (!completedCell || !RangeRequests.isLastRowName(lastCol)) {
+                getRemainingColumnsOfRow(host, tableRef, row,
+                        getNextColumnRangeColumn(completedCell, lastCol), startTs, budget, result);
+            }
+        }
+    }
+
+    /**
+     * Reads the latest values before {@code startTs} of the columns of a wide row from {@code startCol} onwards.
+     * <p>
+     * Every page starts at the latest version of its first column that is visible at {@code startTs}, so newer
+     * versions of that column are skipped, and once a column has been resolved the next page starts after all of its
+     * older versions. The versions of columns inside a page cannot be skipped, so pages shrink while they are mostly
+     * history (down to {@link #MIN_VERSION_SKIPPING_PAGE_SIZE} columns) and grow back when they are mostly live
+     * values. Pages never exceed the given budget.
+     */
+    private void getRemainingColumnsOfRow(InetSocketAddress host,
+                                          TableReference tableRef,
+                                          byte[] row,
+                                          byte[] startCol,
+                                          long startTs,
+                                          RowSliceBudget budget,
+                                          Map<Cell, Value> result) throws Exception {
+        ByteBuffer rowName = ByteBuffer.wrap(row);
+        ColumnParent colFam = new ColumnParent(internalTableName(tableRef));
+        byte[] nextCol = startCol;
+        int pageSize = budget.getColumnsPerRow(1);
+        while (true) {
+            byte[] pageStartCol = nextCol;
+            int pageCount = pageSize;
+            List<ColumnOrSuperColumn> columns = clientPool.runWithRetryOnHost(host,
+                    new FunctionCheckedException<Client, List<ColumnOrSuperColumn>, Exception>() {
+                        @Override
+                        public List<ColumnOrSuperColumn> apply(Client client) throws Exception {
+                            SliceRange slice = new SliceRange(
+                                    CassandraKeyValueServices.makeCompositeBuffer(pageStartCol, startTs - 1),
+                                    ByteBuffer.wrap(PtBytes.EMPTY_BYTE_ARRAY),
+                                    false,
+                                    pageCount);
+                            SlicePredicate pred = new SlicePredicate();
+                            pred.setSlice_range(slice);
+                            Map<ByteBuffer, List<ColumnOrSuperColumn>> results = multigetInternal(client, tableRef,
+                                    ImmutableList.of(rowName), colFam, pred, readConsistency);
+                            return results.getOrDefault(rowName, ImmutableList.of());
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "multiget_slice(" + tableRef.getQualifiedName()
+                                    + ", single row, " + pageCount + " max columns)";
+                        }
+                    });
+            budget.recordColumns(columns);
+            Map<Cell, Value> page = Maps.newHashMap();
+            new ValueExtractor(page).extractResults(ImmutableMap.of(rowName, columns), startTs, ColumnSelection.all());
+            result.putAll(page);
+            if (columns.size() < pageCount) {
+                return;
+            }
+            byte[] lastCol = CassandraKeyValueServices.decomposeName(
+                    columns.get(columns.size() - 1).getColumn()).getLhSide();
+            boolean completedCell = page.containsKey(Cell.create(row, lastCol));
+            if (completedCell && RangeRequests.isLastRowName(lastCol)) {
+                return;
+            }
+            nextCol = getNextColumnRangeColumn(completedCell, lastCol);
+            pageSize = Math.min(
+                    getNextVersionSkippingPageSize(pageSize, columns.size(), page.size()),
+                    budget.getColumnsPerRow(1));
+        }
+    }
+
+    private static int getNextVersionSkippingPageSize(int pageSize, int rawColumns, int visibleCells) {
+        if (2 * visibleCells < rawColumns) {
+            return Math.max(MIN_VERSION_SKIPPING_PAGE_SIZE, pageSize / 2);
+        }
+        return Math.min(GET_ROWS_PAGE_SIZE, 2 * pageSize);
+    }
+
     private List<ByteBuffer> wrap(List<byte[]> arrays) {
         List<ByteBuffer> byteBuffers = Lists.newArrayListWithCapacity(arrays.size());
         for (byte[] r : arrays) {
@@ -560,10 +667,11 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
                         SafeArg.of("stacktrace", CassandraKeyValueServices.getFilteredStackTrace("com.palantir")));
             }
             for (final List<Cell> partition : Lists.partition(ImmutableList.copyOf(columnCells), fetchBatchCount)) {
-                Callable<Void> multiGetCallable = () -> clientPool.runWithRetryOnHost(host,
-                        new FunctionCheckedException<Client, Void, Exception>() {
+                List<byte[]> rows = Lists.transform(partition, Cell::getRowName);
+                FunctionCheckedException<Client, Map<ByteBuffer, List<ColumnOrSuperColumn>>, Exception> multiGet =
+                        new FunctionCheckedException<Client, Map<ByteBuffer, List<ColumnOrSuperColumn>>, Exception>() {
                             @Override
-                            public Void apply(Client client) throws Exception {
+                            public Map<ByteBuffer, List<ColumnOrSuperColumn>> apply(Client client) throws Exception {
                                 ByteBuffer start = CassandraKeyValueServices.makeCompositeBuffer(col, startTs - 1);
                                 ByteBuffer end = CassandraKeyValueServices.makeCompositeBuffer(col, -1);
                                 SliceRange slice = new SliceRange(start, end, false, loadAllTs ? Integer.MAX_VALUE : 1);
@@ -584,10 +692,7 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
                                             SafeArg.of("host", host));
                                 }
 
-                                Map<ByteBuffer, List<ColumnOrSuperColumn>> results =
-                                        multigetInternal(client, tableRef, rowNames, colFam, predicate, consistency);
-                                visitor.visit(results);
-                                return null;
+                                return multigetInternal(client, tableRef, rowNames, colFam, predicate, consistency);
                             }
 
                             @Override
@@ -596,10 +701,14 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
                                         + partition.size() + " cells" + ")";
                             }
 
-                        });
-                tasks.add(AnnotatedCallable.wrapWithThreadName(AnnotationType.PREPEND,
-                        "Atlas loadWithTs " + partition.size() + " cells from " + tableRef + " on " + host,
-                        multiGetCallable));
+                        };
+                Callable<Void> multiGetCallable = () -> {
+                    // Visit the results here rather than in the function, which a hedged read may run twice.
+                    visitor.visit(clientPool.runWithHedgingOnHost(host, rows, multiGet));
+                    return null;
+                };
+                tasks.add(CassandraRequestContext.wrap(Operation.LOAD_WITH_TS,
+                        partition.size(), tableRef, host, multiGetCallable));
             }
         }
         return tasks;
@@ -631,9 +740,8 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
                 partitionByHost(rows, Functions.<byte[]>identity()).entrySet();
         List<Callable<Map<byte[], RowColumnRangeIterator>>> tasks = Lists.newArrayListWithCapacity(rowsByHost.size());
         for (final Map.Entry<InetSocketAddress, List<byte[]>> hostAndRows : rowsByHost) {
-            tasks.add(AnnotatedCallable.wrapWithThreadName(AnnotationType.PREPEND,
-                    "Atlas getRowsColumnRange " + hostAndRows.getValue().size()
-                            + " rows from " + tableRef + " on " + hostAndRows.getKey(),
+            tasks.add(CassandraRequestContext.wrap(Operation.GET_ROWS_COLUMN_RANGE,
+                    hostAndRows.getValue().size(), tableRef, hostAndRows.getKey(),
                     () -> getRowsColumnRangeIteratorForSingleHost(
                             hostAndRows.getKey(),
                             tableRef,
@@ -934,9 +1042,8 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
         Map<InetSocketAddress, Map<Cell, Value>> cellsByHost = partitionMapByHost(values);
         List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(cellsByHost.size());
         for (final Map.Entry<InetSocketAddress, Map<Cell, Value>> entry : cellsByHost.entrySet()) {
-            tasks.add(AnnotatedCallable.wrapWithThreadName(AnnotationType.PREPEND,
-                    "Atlas putInternal " + entry.getValue().size()
-                            + " cell values to " + tableRef + " on " + entry.getKey(),
+            tasks.add(CassandraRequestContext.wrap(Operation.PUT,
+                    entry.getValue().size(), tableRef, entry.getKey(),
                     () -> {
                         putForSingleHostInternal(entry.getKey(), tableRef, entry.getValue().entrySet(), ttl);
                         return null;
@@ -1033,10 +1140,8 @@ public class CassandraKeyValueService extends AbstractKeyValueService {
         List<Callable<Void>> tasks = Lists.newArrayList();
         for (final List<TableCellAndValue> batch : partitioned) {
             final Set<TableReference> tableRefs = extractTableNames(batch);
-            tasks.add(AnnotatedCallable.wrapWithThreadName(AnnotationType.PREPEND,
-                    "Atlas multiPut of " + batch.size() + " cells into " + tableRefs + " on " + host,
-                    () -> multiPutForSingleHostInternal(host, tableRefs, batch, timestamp)
-            ));
+            tasks.add(CassandraRequestContext.wrap(Operation.MULTI_PUT, batch.size(), tableRefs, host,
+                    () -> multiPutForSingleHostInternal(host, tableRefs, batch, timestamp)));
         }
         return tasks;
     }
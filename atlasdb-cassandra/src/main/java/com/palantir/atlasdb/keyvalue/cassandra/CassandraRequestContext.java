@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.keyvalue.cassandra;
+
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Records what each thread is doing against Cassandra, so that slow or stuck requests can be diagnosed, without
+ * renaming threads or building descriptions on every call. Each thread is given a context the first time it runs a
+ * Cassandra task or request, and updating it afterwards only stores references and primitives.
+ * <p>
+ * The contexts of all threads with a request in flight are described on demand by {@link #describeInFlight()},
+ * which {@link CassandraInFlightRequests} exposes over JMX, and a description of the context is attached to anything
+ * thrown by a task as a suppressed exception.
+ */
+final class CassandraRequestContext {
+    private static final Map<Thread, CassandraRequestContext> contexts =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private static final ThreadLocal<CassandraRequestContext> currentContext =
+            ThreadLocal.withInitial(CassandraRequestContext::register);
+
+    enum Operation {
+        GET_ROWS("getRows", "rows", "from"),
+        GET_ROWS_COLUMN_RANGE("getRowsColumnRange", "rows", "from"),
+        LOAD_WITH_TS("loadWithTs", "cells", "from"),
+        PUT("putInternal", "cell values", "to"),
+        MULTI_PUT("multiPut", "cells", "into");
+
+        private final String name;
+        private final String unit;
+        private final String preposition;
+
+        Operation(String name, String unit, String preposition) {
+            this.name = name;
+            this.unit = unit;
+            this.preposition = preposition;
+        }
+    }
+
+    private volatile Operation operation;
+    private volatile int size;
+    private volatile Object tables;
+    private volatile InetSocketAddress taskHost;
+    private volatile InetSocketAddress requestHost;
+    private volatile long requestStartMillis;
+
+    private CassandraRequestContext() {
+        // Only created by register
+    }
+
+    private static CassandraRequestContext register() {
+        CassandraRequestContext context = new CassandraRequestContext();
+        contexts.put(Thread.currentThread(), context);
+        return context;
+    }
+
+    static CassandraRequestContext current() {
+        return currentContext.get();
+    }
+
+    /**
+     * Returns a task that records, while it runs, that its thread is performing the given operation on
+     * {@code size} rows or cells of the given tables on the given host. The tables are only described if needed.
+     */
+    static <T> Callable<T> wrap(
+            Operation operation,
+            int size,
+            Object tables,
+            InetSocketAddress host,
+            Callable<T> delegate) {
+        return () -> {
+            CassandraRequestContext context = current();
+            Operation previousOperation = context.operation;
+            int previousSize = context.size;
+            Object previousTables = context.tables;
+            InetSocketAddress previousHost = context.taskHost;
+            context.setTask(operation, size, tables, host);
+            try {
+                return delegate.call();
+            } catch (Throwable throwable) {
+                throwable.addSuppressed(new RequestContextException(context.describe()));
+                throw throwable;
+            } finally {
+                context.setTask(previousOperation, previousSize, previousTables, previousHost);
+            }
+        };
+    }
+
+    /**
+     * Records that this thread has started a request to the given Cassandra host.
+     */
+    void startRequest(InetSocketAddress host) {
+        requestStartMillis = System.currentTimeMillis();
+        requestHost = host;
+    }
+
+    /**
+     * Records that this thread has finished its request to a Cassandra host.
+     */
+    void endRequest() {
+        requestHost = null;
+    }
+
+    /**
+     * Describes the context of every thread that is running a Cassandra task or request.
+     */
+    static List<String> describeInFlight() {
+        ImmutableList.Builder<String> descriptions = ImmutableList.builder();
+        synchronized (contexts) {
+            for (Map.Entry<Thread, CassandraRequestContext> entry : contexts.entrySet()) {
+                CassandraRequestContext context = entry.getValue();
+                if (context.operation != null || context.requestHost != null) {
+                    descriptions.add(entry.getKey().getName() + ": " + context.describe());
+                }
+            }
+        }
+        return descriptions.build();
+    }
+
+    private void setTask(Operation newOperation, int newSize, Object newTables, InetSocketAddress newHost) {
+        operation = newOperation;
+        size = newSize;
+        tables = newTables;
+        taskHost = newHost;
+    }
+
+    private String describe() {
+        StringBuilder description = new StringBuilder();
+        Operation currentOperation = operation;
+        if (currentOperation != null) {
+            description.append("Atlas ").append(currentOperation.name)
+                    .append(' ').append(size).append(' ').append(currentOperation.unit)
+                    .append(' ').append(currentOperation.preposition).append(' ').append(tables)
+                    .append(" on ").append(taskHost);
+        }
+        InetSocketAddress currentRequestHost = requestHost;
+        if (currentRequestHost != null) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append("calling cassandra host ").append(currentRequestHost)
+                    .append(" started at ").append(Instant.ofEpochMilli(requestStartMillis));
+        }
+        return description.toString();
+    }
+
+    private static final class RequestContextException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private RequestContextException(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.keyvalue.cassandra;
+
+import java.util.Collection;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+
+/**
+ * Sizes the slices of reads of whole rows, so that each response holds roughly at most a given number of bytes.
+ * The size of a column is estimated from the columns read so far, so a budget should be used for a single read.
+ */
+class RowSliceBudget {
+    private static final int INITIAL_BYTES_PER_COLUMN = 100;
+    private static final int TIMESTAMP_BYTES = 8;
+
+    private final long maxBytes;
+    private final int maxColumnsPerRow;
+    private long columnsRead = 0;
+    private long bytesRead = 0;
+
+    RowSliceBudget(long maxBytes, int maxColumnsPerRow) {
+        this.maxBytes = maxBytes;
+        this.maxColumnsPerRow = maxColumnsPerRow;
+    }
+
+    /**
+     * Returns how many columns of each of the given number of rows fit in a single response, which is at least one.
+     */
+    int getColumnsPerRow(int rows) {
+        long columns = maxBytes / (rows * getEstimatedBytesPerColumn());
+        return (int) Math.max(1, Math.min(maxColumnsPerRow, columns));
+    }
+
+    /**
+     * Returns how many rows fit in a single response if the given number of columns of each is read, which is at
+     * least one.
+     */
+    int getRowsPerSlice(int columnsPerRow) {
+        long rows = maxBytes / (columnsPerRow * getEstimatedBytesPerColumn());
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, rows));
+    }
+
+    void recordColumns(Collection<ColumnOrSuperColumn> columns) {
+        for (ColumnOrSuperColumn columnOrSuperColumn : columns) {
+            Column column = columnOrSuperColumn.getColumn();
+            bytesRead += column.bufferForName().remaining() + column.bufferForValue().remaining() + TIMESTAMP_BYTES;
+        }
+        columnsRead += columns.size();
+    }
+
+    private long getEstimatedBytesPerColumn() {
+        if (columnsRead == 0) {
+            return INITIAL_BYTES_PER_COLUMN;
+        }
+        return Math.max(1, bytesRead / columnsRead);
+    }
+}
@@ -29,14 +29,22 @@ import java.net.UnknownHostException;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import org.apache.cassandra.thrift.Cassandra;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.palantir.atlasdb.cassandra.CassandraKeyValueServiceConfig;
@@ -192,6 +200,152 @@ public class CassandraClientPoolTest {
         runNoopOnHostWithException(HOST_1, cassandraClientPool);
     }
 
+    @Test
+    public void testRequestFailureMetricsOnHost() {
+        runTwoNoopsOnTwoHostsAndThrowFromSecondRunOnFirstHost(
+                new SocketTimeoutException("test_socket_timeout_exception"));
+        verifyFailureMetricsOnHost(HOST_1, 0.5, 0.5);
+        verifyFailureMetricsOnHost(HOST_2, 0.0, 0.0);
+    }
+
+    @Test
+    public void powerOfTwoChoicesPicksTheCheaperOfTwoHosts() {
+        List<InetSocketAddress> hosts = ImmutableList.of(HOST_1, HOST_2);
+        int numTrials = 50;
+        for (int i = 0; i < numTrials; i++) {
+            InetSocketAddress chosen = CassandraClientPool.chooseByPowerOfTwoChoices(
+                    hosts, host -> host.equals(HOST_1) ? 10.0 : 1.0);
+            assertThat(chosen, equalTo(HOST_2));
+        }
+    }
+
+    @Test
+    public void powerOfTwoChoicesNeverPicksTheMostExpensiveHost() {
+        InetSocketAddress host3 = new InetSocketAddress(HOSTNAME_3, DEFAULT_PORT);
+        List<InetSocketAddress> hosts = ImmutableList.of(HOST_1, HOST_2, host3);
+        int numTrials = 100;
+        for (int i = 0; i < numTrials; i++) {
+            InetSocketAddress chosen = CassandraClientPool.chooseByPowerOfTwoChoices(
+                    hosts, host -> host.equals(host3) ? 100.0 : 1.0);
+            assertThat(chosen.equals(host3), is(false));
+        }
+    }
+
+    @Test
+    public void latencyAwareHostSelectionAvoidsSlowHosts() {
+        CassandraClientPool cassandraClientPool = clientPoolWith(
+                ImmutableSet.of(),
+                ImmutableSet.of(HOST_1, HOST_2),
+                Optional.empty(),
+                config -> when(config.latencyAwareHostSelection()).thenReturn(true));
+        setLatencyForHost(cassandraClientPool.currentPools.get(HOST_1), 50);
+        runNoopOnHost(HOST_1, cassandraClientPool);
+        runNoopOnHost(HOST_2, cassandraClientPool);
+
+        int numTrials = 50;
+        for (int i = 0; i < numTrials; i++) {
+            Optional<CassandraClientPoolingContainer> container
+                    = cassandraClientPool.getRandomGoodHostForPredicate(address -> true);
+            assertThat(container.get().getHost(), equalTo(HOST_2));
+        }
+    }
+
+    @Test
+    public void latencyAwareHostSelectionAvoidsHostsThatFailFast() {
+        CassandraClientPool cassandraClientPool = clientPoolWith(
+                ImmutableSet.of(),
+                ImmutableSet.of(HOST_1, HOST_2),
+                Optional.empty(),
+                config -> when(config.latencyAwareHostSelection()).thenReturn(true));
+        setFailureModeForHost(cassandraClientPool.currentPools.get(HOST_1), new SocketTimeoutException());
+        setLatencyForHost(cassandraClientPool.currentPools.get(HOST_2), 50);
+        runNoopOnHostWithException(HOST_1, cassandraClientPool);
+        runNoopOnHost(HOST_2, cassandraClientPool);
+
+        int numTrials = 50;
+        for (int i = 0; i < numTrials; i++) {
+            Optional<CassandraClientPoolingContainer> container
+                    = cassandraClientPool.getRandomGoodHostForPredicate(address -> true);
+            assertThat(container.get().getHost(), equalTo(HOST_2));
+        }
+    }
+
+    @Test
+    public void latencyAwareHostSelectionAssumesNewHostsAreAsFastAsTheAverageHost() {
+        InetSocketAddress host3 = new InetSocketAddress(HOSTNAME_3, DEFAULT_PORT);
+        CassandraClientPool cassandraClientPool = clientPoolWith(
+                ImmutableSet.of(),
+                ImmutableSet.of(HOST_1, HOST_2, host3),
+                Optional.empty(),
+                config -> when(config.latencyAwareHostSelection()).thenReturn(true));
+        setLatencyForHost(cassandraClientPool.currentPools.get(HOST_1), 50);
+        runNoopOnHost(HOST_1, cassandraClientPool);
+        runNoopOnHost(HOST_2, cassandraClientPool);
+
+        int numTrials = 50;
+        for (int i = 0; i < numTrials; i++) {
+            Optional<CassandraClientPoolingContainer> container
+                    = cassandraClientPool.getRandomGoodHostForPredicate(address -> !address.equals(HOST_1));
+            assertThat(container.get().getHost(), equalTo(HOST_2));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void hedgesReadsToAnotherHostWhenTheFirstIsSlow() throws Exception {
+        CassandraClientPool cassandraClientPool = hedgingClientPool(0.05);
+        Semaphore slowClientCloses = new Semaphore(0);
+        Cassandra.Client slowClient = mockClientReleasingOnClose(slowClientCloses);
+        setClientForHost(cassandraClientPool.currentPools.get(HOST_1), slowClient);
+        setClientForHost(cassandraClientPool.currentPools.get(HOST_2), mock(Cassandra.Client.class));
+        AtomicReference<Thread> primaryThread = new AtomicReference<>();
+
+        String result = cassandraClientPool.runWithHedgingOnHost(HOST_1, ImmutableList.of(), client -> {
+            if (client == slowClient) {
+                primaryThread.set(Thread.currentThread());
+            }
+            return slowRead(client, slowClient, slowClientCloses, 5_000);
+        });
+
+        assertThat(result, equalTo("hedge"));
+        assertThat(primaryThread.get(), equalTo(Thread.currentThread()));
+        assertEquals(metricRegistry.meter(
+                MetricRegistry.name(CassandraClientPool.class, "hedgedReads", "issued")).getCount(), 1L);
+        assertEquals(metricRegistry.meter(
+                MetricRegistry.name(CassandraClientPool.class, "hedgedReads", "won")).getCount(), 1L);
+    }
+
+    @Test(timeout = 10_000)
+    public void hedgesNoMoreThanTheConfiguredProportionOfReads() throws Exception {
+        CassandraClientPool cassandraClientPool = hedgingClientPool(0.0);
+        Semaphore slowClientCloses = new Semaphore(0);
+        Cassandra.Client slowClient = mockClientReleasingOnClose(slowClientCloses);
+        setClientForHost(cassandraClientPool.currentPools.get(HOST_1), slowClient);
+        setClientForHost(cassandraClientPool.currentPools.get(HOST_2), mock(Cassandra.Client.class));
+
+        String firstResult = cassandraClientPool.runWithHedgingOnHost(HOST_1, ImmutableList.of(),
+                client -> slowRead(client, slowClient, slowClientCloses, 500));
+        String secondResult = cassandraClientPool.runWithHedgingOnHost(HOST_1, ImmutableList.of(),
+                client -> slowRead(client, slowClient, slowClientCloses, 500));
+
+        assertThat(firstResult, equalTo("hedge"));
+        assertThat(secondResult, equalTo("primary"));
+        assertEquals(metricRegistry.meter(
+                MetricRegistry.name(CassandraClientPool.class, "hedgedReads", "issued")).getCount(), 1L);
+    }
+
+    @Test
+    public void doesNotHedgeReadsUnlessEnabled() {
+        CassandraClientPool cassandraClientPool = clientPoolWithServersInCurrentPool(ImmutableSet.of(HOST_1, HOST_2));
+        for (int i = 0; i < 100; i++) {
+            runNoopOnHost(HOST_1, cassandraClientPool);
+        }
+
+        cassandraClientPool.runWithHedgingOnHost(HOST_1, ImmutableList.of(), input -> null);
+
+        verifyNumberOfAttemptsOnHost(HOST_1, cassandraClientPool, 101);
+        verifyNumberOfAttemptsOnHost(HOST_2, cassandraClientPool, 0);
+    }
+
     @Test
     public void testBlacklistMetrics() {
         CassandraClientPool cassandraClientPool = clientPoolWithServersInCurrentPool(ImmutableSet.of(HOST_1, HOST_2));
@@ -228,10 +382,19 @@ public class CassandraClientPoolTest {
             ImmutableSet<InetSocketAddress> servers,
             ImmutableSet<InetSocketAddress> serversInPool,
             Optional<Exception> failureMode) {
+        return clientPoolWith(servers, serversInPool, failureMode, config -> { });
+    }
+
+    private CassandraClientPool clientPoolWith(
+            ImmutableSet<InetSocketAddress> servers,
+            ImmutableSet<InetSocketAddress> serversInPool,
+            Optional<Exception> failureMode,
+            Consumer<CassandraKeyValueServiceConfig> configCustomizer) {
         CassandraKeyValueServiceConfig config = mock(CassandraKeyValueServiceConfig.class);
         when(config.poolRefreshIntervalSeconds()).thenReturn(POOL_REFRESH_INTERVAL_SECONDS);
         when(config.timeBetweenConnectionEvictionRunsSeconds()).thenReturn(TIME_BETWEEN_EVICTION_RUNS_SECONDS);
         when(config.servers()).thenReturn(servers);
+        configCustomizer.accept(config);
 
         CassandraClientPool cassandraClientPool = CassandraClientPool.createWithoutChecksForTesting(config);
 
@@ -261,6 +424,74 @@ public class CassandraClientPoolTest {
         }
     }
 
+    private CassandraClientPool hedgingClientPool(double maxHedgedReadProportion) {
+        CassandraClientPool cassandraClientPool = clientPoolWith(
+                ImmutableSet.of(),
+                ImmutableSet.of(HOST_1, HOST_2),
+                Optional.empty(),
+                config -> {
+                    when(config.hedgedReads()).thenReturn(true);
+                    when(config.hedgedReadLatencyPercentile()).thenReturn(0.5);
+                    when(config.maxHedgedReadProportion()).thenReturn(maxHedgedReadProportion);
+                });
+        for (int i = 0; i < 100; i++) {
+            runNoopOnHost(HOST_1, cassandraClientPool);
+        }
+        return cassandraClientPool;
+    }
+
+    private static Cassandra.Client mockClientReleasingOnClose(Semaphore closes) {
+        Cassandra.Client client = mock(Cassandra.Client.class);
+        TProtocol protocol = mock(TProtocol.class);
+        TTransport transport = mock(TTransport.class);
+        when(client.getInputProtocol()).thenReturn(protocol);
+        when(protocol.getTransport()).thenReturn(transport);
+        Mockito.doAnswer(invocation -> {
+            closes.release();
+            return null;
+        }).when(transport).close();
+        return client;
+    }
+
+    /**
+     * Reads from the slow client block until its transport is closed, as a Thrift read would, or until the timeout.
+     */
+    private static String slowRead(Cassandra.Client client, Cassandra.Client slowClient, Semaphore slowClientCloses,
+            long timeoutMillis) throws Exception {
+        if (client != slowClient) {
+            return "hedge";
+        }
+        if (slowClientCloses.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TTransportException("Socket closed");
+        }
+        return "primary";
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setClientForHost(CassandraClientPoolingContainer poolingContainer, Cassandra.Client client) {
+        try {
+            when(poolingContainer.runWithPooledResource(
+                    Mockito.<FunctionCheckedException<Cassandra.Client, Object, Exception>>any()))
+                    .thenAnswer(invocation -> ((FunctionCheckedException<Cassandra.Client, Object, Exception>)
+                            invocation.getArguments()[0]).apply(client));
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void setLatencyForHost(CassandraClientPoolingContainer poolingContainer, long latencyMillis) {
+        try {
+            when(poolingContainer.runWithPooledResource(
+                    Mockito.<FunctionCheckedException<Cassandra.Client, Object, Exception>>any()))
+                    .thenAnswer(invocation -> {
+                        Thread.sleep(latencyMillis);
+                        return null;
+                    });
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     private void runNoopOnHost(InetSocketAddress host, CassandraClientPool pool) {
         pool.runOnHost(host, input -> null);
     }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.keyvalue.cassandra;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.cassandra.CassandraRequestContext.Operation;
+
+public class CassandraRequestContextTest {
+    private static final TableReference TABLE = TableReference.createFromFullyQualifiedName("ns.table");
+    private static final InetSocketAddress HOST = InetSocketAddress.createUnresolved("cassandra", 9160);
+    private static final String DESCRIPTION = "Atlas getRows 3 rows from ns.table on " + HOST;
+
+    @Test
+    public void describesTasksWhileTheyRun() throws Exception {
+        List<String> inFlight = CassandraRequestContext.wrap(Operation.GET_ROWS, 3, TABLE, HOST,
+                CassandraRequestContext::describeInFlight).call();
+
+        assertThat(inFlight).containsExactly(Thread.currentThread().getName() + ": " + DESCRIPTION);
+        assertThat(CassandraRequestContext.describeInFlight()).isEmpty();
+    }
+
+    @Test
+    public void describesRequestsWhileTheyRun() {
+        CassandraRequestContext context = CassandraRequestContext.current();
+        context.startRequest(HOST);
+        try {
+            assertThat(Iterables.getOnlyElement(CassandraRequestContext.describeInFlight()))
+                    .contains("calling cassandra host " + HOST);
+        } finally {
+            context.endRequest();
+        }
+        assertThat(CassandraRequestContext.describeInFlight()).isEmpty();
+    }
+
+    @Test
+    public void attachesTheDescriptionToFailures() {
+        assertThatThrownBy(() -> CassandraRequestContext.wrap(Operation.GET_ROWS, 3, TABLE, HOST, () -> {
+            throw new IllegalStateException();
+        }).call())
+                .isInstanceOf(IllegalStateException.class)
+                .satisfies(throwable -> assertThat(throwable.getSuppressed())
+                        .extracting(Throwable::getMessage)
+                        .containsExactly(DESCRIPTION));
+    }
+}
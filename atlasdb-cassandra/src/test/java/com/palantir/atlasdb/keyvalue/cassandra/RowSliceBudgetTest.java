@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.keyvalue.cassandra;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.junit.Test;
+
+public class RowSliceBudgetTest {
+    private static final int MAX_COLUMNS_PER_ROW = 1000;
+
+    @Test
+    public void initiallyAssumesSmallColumns() {
+        RowSliceBudget budget = new RowSliceBudget(10_000, MAX_COLUMNS_PER_ROW);
+
+        assertThat(budget.getColumnsPerRow(1)).isEqualTo(100);
+        assertThat(budget.getColumnsPerRow(10)).isEqualTo(10);
+    }
+
+    @Test
+    public void neverReadsMoreThanTheMaximumColumnsPerRow() {
+        RowSliceBudget budget = new RowSliceBudget(Long.MAX_VALUE / 2, MAX_COLUMNS_PER_ROW);
+
+        assertThat(budget.getColumnsPerRow(1)).isEqualTo(MAX_COLUMNS_PER_ROW);
+    }
+
+    @Test
+    public void alwaysReadsAtLeastOneColumnPerRow() {
+        RowSliceBudget budget = new RowSliceBudget(10_000, MAX_COLUMNS_PER_ROW);
+
+        assertThat(budget.getColumnsPerRow(1_000)).isEqualTo(1);
+    }
+
+    @Test
+    public void sizesSlicesByTheColumnsReadSoFar() {
+        RowSliceBudget budget = new RowSliceBudget(10_000, MAX_COLUMNS_PER_ROW);
+
+        // 2 + 990 + 8 bytes per column
+        budget.recordColumns(Collections.nCopies(3, column(2, 990)));
+
+        assertThat(budget.getColumnsPerRow(1)).isEqualTo(10);
+        assertThat(budget.getColumnsPerRow(20)).isEqualTo(1);
+    }
+
+    @Test
+    public void fitsRowsIntoSlicesByTheColumnsReadOfEach() {
+        RowSliceBudget budget = new RowSliceBudget(10_000, MAX_COLUMNS_PER_ROW);
+
+        assertThat(budget.getRowsPerSlice(10)).isEqualTo(10);
+        assertThat(budget.getRowsPerSlice(1_000)).isEqualTo(1);
+
+        // 2 + 190 + 8 bytes per column
+        budget.recordColumns(Collections.nCopies(3, column(2, 190)));
+
+        assertThat(budget.getRowsPerSlice(10)).isEqualTo(5);
+    }
+
+    private static ColumnOrSuperColumn column(int nameBytes, int valueBytes) {
+        Column column = new Column(ByteBuffer.allocate(nameBytes));
+        column.setValue(ByteBuffer.allocate(valueBytes));
+        return new ColumnOrSuperColumn().setColumn(column);
+    }
+}
@@ -68,6 +68,7 @@ public final class AtlasDbConstants {
     public static final long MAX_TS = Long.MAX_VALUE;
 
     public static final long DEFAULT_TRANSACTION_LOCK_ACQUIRE_TIMEOUT_MS = 60_000;
+    public static final long DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES = 4 * 1024 * 1024;
 
 
     public static final Set<TableReference> hiddenTables = ImmutableSet.of(
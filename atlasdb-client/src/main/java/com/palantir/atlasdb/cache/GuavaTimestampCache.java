@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.cache;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.palantir.atlasdb.util.AtlasDbMetrics;
+
+/**
+ * A {@link TimestampCache} backed by a Guava {@link Cache} of boxed longs.
+ */
+public class GuavaTimestampCache implements TimestampCache {
+
+    private final Cache<Long, Long> startToCommitTimestampCache;
+
+    public static GuavaTimestampCache create() {
+        GuavaTimestampCache timestampCache = new GuavaTimestampCache(createDefaultCache());
+        AtlasDbMetrics.registerCache(timestampCache.startToCommitTimestampCache, METRICS_PREFIX);
+        return timestampCache;
+    }
+
+    @VisibleForTesting
+    GuavaTimestampCache(Cache<Long, Long> cache) {
+        this.startToCommitTimestampCache = cache;
+    }
+
+    @VisibleForTesting
+    static Cache<Long, Long> createDefaultCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(1_000_000) // up to ~72MB with java Long object bloat
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    @Nullable
+    public Long getCommitTimestampIfPresent(Long startTimestamp) {
+        return startToCommitTimestampCache.getIfPresent(startTimestamp);
+    }
+
+    @Override
+    public void putAlreadyCommittedTransaction(Long startTimestamp, Long commitTimestamp) {
+        startToCommitTimestampCache.put(startTimestamp, commitTimestamp);
+    }
+
+    @Override
+    public void clear() {
+        startToCommitTimestampCache.invalidateAll();
+    }
+}
@@ -18,36 +18,20 @@ package com.palantir.atlasdb.cache;
 import javax.annotation.Nullable;
 
 import com.codahale.metrics.MetricRegistry;
-import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.palantir.atlasdb.util.AtlasDbMetrics;
 
 /**
- * This class just here for readability and not directly leaking / tying us down to a Guava class in our API.
+ * A cache of start to commit timestamps for transactions that are known to have committed (or failed to commit).
+ * This is here for readability and not directly leaking / tying us down to a particular cache implementation in
+ * our API.
  */
-public class TimestampCache {
+public interface TimestampCache {
+    String METRICS_PREFIX = MetricRegistry.name(TimestampCache.class, "startToCommitTimestamp");
 
-    private final Cache<Long, Long> startToCommitTimestampCache;
-
-    public static TimestampCache create() {
-        TimestampCache timestampCache = new TimestampCache(createDefaultCache());
-        AtlasDbMetrics.registerCache(timestampCache.startToCommitTimestampCache,
-                MetricRegistry.name(TimestampCache.class, "startToCommitTimestamp"));
-        return timestampCache;
-    }
-
-    @VisibleForTesting
-    TimestampCache(Cache<Long, Long> cache) {
-        this.startToCommitTimestampCache = cache;
-    }
-
-    @VisibleForTesting
-    static Cache<Long, Long> createDefaultCache() {
-        return CacheBuilder.newBuilder()
-                .maximumSize(1_000_000) // up to ~72MB with java Long object bloat
-                .recordStats()
-                .build();
+    /**
+     * Creates the default, Guava-backed timestamp cache.
+     */
+    static TimestampCache create() {
+        return GuavaTimestampCache.create();
     }
 
     /**
@@ -57,9 +41,7 @@ public class TimestampCache {
      * @return commit timestamp for the specified transaction start timestamp if present in cache, otherwise null
      */
     @Nullable
-    public Long getCommitTimestampIfPresent(Long startTimestamp) {
-        return startToCommitTimestampCache.getIfPresent(startTimestamp);
-    }
+    Long getCommitTimestampIfPresent(Long startTimestamp);
 
     /**
      * Be very careful to only insert timestamps here that are already present in the backing store,
@@ -68,14 +50,10 @@ public class TimestampCache {
      * @param startTimestamp transaction start timestamp
      * @param commitTimestamp transaction commit timestamp
      */
-    public void putAlreadyCommittedTransaction(Long startTimestamp, Long commitTimestamp) {
-        startToCommitTimestampCache.put(startTimestamp, commitTimestamp);
-    }
+    void putAlreadyCommittedTransaction(Long startTimestamp, Long commitTimestamp);
 
     /**
      * Clear all values from the cache.
      */
-    public void clear() {
-        startToCommitTimestampCache.invalidateAll();
-    }
+    void clear();
 }
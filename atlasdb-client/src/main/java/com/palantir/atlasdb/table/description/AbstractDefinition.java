@@ -47,6 +47,10 @@ abstract class AbstractDefinition {
     boolean negativeLookups = false;
     boolean appendHeavyAndReadLight = false;
 
+    /**
+     * Tables with {@link CachePriority#HOTTEST} priority may also have their point reads served from the cache of
+     * committed values that transactions of a transaction manager share, if that cache is enabled.
+     */
     public void cachePriority(CachePriority priority) {
         this.cachePriority = priority;
     }
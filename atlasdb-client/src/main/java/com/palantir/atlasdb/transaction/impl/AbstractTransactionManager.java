@@ -19,7 +19,9 @@ package com.palantir.atlasdb.transaction.impl;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -35,15 +37,24 @@ import com.palantir.atlasdb.transaction.api.TransactionFailedException;
 import com.palantir.atlasdb.transaction.api.TransactionManager;
 import com.palantir.atlasdb.transaction.api.TransactionTask;
 import com.palantir.common.base.Throwables;
+import com.palantir.common.concurrent.PTExecutors;
 import com.palantir.logsafe.SafeArg;
 
 public abstract class AbstractTransactionManager implements TransactionManager {
     private static final int GET_RANGES_QUEUE_SIZE_WARNING_THRESHOLD = 1000;
 
     public static final Logger log = LoggerFactory.getLogger(AbstractTransactionManager.class);
-    protected final TimestampCache timestampValidationReadCache = TimestampCache.create();
+    protected final TimestampCache timestampValidationReadCache;
     private volatile boolean closed = false;
 
+    protected AbstractTransactionManager() {
+        this(TimestampCache.create());
+    }
+
+    protected AbstractTransactionManager(TimestampCache timestampValidationReadCache) {
+        this.timestampValidationReadCache = timestampValidationReadCache;
+    }
+
     @Override
     public <T, E extends Exception> T runTaskWithRetry(TransactionTask<T, E> task) throws E {
         int failureCount = 0;
@@ -128,6 +139,41 @@ public abstract class AbstractTransactionManager implements TransactionManager {
         timestampValidationReadCache.clear();
     }
 
+    /**
+     * Commit stages are handed straight to an idle thread, if there is one, and otherwise run on the committing
+     * thread; a saturated pool therefore degrades to an unpipelined commit rather than queueing or growing. Unlike
+     * {@link ThreadPoolExecutor.CallerRunsPolicy}, stages are also run on the committing thread once the pool has been
+     * shut down, as a dropped stage would leave a commit that races closing the transaction manager waiting forever.
+     */
+    ExecutorService createPipelinedCommitExecutor(int numThreads) {
+        return PTExecutors.newThreadPoolExecutor(
+                0, numThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(AbstractTransactionManager.this.getClass().getSimpleName()
+                                + "-pipelined-commit-%d")
+                        .setDaemon(true)
+                        .build(),
+                (stage, executor) -> stage.run());
+    }
+
+    /**
+     * Prefetching a range runs for as long as its consumer visits it, so it must not take threads from the getRanges
+     * executor, on which the first pages it may be waiting for are read.
+     */
+    ExecutorService createGetRangesPrefetchExecutor(int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat(AbstractTransactionManager.this.getClass().getSimpleName() + "-get-ranges-prefetch-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    ExecutorService createReadVerificationExecutor(int numThreads) {
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat(AbstractTransactionManager.this.getClass().getSimpleName() + "-read-verification-%d")
+                .setDaemon(true)
+                .build());
+    }
+
     ExecutorService createGetRangesExecutor(int numThreads) {
         BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<Runnable>() {
             private final RateLimiter warningRateLimiter = RateLimiter.create(1);
@@ -101,6 +101,15 @@ public abstract class ForwardingTransaction extends ForwardingObject implements
         return delegate().getRangesLazy(tableRef, rangeRequests);
     }
 
+    @Override
+    public Stream<BatchingVisitable<RowResult<byte[]>>> getRangesLazy(
+            TableReference tableRef,
+            Iterable<RangeRequest> rangeRequests,
+            int maxInFlightRanges,
+            int prefetchedBatchesPerRange) {
+        return delegate().getRangesLazy(tableRef, rangeRequests, maxInFlightRanges, prefetchedBatchesPerRange);
+    }
+
     @Override
     public void put(TableReference tableRef, Map<Cell, byte[]> values) {
         delegate().put(tableRef, values);
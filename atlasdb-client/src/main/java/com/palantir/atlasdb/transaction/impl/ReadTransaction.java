@@ -92,6 +92,16 @@ public class ReadTransaction extends ForwardingTransaction {
         return delegate().getRangesLazy(tableRef, rangeRequests);
     }
 
+    @Override
+    public Stream<BatchingVisitable<RowResult<byte[]>>> getRangesLazy(
+            TableReference tableRef,
+            Iterable<RangeRequest> rangeRequests,
+            int maxInFlightRanges,
+            int prefetchedBatchesPerRange) {
+        checkTableName(tableRef);
+        return delegate().getRangesLazy(tableRef, rangeRequests, maxInFlightRanges, prefetchedBatchesPerRange);
+    }
+
     @Override
     public Map<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> getRowsColumnRange(TableReference tableRef,
             Iterable<byte[]> rows, BatchColumnRangeSelection columnRangeSelection) {
@@ -15,6 +15,7 @@
  */
 package com.palantir.atlasdb.util;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -22,6 +23,7 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.SharedMetricRegistries;
 import com.google.common.annotations.VisibleForTesting;
@@ -82,9 +84,7 @@ public final class AtlasDbMetrics {
 
     public static void registerCache(Cache<?, ?> cache, String metricsPrefix) {
         MetricRegistry metricRegistry = getMetricRegistry();
-        Set<String> existingMetrics = metricRegistry.getMetrics().keySet().stream()
-                .filter(name -> name.startsWith(metricsPrefix))
-                .collect(Collectors.toSet());
+        Set<String> existingMetrics = getExistingMetrics(metricRegistry, metricsPrefix);
         if (existingMetrics.isEmpty()) {
             MetricRegistries.registerCache(metricRegistry, cache, metricsPrefix);
         } else {
@@ -93,4 +93,25 @@ public final class AtlasDbMetrics {
         }
     }
 
+    /**
+     * Registers each of the given gauges under the given prefix, unless the metric registry already contains
+     * metrics with that prefix.
+     */
+    public static void registerGauges(Map<String, Gauge<?>> gauges, String metricsPrefix) {
+        MetricRegistry metricRegistry = getMetricRegistry();
+        Set<String> existingMetrics = getExistingMetrics(metricRegistry, metricsPrefix);
+        if (existingMetrics.isEmpty()) {
+            gauges.forEach((name, gauge) -> metricRegistry.register(MetricRegistry.name(metricsPrefix, name), gauge));
+        } else {
+            log.info("Not registering gauges with prefix '{}' as metric registry already contains metrics: {}",
+                    metricsPrefix, existingMetrics);
+        }
+    }
+
+    private static Set<String> getExistingMetrics(MetricRegistry metricRegistry, String metricsPrefix) {
+        return metricRegistry.getMetrics().keySet().stream()
+                .filter(name -> name.startsWith(metricsPrefix))
+                .collect(Collectors.toSet());
+    }
+
 }
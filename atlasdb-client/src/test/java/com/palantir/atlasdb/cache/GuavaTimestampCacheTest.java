@@ -33,20 +33,20 @@ import com.google.common.cache.Cache;
 import com.palantir.atlasdb.util.AtlasDbMetrics;
 import com.palantir.atlasdb.util.MetricsRule;
 
-public class TimestampCacheTest {
-    private static final String TEST_CACHE_NAME = MetricRegistry.name(TimestampCacheTest.class, "test");
+public class GuavaTimestampCacheTest {
+    private static final String TEST_CACHE_NAME = MetricRegistry.name(GuavaTimestampCacheTest.class, "test");
 
     @Rule
     public MetricsRule metricsRule = new MetricsRule();
 
     @Test
     public void cacheExposesMetrics() throws Exception {
-        Cache<Long, Long> cache = TimestampCache.createDefaultCache();
+        Cache<Long, Long> cache = GuavaTimestampCache.createDefaultCache();
         AtlasDbMetrics.registerCache(cache, TEST_CACHE_NAME);
 
-        TimestampCache timestampCache = new TimestampCache(cache);
+        TimestampCache timestampCache = new GuavaTimestampCache(cache);
 
-        SortedMap<String, Gauge> gauges = metricsRule.metrics().getGauges(startsWith(TimestampCache.class.getName()));
+        SortedMap<String, Gauge> gauges = metricsRule.metrics().getGauges(startsWith(TEST_CACHE_NAME));
         assertThat(gauges.keySet(), hasItems(cacheMetricName("hit.count"), cacheMetricName("miss.ratio")));
 
         assertThat(timestampCache.getCommitTimestampIfPresent(1L), is(nullValue()));
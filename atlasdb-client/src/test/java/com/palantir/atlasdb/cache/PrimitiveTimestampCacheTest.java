@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.SortedMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.palantir.atlasdb.transaction.impl.TransactionConstants;
+import com.palantir.atlasdb.util.MetricsRule;
+
+public class PrimitiveTimestampCacheTest {
+    private static final String TEST_CACHE_NAME = MetricRegistry.name(PrimitiveTimestampCacheTest.class, "test");
+
+    @Rule
+    public MetricsRule metricsRule = new MetricsRule();
+
+    @Test
+    public void returnsCachedCommitTimestamps() {
+        for (boolean offHeap : new boolean[] {true, false}) {
+            TimestampCache cache = new PrimitiveTimestampCache(1_000, offHeap);
+            assertThat(cache.getCommitTimestampIfPresent(1L)).isNull();
+
+            cache.putAlreadyCommittedTransaction(1L, 2L);
+            cache.putAlreadyCommittedTransaction(3L, TransactionConstants.FAILED_COMMIT_TS);
+
+            assertThat(cache.getCommitTimestampIfPresent(1L)).isEqualTo(2L);
+            assertThat(cache.getCommitTimestampIfPresent(3L)).isEqualTo(TransactionConstants.FAILED_COMMIT_TS);
+            assertThat(cache.getCommitTimestampIfPresent(2L)).isNull();
+        }
+    }
+
+    @Test
+    public void clearRemovesAllEntries() {
+        TimestampCache cache = new PrimitiveTimestampCache(1_000, true);
+        for (long ts = 1; ts <= 100; ts++) {
+            cache.putAlreadyCommittedTransaction(ts, ts + 1);
+        }
+
+        cache.clear();
+
+        for (long ts = 1; ts <= 100; ts++) {
+            assertThat(cache.getCommitTimestampIfPresent(ts)).isNull();
+        }
+    }
+
+    @Test
+    public void evictsEntriesWhenFull() {
+        PrimitiveTimestampCache cache = new PrimitiveTimestampCache(1_000, true);
+        for (long ts = 1; ts <= 100_000; ts++) {
+            cache.putAlreadyCommittedTransaction(ts, ts + 1);
+        }
+
+        assertThat(cache.estimatedSize()).isBetween(1_000L, 2_048L);
+        assertThat(cache.getCommitTimestampIfPresent(100_000L)).isEqualTo(100_001L);
+    }
+
+    @Test
+    public void recentlyReadEntriesSurviveEviction() {
+        PrimitiveTimestampCache cache = new PrimitiveTimestampCache(1_000, true);
+        cache.putAlreadyCommittedTransaction(1L, 2L);
+        for (long ts = 2; ts <= 100_000; ts++) {
+            assertThat(cache.getCommitTimestampIfPresent(1L)).isEqualTo(2L);
+            cache.putAlreadyCommittedTransaction(ts, ts + 1);
+        }
+    }
+
+    @Test
+    public void cacheExposesMetrics() {
+        PrimitiveTimestampCache cache = new PrimitiveTimestampCache(1_000, true);
+        cache.registerMetrics(TEST_CACHE_NAME);
+
+        SortedMap<String, Gauge> gauges = metricsRule.metrics().getGauges(startsWith(TEST_CACHE_NAME));
+
+        assertThat(cache.getCommitTimestampIfPresent(1L)).isNull();
+        cache.putAlreadyCommittedTransaction(1L, 2L);
+        assertThat(cache.getCommitTimestampIfPresent(1L)).isEqualTo(2L);
+        assertThat(cache.getCommitTimestampIfPresent(1L)).isEqualTo(2L);
+        assertThat(cache.getCommitTimestampIfPresent(1L)).isEqualTo(2L);
+        cache.clear();
+        assertThat(cache.getCommitTimestampIfPresent(1L)).isNull();
+
+        assertThat(gauges.get(cacheMetricName("hit.count")).getValue()).isEqualTo(3L);
+        assertThat(gauges.get(cacheMetricName("hit.ratio")).getValue()).isEqualTo(0.6d);
+        assertThat(gauges.get(cacheMetricName("miss.count")).getValue()).isEqualTo(2L);
+        assertThat(gauges.get(cacheMetricName("miss.ratio")).getValue()).isEqualTo(0.4d);
+        assertThat(gauges.get(cacheMetricName("request.count")).getValue()).isEqualTo(5L);
+    }
+
+    @Test
+    public void cacheWithNoRequestsReportsNoMisses() {
+        PrimitiveTimestampCache cache = new PrimitiveTimestampCache(1_000, true);
+        cache.registerMetrics(TEST_CACHE_NAME);
+
+        SortedMap<String, Gauge> gauges = metricsRule.metrics().getGauges(startsWith(TEST_CACHE_NAME));
+
+        assertThat(gauges.get(cacheMetricName("hit.ratio")).getValue()).isEqualTo(1.0d);
+        assertThat(gauges.get(cacheMetricName("miss.ratio")).getValue()).isEqualTo(0.0d);
+        assertThat(gauges.get(cacheMetricName("request.count")).getValue()).isEqualTo(0L);
+    }
+
+    private static String cacheMetricName(String name) {
+        return TEST_CACHE_NAME + ".cache." + name;
+    }
+
+    private MetricFilter startsWith(String prefix) {
+        return (name, metric) -> name.startsWith(prefix);
+    }
+}
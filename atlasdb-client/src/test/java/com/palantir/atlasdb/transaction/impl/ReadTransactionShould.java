@@ -123,6 +123,17 @@ public class ReadTransactionShould {
         }
     }
 
+    @Test
+    public void notAllowPrefetchingRangeGets() {
+        checkThrowsAndNoInteraction(() -> readTransaction.getRangesLazy(
+                DUMMY_THOROUGH_TABLE,
+                ImmutableList.of(RangeRequest.all()),
+                1,
+                1),
+                IllegalStateException.class,
+                "Cannot read");
+    }
+
     @Test
     public void notAllowBatchColumnRangeGets() {
         checkThrowsAndNoInteraction(() -> readTransaction.getRowsColumnRange(
@@ -229,6 +229,63 @@ public abstract class AtlasDbConfig {
         return 1000;
     }
 
+    /**
+     * If true, the cache of start to commit timestamps used to validate reads is backed by a primitive table, whose
+     * timestamps live off-heap, rather than a Guava cache of boxed longs. Each entry costs 17 bytes rather than
+     * roughly 72, of which one byte stays on the heap.
+     */
+    @Value.Default
+    public boolean enableOffHeapTimestampCache() {
+        return false;
+    }
+
+    /**
+     * The number of committed transactions held by the off-heap timestamp cache, if it is enabled. The table is
+     * allocated up front, rounded up to a power of two.
+     */
+    @Value.Default
+    public int getOffHeapTimestampCacheMaxSize() {
+        return 1_000_000;
+    }
+
+    /**
+     * If true, concurrent lookups of commit timestamps from different transactions are coalesced into a single
+     * read of the transactions table.
+     */
+    @Value.Default
+    public boolean enableBatchedCommitTimestampLookups() {
+        return false;
+    }
+
+    /**
+     * If true, commit timestamps written concurrently by different transactions are group committed to the
+     * transactions table in a single put. This only takes effect for key value services whose multi-cell put unless
+     * exists is a single write, which excludes Cassandra.
+     */
+    @Value.Default
+    public boolean enableGroupCommitOfCommitTimestamps() {
+        return false;
+    }
+
+    /**
+     * The approximate number of bytes of committed values that transactions share between them for tables whose
+     * cache priority is HOTTEST, so that read-mostly tables can be served from memory. Zero disables the cache.
+     */
+    @Value.Default
+    public long getCrossTransactionReadCacheMaxBytes() {
+        return 0L;
+    }
+
+    /**
+     * If true, the cross transaction read cache assumes that this is the only service writing to the database, and
+     * serves cached values without checking the key value service while it has not committed to their tables.
+     * Writes made by any other service would then not be seen, so this must only be set for a single writer.
+     */
+    @Value.Default
+    public boolean crossTransactionReadCacheAssumesSingleWriter() {
+        return false;
+    }
+
     /**
      * The default lock expiration time for requests to the lock service.
      */
@@ -239,6 +296,8 @@ public abstract class AtlasDbConfig {
 
     @Value.Check
     protected final void check() {
+        Preconditions.checkState(getOffHeapTimestampCacheMaxSize() > 0,
+                "offHeapTimestampCacheMaxSize must be positive, but was %s", getOffHeapTimestampCacheMaxSize());
         checkLeaderAndTimelockBlocks();
         checkLockAndTimestampBlocks();
         checkNamespaceConfig();
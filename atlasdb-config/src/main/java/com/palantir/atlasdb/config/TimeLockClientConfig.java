@@ -46,6 +46,15 @@ public abstract class TimeLockClientConfig {
 
     public abstract ServerListConfig serversList();
 
+    /**
+     * If set, the client sends and accepts a compact binary encoding instead of JSON on the TimeLock endpoints that
+     * support it: fresh timestamps, lock, refresh and unlock. Every TimeLock server must support the encoding.
+     */
+    @Value.Default
+    public boolean enableBinaryEncoding() {
+        return false;
+    }
+
     public ServerListConfig toNamespacedServerList() {
         Set<String> serversWithNamespaces = serversList()
                 .servers()
@@ -31,6 +31,15 @@ public abstract class TimestampClientConfig {
         return false;
     }
 
+    /**
+     * If set, fresh timestamp, immutable timestamp lock, refresh and unlock calls to TimeLock from concurrent
+     * threads are coalesced into batched calls. The TimeLock server must support the batch endpoint.
+     */
+    @Value.Default
+    public boolean enableTimelockRequestBatching() {
+        return false;
+    }
+
     // TODO (jkong): Make timestamp wait intervals configurable.
     // This should ONLY be done once the timestamp client supports nanosecond precision;
     // millisecond precision isn't too useful (realistically it's very unlikely you want to set this beyond
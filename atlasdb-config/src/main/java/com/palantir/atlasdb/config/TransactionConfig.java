@@ -32,4 +32,42 @@ public abstract class TransactionConfig {
         return AtlasDbConstants.DEFAULT_TRANSACTION_LOCK_ACQUIRE_TIMEOUT_MS;
     }
 
+    /**
+     * If true, transactions run independent steps of their commit concurrently: checking for write-write
+     * conflicts overlaps with writing data, and read-write conflict checking, lock validation and punching
+     * overlap with each other.
+     */
+    @Value.Default
+    public boolean pipelineCommits() {
+        return false;
+    }
+
+    /**
+     * If true, transactions buffer their local writes in compact, array-backed storage rather than in a skip list,
+     * which greatly reduces the number of objects retained by transactions that write many cells.
+     */
+    @Value.Default
+    public boolean useCompactWriteBuffer() {
+        return false;
+    }
+
+    /**
+     * The approximate number of bytes of values read from the key value service that each transaction caches, so
+     * that reading the same cells again within the transaction does not go back to the key value service.
+     */
+    @Value.Default
+    public long getReadCacheMaxBytes() {
+        return AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES;
+    }
+
+    /**
+     * If true, read-only transactions start at timestamps leased from TimeLock and handed out by the client, rather
+     * than at fresh timestamps. This saves a round trip per read-only transaction, at the cost of the transaction
+     * possibly not seeing writes that other clients committed within the lease period (100 ms).
+     */
+    @Value.Default
+    public boolean leaseReadOnlyStartTimestamps() {
+        return false;
+    }
+
 }
@@ -31,16 +31,22 @@ import com.palantir.remoting2.config.ssl.SslSocketFactories;
 public class ServiceCreator<T> implements Function<ServerListConfig, T> {
     private final Class<T> serviceClass;
     private final String userAgent;
+    private final boolean useBinaryEncoding;
 
     public ServiceCreator(Class<T> serviceClass, String userAgent) {
+        this(serviceClass, userAgent, false);
+    }
+
+    public ServiceCreator(Class<T> serviceClass, String userAgent, boolean useBinaryEncoding) {
         this.serviceClass = serviceClass;
         this.userAgent = userAgent;
+        this.useBinaryEncoding = useBinaryEncoding;
     }
 
     @Override
     public T apply(ServerListConfig input) {
         Optional<SSLSocketFactory> sslSocketFactory = createSslSocketFactory(input.sslConfiguration());
-        return createService(sslSocketFactory, input.servers(), serviceClass, userAgent);
+        return createService(sslSocketFactory, input.servers(), serviceClass, userAgent, useBinaryEncoding);
     }
 
     /**
@@ -54,8 +60,10 @@ public class ServiceCreator<T> implements Function<ServerListConfig, T> {
             Optional<SSLSocketFactory> sslSocketFactory,
             Set<String> uris,
             Class<T> serviceClass,
-            String userAgent) {
-        return AtlasDbHttpClients.createProxyWithFailover(sslSocketFactory, uris, serviceClass, userAgent);
+            String userAgent,
+            boolean useBinaryEncoding) {
+        return AtlasDbHttpClients.createProxyWithFailover(
+                sslSocketFactory, uris, serviceClass, userAgent, useBinaryEncoding);
     }
 
     public static <T> T createInstrumentedService(T service, Class<T> serviceClass) {
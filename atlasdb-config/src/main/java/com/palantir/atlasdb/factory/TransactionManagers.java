@@ -35,6 +35,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Uninterruptibles;
+import com.palantir.atlasdb.cache.PrimitiveTimestampCache;
+import com.palantir.atlasdb.cache.TimestampCache;
 import com.palantir.atlasdb.cleaner.Cleaner;
 import com.palantir.atlasdb.cleaner.CleanupFollower;
 import com.palantir.atlasdb.cleaner.DefaultCleanerBuilder;
@@ -84,11 +86,15 @@ import com.palantir.atlasdb.table.description.Schemas;
 import com.palantir.atlasdb.transaction.api.AtlasDbConstraintCheckingMode;
 import com.palantir.atlasdb.transaction.impl.ConflictDetectionManager;
 import com.palantir.atlasdb.transaction.impl.ConflictDetectionManagers;
+import com.palantir.atlasdb.transaction.impl.CrossTransactionReadCache;
 import com.palantir.atlasdb.transaction.impl.SerializableTransactionManager;
 import com.palantir.atlasdb.transaction.impl.SweepStrategyManager;
 import com.palantir.atlasdb.transaction.impl.SweepStrategyManagers;
 import com.palantir.atlasdb.transaction.impl.TimelockTimestampServiceAdapter;
+import com.palantir.atlasdb.transaction.impl.TimestampLeasingTimelockService;
 import com.palantir.atlasdb.transaction.impl.TransactionTables;
+import com.palantir.atlasdb.transaction.service.BatchingTransactionService;
+import com.palantir.atlasdb.transaction.service.GroupCommitTransactionService;
 import com.palantir.atlasdb.transaction.service.TransactionService;
 import com.palantir.atlasdb.transaction.service.TransactionServices;
 import com.palantir.atlasdb.util.AtlasDbMetrics;
@@ -105,6 +111,7 @@ import com.palantir.lock.impl.LegacyTimelockService;
 import com.palantir.lock.impl.LockRefreshingTimelockService;
 import com.palantir.lock.impl.LockServiceImpl;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.UnsafeArg;
 import com.palantir.timestamp.TimestampService;
 import com.palantir.timestamp.TimestampStoreInvalidator;
@@ -246,7 +253,7 @@ public final class TransactionManagers {
 
         PersistentLockService persistentLockService = createAndRegisterPersistentLockService(kvs, env);
 
-        TransactionService transactionService = TransactionServices.createTransactionService(kvs);
+        TransactionService transactionService = createTransactionService(config, kvs);
         ConflictDetectionManager conflictManager = ConflictDetectionManagers.create(kvs);
         SweepStrategyManager sweepStrategyManager = SweepStrategyManagers.createDefault(kvs);
 
@@ -287,7 +294,16 @@ public final class TransactionManagers {
                 cleaner,
                 allowHiddenTableAccess,
                 () -> runtimeConfigSupplier.get().transaction().getLockAcquireTimeoutMillis(),
-                config.keyValueService().concurrentGetRangesThreadPoolSize());
+                config.keyValueService().concurrentGetRangesThreadPoolSize(),
+                createTimestampCache(config),
+                () -> runtimeConfigSupplier.get().transaction().pipelineCommits(),
+                () -> runtimeConfigSupplier.get().transaction().useCompactWriteBuffer(),
+                () -> runtimeConfigSupplier.get().transaction().getReadCacheMaxBytes(),
+                CrossTransactionReadCache.create(
+                        kvs,
+                        config.getCrossTransactionReadCacheMaxBytes(),
+                        config.crossTransactionReadCacheAssumesSingleWriter()),
+                () -> runtimeConfigSupplier.get().transaction().leaseReadOnlyStartTimestamps());
 
         PersistentLockManager persistentLockManager = new PersistentLockManager(
                 persistentLockService,
@@ -304,6 +320,36 @@ public final class TransactionManagers {
         return transactionManager;
     }
 
+    private static TransactionService createTransactionService(AtlasDbConfig config, KeyValueService kvs) {
+        TransactionService transactionService = shouldGroupCommit(config)
+                ? GroupCommitTransactionService.create(kvs)
+                : TransactionServices.createTransactionService(kvs);
+        if (config.enableBatchedCommitTimestampLookups()) {
+            return BatchingTransactionService.create(transactionService);
+        }
+        return transactionService;
+    }
+
+    private static boolean shouldGroupCommit(AtlasDbConfig config) {
+        if (!config.enableGroupCommitOfCommitTimestamps()) {
+            return false;
+        }
+        if (!GroupCommitTransactionService.isEffectiveFor(config.keyValueService())) {
+            log.warn("Group commit of commit timestamps is enabled, but will not be used, because key value services"
+                    + " of type {} write each cell of a multi-cell putUnlessExists separately.",
+                    SafeArg.of("type", config.keyValueService().type()));
+            return false;
+        }
+        return true;
+    }
+
+    private static TimestampCache createTimestampCache(AtlasDbConfig config) {
+        if (config.enableOffHeapTimestampCache()) {
+            return PrimitiveTimestampCache.create(config.getOffHeapTimestampCacheMaxSize(), true);
+        }
+        return TimestampCache.create();
+    }
+
     private static void checkInstallConfig(AtlasDbConfig config) {
         if (config.getSweepBatchSize() != null
                 || config.getSweepCellBatchSize() != null
@@ -436,18 +482,40 @@ public final class TransactionManagers {
                 createRawInstrumentedServices(config, env, lock, time, invalidator, userAgent);
         return withRequestBatchingTimestampService(
                 runtimeConfigSupplier,
-                withRefreshingLockService(lockAndTimestampServices));
+                withRefreshingLockService(withTimestampLeasingTimelockService(withRequestBatchingTimelockService(
+                        runtimeConfigSupplier,
+                        lockAndTimestampServices))));
     }
 
     private static LockAndTimestampServices withRefreshingLockService(
             LockAndTimestampServices lockAndTimestampServices) {
         return ImmutableLockAndTimestampServices.builder()
                 .from(lockAndTimestampServices)
-                .timelock(LockRefreshingTimelockService.createDefault(lockAndTimestampServices.timelock()))
+                .timelock(LockRefreshingTimelockService.createDefault(
+                        lockAndTimestampServices.timelock(), AtlasDbMetrics.getMetricRegistry()))
                 .lock(LockRefreshingLockService.create(lockAndTimestampServices.lock()))
                 .build();
     }
 
+    private static LockAndTimestampServices withTimestampLeasingTimelockService(
+            LockAndTimestampServices lockAndTimestampServices) {
+        return ImmutableLockAndTimestampServices.builder()
+                .from(lockAndTimestampServices)
+                .timelock(TimestampLeasingTimelockService.create(lockAndTimestampServices.timelock()))
+                .build();
+    }
+
+    private static LockAndTimestampServices withRequestBatchingTimelockService(
+            java.util.function.Supplier<TimestampClientConfig> timestampClientConfigSupplier,
+            LockAndTimestampServices lockAndTimestampServices) {
+        return ImmutableLockAndTimestampServices.builder()
+                .from(lockAndTimestampServices)
+                .timelock(DecoratedTimelockServices.createTimelockServiceWithRequestBatching(
+                        lockAndTimestampServices.timelock(),
+                        timestampClientConfigSupplier))
+                .build();
+    }
+
     private static LockAndTimestampServices withRequestBatchingTimestampService(
             java.util.function.Supplier<TimestampClientConfig> timestampClientConfigSupplier,
             LockAndTimestampServices lockAndTimestampServices) {
@@ -500,15 +568,16 @@ public final class TransactionManagers {
             TimeLockClientConfig config,
             String userAgent) {
         ServerListConfig namespacedServerListConfig = config.toNamespacedServerList();
-        return getLockAndTimestampServices(namespacedServerListConfig, userAgent);
+        return getLockAndTimestampServices(namespacedServerListConfig, userAgent, config.enableBinaryEncoding());
     }
 
     private static LockAndTimestampServices getLockAndTimestampServices(
             ServerListConfig timelockServerListConfig,
-            String userAgent) {
+            String userAgent,
+            boolean useBinaryEncoding) {
         LockService lockService = new ServiceCreator<>(LockService.class, userAgent)
                 .apply(timelockServerListConfig);
-        TimelockService timelockService = new ServiceCreator<>(TimelockService.class, userAgent)
+        TimelockService timelockService = new ServiceCreator<>(TimelockService.class, userAgent, useBinaryEncoding)
                 .apply(timelockServerListConfig);
 
         return ImmutableLockAndTimestampServices.builder()
@@ -24,6 +24,8 @@ import com.palantir.atlasdb.factory.ServiceCreator;
 import com.palantir.atlasdb.transaction.impl.TimelockTimestampServiceAdapter;
 import com.palantir.atlasdb.transaction.impl.TimestampDecoratingTimelockService;
 import com.palantir.atlasdb.util.JavaSuppliers;
+import com.palantir.lock.impl.BatchingTimelockService;
+import com.palantir.lock.impl.UnbatchedTimelockService;
 import com.palantir.lock.v2.TimelockService;
 import com.palantir.timestamp.RequestBatchingTimestampService;
 import com.palantir.timestamp.TimestampService;
@@ -44,6 +46,16 @@ public final class DecoratedTimelockServices {
                 TimelockService.class);
     }
 
+    public static TimelockService createTimelockServiceWithRequestBatching(
+            TimelockService timelockService,
+            Supplier<TimestampClientConfig> configSupplier) {
+        return DynamicDecoratingProxy.newProxyInstance(
+                new BatchingTimelockService(timelockService),
+                new UnbatchedTimelockService(timelockService),
+                JavaSuppliers.compose(TimestampClientConfig::enableTimelockRequestBatching, configSupplier),
+                TimelockService.class);
+    }
+
     private static TimestampService createRequestBatchingTimestampService(
             TimelockService timelockService) {
         return ServiceCreator.createInstrumentedService(
@@ -98,9 +98,23 @@ public final class AtlasDbHttpClients {
             Collection<String> endpointUris,
             Class<T> type,
             String userAgent) {
+        return createProxyWithFailover(sslSocketFactory, endpointUris, type, userAgent, false);
+    }
+
+    /**
+     * As {@link #createProxyWithFailover(Optional, Collection, Class, String)}, optionally using the compact binary
+     * encoding of the hot TimeLock endpoints; see {@link AtlasDbFeignTargetFactory}.
+     */
+    public static <T> T createProxyWithFailover(
+            Optional<SSLSocketFactory> sslSocketFactory,
+            Collection<String> endpointUris,
+            Class<T> type,
+            String userAgent,
+            boolean useBinaryEncoding) {
         return AtlasDbMetrics.instrument(
                 type,
-                AtlasDbFeignTargetFactory.createProxyWithFailover(sslSocketFactory, endpointUris, type, userAgent),
+                AtlasDbFeignTargetFactory.createProxyWithFailover(
+                        sslSocketFactory, endpointUris, type, userAgent, useBinaryEncoding),
                 MetricRegistry.name(type));
     }
 
@@ -32,5 +32,6 @@ public class AtlasDbRuntimeConfigSerializationTest {
         AtlasDbRuntimeConfig runtimeConfig =
                 AtlasDbConfigs.OBJECT_MAPPER.readValue(TEST_RUNTIME_CONFIG_FILE, AtlasDbRuntimeConfig.class);
         assertThat(runtimeConfig.timestampClient().enableTimestampBatching()).isTrue();
+        assertThat(runtimeConfig.timestampClient().enableTimelockRequestBatching()).isTrue();
     }
 }
@@ -23,11 +23,15 @@ import javax.net.ssl.SSLSocketFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.google.common.net.HttpHeaders;
+import com.palantir.common.remoting.HeaderAccessUtils;
+import com.palantir.lock.v2.TimelockBinaryEncoding;
 
 import feign.Client;
 import feign.Contract;
 import feign.Feign;
 import feign.Request;
+import feign.RequestInterceptor;
 import feign.codec.Decoder;
 import feign.codec.Encoder;
 import feign.codec.ErrorDecoder;
@@ -46,6 +50,19 @@ public final class AtlasDbFeignTargetFactory {
             new OptionalAwareDecoder(new JacksonDecoder(mapper)));
     private static final ErrorDecoder errorDecoder = new AtlasDbErrorDecoder();
 
+    private static final Encoder binaryEncoder = new TimelockBinaryEncoder(encoder);
+    private static final Decoder binaryDecoder = new TextDelegateDecoder(
+            new TimelockBinaryDecoder(new OptionalAwareDecoder(new JacksonDecoder(mapper))));
+    private static final String BINARY_OR_JSON = TimelockBinaryEncoding.MEDIA_TYPE + ", application/json;q=0.9";
+    // Endpoints that cannot produce the binary encoding still respond with JSON.
+    private static final RequestInterceptor acceptBinary = template -> {
+        if (HeaderAccessUtils.shortcircuitingCaseInsensitiveContainsEntry(
+                template.headers(), HttpHeaders.ACCEPT, "application/json")) {
+            template.header(HttpHeaders.ACCEPT);
+            template.header(HttpHeaders.ACCEPT, BINARY_OR_JSON);
+        }
+    };
+
     private AtlasDbFeignTargetFactory() {
         // factory
     }
@@ -84,13 +101,28 @@ public final class AtlasDbFeignTargetFactory {
             Collection<String> endpointUris,
             Class<T> type,
             String userAgent) {
+        return createProxyWithFailover(sslSocketFactory, endpointUris, type, userAgent, false);
+    }
+
+    /**
+     * Creates a proxy as {@link #createProxyWithFailover(Optional, Collection, Class, String)} does. If
+     * {@code useBinaryEncoding} is set, the proxy sends and accepts {@link TimelockBinaryEncoding} where it can,
+     * which the servers must support.
+     */
+    public static <T> T createProxyWithFailover(
+            Optional<SSLSocketFactory> sslSocketFactory,
+            Collection<String> endpointUris,
+            Class<T> type,
+            String userAgent,
+            boolean useBinaryEncoding) {
         return createProxyWithFailover(
                 sslSocketFactory,
                 endpointUris,
                 DEFAULT_FEIGN_OPTIONS,
                 FailoverFeignTarget.DEFAULT_MAX_BACKOFF_MILLIS,
                 type,
-                userAgent);
+                userAgent,
+                useBinaryEncoding);
     }
 
     public static <T> T createProxyWithFailover(
@@ -107,7 +139,8 @@ public final class AtlasDbFeignTargetFactory {
                 new Request.Options(feignConnectTimeout, feignReadTimeout),
                 maxBackoffMillis,
                 type,
-                userAgent);
+                userAgent,
+                false);
     }
 
     private static <T> T createProxyWithFailover(
@@ -116,19 +149,23 @@ public final class AtlasDbFeignTargetFactory {
             Request.Options feignOptions,
             int maxBackoffMillis,
             Class<T> type,
-            String userAgent) {
+            String userAgent,
+            boolean useBinaryEncoding) {
         FailoverFeignTarget<T> failoverFeignTarget = new FailoverFeignTarget<>(endpointUris, maxBackoffMillis, type);
         Client client = failoverFeignTarget.wrapClient(
                 FeignOkHttpClients.newOkHttpClient(sslSocketFactory, userAgent));
-        return Feign.builder()
+        Feign.Builder builder = Feign.builder()
                 .contract(contract)
-                .encoder(encoder)
-                .decoder(decoder)
+                .encoder(useBinaryEncoding ? binaryEncoder : encoder)
+                .decoder(useBinaryEncoding ? binaryDecoder : decoder)
                 .errorDecoder(errorDecoder)
                 .client(client)
                 .retryer(failoverFeignTarget)
-                .options(feignOptions)
-                .target(failoverFeignTarget);
+                .options(feignOptions);
+        if (useBinaryEncoding) {
+            builder.requestInterceptor(acceptBinary);
+        }
+        return builder.target(failoverFeignTarget);
     }
 
 }
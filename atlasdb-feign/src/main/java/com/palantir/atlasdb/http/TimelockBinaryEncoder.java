@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.lock.v2.TimelockBinaryEncoding;
+
+import feign.RequestTemplate;
+import feign.codec.EncodeException;
+import feign.codec.Encoder;
+
+/**
+ * Encodes request bodies that {@link TimelockBinaryEncoding} supports in that encoding, and everything else with
+ * the delegate.
+ */
+public class TimelockBinaryEncoder implements Encoder {
+    private final Encoder delegate;
+
+    public TimelockBinaryEncoder(Encoder delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void encode(Object object, Type bodyType, RequestTemplate template) throws EncodeException {
+        if (!TimelockBinaryEncoding.canEncode(bodyType)) {
+            delegate.encode(object, bodyType, template);
+            return;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            TimelockBinaryEncoding.encode(object, bodyType, body);
+        } catch (IOException e) {
+            throw new EncodeException(e.getMessage(), e);
+        }
+        template.header(HttpHeaders.CONTENT_TYPE);
+        template.header(HttpHeaders.CONTENT_TYPE, TimelockBinaryEncoding.MEDIA_TYPE);
+        template.body(body.toByteArray(), null);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HttpHeaders;
+import com.palantir.lock.v2.LockResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBinaryEncoding;
+
+import feign.Response;
+import feign.codec.Decoder;
+
+public class TimelockBinaryDecoderTest {
+    private static final int HTTP_OK = 200;
+    private static final String REASON = "reason";
+    private static final LockResponse LOCK_RESPONSE = LockResponse.successful(LockToken.of(UUID.randomUUID()));
+
+    private final Decoder delegate = mock(Decoder.class);
+    private final TimelockBinaryDecoder decoder = new TimelockBinaryDecoder(delegate);
+
+    @Test
+    public void decodesBinaryContent() throws IOException {
+        Response response = createResponse("content-type", TimelockBinaryEncoding.MEDIA_TYPE, encode(LOCK_RESPONSE));
+
+        assertThat(decoder.decode(response, LockResponse.class)).isEqualTo(LOCK_RESPONSE);
+        verify(delegate, never()).decode(any(), any());
+    }
+
+    @Test
+    public void delegatesApplicationJsonContent() throws IOException {
+        Response response = createResponse(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON, new byte[0]);
+
+        decoder.decode(response, LockResponse.class);
+        verify(delegate).decode(response, LockResponse.class);
+    }
+
+    private static Response createResponse(String header, String value, byte[] body) {
+        return Response.create(HTTP_OK, REASON, ImmutableMap.of(header, ImmutableList.of(value)), body);
+    }
+
+    private static byte[] encode(LockResponse response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimelockBinaryEncoding.encode(response, LockResponse.class, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+import com.palantir.lock.StringLockDescriptor;
+import com.palantir.lock.v2.LockRequest;
+import com.palantir.lock.v2.TimelockBinaryEncoding;
+
+import feign.RequestTemplate;
+import feign.codec.Encoder;
+
+public class TimelockBinaryEncoderTest {
+    private static final LockRequest LOCK_REQUEST = LockRequest.of(
+            ImmutableSet.of(StringLockDescriptor.of("lock")), 1_000L);
+
+    private final Encoder delegate = mock(Encoder.class);
+    private final TimelockBinaryEncoder encoder = new TimelockBinaryEncoder(delegate);
+
+    @Test
+    public void encodesSupportedTypesInBinary() throws IOException {
+        RequestTemplate template = new RequestTemplate().header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+
+        encoder.encode(LOCK_REQUEST, LockRequest.class, template);
+
+        assertThat(template.headers().get(HttpHeaders.CONTENT_TYPE))
+                .containsExactly(TimelockBinaryEncoding.MEDIA_TYPE);
+        assertThat(TimelockBinaryEncoding.decode(LockRequest.class, new ByteArrayInputStream(template.body())))
+                .isEqualTo(LOCK_REQUEST);
+        verify(delegate, never()).encode(any(), any(), any());
+    }
+
+    @Test
+    public void delegatesOtherTypes() {
+        RequestTemplate template = new RequestTemplate();
+
+        encoder.encode("foo", String.class, template);
+
+        verify(delegate).encode("foo", String.class, template);
+    }
+}
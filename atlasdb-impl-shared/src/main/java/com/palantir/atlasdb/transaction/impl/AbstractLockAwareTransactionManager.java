@@ -25,6 +25,7 @@ import org.apache.commons.lang3.Validate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
+import com.palantir.atlasdb.cache.TimestampCache;
 import com.palantir.atlasdb.transaction.api.LockAcquisitionException;
 import com.palantir.atlasdb.transaction.api.LockAwareTransactionManager;
 import com.palantir.atlasdb.transaction.api.LockAwareTransactionTask;
@@ -41,6 +42,15 @@ import com.palantir.lock.LockRequest;
 public abstract class AbstractLockAwareTransactionManager
         extends AbstractTransactionManager
         implements LockAwareTransactionManager {
+
+    protected AbstractLockAwareTransactionManager() {
+        super();
+    }
+
+    protected AbstractLockAwareTransactionManager(TimestampCache timestampValidationReadCache) {
+        super(timestampValidationReadCache);
+    }
+
     @Override
     public <T, E extends Exception> T runTaskWithLocksWithRetry(
             Iterable<HeldLocksToken> lockTokens,
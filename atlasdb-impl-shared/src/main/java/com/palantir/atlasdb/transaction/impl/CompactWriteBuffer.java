@@ -0,0 +1,752 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+
+/**
+ * A buffer for the local writes a transaction makes to a single table, which copies each cell and value into large
+ * byte array chunks rather than retaining them as objects.
+ * <p>
+ * A skip list retains a node, an index node in a quarter of cases, a {@link Cell}, and three arrays for every write,
+ * all of which live as long as the transaction and so are likely to be promoted out of the young generation. Here
+ * each write costs about 40 bytes of bookkeeping in primitive arrays plus its bytes, and the objects passed to
+ * {@link #put} can be collected as soon as it returns. Point lookups go through an open addressing hash index over
+ * the chunks, and ordered lookups through a sorted index of entries held in fixed-size blocks, which is updated on
+ * every write in time logarithmic in the size of the buffer. A value overwritten by one no longer than it is
+ * replaced in place; otherwise the bytes of overwritten and removed entries are reclaimed by compacting the chunks
+ * once they outweigh the live entries.
+ * <p>
+ * Views and iterators reflect the buffer at the time they were created, and values returned are copies. A view of
+ * the whole buffer is reused until the next write, so that the one taken at commit is shared by conflict checking,
+ * locking and writing.
+ */
+@ThreadSafe
+final class CompactWriteBuffer extends AbstractMap<Cell, byte[]> implements NavigableMap<Cell, byte[]> {
+    private static final int MIN_CHUNK_SIZE = 1 << 10;
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int CHUNK_INDEX_SHIFT = 32;
+    private static final int BLOCK_SIZE = 256;
+    private static final long BEFORE_FIRST = -1L;
+
+    private List<byte[]> chunks = Lists.newArrayList();
+    private byte[] currentChunk = new byte[0];
+    private int chunkPosition = 0;
+    private long liveBytes = 0;
+    private long garbageBytes = 0;
+
+    // Entry i has its row and column stored contiguously at keyAddresses[i], and its value at valueAddresses[i].
+    // Addresses hold the chunk index in the high 32 bits and the offset within that chunk in the low 32 bits.
+    private long[] keyAddresses = new long[INITIAL_CAPACITY];
+    private int[] rowLengths = new int[INITIAL_CAPACITY];
+    private int[] columnLengths = new int[INITIAL_CAPACITY];
+    private long[] valueAddresses = new long[INITIAL_CAPACITY];
+    private int[] valueLengths = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // Open addressing with linear probing; slots hold an entry index plus one, so zero means empty.
+    private int[] hashIndex = new int[INITIAL_CAPACITY * 2];
+
+    // Entry indexes in key order, split across blocks of at most BLOCK_SIZE. A position in this order is encoded as
+    // the block in the high 32 bits and the offset within it in the low 32 bits; the position after the last entry
+    // is (blockCount, 0).
+    private int[][] blocks = new int[INITIAL_CAPACITY][];
+    private int[] blockSizes = new int[INITIAL_CAPACITY];
+    private int blockCount = 0;
+
+    private ImmutableSortedMap<Cell, byte[]> sortedSnapshot = null;
+
+    @Override
+    public synchronized byte[] put(Cell cell, byte[] value) {
+        Preconditions.checkNotNull(value, "value");
+        int hash = hash(cell.getRowName(), cell.getColumnName());
+        int slot = findSlot(cell, hash);
+        sortedSnapshot = null;
+        if (hashIndex[slot] != 0) {
+            int entry = hashIndex[slot] - 1;
+            byte[] previous = read(valueAddresses[entry], valueLengths[entry]);
+            if (value.length <= valueLengths[entry]) {
+                write(valueAddresses[entry], value);
+                garbageBytes += valueLengths[entry] - value.length;
+            } else {
+                valueAddresses[entry] = append(value, null);
+                garbageBytes += valueLengths[entry];
+            }
+            liveBytes += value.length - valueLengths[entry];
+            valueLengths[entry] = value.length;
+            compactIfMostlyGarbage();
+            return previous;
+        }
+
+        ensureCapacity();
+        int entry = size++;
+        keyAddresses[entry] = append(cell.getRowName(), cell.getColumnName());
+        rowLengths[entry] = cell.getRowName().length;
+        columnLengths[entry] = cell.getColumnName().length;
+        valueAddresses[entry] = append(value, null);
+        valueLengths[entry] = value.length;
+        liveBytes += cell.getRowName().length + cell.getColumnName().length + value.length;
+        // The index may have been resized, in which case the slot we found is stale.
+        hashIndex[findSlot(cell, hash)] = entry + 1;
+        insertIntoOrder(ceilingPosition(cell, true), entry);
+        return null;
+    }
+
+    @Override
+    public synchronized byte[] get(Object key) {
+        if (!(key instanceof Cell)) {
+            return null;
+        }
+        Cell cell = (Cell) key;
+        int entry = hashIndex[findSlot(cell, hash(cell.getRowName(), cell.getColumnName()))] - 1;
+        return entry < 0 ? null : read(valueAddresses[entry], valueLengths[entry]);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        if (!(key instanceof Cell)) {
+            return false;
+        }
+        Cell cell = (Cell) key;
+        return hashIndex[findSlot(cell, hash(cell.getRowName(), cell.getColumnName()))] != 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized byte[] remove(Object key) {
+        if (!(key instanceof Cell)) {
+            return null;
+        }
+        Cell cell = (Cell) key;
+        int slot = findSlot(cell, hash(cell.getRowName(), cell.getColumnName()));
+        if (hashIndex[slot] == 0) {
+            return null;
+        }
+        int entry = hashIndex[slot] - 1;
+        byte[] previous = read(valueAddresses[entry], valueLengths[entry]);
+        sortedSnapshot = null;
+
+        deleteFromHashIndex(slot);
+        removeFromOrder(ceilingPosition(cell, true));
+        int entryBytes = rowLengths[entry] + columnLengths[entry] + valueLengths[entry];
+        liveBytes -= entryBytes;
+        garbageBytes += entryBytes;
+        moveLastEntryTo(entry);
+        size--;
+        compactIfMostlyGarbage();
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        chunks = Lists.newArrayList();
+        currentChunk = new byte[0];
+        chunkPosition = 0;
+        liveBytes = 0;
+        garbageBytes = 0;
+        keyAddresses = new long[INITIAL_CAPACITY];
+        rowLengths = new int[INITIAL_CAPACITY];
+        columnLengths = new int[INITIAL_CAPACITY];
+        valueAddresses = new long[INITIAL_CAPACITY];
+        valueLengths = new int[INITIAL_CAPACITY];
+        size = 0;
+        hashIndex = new int[INITIAL_CAPACITY * 2];
+        blocks = new int[INITIAL_CAPACITY][];
+        blockSizes = new int[INITIAL_CAPACITY];
+        blockCount = 0;
+        sortedSnapshot = null;
+    }
+
+    @Override
+    public Set<Entry<Cell, byte[]>> entrySet() {
+        return sortedSnapshot().entrySet();
+    }
+
+    @Override
+    public NavigableSet<Cell> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public Comparator<? super Cell> comparator() {
+        return null;
+    }
+
+    @Override
+    public synchronized Cell firstKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return cellOf(entryAt(0L));
+    }
+
+    @Override
+    public synchronized Cell lastKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return cellOf(entryAt(previous(endPosition())));
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> lowerEntry(Cell key) {
+        return entryOrNull(previous(ceilingPosition(key, true)));
+    }
+
+    @Override
+    public Cell lowerKey(Cell key) {
+        return keyOrNull(lowerEntry(key));
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> floorEntry(Cell key) {
+        return entryOrNull(previous(ceilingPosition(key, false)));
+    }
+
+    @Override
+    public Cell floorKey(Cell key) {
+        return keyOrNull(floorEntry(key));
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> ceilingEntry(Cell key) {
+        return entryOrNull(ceilingPosition(key, true));
+    }
+
+    @Override
+    public Cell ceilingKey(Cell key) {
+        return keyOrNull(ceilingEntry(key));
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> higherEntry(Cell key) {
+        return entryOrNull(ceilingPosition(key, false));
+    }
+
+    @Override
+    public Cell higherKey(Cell key) {
+        return keyOrNull(higherEntry(key));
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> firstEntry() {
+        return entryOrNull(0L);
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> lastEntry() {
+        return entryOrNull(previous(endPosition()));
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> pollFirstEntry() {
+        Entry<Cell, byte[]> first = firstEntry();
+        if (first != null) {
+            remove(first.getKey());
+        }
+        return first;
+    }
+
+    @Override
+    public synchronized Entry<Cell, byte[]> pollLastEntry() {
+        Entry<Cell, byte[]> last = lastEntry();
+        if (last != null) {
+            remove(last.getKey());
+        }
+        return last;
+    }
+
+    @Override
+    public NavigableMap<Cell, byte[]> descendingMap() {
+        return sortedSnapshot().descendingMap();
+    }
+
+    @Override
+    public NavigableSet<Cell> navigableKeySet() {
+        return sortedSnapshot().navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<Cell> descendingKeySet() {
+        return sortedSnapshot().descendingKeySet();
+    }
+
+    @Override
+    public synchronized NavigableMap<Cell, byte[]> subMap(
+            Cell fromKey,
+            boolean fromInclusive,
+            Cell toKey,
+            boolean toInclusive) {
+        Preconditions.checkArgument(fromKey.compareTo(toKey) <= 0, "fromKey must not be after toKey");
+        if (sortedSnapshot != null) {
+            return sortedSnapshot.subMap(fromKey, fromInclusive, toKey, toInclusive);
+        }
+        return copyOfRange(ceilingPosition(fromKey, fromInclusive), toKey, toInclusive);
+    }
+
+    @Override
+    public synchronized NavigableMap<Cell, byte[]> headMap(Cell toKey, boolean inclusive) {
+        if (sortedSnapshot != null) {
+            return sortedSnapshot.headMap(toKey, inclusive);
+        }
+        return copyOfRange(0L, toKey, inclusive);
+    }
+
+    @Override
+    public synchronized NavigableMap<Cell, byte[]> tailMap(Cell fromKey, boolean inclusive) {
+        if (sortedSnapshot != null) {
+            return sortedSnapshot.tailMap(fromKey, inclusive);
+        }
+        return copyOfRange(ceilingPosition(fromKey, inclusive), null, false);
+    }
+
+    @Override
+    public NavigableMap<Cell, byte[]> subMap(Cell fromKey, Cell toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public NavigableMap<Cell, byte[]> headMap(Cell toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public NavigableMap<Cell, byte[]> tailMap(Cell fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Returns the number of bytes allocated to chunks, whether used by live entries, by overwritten and removed ones,
+     * or not yet used.
+     */
+    @VisibleForTesting
+    synchronized long chunkBytes() {
+        return chunks.stream().mapToLong(chunk -> chunk.length).sum();
+    }
+
+    private synchronized ImmutableSortedMap<Cell, byte[]> sortedSnapshot() {
+        if (sortedSnapshot == null) {
+            sortedSnapshot = copyOfRange(0L, null, false);
+        }
+        return sortedSnapshot;
+    }
+
+    /**
+     * Copies the entries from the given position up to the given key, or to the end if the key is null.
+     */
+    private ImmutableSortedMap<Cell, byte[]> copyOfRange(long fromPosition, Cell toKey, boolean toInclusive) {
+        ImmutableSortedMap.Builder<Cell, byte[]> builder = ImmutableSortedMap.naturalOrder();
+        for (long position = fromPosition; position != endPosition(); position = next(position)) {
+            int entry = entryAt(position);
+            if (toKey != null) {
+                int cmp = compare(entry, toKey);
+                if (cmp > 0 || (cmp == 0 && !toInclusive)) {
+                    break;
+                }
+            }
+            builder.put(cellOf(entry), read(valueAddresses[entry], valueLengths[entry]));
+        }
+        return builder.build();
+    }
+
+    private Entry<Cell, byte[]> entryOrNull(long position) {
+        if (position == BEFORE_FIRST || position == endPosition()) {
+            return null;
+        }
+        int entry = entryAt(position);
+        return new SimpleImmutableEntry<>(cellOf(entry), read(valueAddresses[entry], valueLengths[entry]));
+    }
+
+    private static Cell keyOrNull(Entry<Cell, byte[]> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private Cell cellOf(int entry) {
+        byte[] key = read(keyAddresses[entry], rowLengths[entry] + columnLengths[entry]);
+        return Cell.create(
+                Arrays.copyOfRange(key, 0, rowLengths[entry]),
+                Arrays.copyOfRange(key, rowLengths[entry], key.length));
+    }
+
+    /**
+     * Returns the position of the first entry after the given cell, or at it if inclusive.
+     */
+    private long ceilingPosition(Cell cell, boolean inclusive) {
+        int threshold = inclusive ? 0 : 1;
+        // The first block whose last entry is at or after the cell.
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(blocks[mid][blockSizes[mid] - 1], cell) >= threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (low == blockCount) {
+            return endPosition();
+        }
+        int block = low;
+        low = 0;
+        high = blockSizes[block] - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(blocks[block][mid], cell) >= threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return position(block, low);
+    }
+
+    private long endPosition() {
+        return position(blockCount, 0);
+    }
+
+    private long next(long position) {
+        int block = block(position);
+        int offset = offset(position) + 1;
+        return offset < blockSizes[block] ? position(block, offset) : position(block + 1, 0);
+    }
+
+    private long previous(long position) {
+        int block = block(position);
+        int offset = offset(position);
+        if (offset > 0) {
+            return position(block, offset - 1);
+        }
+        return block == 0 ? BEFORE_FIRST : position(block - 1, blockSizes[block - 1] - 1);
+    }
+
+    private int entryAt(long position) {
+        return blocks[block(position)][offset(position)];
+    }
+
+    private void setEntryAt(long position, int entry) {
+        blocks[block(position)][offset(position)] = entry;
+    }
+
+    private void insertIntoOrder(long position, int entry) {
+        if (blockCount == 0) {
+            insertBlock(0, new int[BLOCK_SIZE], 0);
+        }
+        int block = block(position);
+        int offset = offset(position);
+        if (block == blockCount) {
+            block = blockCount - 1;
+            offset = blockSizes[block];
+        }
+        if (blockSizes[block] == BLOCK_SIZE) {
+            // Split the full block in two, and insert into whichever half the position falls in.
+            int[] upperHalf = new int[BLOCK_SIZE];
+            System.arraycopy(blocks[block], BLOCK_SIZE / 2, upperHalf, 0, BLOCK_SIZE / 2);
+            blockSizes[block] = BLOCK_SIZE / 2;
+            insertBlock(block + 1, upperHalf, BLOCK_SIZE / 2);
+            if (offset > BLOCK_SIZE / 2) {
+                block++;
+                offset -= BLOCK_SIZE / 2;
+            }
+        }
+        int[] entries = blocks[block];
+        System.arraycopy(entries, offset, entries, offset + 1, blockSizes[block] - offset);
+        entries[offset] = entry;
+        blockSizes[block]++;
+    }
+
+    private void removeFromOrder(long position) {
+        int block = block(position);
+        int offset = offset(position);
+        int[] entries = blocks[block];
+        System.arraycopy(entries, offset + 1, entries, offset, blockSizes[block] - offset - 1);
+        blockSizes[block]--;
+        if (blockSizes[block] == 0) {
+            System.arraycopy(blocks, block + 1, blocks, block, blockCount - block - 1);
+            System.arraycopy(blockSizes, block + 1, blockSizes, block, blockCount - block - 1);
+            blockCount--;
+            blocks[blockCount] = null;
+        }
+    }
+
+    private void insertBlock(int block, int[] entries, int entryCount) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            blockSizes = Arrays.copyOf(blockSizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, block, blocks, block + 1, blockCount - block);
+        System.arraycopy(blockSizes, block, blockSizes, block + 1, blockCount - block);
+        blocks[block] = entries;
+        blockSizes[block] = entryCount;
+        blockCount++;
+    }
+
+    private static long position(int block, int offset) {
+        return ((long) block << 32) | offset;
+    }
+
+    private static int block(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Moves the last entry into the index of one that has been removed, so that entries stay contiguous.
+     */
+    private void moveLastEntryTo(int entry) {
+        int last = size - 1;
+        if (entry == last) {
+            return;
+        }
+        int mask = hashIndex.length - 1;
+        int slot = hashOfEntry(last) & mask;
+        while (hashIndex[slot] != last + 1) {
+            slot = (slot + 1) & mask;
+        }
+        hashIndex[slot] = entry + 1;
+        setEntryAt(ceilingPosition(cellOf(last), true), entry);
+
+        keyAddresses[entry] = keyAddresses[last];
+        rowLengths[entry] = rowLengths[last];
+        columnLengths[entry] = columnLengths[last];
+        valueAddresses[entry] = valueAddresses[last];
+        valueLengths[entry] = valueLengths[last];
+    }
+
+    /**
+     * Empties the given slot of the hash index, shifting back later entries in its probe sequence so that they can
+     * still be found.
+     */
+    private void deleteFromHashIndex(int slot) {
+        int mask = hashIndex.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; hashIndex[next] != 0; next = (next + 1) & mask) {
+            int home = hashOfEntry(hashIndex[next] - 1) & mask;
+            // The entry may fill the hole unless its home slot lies strictly between the hole and where it is now.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                hashIndex[hole] = hashIndex[next];
+                hole = next;
+            }
+        }
+        hashIndex[hole] = 0;
+    }
+
+    /**
+     * Returns the slot in the hash index holding the given cell, or the empty slot where it would go.
+     */
+    private int findSlot(Cell cell, int hash) {
+        int mask = hashIndex.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = hashIndex[slot] - 1;
+            if (entry < 0 || keyEquals(entry, cell)) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean keyEquals(int entry, Cell cell) {
+        byte[] row = cell.getRowName();
+        byte[] column = cell.getColumnName();
+        if (rowLengths[entry] != row.length || columnLengths[entry] != column.length) {
+            return false;
+        }
+        byte[] chunk = chunks.get(chunkIndex(keyAddresses[entry]));
+        int offset = chunkOffset(keyAddresses[entry]);
+        for (int i = 0; i < row.length; i++) {
+            if (chunk[offset + i] != row[i]) {
+                return false;
+            }
+        }
+        offset += row.length;
+        for (int i = 0; i < column.length; i++) {
+            if (chunk[offset + i] != column[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the key of the given entry to the given cell in the same order as {@link Cell#compareTo}.
+     */
+    private int compare(int entry, Cell cell) {
+        byte[] chunk = chunks.get(chunkIndex(keyAddresses[entry]));
+        int offset = chunkOffset(keyAddresses[entry]);
+        int cmp = compareUnsigned(chunk, offset, rowLengths[entry], cell.getRowName());
+        if (cmp != 0) {
+            return cmp;
+        }
+        return compareUnsigned(chunk, offset + rowLengths[entry], columnLengths[entry], cell.getColumnName());
+    }
+
+    private static int compareUnsigned(byte[] chunk, int offset, int length, byte[] other) {
+        int minLength = Math.min(length, other.length);
+        for (int i = 0; i < minLength; i++) {
+            int cmp = Integer.compare(chunk[offset + i] & 0xff, other[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, other.length);
+    }
+
+    private void ensureCapacity() {
+        if (size == keyAddresses.length) {
+            int capacity = size * 2;
+            keyAddresses = Arrays.copyOf(keyAddresses, capacity);
+            rowLengths = Arrays.copyOf(rowLengths, capacity);
+            columnLengths = Arrays.copyOf(columnLengths, capacity);
+            valueAddresses = Arrays.copyOf(valueAddresses, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+        }
+        // Keep the load factor of the index at most a half.
+        if ((size + 1) * 2 > hashIndex.length) {
+            hashIndex = new int[hashIndex.length * 2];
+            int mask = hashIndex.length - 1;
+            for (int entry = 0; entry < size; entry++) {
+                int slot = hashOfEntry(entry) & mask;
+                while (hashIndex[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashIndex[slot] = entry + 1;
+            }
+        }
+    }
+
+    /**
+     * Copies the live entries into fresh chunks once overwritten and removed entries take up more space than they
+     * do, so that the cost of compaction is proportional to the garbage it reclaims.
+     */
+    private void compactIfMostlyGarbage() {
+        if (garbageBytes < MIN_CHUNK_SIZE || garbageBytes <= liveBytes) {
+            return;
+        }
+        List<byte[]> oldChunks = chunks;
+        chunks = Lists.newArrayList();
+        currentChunk = new byte[0];
+        chunkPosition = 0;
+        for (int entry = 0; entry < size; entry++) {
+            keyAddresses[entry] = append(
+                    readFrom(oldChunks, keyAddresses[entry], rowLengths[entry] + columnLengths[entry]), null);
+            valueAddresses[entry] = append(readFrom(oldChunks, valueAddresses[entry], valueLengths[entry]), null);
+        }
+        garbageBytes = 0;
+    }
+
+    /**
+     * Copies the given arrays contiguously into a single chunk, and returns their address.
+     */
+    private long append(byte[] first, byte[] second) {
+        int length = first.length + (second == null ? 0 : second.length);
+        if (currentChunk.length - chunkPosition < length) {
+            int nextChunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, currentChunk.length * 2));
+            currentChunk = new byte[Math.max(nextChunkSize, length)];
+            chunks.add(currentChunk);
+            chunkPosition = 0;
+        }
+        long address = ((long) (chunks.size() - 1) << CHUNK_INDEX_SHIFT) | chunkPosition;
+        System.arraycopy(first, 0, currentChunk, chunkPosition, first.length);
+        chunkPosition += first.length;
+        if (second != null) {
+            System.arraycopy(second, 0, currentChunk, chunkPosition, second.length);
+            chunkPosition += second.length;
+        }
+        return address;
+    }
+
+    private void write(long address, byte[] bytes) {
+        System.arraycopy(bytes, 0, chunks.get(chunkIndex(address)), chunkOffset(address), bytes.length);
+    }
+
+    private byte[] read(long address, int length) {
+        return readFrom(chunks, address, length);
+    }
+
+    private static byte[] readFrom(List<byte[]> chunks, long address, int length) {
+        int offset = chunkOffset(address);
+        return Arrays.copyOfRange(chunks.get(chunkIndex(address)), offset, offset + length);
+    }
+
+    private int hashOfEntry(int entry) {
+        byte[] chunk = chunks.get(chunkIndex(keyAddresses[entry]));
+        int offset = chunkOffset(keyAddresses[entry]);
+        int rowHash = hash(chunk, offset, rowLengths[entry]);
+        int columnHash = hash(chunk, offset + rowLengths[entry], columnLengths[entry]);
+        return mix(rowHash, columnHash);
+    }
+
+    private static int hash(byte[] row, byte[] column) {
+        return mix(hash(row, 0, row.length), hash(column, 0, column.length));
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Combines the row and column hashes, and applies the finalisation step of MurmurHash3 so that short keys,
+     * whose polynomial hashes are small and clustered, spread across the index.
+     */
+    private static int mix(int rowHash, int columnHash) {
+        int hash = rowHash * 31 + columnHash;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int chunkIndex(long address) {
+        return (int) (address >>> CHUNK_INDEX_SHIFT);
+    }
+
+    private static int chunkOffset(long address) {
+        return (int) address;
+    }
+}
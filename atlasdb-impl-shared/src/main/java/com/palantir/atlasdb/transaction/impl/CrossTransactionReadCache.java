@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.palantir.atlasdb.AtlasDbConstants;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.KeyValueService;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.api.Value;
+import com.palantir.atlasdb.keyvalue.impl.Cells;
+import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.CachePriority;
+import com.palantir.atlasdb.table.description.TableMetadata;
+import com.palantir.atlasdb.util.AtlasDbMetrics;
+
+/**
+ * A cache of committed values shared by all transactions of a transaction manager, for tables whose metadata has
+ * {@link CachePriority#HOTTEST} cache priority. It lets read-mostly tables be served from memory without giving up
+ * snapshot isolation.
+ * <p>
+ * Each entry remembers the start and commit timestamps of the write that produced the value, and the latest start
+ * timestamp at which that write is known to still be the most recent write to the cell. The cache also tracks, for
+ * each table, the commits of this transaction manager that write to it: how many are in progress, and the latest
+ * commit timestamp among those that have finished. A transaction whose start timestamp lies between the commit
+ * timestamp of an entry and its bound sees exactly the cached value. For a later transaction, the latest write
+ * timestamp of the cell is checked in the key value service, which is cheaper than reading and post-filtering the
+ * value; if no newer write exists, the bound is raised to its start timestamp and the cached value is returned.
+ * <p>
+ * If the cache is told that this transaction manager is the only writer to the database, the check is skipped when no
+ * commit of this transaction manager to the table is in progress or has committed since the bound. Writes made
+ * through other transaction managers would then go unnoticed, so this must not be enabled when there are any.
+ * <p>
+ * Only values whose commit timestamp is below the immutable timestamp of the reading transaction are admitted,
+ * so the cache is filled with settled data rather than with values that are still churning. Entries are
+ * invalidated when a transaction of this manager writes the cell, and when a newer write to the cell is observed.
+ * The cache holds at most roughly {@code maxBytes} of cells and values, evicting the least recently used entries.
+ * The cache priority of each table is reread from its metadata every minute.
+ */
+@ThreadSafe
+public final class CrossTransactionReadCache {
+    private static final Logger log = LoggerFactory.getLogger(CrossTransactionReadCache.class);
+    private static final String METRICS_PREFIX = MetricRegistry.name(CrossTransactionReadCache.class, "values");
+    private static final long CACHE_PRIORITY_REFRESH_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final CrossTransactionReadCache DISABLED = new CrossTransactionReadCache(null, 0, false);
+
+    private final KeyValueService keyValueService;
+    private final long maxBytes;
+    private final boolean singleWriter;
+    private final LoadingCache<TableReference, Boolean> cacheableTables;
+    private final ConcurrentMap<TableReference, TableCommits> commitsByTable = Maps.newConcurrentMap();
+    private final Cache<Pair<TableReference, Cell>, CachedValue> values;
+
+    @VisibleForTesting
+    CrossTransactionReadCache(KeyValueService keyValueService, long maxBytes, boolean singleWriter) {
+        this(keyValueService, maxBytes, singleWriter, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CrossTransactionReadCache(KeyValueService keyValueService, long maxBytes, boolean singleWriter, Ticker ticker) {
+        this.keyValueService = keyValueService;
+        this.maxBytes = maxBytes;
+        this.singleWriter = singleWriter;
+        this.cacheableTables = CacheBuilder.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(CACHE_PRIORITY_REFRESH_MILLIS, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build(new CacheLoader<TableReference, Boolean>() {
+                    @Override
+                    public Boolean load(TableReference tableRef) {
+                        return isCacheableTable(keyValueService, tableRef);
+                    }
+                });
+        this.values = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Pair<TableReference, Cell> key, CachedValue value) ->
+                        Ints.saturatedCast(Cells.getApproxSizeOfCell(key.getRight()) + value.contents.length))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Creates a cache holding roughly {@code maxBytes} of values read from tables of the given key value service.
+     * A cache with no bytes is disabled. If {@code singleWriter} is set, the cache assumes that no other transaction
+     * manager writes to the database, and so serves values without checking the key value service while this one has
+     * not committed to their tables.
+     */
+    public static CrossTransactionReadCache create(KeyValueService keyValueService, long maxBytes,
+            boolean singleWriter) {
+        if (maxBytes <= 0) {
+            return DISABLED;
+        }
+        CrossTransactionReadCache cache = new CrossTransactionReadCache(keyValueService, maxBytes, singleWriter);
+        AtlasDbMetrics.registerCache(cache.values, METRICS_PREFIX);
+        return cache;
+    }
+
+    public static CrossTransactionReadCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns whether reads from the given table go through this cache.
+     */
+    boolean isCacheable(TableReference tableRef) {
+        return maxBytes > 0 && !AtlasDbConstants.hiddenTables.contains(tableRef)
+                && cacheableTables.getUnchecked(tableRef);
+    }
+
+    /**
+     * Returns the cached values of those of the given cells whose value visible at {@code startTimestamp} is known,
+     * checking the latest write timestamps of cells in the key value service where the cache alone cannot tell.
+     */
+    Map<Cell, byte[]> get(TableReference tableRef, Set<Cell> cells, long startTimestamp) {
+        TableCommits commits = commitsByTable.get(tableRef);
+        Map<Cell, byte[]> result = Maps.newHashMap();
+        Map<Cell, CachedValue> toCheck = Maps.newHashMap();
+        for (Cell cell : cells) {
+            CachedValue cached = values.getIfPresent(Pair.of(tableRef, cell));
+            if (cached == null || cached.commitTimestamp >= startTimestamp) {
+                continue;
+            }
+            long validThroughTimestamp = cached.validThroughTimestamp.get();
+            if (startTimestamp <= validThroughTimestamp) {
+                result.put(cell, cached.contents);
+            } else if (singleWriter && (commits == null || commits.noneCommittedAfter(validThroughTimestamp))) {
+                cached.validThroughTimestamp.accumulateAndGet(startTimestamp, Math::max);
+                result.put(cell, cached.contents);
+            } else {
+                toCheck.put(cell, cached);
+            }
+        }
+        if (toCheck.isEmpty()) {
+            return result;
+        }
+
+        Map<Cell, Long> latestTimestamps = keyValueService.getLatestTimestamps(
+                tableRef, Cells.constantValueMap(toCheck.keySet(), startTimestamp));
+        for (Map.Entry<Cell, CachedValue> e : toCheck.entrySet()) {
+            CachedValue cached = e.getValue();
+            Long latestTimestamp = latestTimestamps.get(e.getKey());
+            if (latestTimestamp != null && latestTimestamp == cached.writeTimestamp) {
+                cached.validThroughTimestamp.accumulateAndGet(startTimestamp, Math::max);
+                result.put(e.getKey(), cached.contents);
+            } else {
+                // The cell has been written again since we cached it (or the write has been swept).
+                values.asMap().remove(Pair.of(tableRef, e.getKey()), cached);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches the given post-filtered values, which were visible to a transaction with the given start timestamp and
+     * were written by transactions with the given commit timestamps.
+     */
+    void cacheCommittedValues(TableReference tableRef,
+                              Map<Cell, Value> committedValues,
+                              Map<Long, Long> commitTimestamps,
+                              long startTimestamp,
+                              long immutableTimestamp) {
+        for (Map.Entry<Cell, Value> e : committedValues.entrySet()) {
+            Value value = e.getValue();
+            Long commitTimestamp = commitTimestamps.get(value.getTimestamp());
+            if (commitTimestamp == null || commitTimestamp >= immutableTimestamp) {
+                continue;
+            }
+            CachedValue toCache = new CachedValue(
+                    value.getContents(), value.getTimestamp(), commitTimestamp, startTimestamp);
+            values.asMap().merge(Pair.of(tableRef, e.getKey()), toCache, CachedValue::newer);
+        }
+    }
+
+    /**
+     * Records that a transaction is about to commit writes to the given tables. This must be called before the
+     * transaction takes its commit timestamp, and be followed by {@link #finishCommit}.
+     */
+    void startCommit(Set<TableReference> tableRefs) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        for (TableReference tableRef : tableRefs) {
+            commitsByTable.computeIfAbsent(tableRef, unused -> new TableCommits()).inProgress.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a transaction which wrote the given cells has finished committing, whether or not it succeeded,
+     * and drops any cached values of those cells. The tables written must be exactly those given to
+     * {@link #startCommit}. The commit timestamp is that of the transaction if it took one,
+     * and otherwise its start timestamp.
+     */
+    void finishCommit(Map<TableReference, ? extends Map<Cell, byte[]>> writesByTable, long commitTimestamp) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        writesByTable.forEach((tableRef, writes) -> {
+            // The cache priority of the table may have changed since we last looked, so invalidate regardless.
+            for (Cell cell : writes.keySet()) {
+                values.invalidate(Pair.of(tableRef, cell));
+            }
+            TableCommits commits = commitsByTable.get(tableRef);
+            commits.lastCommitTimestamp.accumulateAndGet(commitTimestamp, Math::max);
+            commits.inProgress.decrementAndGet();
+        });
+    }
+
+    private static boolean isCacheableTable(KeyValueService keyValueService, TableReference tableRef) {
+        byte[] metadata = keyValueService.getMetadataForTable(tableRef);
+        if (metadata == null || metadata.length == 0) {
+            log.debug("Not caching reads from table {} as it has no metadata.", tableRef);
+            return false;
+        }
+        return TableMetadata.BYTES_HYDRATOR.hydrateFromBytes(metadata).getCachePriority() == CachePriority.HOTTEST;
+    }
+
+    private static final class TableCommits {
+        private final AtomicInteger inProgress = new AtomicInteger();
+        private final AtomicLong lastCommitTimestamp = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Returns whether no commit to the table can be visible to a transaction that started after the given
+         * timestamp, but not to one that started at it. A commit that is in progress may already have taken its
+         * commit timestamp, so it is only known to be irrelevant once it has finished.
+         */
+        private boolean noneCommittedAfter(long timestamp) {
+            // The last commit timestamp is raised before the count is decremented, so read them the other way round.
+            return inProgress.get() == 0 && lastCommitTimestamp.get() <= timestamp;
+        }
+    }
+
+    private static final class CachedValue {
+        private final byte[] contents;
+        private final long writeTimestamp;
+        private final long commitTimestamp;
+        private final AtomicLong validThroughTimestamp;
+
+        private CachedValue(byte[] contents, long writeTimestamp, long commitTimestamp, long validThroughTimestamp) {
+            this.contents = contents;
+            this.writeTimestamp = writeTimestamp;
+            this.commitTimestamp = commitTimestamp;
+            this.validThroughTimestamp = new AtomicLong(validThroughTimestamp);
+        }
+
+        private static CachedValue newer(CachedValue existing, CachedValue read) {
+            if (read.writeTimestamp > existing.writeTimestamp) {
+                return read;
+            }
+            if (read.writeTimestamp == existing.writeTimestamp) {
+                existing.validThroughTimestamp.accumulateAndGet(read.validThroughTimestamp.get(), Math::max);
+            }
+            return existing;
+        }
+    }
+}
@@ -15,9 +15,20 @@
  */
 package com.palantir.atlasdb.transaction.impl;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.ColumnSelection;
+import com.palantir.atlasdb.keyvalue.api.RowResult;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.transaction.api.AsyncTransaction;
 import com.palantir.lock.v2.LockToken;
 
-public class RawTransaction extends ForwardingTransaction {
+public class RawTransaction extends ForwardingTransaction implements AsyncTransaction {
     private final SnapshotTransaction delegate;
     private final LockToken lock;
 
@@ -31,6 +42,26 @@ public class RawTransaction extends ForwardingTransaction {
         return delegate;
     }
 
+    @Override
+    public CompletableFuture<SortedMap<byte[], RowResult<byte[]>>> getRowsAsync(TableReference tableRef,
+                                                                             Iterable<byte[]> rows,
+                                                                             ColumnSelection columnSelection,
+                                                                             Executor executor) {
+        return delegate().getRowsAsync(tableRef, rows, columnSelection, executor);
+    }
+
+    @Override
+    public CompletableFuture<Map<Cell, byte[]>> getAsync(TableReference tableRef,
+                                                         Set<Cell> cells,
+                                                         Executor executor) {
+        return delegate().getAsync(tableRef, cells, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> commitAsync(Executor executor) {
+        return delegate().commitAsync(executor);
+    }
+
     LockToken getImmutableTsLock() {
         return lock;
     }
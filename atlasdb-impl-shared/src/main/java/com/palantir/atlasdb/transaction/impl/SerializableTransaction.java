@@ -16,6 +16,7 @@
 package com.palantir.atlasdb.transaction.impl;
 
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -23,10 +24,15 @@ import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
@@ -47,6 +53,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.UnsignedBytes;
+import com.palantir.atlasdb.AtlasDbConstants;
 import com.palantir.atlasdb.cache.TimestampCache;
 import com.palantir.atlasdb.cleaner.Cleaner;
 import com.palantir.atlasdb.cleaner.NoOpCleaner;
@@ -70,6 +77,7 @@ import com.palantir.common.annotation.Idempotent;
 import com.palantir.common.base.AbortingVisitor;
 import com.palantir.common.base.BatchingVisitable;
 import com.palantir.common.base.BatchingVisitableView;
+import com.palantir.common.base.Throwables;
 import com.palantir.common.collect.IterableUtils;
 import com.palantir.common.collect.Maps2;
 import com.palantir.lock.v2.LockToken;
@@ -98,6 +106,8 @@ public class SerializableTransaction extends SnapshotTransaction {
     final ConcurrentMap<TableReference, Set<Cell>> cellsRead = Maps.newConcurrentMap();
     final ConcurrentMap<TableReference, Set<RowRead>> rowsRead = Maps.newConcurrentMap();
 
+    private final Optional<ExecutorService> readVerificationExecutor;
+
     public SerializableTransaction(KeyValueService keyValueService,
                                    TimelockService timelockService,
                                    TransactionService transactionService,
@@ -115,6 +125,63 @@ public class SerializableTransaction extends SnapshotTransaction {
                                    TimestampCache timestampCache,
                                    long lockAcquireTimeoutMs,
                                    ExecutorService getRangesExecutor) {
+        this(keyValueService,
+                timelockService,
+                transactionService,
+                cleaner,
+                startTimeStamp,
+                conflictDetectionManager,
+                sweepStrategyManager,
+                immutableTimestamp,
+                immutableTsLock,
+                advisoryLockCheck,
+                constraintCheckingMode,
+                transactionTimeoutMillis,
+                readSentinelBehavior,
+                allowHiddenTableAccess,
+                timestampCache,
+                lockAcquireTimeoutMs,
+                getRangesExecutor,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty(),
+                SKIP_LIST_WRITE_BUFFER,
+                AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES,
+                CrossTransactionReadCache.disabled());
+    }
+
+    /**
+     * @param readVerificationExecutor If present, reads are verified at commit time in parallel on this executor
+     *                                 rather than one after the other.
+     * @param localWriteBufferFactory Creates the buffer holding this transaction's writes to each table until commit.
+     * @param readCacheMaxBytes The approximate number of bytes of values read from the key value service that this
+     *                          transaction may cache to serve repeated reads of the same cells.
+     * @param crossTransactionReadCache The cache of committed values of cacheable tables shared with the other
+     *                                  transactions of the transaction manager.
+     */
+    public SerializableTransaction(KeyValueService keyValueService,
+                                   TimelockService timelockService,
+                                   TransactionService transactionService,
+                                   Cleaner cleaner,
+                                   Supplier<Long> startTimeStamp,
+                                   ConflictDetectionManager conflictDetectionManager,
+                                   SweepStrategyManager sweepStrategyManager,
+                                   long immutableTimestamp,
+                                   Optional<LockToken> immutableTsLock,
+                                   AdvisoryLockPreCommitCheck advisoryLockCheck,
+                                   AtlasDbConstraintCheckingMode constraintCheckingMode,
+                                   Long transactionTimeoutMillis,
+                                   TransactionReadSentinelBehavior readSentinelBehavior,
+                                   boolean allowHiddenTableAccess,
+                                   TimestampCache timestampCache,
+                                   long lockAcquireTimeoutMs,
+                                   ExecutorService getRangesExecutor,
+                                   Optional<ExecutorService> pipelinedCommitExecutor,
+                                   Optional<ExecutorService> getRangesPrefetchExecutor,
+                                   Optional<ExecutorService> readVerificationExecutor,
+                                   Supplier<NavigableMap<Cell, byte[]>> localWriteBufferFactory,
+                                   long readCacheMaxBytes,
+                                   CrossTransactionReadCache crossTransactionReadCache) {
         super(keyValueService,
               timelockService,
               transactionService,
@@ -131,7 +198,13 @@ public class SerializableTransaction extends SnapshotTransaction {
               allowHiddenTableAccess,
               timestampCache,
               lockAcquireTimeoutMs,
-              getRangesExecutor);
+              getRangesExecutor,
+              pipelinedCommitExecutor,
+              getRangesPrefetchExecutor,
+              localWriteBufferFactory,
+              readCacheMaxBytes,
+              crossTransactionReadCache);
+        this.readVerificationExecutor = readVerificationExecutor;
     }
 
     @Override
@@ -421,28 +494,64 @@ public class SerializableTransaction extends SnapshotTransaction {
     @Override
     protected void throwIfReadWriteConflictForSerializable(long commitTimestamp) {
         Transaction ro = getReadOnlyTransaction(commitTimestamp);
-        verifyRanges(ro);
-        verifyColumnRanges(ro);
-        verifyCells(ro);
-        verifyRows(ro);
-    }
-
-    private void verifyRows(Transaction ro) {
-        for (Map.Entry<TableReference, Set<RowRead>> tableAndRowsEntry : rowsRead.entrySet()) {
-            TableReference table = tableAndRowsEntry.getKey();
-            Set<RowRead> rows = tableAndRowsEntry.getValue();
-
-            ConcurrentNavigableMap<Cell, byte[]> readsForTable = getReadsForTable(table);
-            Multimap<ColumnSelection, byte[]> rowsReadByColumns = Multimaps.newSortedSetMultimap(
-                    Maps.newHashMap(),
-                    () -> Sets.newTreeSet(UnsignedBytes.lexicographicalComparator()));
-            for (RowRead r : rows) {
-                rowsReadByColumns.putAll(r.cols, r.rows);
+        List<Runnable> verifications = Lists.newArrayList();
+        for (TableReference table : rangeEndByTable.keySet()) {
+            verifications.add(() -> verifyRanges(ro, table));
+        }
+        for (TableReference table : columnRangeEndsByTable.keySet()) {
+            verifications.add(() -> verifyColumnRanges(ro, table));
+        }
+        for (TableReference table : cellsRead.keySet()) {
+            verifications.add(() -> verifyCells(ro, table));
+        }
+        for (TableReference table : rowsRead.keySet()) {
+            verifications.add(() -> verifyRows(ro, table));
+        }
+        runVerifications(verifications);
+    }
+
+    /**
+     * Runs the given verifications, in parallel if we have an executor to do so. The first verification to fail
+     * causes the rest to be cancelled, and its exception is rethrown.
+     */
+    private void runVerifications(List<Runnable> verifications) {
+        if (!readVerificationExecutor.isPresent() || verifications.size() <= 1) {
+            verifications.forEach(Runnable::run);
+            return;
+        }
+
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(readVerificationExecutor.get());
+        List<Future<Void>> futures = Lists.newArrayListWithCapacity(verifications.size());
+        try {
+            for (Runnable verification : verifications) {
+                futures.add(completionService.submit(verification, null));
             }
-            for (ColumnSelection cols : rowsReadByColumns.keySet()) {
-                verifyColumns(ro, table, readsForTable, rowsReadByColumns, cols);
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
             }
+        } catch (ExecutionException e) {
+            throw Throwables.throwUncheckedException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.rewrapAndThrowUncheckedException(e);
+        } finally {
+            // Interrupting a verification part way through a call to the key value service could leave a pooled
+            // connection in an unknown state, so remaining verifications are only prevented from starting.
+            futures.forEach(future -> future.cancel(false));
+        }
+    }
 
+    private void verifyRows(Transaction ro, TableReference table) {
+        Set<RowRead> rows = rowsRead.get(table);
+        ConcurrentNavigableMap<Cell, byte[]> readsForTable = getReadsForTable(table);
+        Multimap<ColumnSelection, byte[]> rowsReadByColumns = Multimaps.newSortedSetMultimap(
+                Maps.newHashMap(),
+                () -> Sets.newTreeSet(UnsignedBytes.lexicographicalComparator()));
+        for (RowRead r : rows) {
+            rowsReadByColumns.putAll(r.cols, r.rows);
+        }
+        for (ColumnSelection cols : rowsReadByColumns.keySet()) {
+            verifyColumns(ro, table, readsForTable, rowsReadByColumns, cols);
         }
     }
 
@@ -519,56 +628,58 @@ public class SerializableTransaction extends SnapshotTransaction {
         return true;
     }
 
-    private void verifyCells(Transaction readOnlyTransaction) {
-        for (Entry<TableReference, Set<Cell>> tableAndCellsEntry : cellsRead.entrySet()) {
-            TableReference table = tableAndCellsEntry.getKey();
-            Set<Cell> cells = tableAndCellsEntry.getValue();
-
-            final ConcurrentNavigableMap<Cell, byte[]> readsForTable = getReadsForTable(table);
-            for (Iterable<Cell> batch : Iterables.partition(cells, BATCH_SIZE)) {
-                // We don't want to verify any reads that we wrote to cause we will just read our own values.
-                // NB: If the value has changed between read and write, our normal SI checking handles this case
-                Iterable<Cell> batchWithoutWrites = writesByTable.get(table) != null
-                        ? Iterables.filter(batch, Predicates.not(Predicates.in(writesByTable.get(table).keySet())))
-                        : batch;
-                ImmutableSet<Cell> batchWithoutWritesSet = ImmutableSet.copyOf(batchWithoutWrites);
-                Map<Cell, byte[]> currentBatch = readOnlyTransaction.get(table, batchWithoutWritesSet);
-                ImmutableMap<Cell, byte[]> originalReads = Maps.toMap(
-                        Sets.intersection(batchWithoutWritesSet, readsForTable.keySet()),
-                        Functions.forMap(readsForTable));
-                if (!areMapsEqual(currentBatch, originalReads)) {
-                    throw TransactionSerializableConflictException.create(
-                            table,
-                            getTimestamp(),
-                            System.currentTimeMillis() - timeCreated);
-                }
+    private void verifyCells(Transaction readOnlyTransaction, TableReference table) {
+        Set<Cell> cells = cellsRead.get(table);
+        final ConcurrentNavigableMap<Cell, byte[]> readsForTable = getReadsForTable(table);
+        for (Iterable<Cell> batch : Iterables.partition(cells, BATCH_SIZE)) {
+            // We don't want to verify any reads that we wrote to cause we will just read our own values.
+            // NB: If the value has changed between read and write, our normal SI checking handles this case
+            Iterable<Cell> batchWithoutWrites = writesByTable.get(table) != null
+                    ? Iterables.filter(batch, Predicates.not(Predicates.in(writesByTable.get(table).keySet())))
+                    : batch;
+            ImmutableSet<Cell> batchWithoutWritesSet = ImmutableSet.copyOf(batchWithoutWrites);
+            Map<Cell, byte[]> currentBatch = readOnlyTransaction.get(table, batchWithoutWritesSet);
+            ImmutableMap<Cell, byte[]> originalReads = Maps.toMap(
+                    Sets.intersection(batchWithoutWritesSet, readsForTable.keySet()),
+                    Functions.forMap(readsForTable));
+            if (!areMapsEqual(currentBatch, originalReads)) {
+                throw TransactionSerializableConflictException.create(
+                        table,
+                        getTimestamp(),
+                        System.currentTimeMillis() - timeCreated);
             }
         }
     }
 
-    private void verifyRanges(Transaction readOnlyTransaction) {
+    private void verifyRanges(Transaction readOnlyTransaction, TableReference table) {
         // verify each set of reads to ensure they are the same.
-        for (Entry<TableReference, ConcurrentMap<RangeRequest, byte[]>> tableAndRange : rangeEndByTable.entrySet()) {
-            TableReference table = tableAndRange.getKey();
-            Map<RangeRequest, byte[]> rangeEnds = tableAndRange.getValue();
-
-            for (Entry<RangeRequest, byte[]> rangeAndRangeEndEntry : rangeEnds.entrySet()) {
-                RangeRequest range = rangeAndRangeEndEntry.getKey();
-                byte[] rangeEnd = rangeAndRangeEndEntry.getValue();
-
-                if (rangeEnd.length != 0 && !RangeRequests.isTerminalRow(range.isReverse(), rangeEnd)) {
-                    range = range.getBuilder()
-                            .endRowExclusive(RangeRequests.getNextStartRow(range.isReverse(), rangeEnd))
-                            .build();
-                }
+        List<RangeRequest> ranges = Lists.newArrayList();
+        for (Entry<RangeRequest, byte[]> rangeAndRangeEndEntry : rangeEndByTable.get(table).entrySet()) {
+            RangeRequest range = rangeAndRangeEndEntry.getKey();
+            byte[] rangeEnd = rangeAndRangeEndEntry.getValue();
+
+            if (rangeEnd.length != 0 && !RangeRequests.isTerminalRow(range.isReverse(), rangeEnd)) {
+                range = range.getBuilder()
+                        .endRowExclusive(RangeRequests.getNextStartRow(range.isReverse(), rangeEnd))
+                        .build();
+            }
+            if (!range.isEmptyRange()) {
+                ranges.add(range);
+            }
+        }
 
-                ConcurrentNavigableMap<Cell, byte[]> writes = writesByTable.get(table);
-                BatchingVisitableView<RowResult<byte[]>> bv = BatchingVisitableView.of(
-                        readOnlyTransaction.getRange(table, range));
+        NavigableMap<Cell, byte[]> writes = writesByTable.get(table);
+        // Closing the stream cancels any ranges still being prefetched if we stop early.
+        try (Stream<BatchingVisitable<RowResult<byte[]>>> rangeResults =
+                readOnlyTransaction.getRangesLazy(table, ranges)) {
+            Iterator<BatchingVisitable<RowResult<byte[]>>> results = rangeResults.iterator();
+            for (RangeRequest range : ranges) {
+                BatchingVisitableView<RowResult<byte[]>> bv = BatchingVisitableView.of(results.next());
                 NavigableMap<Cell, ByteBuffer> readsInRange = Maps.transformValues(
                         getReadsInRange(table, range),
                         ByteBuffer::wrap);
-                if (!bv.transformBatch(input -> filterWritesFromRows(input, writes)).isEqual(readsInRange.entrySet())) {
+                if (!bv.transformBatch(input -> filterWritesFromRows(input, writes))
+                        .isEqual(readsInRange.entrySet())) {
                     throw TransactionSerializableConflictException.create(
                             table,
                             getTimestamp(),
@@ -596,63 +707,59 @@ public class SerializableTransaction extends SnapshotTransaction {
                 reads = reads.headMap(endCell, false);
             }
         }
-        ConcurrentNavigableMap<Cell, byte[]> writes = writesByTable.get(table);
+        NavigableMap<Cell, byte[]> writes = writesByTable.get(table);
         if (writes != null) {
             reads = Maps.filterKeys(reads, Predicates.not(Predicates.in(writes.keySet())));
         }
         return reads;
     }
 
-    private void verifyColumnRanges(Transaction readOnlyTransaction) {
+    private void verifyColumnRanges(Transaction readOnlyTransaction, TableReference table) {
         // verify each set of reads to ensure they are the same.
-        for (Entry<TableReference,
-                ConcurrentMap<byte[], ConcurrentMap<BatchColumnRangeSelection, byte[]>>> tableAndRange :
-                columnRangeEndsByTable.entrySet()) {
-            TableReference table = tableAndRange.getKey();
-            Map<byte[], ConcurrentMap<BatchColumnRangeSelection, byte[]>> columnRangeEnds = tableAndRange.getValue();
-
-            Map<Cell, byte[]> writes = writesByTable.get(table);
-            Map<BatchColumnRangeSelection, List<byte[]>> rangesToRows = Maps.newHashMap();
-            for (Entry<byte[], ConcurrentMap<BatchColumnRangeSelection, byte[]>> rowAndRangeEnds :
-                    columnRangeEnds.entrySet()) {
-                byte[] row = rowAndRangeEnds.getKey();
-                Map<BatchColumnRangeSelection, byte[]> rangeEnds = columnRangeEnds.get(row);
-
-                for (Entry<BatchColumnRangeSelection, byte[]> e : rangeEnds.entrySet()) {
-                    BatchColumnRangeSelection range = e.getKey();
-                    byte[] rangeEnd = e.getValue();
-                    if (rangeEnd.length != 0 && !RangeRequests.isTerminalRow(false, rangeEnd)) {
-                        range = BatchColumnRangeSelection.create(
-                                range.getStartCol(),
-                                RangeRequests.getNextStartRow(false, rangeEnd),
-                                range.getBatchHint());
-                    }
-                    if (rangesToRows.get(range) != null) {
-                        rangesToRows.get(range).add(row);
-                    } else {
-                        rangesToRows.put(range, ImmutableList.of(row));
-                    }
+        Map<byte[], ConcurrentMap<BatchColumnRangeSelection, byte[]>> columnRangeEnds =
+                columnRangeEndsByTable.get(table);
+
+        Map<Cell, byte[]> writes = writesByTable.get(table);
+        Map<BatchColumnRangeSelection, List<byte[]>> rangesToRows = Maps.newHashMap();
+        for (Entry<byte[], ConcurrentMap<BatchColumnRangeSelection, byte[]>> rowAndRangeEnds :
+                columnRangeEnds.entrySet()) {
+            byte[] row = rowAndRangeEnds.getKey();
+            Map<BatchColumnRangeSelection, byte[]> rangeEnds = columnRangeEnds.get(row);
+
+            for (Entry<BatchColumnRangeSelection, byte[]> e : rangeEnds.entrySet()) {
+                BatchColumnRangeSelection range = e.getKey();
+                byte[] rangeEnd = e.getValue();
+                if (rangeEnd.length != 0 && !RangeRequests.isTerminalRow(false, rangeEnd)) {
+                    range = BatchColumnRangeSelection.create(
+                            range.getStartCol(),
+                            RangeRequests.getNextStartRow(false, rangeEnd),
+                            range.getBatchHint());
+                }
+                if (rangesToRows.get(range) != null) {
+                    rangesToRows.get(range).add(row);
+                } else {
+                    rangesToRows.put(range, ImmutableList.of(row));
                 }
             }
-            for (Entry<BatchColumnRangeSelection, List<byte[]>> e : rangesToRows.entrySet()) {
-                BatchColumnRangeSelection range = e.getKey();
-                List<byte[]> rows = e.getValue();
-                Map<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> result =
-                        readOnlyTransaction.getRowsColumnRange(table, rows, range);
-                for (Entry<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> res : result.entrySet()) {
-                    byte[] row = res.getKey();
-                    BatchingVisitableView<Entry<Cell, byte[]>> bv = BatchingVisitableView.of(res.getValue());
-                    NavigableMap<Cell, ByteBuffer> readsInRange = Maps.transformValues(
-                            getReadsInColumnRange(table, row, range),
-                            input -> ByteBuffer.wrap(input));
-                    boolean isEqual = bv.transformBatch(input -> filterWritesFromCells(input, writes))
-                            .isEqual(readsInRange.entrySet());
-                    if (!isEqual) {
-                        throw TransactionSerializableConflictException.create(
-                                table,
-                                getTimestamp(),
-                                System.currentTimeMillis() - timeCreated);
-                    }
+        }
+        for (Entry<BatchColumnRangeSelection, List<byte[]>> e : rangesToRows.entrySet()) {
+            BatchColumnRangeSelection range = e.getKey();
+            List<byte[]> rows = e.getValue();
+            Map<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> result =
+                    readOnlyTransaction.getRowsColumnRange(table, rows, range);
+            for (Entry<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> res : result.entrySet()) {
+                byte[] row = res.getKey();
+                BatchingVisitableView<Entry<Cell, byte[]>> bv = BatchingVisitableView.of(res.getValue());
+                NavigableMap<Cell, ByteBuffer> readsInRange = Maps.transformValues(
+                        getReadsInColumnRange(table, row, range),
+                        input -> ByteBuffer.wrap(input));
+                boolean isEqual = bv.transformBatch(input -> filterWritesFromCells(input, writes))
+                        .isEqual(readsInRange.entrySet());
+                if (!isEqual) {
+                    throw TransactionSerializableConflictException.create(
+                            table,
+                            getTimestamp(),
+                            System.currentTimeMillis() - timeCreated);
                 }
             }
         }
@@ -16,9 +16,11 @@
 package com.palantir.atlasdb.transaction.impl;
 
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 import com.google.common.base.Supplier;
 import com.palantir.atlasdb.AtlasDbConstants;
+import com.palantir.atlasdb.cache.TimestampCache;
 import com.palantir.atlasdb.cleaner.Cleaner;
 import com.palantir.atlasdb.keyvalue.api.KeyValueService;
 import com.palantir.atlasdb.transaction.api.AtlasDbConstraintCheckingMode;
@@ -32,6 +34,7 @@ import com.palantir.lock.v2.TimelockService;
 import com.palantir.timestamp.TimestampService;
 
 public class SerializableTransactionManager extends SnapshotTransactionManager {
+    final ExecutorService readVerificationExecutor;
 
     public SerializableTransactionManager(KeyValueService keyValueService,
             TimestampService timestampService,
@@ -115,6 +118,43 @@ public class SerializableTransactionManager extends SnapshotTransactionManager {
             boolean allowHiddenTableAccess,
             Supplier<Long> lockAcquireTimeoutMs,
             int concurrentGetRangesThreadPoolSize) {
+        this(
+                keyValueService,
+                timelockService,
+                lockService,
+                transactionService,
+                constraintModeSupplier,
+                conflictDetectionManager,
+                sweepStrategyManager,
+                cleaner,
+                allowHiddenTableAccess,
+                lockAcquireTimeoutMs,
+                concurrentGetRangesThreadPoolSize,
+                TimestampCache.create(),
+                () -> false,
+                () -> false,
+                () -> AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES,
+                CrossTransactionReadCache.disabled(),
+                () -> false);
+    }
+
+    public SerializableTransactionManager(KeyValueService keyValueService,
+            TimelockService timelockService,
+            LockService lockService,
+            TransactionService transactionService,
+            Supplier<AtlasDbConstraintCheckingMode> constraintModeSupplier,
+            ConflictDetectionManager conflictDetectionManager,
+            SweepStrategyManager sweepStrategyManager,
+            Cleaner cleaner,
+            boolean allowHiddenTableAccess,
+            Supplier<Long> lockAcquireTimeoutMs,
+            int concurrentGetRangesThreadPoolSize,
+            TimestampCache timestampCache,
+            Supplier<Boolean> pipelineCommits,
+            Supplier<Boolean> useCompactWriteBuffer,
+            Supplier<Long> readCacheMaxBytes,
+            CrossTransactionReadCache crossTransactionReadCache,
+            Supplier<Boolean> leaseReadOnlyStartTimestamps) {
         super(
                 keyValueService,
                 timelockService,
@@ -126,7 +166,14 @@ public class SerializableTransactionManager extends SnapshotTransactionManager {
                 cleaner,
                 allowHiddenTableAccess,
                 lockAcquireTimeoutMs,
-                concurrentGetRangesThreadPoolSize);
+                concurrentGetRangesThreadPoolSize,
+                timestampCache,
+                pipelineCommits,
+                useCompactWriteBuffer,
+                readCacheMaxBytes,
+                crossTransactionReadCache,
+                leaseReadOnlyStartTimestamps);
+        this.readVerificationExecutor = createReadVerificationExecutor(concurrentGetRangesThreadPoolSize);
     }
 
     @Override
@@ -151,7 +198,19 @@ public class SerializableTransactionManager extends SnapshotTransactionManager {
                 allowHiddenTableAccess,
                 timestampValidationReadCache,
                 lockAcquireTimeoutMs.get(),
-                getRangesExecutor);
+                getRangesExecutor,
+                getPipelinedCommitExecutor(),
+                Optional.of(getRangesPrefetchExecutor),
+                Optional.of(readVerificationExecutor),
+                getLocalWriteBufferFactory(),
+                readCacheMaxBytes.get(),
+                crossTransactionReadCache);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        readVerificationExecutor.shutdown();
     }
 
 }
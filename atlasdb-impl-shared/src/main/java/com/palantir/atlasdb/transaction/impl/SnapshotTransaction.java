@@ -15,21 +15,29 @@
  */
 package com.palantir.atlasdb.transaction.impl;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -76,6 +84,7 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.palantir.atlasdb.AtlasDbConstants;
 import com.palantir.atlasdb.AtlasDbPerformanceConstants;
 import com.palantir.atlasdb.cache.TimestampCache;
@@ -99,6 +108,7 @@ import com.palantir.atlasdb.keyvalue.impl.LocalRowColumnRangeIterator;
 import com.palantir.atlasdb.keyvalue.impl.RowResults;
 import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.SweepStrategy;
 import com.palantir.atlasdb.table.description.exceptions.AtlasDbConstraintException;
+import com.palantir.atlasdb.transaction.api.AsyncTransaction;
 import com.palantir.atlasdb.transaction.api.AtlasDbConstraintCheckingMode;
 import com.palantir.atlasdb.transaction.api.ConflictHandler;
 import com.palantir.atlasdb.transaction.api.ConstraintCheckable;
@@ -122,6 +132,8 @@ import com.palantir.common.base.BatchingVisitables;
 import com.palantir.common.base.ClosableIterator;
 import com.palantir.common.base.ClosableIterators;
 import com.palantir.common.base.ForwardingClosableIterator;
+import com.palantir.common.base.PrefetchingBatchingVisitable;
+import com.palantir.common.base.Throwables;
 import com.palantir.common.collect.IterableUtils;
 import com.palantir.common.collect.IteratorUtils;
 import com.palantir.common.collect.MapEntries;
@@ -155,7 +167,8 @@ import com.palantir.util.paging.TokenBackedBasicResultsPage;
  *    all columns of the row.  If you are thinking about making your row bigger than like 10MB, you
  *    should think about breaking these up into different rows and using range scans.
  */
-public class SnapshotTransaction extends AbstractTransaction implements ConstraintCheckingTransaction {
+public class SnapshotTransaction extends AbstractTransaction
+        implements ConstraintCheckingTransaction, AsyncTransaction {
     private static final Logger log = LoggerFactory.getLogger(SnapshotTransaction.class);
     private static final Logger perfLogger = LoggerFactory.getLogger("dualschema.perf");
     private static final Logger constraintLogger = LoggerFactory.getLogger("dualschema.constraints");
@@ -184,7 +197,12 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
     private final AdvisoryLockPreCommitCheck advisoryLockCheck;
     protected final long timeCreated = System.currentTimeMillis();
 
-    protected final ConcurrentMap<TableReference, ConcurrentNavigableMap<Cell, byte[]>> writesByTable =
+    /**
+     * Creates the default buffer for local writes to a table, which suits any mix of reads and writes.
+     */
+    static final Supplier<NavigableMap<Cell, byte[]>> SKIP_LIST_WRITE_BUFFER = ConcurrentSkipListMap::new;
+
+    protected final ConcurrentMap<TableReference, NavigableMap<Cell, byte[]>> writesByTable =
             Maps.newConcurrentMap();
     protected final ConflictDetectionManager conflictDetectionManager;
     private final AtomicLong byteCount = new AtomicLong();
@@ -204,6 +222,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
     protected final TimestampCache timestampValidationReadCache;
     protected final long lockAcquireTimeoutMs;
     protected final ExecutorService getRangesExecutor;
+    protected final Optional<ExecutorService> pipelinedCommitExecutor;
+    private final Optional<ExecutorService> getRangesPrefetchExecutor;
+    protected final Supplier<NavigableMap<Cell, byte[]>> localWriteBufferFactory;
+    protected final TransactionReadCache readCache;
+    protected final CrossTransactionReadCache crossTransactionReadCache;
 
     private final MetricRegistry metricRegistry = AtlasDbMetrics.getMetricRegistry();
     private final Timer.Context transactionTimerContext = getTimer("transactionMillis").time();
@@ -231,6 +254,63 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
                                TimestampCache timestampValidationReadCache,
                                long lockAcquireTimeoutMs,
                                ExecutorService getRangesExecutor) {
+        this(keyValueService,
+                timelockService,
+                transactionService,
+                cleaner,
+                startTimeStamp,
+                conflictDetectionManager,
+                sweepStrategyManager,
+                immutableTimestamp,
+                immutableTimestampLock,
+                advisoryLockCheck,
+                constraintCheckingMode,
+                transactionTimeoutMillis,
+                readSentinelBehavior,
+                allowHiddenTableAccess,
+                timestampValidationReadCache,
+                lockAcquireTimeoutMs,
+                getRangesExecutor,
+                Optional.empty(),
+                Optional.empty(),
+                SKIP_LIST_WRITE_BUFFER,
+                AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES,
+                CrossTransactionReadCache.disabled());
+    }
+
+    /**
+     * @param pipelinedCommitExecutor If present, independent steps of the commit protocol are run concurrently
+     *                                on this executor rather than one after the other.
+     * @param getRangesPrefetchExecutor If present, {@link #getRangesLazy(TableReference, Iterable, int, int)}
+     *                                  prefetches batches of the ranges it returns on this executor.
+     * @param localWriteBufferFactory Creates the buffer holding this transaction's writes to each table until commit.
+     * @param readCacheMaxBytes The approximate number of bytes of values read from the key value service that this
+     *                          transaction may cache to serve repeated reads of the same cells.
+     * @param crossTransactionReadCache The cache of committed values of cacheable tables shared with the other
+     *                                  transactions of the transaction manager.
+     */
+    /* package */ SnapshotTransaction(KeyValueService keyValueService,
+                               TimelockService timelockService,
+                               TransactionService transactionService,
+                               Cleaner cleaner,
+                               Supplier<Long> startTimeStamp,
+                               ConflictDetectionManager conflictDetectionManager,
+                               SweepStrategyManager sweepStrategyManager,
+                               long immutableTimestamp,
+                               Optional<LockToken> immutableTimestampLock,
+                               AdvisoryLockPreCommitCheck advisoryLockCheck,
+                               AtlasDbConstraintCheckingMode constraintCheckingMode,
+                               Long transactionTimeoutMillis,
+                               TransactionReadSentinelBehavior readSentinelBehavior,
+                               boolean allowHiddenTableAccess,
+                               TimestampCache timestampValidationReadCache,
+                               long lockAcquireTimeoutMs,
+                               ExecutorService getRangesExecutor,
+                               Optional<ExecutorService> pipelinedCommitExecutor,
+                               Optional<ExecutorService> getRangesPrefetchExecutor,
+                               Supplier<NavigableMap<Cell, byte[]>> localWriteBufferFactory,
+                               long readCacheMaxBytes,
+                               CrossTransactionReadCache crossTransactionReadCache) {
         this.keyValueService = keyValueService;
         this.timelockService = timelockService;
         this.defaultTransactionService = transactionService;
@@ -248,6 +328,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         this.timestampValidationReadCache = timestampValidationReadCache;
         this.lockAcquireTimeoutMs = lockAcquireTimeoutMs;
         this.getRangesExecutor = getRangesExecutor;
+        this.pipelinedCommitExecutor = pipelinedCommitExecutor;
+        this.getRangesPrefetchExecutor = getRangesPrefetchExecutor;
+        this.localWriteBufferFactory = localWriteBufferFactory;
+        this.readCache = new TransactionReadCache(readCacheMaxBytes);
+        this.crossTransactionReadCache = crossTransactionReadCache;
     }
 
     // TEST ONLY
@@ -279,6 +364,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         this.timestampValidationReadCache = timestampValidationReadCache;
         this.lockAcquireTimeoutMs = AtlasDbConstants.DEFAULT_TRANSACTION_LOCK_ACQUIRE_TIMEOUT_MS;
         this.getRangesExecutor = getRangesExecutor;
+        this.pipelinedCommitExecutor = Optional.empty();
+        this.getRangesPrefetchExecutor = Optional.empty();
+        this.localWriteBufferFactory = SKIP_LIST_WRITE_BUFFER;
+        this.readCache = new TransactionReadCache(AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES);
+        this.crossTransactionReadCache = CrossTransactionReadCache.disabled();
     }
 
     protected SnapshotTransaction(KeyValueService keyValueService,
@@ -308,6 +398,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         this.timestampValidationReadCache = timestampValidationReadCache;
         this.lockAcquireTimeoutMs = lockAcquireTimeoutMs;
         this.getRangesExecutor = getRangesExecutor;
+        this.pipelinedCommitExecutor = Optional.empty();
+        this.getRangesPrefetchExecutor = Optional.empty();
+        this.localWriteBufferFactory = SKIP_LIST_WRITE_BUFFER;
+        this.readCache = new TransactionReadCache(AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES);
+        this.crossTransactionReadCache = CrossTransactionReadCache.disabled();
     }
 
     @Override
@@ -347,9 +442,18 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
             return AbstractTransaction.EMPTY_SORTED_ROWS;
         }
         Map<Cell, byte[]> result = Maps.newHashMap();
-        Map<Cell, Value> rawResults = Maps.newHashMap(
-                keyValueService.getRows(tableRef, rows, columnSelection, getStartTimestamp()));
         SortedMap<Cell, byte[]> writes = writesByTable.get(tableRef);
+
+        // We don't need to read rows that we have already read.
+        Set<byte[]> rowsToRead = Sets.newTreeSet(UnsignedBytes.lexicographicalComparator());
+        for (byte[] row : rows) {
+            if (!getCachedRow(tableRef, row, columnSelection, writes, result)) {
+                rowsToRead.add(row);
+            }
+        }
+        Map<Cell, Value> rawResults = rowsToRead.isEmpty()
+                ? Maps.newHashMap()
+                : Maps.newHashMap(keyValueService.getRows(tableRef, rowsToRead, columnSelection, getStartTimestamp()));
         if (writes != null) {
             for (byte[] row : rows) {
                 extractLocalWritesForRow(result, writes, row);
@@ -359,7 +463,12 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         // We don't need to do work postFiltering if we have a write locally.
         rawResults.keySet().removeAll(result.keySet());
 
-        SortedMap<byte[], RowResult<byte[]>> results = filterRowResults(tableRef, rawResults, result);
+        Map<Cell, byte[]> readResults = Maps.newHashMap();
+        getWithPostFiltering(tableRef, rawResults, readResults, Value.GET_VALUE);
+        cacheReadRows(tableRef, rowsToRead, columnSelection, readResults, result.keySet());
+        result.putAll(readResults);
+
+        SortedMap<byte[], RowResult<byte[]>> results = toRowResults(result);
         long getRowsMillis = TimeUnit.NANOSECONDS.toMillis(timer.stop());
         if (perfLogger.isDebugEnabled()) {
             perfLogger.debug("getRows({}, {} rows) found {} rows, took {} ms",
@@ -369,6 +478,15 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         return results;
     }
 
+    @Override
+    public CompletableFuture<SortedMap<byte[], RowResult<byte[]>>> getRowsAsync(TableReference tableRef,
+                                                                             Iterable<byte[]> rows,
+                                                                             ColumnSelection columnSelection,
+                                                                             Executor executor) {
+        checkGetPreconditions(tableRef);
+        return CompletableFuture.supplyAsync(() -> getRows(tableRef, rows, columnSelection), executor);
+    }
+
     @Override
     public Map<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> getRowsColumnRange(
             TableReference tableRef,
@@ -378,10 +496,23 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         if (Iterables.isEmpty(rows)) {
             return ImmutableMap.of();
         }
-        Map<byte[], RowColumnRangeIterator> rawResults = keyValueService.getRowsColumnRange(tableRef, rows,
+        Map<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> postFilteredResults = Maps.newHashMap();
+        List<byte[]> rowsToRead = Lists.newArrayList();
+        for (byte[] row : rows) {
+            if (readCache.isRowComplete(tableRef, row)) {
+                postFilteredResults.put(row, BatchingVisitableFromIterable.create(
+                        getCachedColumns(tableRef, columnRangeSelection, row)));
+            } else {
+                rowsToRead.add(row);
+            }
+        }
+        if (rowsToRead.isEmpty()) {
+            validateExternalAndCommitLocksIfNecessary(tableRef);
+            return postFilteredResults;
+        }
+
+        Map<byte[], RowColumnRangeIterator> rawResults = keyValueService.getRowsColumnRange(tableRef, rowsToRead,
                 columnRangeSelection, getStartTimestamp());
-        Map<byte[], BatchingVisitable<Map.Entry<Cell, byte[]>>> postFilteredResults =
-                Maps.newHashMapWithExpectedSize(rawResults.size());
         for (Entry<byte[], RowColumnRangeIterator> e : rawResults.entrySet()) {
             byte[] row = e.getKey();
             RowColumnRangeIterator rawIterator = e.getValue();
@@ -401,6 +532,13 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         if (Iterables.isEmpty(rows)) {
             return Collections.emptyIterator();
         }
+        if (Iterables.all(rows, row -> readCache.isRowComplete(tableRef, row))) {
+            validateExternalAndCommitLocksIfNecessary(tableRef);
+            BatchColumnRangeSelection batchColumnRangeSelection =
+                    BatchColumnRangeSelection.create(columnRangeSelection, batchHint);
+            return Iterators.concat(Iterators.transform(rows.iterator(),
+                    row -> getCachedColumns(tableRef, batchColumnRangeSelection, row)));
+        }
         RowColumnRangeIterator rawResults =
                 keyValueService.getRowsColumnRange(tableRef,
                                                    rows,
@@ -429,6 +567,22 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
             RowColumnRangeIterator rawIterator) {
         Iterator<Map.Entry<Cell, byte[]>> postFilterIterator =
                 getRowColumnRangePostFiltered(tableRef, row, batchColumnRangeSelection, rawIterator);
+        return mergeLocalWritesForColumnRange(tableRef, batchColumnRangeSelection, row, postFilterIterator);
+    }
+
+    private Iterator<Map.Entry<Cell, byte[]>> getCachedColumns(
+            TableReference tableRef,
+            BatchColumnRangeSelection batchColumnRangeSelection,
+            byte[] row) {
+        SortedMap<Cell, byte[]> cached = getColumnRange(readCache.getCells(tableRef), batchColumnRangeSelection, row);
+        return mergeLocalWritesForColumnRange(tableRef, batchColumnRangeSelection, row, cached.entrySet().iterator());
+    }
+
+    private Iterator<Map.Entry<Cell, byte[]>> mergeLocalWritesForColumnRange(
+            TableReference tableRef,
+            BatchColumnRangeSelection batchColumnRangeSelection,
+            byte[] row,
+            Iterator<Map.Entry<Cell, byte[]>> postFilterIterator) {
         SortedMap<Cell, byte[]> localWrites = getLocalWritesForColumnRange(tableRef, batchColumnRangeSelection, row);
         Iterator<Map.Entry<Cell, byte[]>> localIterator = localWrites.entrySet().iterator();
         Iterator<Map.Entry<Cell, byte[]>> mergedIterator =
@@ -543,10 +697,70 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
                                                                   Map<Cell, Value> rawResults,
                                                                   Map<Cell, byte[]> result) {
         getWithPostFiltering(tableRef, rawResults, result, Value.GET_VALUE);
+        return toRowResults(result);
+    }
+
+    private static SortedMap<byte[], RowResult<byte[]>> toRowResults(Map<Cell, byte[]> result) {
         Map<Cell, byte[]> filterDeletedValues = Maps.filterValues(result, Predicates.not(Value.IS_EMPTY));
         return RowResults.viewOfSortedMap(Cells.breakCellsUpByRow(filterDeletedValues));
     }
 
+    /**
+     * Adds the given row to the result map if the requested columns of it are all either written locally or in
+     * the read cache, and returns whether it did. Local writes are not added; callers must add them afterwards.
+     */
+    private boolean getCachedRow(TableReference tableRef,
+                                 byte[] row,
+                                 ColumnSelection columnSelection,
+                                 @Nullable SortedMap<Cell, byte[]> writes,
+                                 @Output Map<Cell, byte[]> result) {
+        if (columnSelection.allColumnsSelected()) {
+            if (!readCache.isRowComplete(tableRef, row)) {
+                return false;
+            }
+            result.putAll(readCache.getRow(tableRef, row));
+            return true;
+        }
+        Map<Cell, byte[]> cached = Maps.newHashMap();
+        for (byte[] column : columnSelection.getSelectedColumns()) {
+            Cell cell = Cell.create(row, column);
+            if (writes != null && writes.containsKey(cell)) {
+                continue;
+            }
+            byte[] value = readCache.get(tableRef, cell);
+            if (value == null) {
+                return false;
+            }
+            cached.put(cell, value);
+        }
+        result.putAll(cached);
+        return true;
+    }
+
+    private void cacheReadRows(TableReference tableRef,
+                               Set<byte[]> rows,
+                               ColumnSelection columnSelection,
+                               Map<Cell, byte[]> readResults,
+                               Set<Cell> locallyWrittenCells) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (columnSelection.allColumnsSelected()) {
+            readCache.cacheRows(tableRef, rows, readResults);
+            return;
+        }
+        Map<Cell, byte[]> toCache = Maps.newHashMap(readResults);
+        for (byte[] row : rows) {
+            for (byte[] column : columnSelection.getSelectedColumns()) {
+                Cell cell = Cell.create(row, column);
+                if (!locallyWrittenCells.contains(cell)) {
+                    toCache.putIfAbsent(cell, PtBytes.EMPTY_BYTE_ARRAY);
+                }
+            }
+        }
+        readCache.cacheCells(tableRef, toCache);
+    }
+
     /**
      * This will add any local writes for this row to the result map.
      * <p>
@@ -584,8 +798,28 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
             }
         }
 
-        // We don't need to read any cells that were written locally.
-        result.putAll(getFromKeyValueService(tableRef, Sets.difference(cells, result.keySet())));
+        // We don't need to read any cells that were written locally, or that we have already read.
+        Set<Cell> toRead = Sets.newHashSet();
+        for (Cell cell : cells) {
+            if (result.containsKey(cell)) {
+                continue;
+            }
+            byte[] cached = readCache.get(tableRef, cell);
+            if (cached != null) {
+                result.put(cell, cached);
+            } else {
+                toRead.add(cell);
+            }
+        }
+        if (!toRead.isEmpty()) {
+            Map<Cell, byte[]> readResults = getFromKeyValueService(tableRef, toRead);
+            Map<Cell, byte[]> toCache = Maps.newHashMap(readResults);
+            for (Cell cell : toRead) {
+                toCache.putIfAbsent(cell, PtBytes.EMPTY_BYTE_ARRAY);
+            }
+            readCache.cacheCells(tableRef, toCache);
+            result.putAll(readResults);
+        }
 
         long getMillis = TimeUnit.NANOSECONDS.toMillis(timer.stop());
         if (perfLogger.isDebugEnabled()) {
@@ -596,6 +830,14 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         return Maps.filterValues(result, Predicates.not(Value.IS_EMPTY));
     }
 
+    @Override
+    public CompletableFuture<Map<Cell, byte[]>> getAsync(TableReference tableRef,
+                                                         Set<Cell> cells,
+                                                         Executor executor) {
+        checkGetPreconditions(tableRef);
+        return CompletableFuture.supplyAsync(() -> get(tableRef, cells), executor);
+    }
+
     @Override
     public Map<Cell, byte[]> getIgnoringLocalWrites(TableReference tableRef, Set<Cell> cells) {
         checkGetPreconditions(tableRef);
@@ -615,6 +857,9 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
      * this will be included here and needs to be filtered out.
      */
     private Map<Cell, byte[]> getFromKeyValueService(TableReference tableRef, Set<Cell> cells) {
+        if (crossTransactionReadCache.isCacheable(tableRef)) {
+            return getThroughCrossTransactionReadCache(tableRef, cells);
+        }
         Map<Cell, byte[]> result = Maps.newHashMap();
         Map<Cell, Long> toRead = Cells.constantValueMap(cells, getStartTimestamp());
         Map<Cell, Value> rawResults = keyValueService.get(tableRef, toRead);
@@ -622,6 +867,25 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         return result;
     }
 
+    private Map<Cell, byte[]> getThroughCrossTransactionReadCache(TableReference tableRef, Set<Cell> cells) {
+        Map<Cell, byte[]> result = Maps.newHashMap(crossTransactionReadCache.get(tableRef, cells, getStartTimestamp()));
+        Set<Cell> toRead = Sets.difference(cells, result.keySet());
+        if (toRead.isEmpty()) {
+            return result;
+        }
+        Map<Cell, Value> values = Maps.newHashMap();
+        Map<Cell, Long> toReadAtStartTimestamp = Cells.constantValueMap(toRead, getStartTimestamp());
+        Map<Cell, Value> rawResults = keyValueService.get(tableRef, toReadAtStartTimestamp);
+        getWithPostFiltering(tableRef, rawResults, values, Functions.<Value>identity());
+        // Post-filtering has just looked up these commit timestamps, so they come from the timestamp cache.
+        Map<Long, Long> commitTimestamps = getCommitTimestamps(
+                tableRef, getStartTimestampsForValues(values.values()), false);
+        crossTransactionReadCache.cacheCommittedValues(
+                tableRef, values, commitTimestamps, getStartTimestamp(), immutableTimestamp);
+        result.putAll(Maps.transformValues(values, Value.GET_VALUE));
+        return result;
+    }
+
     private static byte[] getNextStartRowName(
             RangeRequest range,
             TokenBackedBasicResultsPage<RowResult<Value>, byte[]> prePostFilter) {
@@ -655,40 +919,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
 
                     List<BatchingVisitable<RowResult<byte[]>>> ret = Lists.newArrayListWithCapacity(input.size());
                     for (RangeRequest rangeRequest : input) {
-                        TokenBackedBasicResultsPage<RowResult<Value>, byte[]> prePostFilter =
-                                firstPages.get(rangeRequest);
-                        byte[] nextStartRowName = getNextStartRowName(
-                                rangeRequest,
-                                prePostFilter);
-                        List<Entry<Cell, byte[]>> mergeIterators = getPostFilteredWithLocalWrites(
+                        ret.add(createRangeVisitable(
                                 tableRef,
-                                postFiltered,
                                 rangeRequest,
-                                prePostFilter.getResults(),
-                                nextStartRowName);
-                        ret.add(new AbstractBatchingVisitable<RowResult<byte[]>>() {
-                            @Override
-                            protected <K extends Exception> void batchAcceptSizeHint(
-                                    int batchSizeHint,
-                                    ConsistentVisitor<RowResult<byte[]>, K> visitor)
-                                    throws K {
-                                checkGetPreconditions(tableRef);
-                                final Iterator<RowResult<byte[]>> rowResults = Cells.createRowView(mergeIterators);
-                                while (rowResults.hasNext()) {
-                                    if (!visitor.visit(ImmutableList.of(rowResults.next()))) {
-                                        return;
-                                    }
-                                }
-                                if ((nextStartRowName.length == 0) || !prePostFilter.moreResultsAvailable()) {
-                                    return;
-                                }
-                                RangeRequest newRange = rangeRequest.getBuilder()
-                                        .startRowInclusive(nextStartRowName)
-                                        .build();
-                                getRange(tableRef, newRange)
-                                        .batchAccept(batchSizeHint, visitor);
-                            }
-                        });
+                                firstPages.get(rangeRequest),
+                                postFiltered));
                     }
                     long processedRangeMillis = TimeUnit.NANOSECONDS.toMillis(timer.stop());
                     log.trace("Processed {} range requests for {} in {}ms",
@@ -697,6 +932,48 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
                 });
     }
 
+    /**
+     * Creates a visitable that visits the given first page of the given range, and then reads the rest of the range.
+     */
+    private BatchingVisitable<RowResult<byte[]>> createRangeVisitable(
+            TableReference tableRef,
+            RangeRequest rangeRequest,
+            TokenBackedBasicResultsPage<RowResult<Value>, byte[]> prePostFilter,
+            SortedMap<Cell, byte[]> postFiltered) {
+        byte[] nextStartRowName = getNextStartRowName(
+                rangeRequest,
+                prePostFilter);
+        List<Entry<Cell, byte[]>> mergeIterators = getPostFilteredWithLocalWrites(
+                tableRef,
+                postFiltered,
+                rangeRequest,
+                prePostFilter.getResults(),
+                nextStartRowName);
+        return new AbstractBatchingVisitable<RowResult<byte[]>>() {
+            @Override
+            protected <K extends Exception> void batchAcceptSizeHint(
+                    int batchSizeHint,
+                    ConsistentVisitor<RowResult<byte[]>, K> visitor)
+                    throws K {
+                checkGetPreconditions(tableRef);
+                final Iterator<RowResult<byte[]>> rowResults = Cells.createRowView(mergeIterators);
+                while (rowResults.hasNext()) {
+                    if (!visitor.visit(ImmutableList.of(rowResults.next()))) {
+                        return;
+                    }
+                }
+                if ((nextStartRowName.length == 0) || !prePostFilter.moreResultsAvailable()) {
+                    return;
+                }
+                RangeRequest newRange = rangeRequest.getBuilder()
+                        .startRowInclusive(nextStartRowName)
+                        .build();
+                getRange(tableRef, newRange)
+                        .batchAccept(batchSizeHint, visitor);
+            }
+        };
+    }
+
     @Override
     public <T> Stream<T> getRanges(
             final TableReference tableRef,
@@ -723,6 +1000,63 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
                 .map(rangeRequest -> getLazyRange(tableRef, rangeRequest));
     }
 
+    @Override
+    public Stream<BatchingVisitable<RowResult<byte[]>>> getRangesLazy(
+            TableReference tableRef,
+            Iterable<RangeRequest> rangeRequests,
+            int maxInFlightRanges,
+            int prefetchedBatchesPerRange) {
+        checkGetPreconditions(tableRef);
+        Preconditions.checkArgument(maxInFlightRanges > 0, "maxInFlightRanges must be positive");
+        Preconditions.checkArgument(prefetchedBatchesPerRange > 0, "prefetchedBatchesPerRange must be positive");
+
+        Iterator<RangeRequest> remainingRanges = rangeRequests.iterator();
+        Deque<Future<BatchingVisitable<RowResult<byte[]>>>> inFlightRanges = new ArrayDeque<>(maxInFlightRanges);
+        String prefetchName = "getRangesLazy(" + tableRef.getQualifiedName() + ")";
+        Iterator<BatchingVisitable<RowResult<byte[]>>> ranges =
+                new AbstractIterator<BatchingVisitable<RowResult<byte[]>>>() {
+                    @Override
+                    protected BatchingVisitable<RowResult<byte[]>> computeNext() {
+                        // Only start reading more ranges as the consumer takes them, so that memory stays bounded.
+                        while (inFlightRanges.size() < maxInFlightRanges && remainingRanges.hasNext()) {
+                            RangeRequest rangeRequest = remainingRanges.next();
+                            inFlightRanges.add(
+                                    getRangesExecutor.submit(() -> getRangeWithFirstPage(tableRef, rangeRequest)));
+                        }
+                        Future<BatchingVisitable<RowResult<byte[]>>> nextRange = inFlightRanges.poll();
+                        if (nextRange == null) {
+                            return endOfData();
+                        }
+                        try {
+                            BatchingVisitable<RowResult<byte[]>> range = Uninterruptibles.getUninterruptibly(nextRange);
+                            if (!getRangesPrefetchExecutor.isPresent()) {
+                                return range;
+                            }
+                            return new PrefetchingBatchingVisitable<>(
+                                    range,
+                                    prefetchedBatchesPerRange,
+                                    getRangesPrefetchExecutor.get(),
+                                    prefetchName);
+                        } catch (ExecutionException e) {
+                            throw Throwables.rewrapAndThrowUncheckedException(e.getCause());
+                        }
+                    }
+                };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(ranges, Spliterator.ORDERED), false)
+                .onClose(() -> inFlightRanges.forEach(range -> range.cancel(true)));
+    }
+
+    /**
+     * Reads the first page of the given range through {@link #getRanges(TableReference, Iterable)}, which
+     * serializable transactions override to record what is read.
+     */
+    private BatchingVisitable<RowResult<byte[]>> getRangeWithFirstPage(TableReference tableRef, RangeRequest range) {
+        if (range.isEmptyRange()) {
+            return getRange(tableRef, range);
+        }
+        return Iterables.getOnlyElement(getRanges(tableRef, ImmutableList.of(range)));
+    }
+
     private BatchingVisitable<RowResult<byte[]>> getLazyRange(TableReference tableRef, RangeRequest rangeRequest) {
         return new AbstractBatchingVisitable<RowResult<byte[]>>() {
             @Override
@@ -893,11 +1227,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         };
     }
 
-    private ConcurrentNavigableMap<Cell, byte[]> getLocalWrites(TableReference tableRef) {
-        ConcurrentNavigableMap<Cell, byte[]> writes = writesByTable.get(tableRef);
+    private NavigableMap<Cell, byte[]> getLocalWrites(TableReference tableRef) {
+        NavigableMap<Cell, byte[]> writes = writesByTable.get(tableRef);
         if (writes == null) {
-            writes = new ConcurrentSkipListMap<Cell, byte[]>();
-            ConcurrentNavigableMap<Cell, byte[]> previous = writesByTable.putIfAbsent(tableRef, writes);
+            writes = localWriteBufferFactory.get();
+            NavigableMap<Cell, byte[]> previous = writesByTable.putIfAbsent(tableRef, writes);
             if (previous != null) {
                 writes = previous;
             }
@@ -923,16 +1257,22 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
             TableReference tableRef,
             BatchColumnRangeSelection columnRangeSelection,
             byte[] row) {
-        SortedMap<Cell, byte[]> writes = getLocalWrites(tableRef);
+        return getColumnRange(getLocalWrites(tableRef), columnRangeSelection, row);
+    }
+
+    private static SortedMap<Cell, byte[]> getColumnRange(
+            SortedMap<Cell, byte[]> cells,
+            BatchColumnRangeSelection columnRangeSelection,
+            byte[] row) {
         Cell startCell;
         if (columnRangeSelection.getStartCol().length != 0) {
             startCell = Cell.create(row, columnRangeSelection.getStartCol());
         } else {
             startCell = Cells.createSmallestCellForRow(row);
         }
-        writes = writes.tailMap(startCell);
+        SortedMap<Cell, byte[]> range = cells.tailMap(startCell);
         if (RangeRequests.isLastRowName(row)) {
-            return writes;
+            return range;
         }
         Cell endCell;
         if (columnRangeSelection.getEndCol().length != 0) {
@@ -940,8 +1280,7 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         } else {
             endCell = Cells.createSmallestCellForRow(RangeRequests.nextLexicographicName(row));
         }
-        writes = writes.headMap(endCell);
-        return writes;
+        return range.headMap(endCell);
     }
 
     private SortedMap<Cell, byte[]> postFilterPages(TableReference tableRef,
@@ -1124,7 +1463,7 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
             // We need to check the status after incrementing writers to ensure that we fail if we are committing.
             Preconditions.checkState(state.get() == State.UNCOMMITTED, "Transaction must be uncommitted.");
 
-            ConcurrentNavigableMap<Cell, byte[]> writes = getLocalWrites(tableRef);
+            NavigableMap<Cell, byte[]> writes = getLocalWrites(tableRef);
 
             putWritesAndLogIfTooLarge(valuesToWrite, writes);
         } finally {
@@ -1210,6 +1549,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         commit(defaultTransactionService);
     }
 
+    @Override
+    public CompletableFuture<Void> commitAsync(Executor executor) {
+        return CompletableFuture.runAsync(() -> commit(), executor);
+    }
+
     @Override
     public void commit(TransactionService transactionService) {
         if (state.get() == State.COMMITTED) {
@@ -1233,6 +1577,8 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
             cleaner.queueCellsForScrubbing(getCellsToQueueForScrubbing(), getStartTimestamp());
         }
 
+        Set<TableReference> tablesWritten = ImmutableSet.copyOf(writesByTable.keySet());
+        crossTransactionReadCache.startCommit(tablesWritten);
         boolean success = false;
         try {
             if (numWriters.get() > 0) {
@@ -1252,6 +1598,11 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         } finally {
             // Once we are in state committing, we need to try/finally to set the state to a terminal state.
             state.set(success ? State.COMMITTED : State.FAILED);
+            // Even a failed commit may have written some of our values, and may have committed them if it got as far
+            // as taking a commit timestamp.
+            crossTransactionReadCache.finishCommit(
+                    Maps.filterKeys(writesByTable, tablesWritten::contains),
+                    Math.max(commitTsForScrubbing, getStartTimestamp()));
         }
     }
 
@@ -1282,32 +1633,35 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         LockToken commitLocksToken = acquireLocksForCommit();
         long millisForLocks = TimeUnit.NANOSECONDS.toMillis(acquireLocksTimer.stop());
         try {
-            Timer.Context conflictsTimer = getTimer("commitCheckingForConflicts").time();
-            throwIfConflictOnCommit(commitLocksToken, transactionService);
-            long millisCheckingForConflicts = TimeUnit.NANOSECONDS.toMillis(conflictsTimer.stop());
-            Timer.Context writesTimer = getTimer("commitWrite").time();
-            keyValueService.multiPut(writesByTable, getStartTimestamp());
-            long millisForWrites = TimeUnit.NANOSECONDS.toMillis(writesTimer.stop());
+            // Our writes are invisible until we put our commit timestamp, and we hold the commit locks for every
+            // cell we write, so checking for conflicts may safely overlap with writing when pipelining.
+            AtomicLong millisCheckingForConflicts = new AtomicLong();
+            AtomicLong millisForWrites = new AtomicLong();
+            runCommitStagesConcurrently(
+                    () -> millisCheckingForConflicts.set(timeCommitStage("commitCheckingForConflicts",
+                            () -> throwIfConflictOnCommit(commitLocksToken, transactionService))),
+                    () -> millisForWrites.set(timeCommitStage("commitWrite",
+                            () -> keyValueService.multiPut(writesByTable, getStartTimestamp()))));
 
             // Now that all writes are done, get the commit timestamp
             // We must do this before we check that our locks are still valid to ensure that
             // other transactions that will hold these locks are sure to have start
             // timestamps after our commit timestamp.
+            // This must not be fetched while writes are still in flight: a reader starting after our commit
+            // timestamp is taken must be able to see all of our writes.
             long commitTimestamp = timelockService.getFreshTimestamp();
             commitTsForScrubbing = commitTimestamp;
 
             // punch on commit so that if hard delete is the only thing happening on a system,
             // we won't block forever waiting for the unreadable timestamp to advance past the
             // scrub timestamp (same as the hard delete transaction's start timestamp)
-            Timer.Context punchTimer = getTimer("millisForPunch").time();
-            cleaner.punch(commitTimestamp);
-            long millisForPunch = TimeUnit.NANOSECONDS.toMillis(punchTimer.stop());
-
-            throwIfReadWriteConflictForSerializable(commitTimestamp);
-
-            // Verify that our locks are still valid before we actually commit;
-            // this throwIfLocksExpired is required by the transaction protocol for correctness
-            throwIfPreCommitRequirementsNotMet(commitLocksToken);
+            AtomicLong millisForPunch = new AtomicLong();
+            runCommitStagesConcurrently(
+                    () -> millisForPunch.set(timeCommitStage("millisForPunch", () -> cleaner.punch(commitTimestamp))),
+                    () -> throwIfReadWriteConflictForSerializable(commitTimestamp),
+                    // Verify that our locks are still valid before we actually commit;
+                    // this throwIfLocksExpired is required by the transaction protocol for correctness
+                    () -> throwIfPreCommitRequirementsNotMet(commitLocksToken));
 
             Timer.Context commitTsTimer = getTimer("commitPutCommitTs").time();
             putCommitTimestamp(commitTimestamp, commitLocksToken, transactionService);
@@ -1329,16 +1683,60 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
                 perfLogger.debug("Committed {} bytes with locks, start ts {}, commit ts {}, "
                         + "acquiring locks took {} ms, checking for conflicts took {} ms, "
                         + "writing took {} ms, punch took {} ms, putCommitTs took {} ms, "
-                        + "total time since tx creation {} ms, tables: {}.",
+                        + "total time since tx creation {} ms, pipelined {}, tables: {}.",
                         byteCount.get(), getStartTimestamp(),
-                        commitTimestamp, millisForLocks, millisCheckingForConflicts, millisForWrites,
-                        millisForPunch, millisForCommitTs, millisSinceCreation, writesByTable.keySet());
+                        commitTimestamp, millisForLocks, millisCheckingForConflicts.get(), millisForWrites.get(),
+                        millisForPunch.get(), millisForCommitTs, millisSinceCreation,
+                        pipelinedCommitExecutor.isPresent(), writesByTable.keySet());
             }
         } finally {
             timelockService.unlock(ImmutableSet.of(commitLocksToken));
         }
     }
 
+    private long timeCommitStage(String timerName, Runnable stage) {
+        Timer.Context timer = getTimer(timerName).time();
+        stage.run();
+        return TimeUnit.NANOSECONDS.toMillis(timer.stop());
+    }
+
+    /**
+     * Runs the given commit stages, which must be independent of each other. If commits are pipelined, all but the
+     * first stage are run on the commit executor while the first runs on this thread; otherwise they are run in
+     * order. Either way, every stage has finished by the time this returns, and the first failure is rethrown.
+     */
+    private void runCommitStagesConcurrently(Runnable... stages) {
+        if (!pipelinedCommitExecutor.isPresent()) {
+            for (Runnable stage : stages) {
+                stage.run();
+            }
+            return;
+        }
+
+        List<Future<?>> futures = Lists.newArrayListWithCapacity(stages.length - 1);
+        for (int i = 1; i < stages.length; i++) {
+            futures.add(pipelinedCommitExecutor.get().submit(stages[i]));
+        }
+        Throwable failure = null;
+        try {
+            stages[0].run();
+        } catch (Throwable t) {
+            failure = t;
+        }
+        for (Future<?> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            throw Throwables.throwUncheckedException(failure);
+        }
+    }
+
     protected void throwIfReadWriteConflictForSerializable(long commitTimestamp) {
         // This is for overriding to get serializable transactions
     }
@@ -1406,7 +1804,7 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
      */
     protected void throwIfConflictOnCommit(LockToken commitLocksToken, TransactionService transactionService)
             throws TransactionConflictException {
-        for (Entry<TableReference, ConcurrentNavigableMap<Cell, byte[]>> write : writesByTable.entrySet()) {
+        for (Entry<TableReference, NavigableMap<Cell, byte[]>> write : writesByTable.entrySet()) {
             ConflictHandler conflictHandler = getConflictHandlerForTable(write.getKey());
             throwIfWriteAlreadyCommitted(
                     write.getKey(),
@@ -1530,10 +1928,17 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         Map<Cell, Long> rawResults = keyValueService.getLatestTimestamps(tableRef, keysToLoad);
         Map<Long, Long> commitTimestamps = getCommitTimestamps(tableRef, rawResults.values(), false);
         Map<Cell, Long> keysToDelete = Maps.newHashMapWithExpectedSize(0);
+        Map<Cell, Long> keysToReload = Maps.newHashMapWithExpectedSize(0);
 
         for (Map.Entry<Cell, Long> e : rawResults.entrySet()) {
             Cell key = e.getKey();
             long theirStartTimestamp = e.getValue();
+            if (theirStartTimestamp == getStartTimestamp() && pipelinedCommitExecutor.isPresent()) {
+                // This is our own write, which may land while we check for conflicts when commits are pipelined.
+                // Nothing has been written above it, so look for conflicting writes below it.
+                keysToReload.put(key, theirStartTimestamp);
+                continue;
+            }
             AssertUtils.assertAndLog(log, theirStartTimestamp != getStartTimestamp(),
                     "Timestamp reuse is bad:%d", getStartTimestamp());
 
@@ -1573,7 +1978,8 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         }
 
         // Once we successfully rollback and delete these cells we need to reload them.
-        return keysToDelete;
+        keysToReload.putAll(keysToDelete);
+        return keysToReload;
     }
 
     /**
@@ -1879,7 +2285,7 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         Multimap<Cell, TableReference> cellToTableName = HashMultimap.create();
         State actualState = state.get();
         if (expectedState == actualState) {
-            for (Entry<TableReference, ConcurrentNavigableMap<Cell, byte[]>> entry : writesByTable.entrySet()) {
+            for (Entry<TableReference, NavigableMap<Cell, byte[]>> entry : writesByTable.entrySet()) {
                 TableReference table = entry.getKey();
                 Set<Cell> cells = entry.getValue().keySet();
                 for (Cell c : cells) {
@@ -1897,7 +2303,7 @@ public class SnapshotTransaction extends AbstractTransaction implements Constrai
         Multimap<TableReference, Cell> tableRefToCells = HashMultimap.create();
         State actualState = state.get();
         if (expectedState == actualState) {
-            for (Entry<TableReference, ConcurrentNavigableMap<Cell, byte[]>> entry : writesByTable.entrySet()) {
+            for (Entry<TableReference, NavigableMap<Cell, byte[]>> entry : writesByTable.entrySet()) {
                 TableReference table = entry.getKey();
                 Set<Cell> cells = entry.getValue().keySet();
                 tableRefToCells.putAll(table, cells);
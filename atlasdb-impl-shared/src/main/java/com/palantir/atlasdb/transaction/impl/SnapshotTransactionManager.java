@@ -16,6 +16,7 @@
 package com.palantir.atlasdb.transaction.impl;
 
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
@@ -31,8 +32,11 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.palantir.atlasdb.AtlasDbConstants;
+import com.palantir.atlasdb.cache.TimestampCache;
 import com.palantir.atlasdb.cleaner.Cleaner;
 import com.palantir.atlasdb.cleaner.NoOpCleaner;
+import com.palantir.atlasdb.keyvalue.api.Cell;
 import com.palantir.atlasdb.keyvalue.api.ClusterAvailabilityStatus;
 import com.palantir.atlasdb.keyvalue.api.KeyValueService;
 import com.palantir.atlasdb.transaction.api.AtlasDbConstraintCheckingMode;
@@ -51,7 +55,10 @@ import com.palantir.lock.LockService;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.timestamp.TimestampRange;
 import com.palantir.timestamp.TimestampService;
 
 /* package */ class SnapshotTransactionManager extends AbstractLockAwareTransactionManager {
@@ -69,6 +76,13 @@ import com.palantir.timestamp.TimestampService;
     final boolean allowHiddenTableAccess;
     protected final Supplier<Long> lockAcquireTimeoutMs;
     final ExecutorService getRangesExecutor;
+    final Supplier<Boolean> pipelineCommits;
+    final Supplier<Boolean> useCompactWriteBuffer;
+    final Supplier<Long> readCacheMaxBytes;
+    final CrossTransactionReadCache crossTransactionReadCache;
+    final Supplier<Boolean> leaseReadOnlyStartTimestamps;
+    final ExecutorService pipelinedCommitExecutor;
+    final ExecutorService getRangesPrefetchExecutor;
 
     final List<Runnable> closingCallbacks;
     final AtomicBoolean isClosed;
@@ -85,6 +99,44 @@ import com.palantir.timestamp.TimestampService;
             boolean allowHiddenTableAccess,
             Supplier<Long> lockAcquireTimeoutMs,
             int concurrentGetRangesThreadPoolSize) {
+        this(keyValueService,
+                timelockService,
+                lockService,
+                transactionService,
+                constraintModeSupplier,
+                conflictDetectionManager,
+                sweepStrategyManager,
+                cleaner,
+                allowHiddenTableAccess,
+                lockAcquireTimeoutMs,
+                concurrentGetRangesThreadPoolSize,
+                TimestampCache.create(),
+                () -> false,
+                () -> false,
+                () -> AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES,
+                CrossTransactionReadCache.disabled(),
+                () -> false);
+    }
+
+    protected SnapshotTransactionManager(
+            KeyValueService keyValueService,
+            TimelockService timelockService,
+            LockService lockService,
+            TransactionService transactionService,
+            Supplier<AtlasDbConstraintCheckingMode> constraintModeSupplier,
+            ConflictDetectionManager conflictDetectionManager,
+            SweepStrategyManager sweepStrategyManager,
+            Cleaner cleaner,
+            boolean allowHiddenTableAccess,
+            Supplier<Long> lockAcquireTimeoutMs,
+            int concurrentGetRangesThreadPoolSize,
+            TimestampCache timestampCache,
+            Supplier<Boolean> pipelineCommits,
+            Supplier<Boolean> useCompactWriteBuffer,
+            Supplier<Long> readCacheMaxBytes,
+            CrossTransactionReadCache crossTransactionReadCache,
+            Supplier<Boolean> leaseReadOnlyStartTimestamps) {
+        super(timestampCache);
         this.keyValueService = keyValueService;
         this.timelockService = timelockService;
         this.lockService = lockService;
@@ -98,6 +150,13 @@ import com.palantir.timestamp.TimestampService;
         this.closingCallbacks = new CopyOnWriteArrayList<>();
         this.isClosed = new AtomicBoolean(false);
         this.getRangesExecutor = createGetRangesExecutor(concurrentGetRangesThreadPoolSize);
+        this.pipelineCommits = pipelineCommits;
+        this.useCompactWriteBuffer = useCompactWriteBuffer;
+        this.readCacheMaxBytes = readCacheMaxBytes;
+        this.crossTransactionReadCache = crossTransactionReadCache;
+        this.leaseReadOnlyStartTimestamps = leaseReadOnlyStartTimestamps;
+        this.pipelinedCommitExecutor = createPipelinedCommitExecutor(concurrentGetRangesThreadPoolSize);
+        this.getRangesPrefetchExecutor = createGetRangesPrefetchExecutor(concurrentGetRangesThreadPoolSize);
     }
 
     @Override
@@ -124,13 +183,15 @@ import com.palantir.timestamp.TimestampService;
     }
 
     public RawTransaction setupRunTaskWithLocksThrowOnConflict(Iterable<LockRefreshToken> lockTokens) {
-        LockImmutableTimestampResponse immutableTsResponse = timelockService.lockImmutableTimestamp(
-                LockImmutableTimestampRequest.create());
+        TimelockBatchResponse startResponse = timelockService.batch(
+                TimelockBatchRequest.startTransaction(LockImmutableTimestampRequest.create()));
+        LockImmutableTimestampResponse immutableTsResponse =
+                Iterables.getOnlyElement(startResponse.getLockImmutableTimestampResponses());
         try {
             LockToken immutableTsLock = immutableTsResponse.getLock();
             long immutableTs = immutableTsResponse.getImmutableTimestamp();
             recordImmutableTimestamp(immutableTs);
-            Supplier<Long> startTimestampSupplier = getStartTimestampSupplier();
+            Supplier<Long> startTimestampSupplier = getStartTimestampSupplier(startResponse.getFreshTimestamps());
 
             AdvisoryLockPreCommitCheck advisoryLockCheck =
                     AdvisoryLockPreCommitCheck.forLockServiceLocks(lockTokens, getLockService());
@@ -184,7 +245,26 @@ import com.palantir.timestamp.TimestampService;
                 allowHiddenTableAccess,
                 timestampValidationReadCache,
                 lockAcquireTimeoutMs.get(),
-                getRangesExecutor);
+                getRangesExecutor,
+                getPipelinedCommitExecutor(),
+                Optional.of(getRangesPrefetchExecutor),
+                getLocalWriteBufferFactory(),
+                readCacheMaxBytes.get(),
+                crossTransactionReadCache);
+    }
+
+    /**
+     * Returns the executor on which new transactions should pipeline their commits, if commit pipelining is enabled.
+     */
+    protected Optional<ExecutorService> getPipelinedCommitExecutor() {
+        return pipelineCommits.get() ? Optional.of(pipelinedCommitExecutor) : Optional.empty();
+    }
+
+    /**
+     * Returns the factory for the buffers in which new transactions should hold their local writes.
+     */
+    protected Supplier<NavigableMap<Cell, byte[]>> getLocalWriteBufferFactory() {
+        return useCompactWriteBuffer.get() ? CompactWriteBuffer::new : SnapshotTransaction.SKIP_LIST_WRITE_BUFFER;
     }
 
     @Override
@@ -196,7 +276,7 @@ import com.palantir.timestamp.TimestampService;
                 timelockService,
                 transactionService,
                 NoOpCleaner.INSTANCE,
-                getStartTimestampSupplier(),
+                getReadOnlyStartTimestampSupplier(),
                 conflictDetectionManager,
                 sweepStrategyManager,
                 immutableTs,
@@ -208,7 +288,12 @@ import com.palantir.timestamp.TimestampService;
                 allowHiddenTableAccess,
                 timestampValidationReadCache,
                 lockAcquireTimeoutMs.get(),
-                getRangesExecutor);
+                getRangesExecutor,
+                Optional.empty(),
+                Optional.of(getRangesPrefetchExecutor),
+                getLocalWriteBufferFactory(),
+                readCacheMaxBytes.get(),
+                crossTransactionReadCache);
         return runTaskThrowOnConflict(task, new ReadTransaction(transaction, sweepStrategyManager));
     }
 
@@ -236,6 +321,8 @@ import com.palantir.timestamp.TimestampService;
     public void close() {
         if (isClosed.compareAndSet(false, true)) {
             super.close();
+            pipelinedCommitExecutor.shutdown();
+            getRangesPrefetchExecutor.shutdown();
             cleaner.close();
             keyValueService.close();
             closeLockServiceIfPossible();
@@ -256,13 +343,34 @@ import com.palantir.timestamp.TimestampService;
     }
 
     private Supplier<Long> getStartTimestampSupplier() {
+        return getStartTimestampSupplier(Optional.empty());
+    }
+
+    /**
+     * The start timestamp is taken from the timestamps fetched along with the immutable timestamp lock, if any, so
+     * that starting a transaction takes one round trip; it is only fetched separately if the server issued none.
+     */
+    private Supplier<Long> getStartTimestampSupplier(Optional<TimestampRange> prefetchedTimestamps) {
         return Suppliers.memoize(() -> {
-            long freshTimestamp = timelockService.getFreshTimestamp();
+            long freshTimestamp = prefetchedTimestamps.map(TimestampRange::getLowerBound)
+                    .orElseGet(timelockService::getFreshTimestamp);
             cleaner.punch(freshTimestamp);
             return freshTimestamp;
         });
     }
 
+    /**
+     * Read-only transactions may start at a leased timestamp, which can be slightly stale but never precedes the
+     * commits this client has seen; see {@link TimelockService#leaseTimestamps(int)}. Leased timestamps are not
+     * punched, as they may be older than the time they would be punched at.
+     */
+    private Supplier<Long> getReadOnlyStartTimestampSupplier() {
+        if (!leaseReadOnlyStartTimestamps.get()) {
+            return getStartTimestampSupplier();
+        }
+        return Suppliers.memoize(() -> timelockService.leaseTimestamps(1).getTimestamps().getLowerBound());
+    }
+
     @Override
     public LockService getLockService() {
         return lockService;
@@ -18,12 +18,17 @@ package com.palantir.atlasdb.transaction.impl;
 
 import java.util.Set;
 
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.lock.v2.WaitForLocksResponse;
 import com.palantir.timestamp.TimestampRange;
@@ -48,6 +53,11 @@ public class TimestampDecoratingTimelockService implements TimelockService {
         return decoratedTimestamps.getFreshTimestamps(numTimestampsRequested);
     }
 
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        return delegate.leaseTimestamps(numTimestampsRequested);
+    }
+
     @Override
     public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
         return delegate.lockImmutableTimestamp(request);
@@ -82,4 +92,20 @@ public class TimestampDecoratingTimelockService implements TimelockService {
     public long currentTimeMillis() {
         return delegate.currentTimeMillis();
     }
+
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        // Fresh timestamps must come from the decorated timestamps, after the immutable timestamp locks are taken.
+        TimelockBatchResponse response = delegate.batch(ImmutableTimelockBatchRequest.builder()
+                .from(request)
+                .numFreshTimestamps(0)
+                .build());
+        if (request.getNumFreshTimestamps() <= 0) {
+            return response;
+        }
+        return ImmutableTimelockBatchResponse.builder()
+                .from(response)
+                .freshTimestamps(getFreshTimestamps(request.getNumFreshTimestamps()))
+                .build();
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.palantir.atlasdb.util.AtlasDbMetrics;
+import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.LockImmutableTimestampResponse;
+import com.palantir.lock.v2.LockRequest;
+import com.palantir.lock.v2.LockResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
+import com.palantir.lock.v2.WaitForLocksRequest;
+import com.palantir.lock.v2.WaitForLocksResponse;
+import com.palantir.timestamp.TimestampRange;
+
+/**
+ * A {@link TimelockService} that serves {@link #leaseTimestamps(int)} from a larger lease held on the client, so
+ * that read-only transactions can usually start without a round trip to the server. The held lease is used until
+ * it expires, measured from when it was requested, or runs out, or a lease requested later replaces it; so once
+ * the client has seen a new leader term, it no longer hands out timestamps leased in an earlier one.
+ * <p>
+ * A leased timestamp may be older than timestamps the server has since handed out to other clients, which is what
+ * {@link TimestampLease} allows. It is never older than a timestamp this client has obtained: the held lease is
+ * dropped whenever a call that allocates timestamps on the server returns, such as fetching a commit timestamp or
+ * locking an immutable timestamp, and leases requested before such a call returned are not installed. This keeps
+ * a client's read-only transactions seeing its own committed writes, and keeps the start timestamp of a
+ * transaction above the timestamp it locked as its immutable timestamp.
+ * <p>
+ * All other calls, including {@link #getFreshTimestamp()}, go to the delegate.
+ */
+@ThreadSafe
+public class TimestampLeasingTimelockService implements TimelockService {
+    public static final int DEFAULT_LEASE_SIZE = 1000;
+
+    private final TimelockService delegate;
+    private final int leaseSize;
+    private final LongSupplier nanoClock;
+
+    private final AtomicReference<HeldLease> heldLease = new AtomicReference<>();
+    private final AtomicLong fenceCount = new AtomicLong();
+    // Services that cannot lease timestamps grant leases of zero milliseconds; we then stop asking for extra ones.
+    private volatile boolean serverGrantsLeases = true;
+
+    private final Meter localTimestamps;
+    private final Meter remoteTimestamps;
+    private final Meter unusedTimestamps;
+
+    @VisibleForTesting
+    TimestampLeasingTimelockService(TimelockService delegate, int leaseSize, LongSupplier nanoClock,
+            MetricRegistry metricRegistry) {
+        this.delegate = delegate;
+        this.leaseSize = leaseSize;
+        this.nanoClock = nanoClock;
+        this.localTimestamps = metricRegistry.meter(
+                MetricRegistry.name(TimestampLeasingTimelockService.class, "localTimestamps"));
+        this.remoteTimestamps = metricRegistry.meter(
+                MetricRegistry.name(TimestampLeasingTimelockService.class, "remoteTimestamps"));
+        this.unusedTimestamps = metricRegistry.meter(
+                MetricRegistry.name(TimestampLeasingTimelockService.class, "unusedTimestamps"));
+    }
+
+    public static TimelockService create(TimelockService delegate) {
+        return new TimestampLeasingTimelockService(
+                delegate, DEFAULT_LEASE_SIZE, System::nanoTime, AtlasDbMetrics.getMetricRegistry());
+    }
+
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        if (numTimestampsRequested <= 0) {
+            return delegate.leaseTimestamps(numTimestampsRequested);
+        }
+        HeldLease lease = heldLease.get();
+        if (lease != null) {
+            Optional<TimestampLease> timestamps = lease.take(numTimestampsRequested, nanoClock.getAsLong());
+            if (timestamps.isPresent()) {
+                localTimestamps.mark(numTimestampsRequested);
+                return timestamps.get();
+            }
+            drop(lease);
+        }
+        return leaseRemotely(numTimestampsRequested);
+    }
+
+    private TimestampLease leaseRemotely(int numTimestampsRequested) {
+        long fencesBeforeRequest = fenceCount.get();
+        long requestedAtNanos = nanoClock.getAsLong();
+        TimestampLease lease = delegate.leaseTimestamps(
+                serverGrantsLeases ? Math.max(numTimestampsRequested, leaseSize) : numTimestampsRequested);
+        serverGrantsLeases = lease.getLeaseMillis() > 0;
+        TimestampRange timestamps = lease.getTimestamps();
+        remoteTimestamps.mark(Math.min(numTimestampsRequested, timestamps.size()));
+        if (timestamps.size() <= numTimestampsRequested) {
+            return lease;
+        }
+
+        long lastForCaller = timestamps.getLowerBound() + numTimestampsRequested - 1;
+        if (lease.getLeaseMillis() > 0) {
+            install(new HeldLease(
+                    lease.getLeaderTermId(),
+                    lastForCaller + 1,
+                    timestamps.getUpperBound(),
+                    requestedAtNanos,
+                    requestedAtNanos + TimeUnit.MILLISECONDS.toNanos(lease.getLeaseMillis())),
+                    fencesBeforeRequest);
+        } else {
+            unusedTimestamps.mark(timestamps.getUpperBound() - lastForCaller);
+        }
+        return TimestampLease.of(
+                lease.getLeaderTermId(),
+                TimestampRange.createInclusiveRange(timestamps.getLowerBound(), lastForCaller),
+                lease.getLeaseMillis());
+    }
+
+    private void install(HeldLease lease, long fencesBeforeRequest) {
+        HeldLease installed = heldLease.updateAndGet(current -> lease.supersedes(current) ? lease : current);
+        if (installed != lease) {
+            unusedTimestamps.mark(lease.remaining());
+        } else if (fenceCount.get() != fencesBeforeRequest) {
+            // A call that allocated timestamps returned while we were requesting the lease, so its timestamps may
+            // be above ours. If the fence has not already dropped the lease, we must.
+            drop(lease);
+        }
+    }
+
+    private void drop(HeldLease lease) {
+        if (heldLease.compareAndSet(lease, null)) {
+            unusedTimestamps.mark(lease.remaining());
+        }
+    }
+
+    private <T> T fenced(Supplier<T> call) {
+        try {
+            return call.get();
+        } finally {
+            fenceCount.incrementAndGet();
+            HeldLease lease = heldLease.get();
+            if (lease != null) {
+                drop(lease);
+            }
+        }
+    }
+
+    @Override
+    public long getFreshTimestamp() {
+        return fenced(delegate::getFreshTimestamp);
+    }
+
+    @Override
+    public TimestampRange getFreshTimestamps(int numTimestampsRequested) {
+        return fenced(() -> delegate.getFreshTimestamps(numTimestampsRequested));
+    }
+
+    @Override
+    public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
+        return fenced(() -> delegate.lockImmutableTimestamp(request));
+    }
+
+    @Override
+    public long getImmutableTimestamp() {
+        return fenced(delegate::getImmutableTimestamp);
+    }
+
+    @Override
+    public LockResponse lock(LockRequest request) {
+        return delegate.lock(request);
+    }
+
+    @Override
+    public WaitForLocksResponse waitForLocks(WaitForLocksRequest request) {
+        return delegate.waitForLocks(request);
+    }
+
+    @Override
+    public Set<LockToken> refreshLockLeases(Set<LockToken> tokens) {
+        return delegate.refreshLockLeases(tokens);
+    }
+
+    @Override
+    public Set<LockToken> unlock(Set<LockToken> tokens) {
+        return delegate.unlock(tokens);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return delegate.currentTimeMillis();
+    }
+
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        return fenced(() -> delegate.batch(request));
+    }
+
+    private static final class HeldLease {
+        private final UUID leaderTermId;
+        private final AtomicLong next;
+        private final long upperBound;
+        private final long requestedAtNanos;
+        private final long expiresAtNanos;
+
+        private HeldLease(UUID leaderTermId, long lowerBound, long upperBound, long requestedAtNanos,
+                long expiresAtNanos) {
+            this.leaderTermId = leaderTermId;
+            this.next = new AtomicLong(lowerBound);
+            this.upperBound = upperBound;
+            this.requestedAtNanos = requestedAtNanos;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private Optional<TimestampLease> take(int numTimestamps, long nowNanos) {
+            long remainingNanos = expiresAtNanos - nowNanos;
+            if (remainingNanos <= 0 || next.get() + numTimestamps - 1 > upperBound) {
+                return Optional.empty();
+            }
+            long first = next.getAndAdd(numTimestamps);
+            long last = first + numTimestamps - 1;
+            if (last > upperBound) {
+                return Optional.empty();
+            }
+            return Optional.of(TimestampLease.of(
+                    leaderTermId,
+                    TimestampRange.createInclusiveRange(first, last),
+                    TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+        }
+
+        private long remaining() {
+            return Math.max(0, upperBound - next.get() + 1);
+        }
+
+        private boolean supersedes(HeldLease current) {
+            return current == null || requestedAtNanos - current.requestedAtNanos >= 0;
+        }
+    }
+}
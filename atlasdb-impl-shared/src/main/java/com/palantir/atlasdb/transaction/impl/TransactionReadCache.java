@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.primitives.UnsignedBytes;
+import com.palantir.atlasdb.AtlasDbConstants;
+import com.palantir.atlasdb.encoding.PtBytes;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.impl.Cells;
+
+/**
+ * Remembers the post-filtered values a transaction has read from the key value service, so that reading the same
+ * cells again does not go back to the key value service. This is valid because a transaction reads every cell at
+ * its start timestamp, and once post-filtering has resolved the value visible at that timestamp it cannot change.
+ * <p>
+ * Cells that were read but had no value are cached as empty byte arrays, the same way deletes are represented.
+ * Rows whose columns were all read are recorded as complete, so that later reads of any of their columns can be
+ * served from the cache. Local writes are not cached; callers must overlay them on anything returned from here.
+ * <p>
+ * The cache holds at most roughly {@code maxBytes} of cells and values; once full it stops admitting new entries
+ * rather than evicting, so it never retains more than its budget and never needs soft references.
+ */
+@ThreadSafe
+final class TransactionReadCache {
+    private final long maxBytes;
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final ConcurrentMap<TableReference, TableCache> tables = new ConcurrentHashMap<>();
+
+    TransactionReadCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached value of the given cell, which is empty if the cell was read and had no value, or null if
+     * the cell has not been read.
+     */
+    @Nullable
+    byte[] get(TableReference tableRef, Cell cell) {
+        TableCache table = tables.get(tableRef);
+        if (table == null) {
+            return null;
+        }
+        byte[] value = table.cells.get(cell);
+        if (value == null && table.completeRows.contains(cell.getRowName())) {
+            return PtBytes.EMPTY_BYTE_ARRAY;
+        }
+        return value;
+    }
+
+    /**
+     * Returns whether every column of the given row has been read.
+     */
+    boolean isRowComplete(TableReference tableRef, byte[] row) {
+        TableCache table = tables.get(tableRef);
+        return table != null && table.completeRows.contains(row);
+    }
+
+    /**
+     * Returns all cached cells of the given table, in cell order.
+     */
+    SortedMap<Cell, byte[]> getCells(TableReference tableRef) {
+        TableCache table = tables.get(tableRef);
+        return table == null ? ImmutableSortedMap.of() : table.cells;
+    }
+
+    /**
+     * Returns the cached cells of the given row, in column order.
+     */
+    SortedMap<Cell, byte[]> getRow(TableReference tableRef, byte[] row) {
+        TableCache table = tables.get(tableRef);
+        if (table == null) {
+            return ImmutableSortedMap.of();
+        }
+        return table.cells.subMap(Cells.createSmallestCellForRow(row), true, Cells.createLargestCellForRow(row), true);
+    }
+
+    /**
+     * Caches the given post-filtered values, which should include an empty value for every cell that was read
+     * but not found.
+     */
+    void cacheCells(TableReference tableRef, Map<Cell, byte[]> values) {
+        cacheCells(tableRef, values, () -> { });
+    }
+
+    /**
+     * Caches the given post-filtered values, all of which have been read from the given rows with every column
+     * selected, and records those rows as complete.
+     */
+    void cacheRows(TableReference tableRef, Set<byte[]> rows, Map<Cell, byte[]> values) {
+        cacheCells(tableRef, values, () -> tables.get(tableRef).completeRows.addAll(rows));
+    }
+
+    long getCachedBytes() {
+        return cachedBytes.get();
+    }
+
+    private void cacheCells(TableReference tableRef, Map<Cell, byte[]> values, Runnable onCached) {
+        if (AtlasDbConstants.hiddenTables.contains(tableRef)) {
+            // Hidden tables are read outside of the transaction protocol, so their values may change under us.
+            return;
+        }
+        long bytes = 0;
+        for (Map.Entry<Cell, byte[]> e : values.entrySet()) {
+            bytes += sizeOf(e.getKey(), e.getValue());
+        }
+        if (!tryReserve(bytes)) {
+            return;
+        }
+        NavigableMap<Cell, byte[]> cells = tables.computeIfAbsent(tableRef, ref -> new TableCache()).cells;
+        for (Map.Entry<Cell, byte[]> e : values.entrySet()) {
+            if (cells.putIfAbsent(e.getKey(), e.getValue()) != null) {
+                // Another read of the same cell got there first; it saw the same value.
+                cachedBytes.addAndGet(-sizeOf(e.getKey(), e.getValue()));
+            }
+        }
+        onCached.run();
+    }
+
+    private boolean tryReserve(long bytes) {
+        while (true) {
+            long current = cachedBytes.get();
+            if (current + bytes > maxBytes) {
+                return false;
+            }
+            if (cachedBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private static long sizeOf(Cell cell, byte[] value) {
+        return Cells.getApproxSizeOfCell(cell) + value.length;
+    }
+
+    private static final class TableCache {
+        private final ConcurrentSkipListMap<Cell, byte[]> cells = new ConcurrentSkipListMap<>();
+        private final Set<byte[]> completeRows = new ConcurrentSkipListSet<>(UnsignedBytes.lexicographicalComparator());
+    }
+}
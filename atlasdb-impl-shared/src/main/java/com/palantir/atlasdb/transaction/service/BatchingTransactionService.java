@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.palantir.atlasdb.keyvalue.api.KeyAlreadyExistsException;
+import com.palantir.atlasdb.util.AtlasDbMetrics;
+import com.palantir.common.base.Throwables;
+
+/**
+ * Coalesces concurrent commit timestamp lookups into a single read of the transaction table.
+ * <p>
+ * Lookups are queued, and whichever thread holds the flush lock reads all queued start timestamps from the
+ * delegate in one call, de-duplicating timestamps requested by more than one caller. While that read is in flight,
+ * further lookups accumulate in the queue and are served by the next read, so under load each read serves every
+ * lookup that arrived during the previous one.
+ */
+@ThreadSafe
+public final class BatchingTransactionService implements TransactionService {
+    private final TransactionService delegate;
+    private final Queue<PendingLookup> pendingLookups = new ConcurrentLinkedQueue<>();
+    private final Lock flushLock = new ReentrantLock();
+
+    private final Histogram batchSize;
+    private final Histogram lookupsPerBatch;
+    private final Meter coalescedLookups;
+
+    @VisibleForTesting
+    BatchingTransactionService(TransactionService delegate, MetricRegistry metricRegistry) {
+        this.delegate = delegate;
+        this.batchSize = metricRegistry.histogram(MetricRegistry.name(BatchingTransactionService.class, "batchSize"));
+        this.lookupsPerBatch = metricRegistry.histogram(
+                MetricRegistry.name(BatchingTransactionService.class, "lookupsPerBatch"));
+        this.coalescedLookups = metricRegistry.meter(
+                MetricRegistry.name(BatchingTransactionService.class, "coalescedLookups"));
+    }
+
+    public static TransactionService create(TransactionService delegate) {
+        return new BatchingTransactionService(delegate, AtlasDbMetrics.getMetricRegistry());
+    }
+
+    @CheckForNull
+    @Override
+    public Long get(long startTimestamp) {
+        return get(ImmutableSet.of(startTimestamp)).get(startTimestamp);
+    }
+
+    @Override
+    public Map<Long, Long> get(Iterable<Long> startTimestamps) {
+        PendingLookup lookup = new PendingLookup(ImmutableSet.copyOf(startTimestamps));
+        if (lookup.startTimestamps.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        pendingLookups.add(lookup);
+
+        // Whenever the flush lock is free, our lookup is either complete or still queued; in the latter case
+        // we read it (and everyone else's) ourselves.
+        while (!lookup.isDone()) {
+            flushLock.lock();
+            try {
+                if (!lookup.isDone()) {
+                    flush();
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        return lookup.getResult();
+    }
+
+    @Override
+    public void putUnlessExists(long startTimestamp, long commitTimestamp) throws KeyAlreadyExistsException {
+        delegate.putUnlessExists(startTimestamp, commitTimestamp);
+    }
+
+    @VisibleForTesting
+    int pendingLookupCount() {
+        return pendingLookups.size();
+    }
+
+    private void flush() {
+        List<PendingLookup> batch = Lists.newArrayList();
+        for (PendingLookup lookup = pendingLookups.poll(); lookup != null; lookup = pendingLookups.poll()) {
+            batch.add(lookup);
+        }
+
+        Set<Long> startTimestamps = Sets.newHashSet();
+        long requestedTimestamps = 0;
+        for (PendingLookup lookup : batch) {
+            startTimestamps.addAll(lookup.startTimestamps);
+            requestedTimestamps += lookup.startTimestamps.size();
+        }
+        batchSize.update(startTimestamps.size());
+        lookupsPerBatch.update(batch.size());
+        coalescedLookups.mark(requestedTimestamps - startTimestamps.size());
+
+        try {
+            Map<Long, Long> commitTimestamps = delegate.get(startTimestamps);
+            for (PendingLookup lookup : batch) {
+                lookup.complete(commitTimestamps);
+            }
+        } catch (Throwable t) {
+            for (PendingLookup lookup : batch) {
+                lookup.fail(t);
+            }
+        }
+    }
+
+    private static final class PendingLookup {
+        private final Set<Long> startTimestamps;
+        private volatile Map<Long, Long> result;
+        private volatile Throwable failure;
+
+        PendingLookup(Set<Long> startTimestamps) {
+            this.startTimestamps = startTimestamps;
+        }
+
+        boolean isDone() {
+            return result != null || failure != null;
+        }
+
+        void complete(Map<Long, Long> commitTimestamps) {
+            Map<Long, Long> ownResult = Maps.newHashMapWithExpectedSize(startTimestamps.size());
+            for (Long startTimestamp : startTimestamps) {
+                Long commitTimestamp = commitTimestamps.get(startTimestamp);
+                if (commitTimestamp != null) {
+                    ownResult.put(startTimestamp, commitTimestamp);
+                }
+            }
+            result = ownResult;
+        }
+
+        void fail(Throwable throwable) {
+            failure = throwable;
+        }
+
+        Map<Long, Long> getResult() {
+            if (failure != null) {
+                throw Throwables.rewrapAndThrowUncheckedException(failure);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.palantir.atlasdb.keyvalue.api.KeyAlreadyExistsException;
+import com.palantir.atlasdb.keyvalue.api.KeyValueService;
+import com.palantir.atlasdb.memory.InMemoryAtlasDbConfig;
+import com.palantir.atlasdb.spi.KeyValueServiceConfig;
+import com.palantir.atlasdb.util.AtlasDbMetrics;
+import com.palantir.common.base.Throwables;
+
+/**
+ * Group commits concurrent commit timestamp writes into a single multi-cell put to the transaction table.
+ * <p>
+ * Writes are queued, and whichever thread holds the flush lock puts all queued commit timestamps in one call. While
+ * that put is in flight, further writes accumulate in the queue and are put by the next call, so the batching window
+ * is exactly as long as one round trip to the key value service, and an uncontended write is not delayed at all.
+ * <p>
+ * A multi-cell put unless exists is not atomic, so if it fails with a {@link KeyAlreadyExistsException} the outcome
+ * for each transaction in the batch is resolved by reading back its commit timestamp: transactions whose timestamp
+ * was written succeed, transactions for which a different value is present fail, and transactions for which nothing
+ * was written are retried individually.
+ * <p>
+ * Grouping only pays off if the key value service writes the whole batch in one operation. Where a multi-cell put
+ * unless exists is a sequence of per-cell compare and sets, as on Cassandra, the group commit would instead queue
+ * every committer behind the others' compare and sets; see {@link #isEffectiveFor(KeyValueServiceConfig)}.
+ */
+@ThreadSafe
+public final class GroupCommitTransactionService implements TransactionService {
+    /**
+     * Types of key value service whose multi-cell put unless exists is a single write: one batched insert for
+     * relational stores, and one pass under a lock in memory.
+     */
+    private static final ImmutableSet<String> SINGLE_OPERATION_PUT_UNLESS_EXISTS_TYPES =
+            ImmutableSet.of("relational", InMemoryAtlasDbConfig.TYPE);
+
+    private final SimpleTransactionService delegate;
+    private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Lock flushLock = new ReentrantLock();
+
+    private final Histogram batchSize;
+    private final Meter batchConflicts;
+
+    @VisibleForTesting
+    GroupCommitTransactionService(SimpleTransactionService delegate, MetricRegistry metricRegistry) {
+        this.delegate = delegate;
+        this.batchSize = metricRegistry.histogram(
+                MetricRegistry.name(GroupCommitTransactionService.class, "batchSize"));
+        this.batchConflicts = metricRegistry.meter(
+                MetricRegistry.name(GroupCommitTransactionService.class, "batchConflicts"));
+    }
+
+    public static TransactionService create(KeyValueService keyValueService) {
+        return new GroupCommitTransactionService(
+                new SimpleTransactionService(keyValueService),
+                AtlasDbMetrics.getMetricRegistry());
+    }
+
+    /**
+     * Returns true if group commits are written to the given type of key value service in a single operation.
+     */
+    public static boolean isEffectiveFor(KeyValueServiceConfig config) {
+        return SINGLE_OPERATION_PUT_UNLESS_EXISTS_TYPES.contains(config.type());
+    }
+
+    @CheckForNull
+    @Override
+    public Long get(long startTimestamp) {
+        return delegate.get(startTimestamp);
+    }
+
+    @Override
+    public Map<Long, Long> get(Iterable<Long> startTimestamps) {
+        return delegate.get(startTimestamps);
+    }
+
+    @Override
+    public void putUnlessExists(long startTimestamp, long commitTimestamp) throws KeyAlreadyExistsException {
+        PendingWrite write = new PendingWrite(startTimestamp, commitTimestamp);
+        pendingWrites.add(write);
+
+        while (!write.isDone()) {
+            flushLock.lock();
+            try {
+                if (!write.isDone()) {
+                    flush();
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        }
+        write.throwIfFailed();
+    }
+
+    @VisibleForTesting
+    int pendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    private void flush() {
+        // A start timestamp may appear twice if a transaction races with another rolling it back; only one of
+        // those can go in the batch, so the rest are written individually afterwards.
+        Map<Long, PendingWrite> batch = Maps.newHashMap();
+        List<PendingWrite> duplicates = Lists.newArrayList();
+        for (PendingWrite write = pendingWrites.poll(); write != null; write = pendingWrites.poll()) {
+            if (batch.putIfAbsent(write.startTimestamp, write) != null) {
+                duplicates.add(write);
+            }
+        }
+        batchSize.update(batch.size());
+
+        try {
+            delegate.putUnlessExists(Maps.transformValues(batch, write -> write.commitTimestamp));
+            for (PendingWrite write : batch.values()) {
+                write.succeed();
+            }
+        } catch (KeyAlreadyExistsException e) {
+            batchConflicts.mark();
+            resolveConflicts(batch);
+        } catch (Throwable t) {
+            for (PendingWrite write : batch.values()) {
+                write.fail(t);
+            }
+        }
+
+        for (PendingWrite write : duplicates) {
+            putIndividually(write);
+        }
+    }
+
+    private void resolveConflicts(Map<Long, PendingWrite> batch) {
+        Map<Long, Long> storedCommitTimestamps;
+        try {
+            storedCommitTimestamps = delegate.get(batch.keySet());
+        } catch (Throwable t) {
+            for (PendingWrite write : batch.values()) {
+                write.fail(t);
+            }
+            return;
+        }
+
+        for (PendingWrite write : batch.values()) {
+            Long storedCommitTimestamp = storedCommitTimestamps.get(write.startTimestamp);
+            if (storedCommitTimestamp == null) {
+                putIndividually(write);
+            } else if (storedCommitTimestamp == write.commitTimestamp) {
+                write.succeed();
+            } else {
+                write.fail(new KeyAlreadyExistsException(
+                        "Transaction " + write.startTimestamp + " already has commit timestamp "
+                                + storedCommitTimestamp,
+                        ImmutableList.of(SimpleTransactionService.getTransactionCell(write.startTimestamp))));
+            }
+        }
+    }
+
+    private void putIndividually(PendingWrite write) {
+        try {
+            delegate.putUnlessExists(write.startTimestamp, write.commitTimestamp);
+            write.succeed();
+        } catch (Throwable t) {
+            write.fail(t);
+        }
+    }
+
+    private static final class PendingWrite {
+        private final long startTimestamp;
+        private final long commitTimestamp;
+        private volatile boolean succeeded;
+        private volatile Throwable failure;
+
+        PendingWrite(long startTimestamp, long commitTimestamp) {
+            this.startTimestamp = startTimestamp;
+            this.commitTimestamp = commitTimestamp;
+        }
+
+        boolean isDone() {
+            return succeeded || failure != null;
+        }
+
+        void succeed() {
+            succeeded = true;
+        }
+
+        void fail(Throwable throwable) {
+            failure = throwable;
+        }
+
+        void throwIfFailed() {
+            if (failure instanceof KeyAlreadyExistsException) {
+                // Conflicts are expected and specific to this write, so there is nothing to gain from rewrapping.
+                throw (KeyAlreadyExistsException) failure;
+            }
+            if (failure != null) {
+                throw Throwables.rewrapAndThrowUncheckedException(failure);
+            }
+        }
+    }
+}
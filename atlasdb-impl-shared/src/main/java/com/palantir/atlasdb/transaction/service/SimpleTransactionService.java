@@ -20,6 +20,7 @@ import java.util.Map;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.KeyAlreadyExistsException;
 import com.palantir.atlasdb.keyvalue.api.KeyValueService;
 import com.palantir.atlasdb.keyvalue.api.Value;
 import com.palantir.atlasdb.transaction.impl.TransactionConstants;
@@ -82,7 +83,20 @@ public final class SimpleTransactionService implements TransactionService {
                 ImmutableMap.of(key, value));
     }
 
-    private Cell getTransactionCell(long startTimestamp) {
+    /**
+     * Puts the commit timestamps for many transactions in a single call to the key value service. As with a
+     * multi-cell {@link KeyValueService#putUnlessExists}, if a {@link KeyAlreadyExistsException} is thrown then
+     * some of the commit timestamps may nonetheless have been written.
+     */
+    public void putUnlessExists(Map<Long, Long> startTimestampToCommitTimestamp) throws KeyAlreadyExistsException {
+        Map<Cell, byte[]> values = Maps.newHashMapWithExpectedSize(startTimestampToCommitTimestamp.size());
+        for (Map.Entry<Long, Long> e : startTimestampToCommitTimestamp.entrySet()) {
+            values.put(getTransactionCell(e.getKey()), TransactionConstants.getValueForTimestamp(e.getValue()));
+        }
+        keyValueService.putUnlessExists(TransactionConstants.TRANSACTION_TABLE, values);
+    }
+
+    static Cell getTransactionCell(long startTimestamp) {
         return Cell.create(
                 TransactionConstants.getValueForTimestamp(startTimestamp),
                 TransactionConstants.COMMIT_TS_COLUMN);
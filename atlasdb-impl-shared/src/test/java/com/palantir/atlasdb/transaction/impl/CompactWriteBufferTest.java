@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.palantir.atlasdb.encoding.PtBytes;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+
+public class CompactWriteBufferTest {
+    private final NavigableMap<Cell, byte[]> buffer = new CompactWriteBuffer();
+
+    @Test
+    public void getsReturnWhatWasPut() {
+        buffer.put(cell("row", "col"), PtBytes.toBytes("value"));
+
+        assertThat(buffer.get(cell("row", "col"))).isEqualTo(PtBytes.toBytes("value"));
+        assertThat(buffer.containsKey(cell("row", "col"))).isTrue();
+        assertThat(buffer.get(cell("row", "other"))).isNull();
+        assertThat(buffer.containsKey(cell("other", "col"))).isFalse();
+        assertThat(buffer.get("not a cell")).isNull();
+    }
+
+    @Test
+    public void overwritesReplaceValueAndReturnPreviousOne() {
+        assertThat(buffer.put(cell("row", "col"), PtBytes.toBytes("first"))).isNull();
+        assertThat(buffer.put(cell("row", "col"), PtBytes.toBytes("second"))).isEqualTo(PtBytes.toBytes("first"));
+
+        assertThat(buffer).hasSize(1);
+        assertThat(buffer.get(cell("row", "col"))).isEqualTo(PtBytes.toBytes("second"));
+    }
+
+    @Test
+    public void valuesAreCopiedOnPut() {
+        byte[] value = PtBytes.toBytes("value");
+        buffer.put(cell("row", "col"), value);
+        value[0] = 0;
+
+        assertThat(buffer.get(cell("row", "col"))).isEqualTo(PtBytes.toBytes("value"));
+    }
+
+    @Test
+    public void emptyValuesAreSupported() {
+        buffer.put(cell("row", "col"), PtBytes.EMPTY_BYTE_ARRAY);
+
+        assertThat(buffer.get(cell("row", "col"))).isEmpty();
+    }
+
+    @Test
+    public void orderedViewsSeeWritesMadeAfterPreviousReads() {
+        buffer.put(cell("b", "col"), PtBytes.toBytes("1"));
+        assertThat(buffer.firstKey()).isEqualTo(cell("b", "col"));
+
+        buffer.put(cell("a", "col"), PtBytes.toBytes("2"));
+        assertThat(buffer.firstKey()).isEqualTo(cell("a", "col"));
+        assertThat(buffer.keySet()).containsExactly(cell("a", "col"), cell("b", "col"));
+    }
+
+    @Test
+    public void removesEntries() {
+        buffer.put(cell("a", "col"), PtBytes.toBytes("1"));
+        buffer.put(cell("b", "col"), PtBytes.toBytes("2"));
+        buffer.put(cell("c", "col"), PtBytes.toBytes("3"));
+
+        assertThat(buffer.remove(cell("b", "col"))).isEqualTo(PtBytes.toBytes("2"));
+        assertThat(buffer.remove(cell("b", "col"))).isNull();
+        assertThat(buffer.keySet()).containsExactly(cell("a", "col"), cell("c", "col"));
+        assertThat(buffer.get(cell("c", "col"))).isEqualTo(PtBytes.toBytes("3"));
+
+        assertThat(buffer.pollFirstEntry().getKey()).isEqualTo(cell("a", "col"));
+        assertThat(buffer.pollLastEntry().getKey()).isEqualTo(cell("c", "col"));
+        assertThat(buffer.pollFirstEntry()).isNull();
+        assertThat(buffer).isEmpty();
+
+        buffer.put(cell("d", "col"), PtBytes.toBytes("4"));
+        buffer.clear();
+        assertThat(buffer).isEmpty();
+        assertThat(buffer.get(cell("d", "col"))).isNull();
+        assertThat(buffer.firstEntry()).isNull();
+        assertThatThrownBy(buffer::firstKey).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    public void repeatedOverwritesDoNotGrowMemory() {
+        CompactWriteBuffer compactBuffer = new CompactWriteBuffer();
+        for (int i = 0; i < 1_000; i++) {
+            compactBuffer.put(Cell.create(PtBytes.toBytes(i), PtBytes.toBytes("col")), new byte[100]);
+        }
+        long bytesAfterFirstWrites = compactBuffer.chunkBytes();
+
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            Cell cell = Cell.create(PtBytes.toBytes(random.nextInt(1_000)), PtBytes.toBytes("col"));
+            compactBuffer.put(cell, new byte[random.nextInt(200)]);
+        }
+
+        assertThat(compactBuffer).hasSize(1_000);
+        assertThat(compactBuffer.chunkBytes()).isLessThan(8 * bytesAfterFirstWrites);
+    }
+
+    @Test
+    public void orderedLookupsSeeEachWriteWithoutRebuildingTheBuffer() {
+        NavigableMap<Cell, byte[]> expected = new TreeMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            Cell cell = cell("row" + ((i * 7919) % 100_000), "col");
+            buffer.put(cell, PtBytes.toBytes(i));
+            expected.put(cell, PtBytes.toBytes(i));
+            assertThat(buffer.ceilingKey(cell)).isEqualTo(cell);
+            assertThat(buffer.higherKey(cell)).isEqualTo(expected.higherKey(cell));
+            assertThat(buffer.lowerKey(cell)).isEqualTo(expected.lowerKey(cell));
+        }
+        assertThat(buffer.firstKey()).isEqualTo(expected.firstKey());
+        assertThat(buffer.lastKey()).isEqualTo(expected.lastKey());
+    }
+
+    @Test
+    public void behavesLikeASortedMapForManyWrites() {
+        NavigableMap<Cell, byte[]> expected = new TreeMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 20_000; i++) {
+            byte[] row = randomBytes(random, 1 + random.nextInt(4));
+            Cell cell = Cell.create(row, randomBytes(random, 1 + random.nextInt(3)));
+            byte[] value = randomBytes(random, random.nextInt(i % 100 == 0 ? 5_000 : 50));
+            assertThat(buffer.put(cell, value)).isEqualTo(expected.put(cell, value));
+        }
+
+        assertThat(buffer).hasSameSizeAs(expected);
+        assertEntriesEqual(buffer, expected);
+        Cell from = Iterables.get(expected.keySet(), expected.size() / 4);
+        Cell to = Iterables.get(expected.keySet(), expected.size() / 2);
+        assertEntriesEqual(buffer.subMap(from, true, to, false), expected.subMap(from, true, to, false));
+        assertThat(ImmutableList.copyOf(buffer.descendingKeySet()))
+                .isEqualTo(ImmutableList.copyOf(expected.descendingKeySet()));
+    }
+
+    @Test
+    public void behavesLikeASortedMapForInterleavedWritesAndRemoves() {
+        NavigableMap<Cell, byte[]> expected = new TreeMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 50_000; i++) {
+            Cell cell = Cell.create(randomBytes(random, 1 + random.nextInt(2)), randomBytes(random, 1));
+            if (random.nextInt(3) == 0) {
+                assertThat(buffer.remove(cell)).isEqualTo(expected.remove(cell));
+            } else {
+                byte[] value = randomBytes(random, random.nextInt(100));
+                assertThat(buffer.put(cell, value)).isEqualTo(expected.put(cell, value));
+            }
+            if (i % 1_000 == 0) {
+                assertThat(buffer.floorKey(cell)).isEqualTo(expected.floorKey(cell));
+                assertEntriesEqual(buffer.tailMap(cell, false), expected.tailMap(cell, false));
+            }
+        }
+
+        assertThat(buffer).hasSameSizeAs(expected);
+        assertEntriesEqual(buffer, expected);
+    }
+
+    private static void assertEntriesEqual(NavigableMap<Cell, byte[]> actual, NavigableMap<Cell, byte[]> expected) {
+        assertThat(actual.keySet()).containsExactlyElementsOf(expected.keySet());
+        for (Map.Entry<Cell, byte[]> entry : expected.entrySet()) {
+            assertThat(actual.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Cell cell(String row, String column) {
+        return Cell.create(PtBytes.toBytes(row), PtBytes.toBytes(column));
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.palantir.atlasdb.encoding.PtBytes;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.KeyValueService;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.api.Value;
+import com.palantir.atlasdb.keyvalue.impl.InMemoryKeyValueService;
+import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.CachePriority;
+import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.ExpirationStrategy;
+import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.PartitionStrategy;
+import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.SweepStrategy;
+import com.palantir.atlasdb.table.description.ColumnMetadataDescription;
+import com.palantir.atlasdb.table.description.NameMetadataDescription;
+import com.palantir.atlasdb.table.description.TableMetadata;
+import com.palantir.atlasdb.transaction.api.ConflictHandler;
+
+public class CrossTransactionReadCacheTest {
+    private static final TableReference HOT_TABLE = TableReference.createFromFullyQualifiedName("default.hot");
+    private static final TableReference WARM_TABLE = TableReference.createFromFullyQualifiedName("default.warm");
+    private static final Cell CELL = Cell.create(PtBytes.toBytes("row"), PtBytes.toBytes("col"));
+    private static final Cell OTHER_CELL = Cell.create(PtBytes.toBytes("row"), PtBytes.toBytes("other col"));
+    private static final byte[] VALUE = PtBytes.toBytes("value");
+
+    private static final long WRITE_TS = 10L;
+    private static final long COMMIT_TS = 11L;
+    private static final long READ_TS = 20L;
+
+    private final KeyValueService keyValueService = spy(new InMemoryKeyValueService(false));
+    private final CrossTransactionReadCache cache = new CrossTransactionReadCache(keyValueService, 1024, true);
+
+    @Before
+    public void setUp() {
+        keyValueService.createTable(HOT_TABLE, metadataWithCachePriority(CachePriority.HOTTEST));
+        keyValueService.createTable(WARM_TABLE, metadataWithCachePriority(CachePriority.WARM));
+        keyValueService.put(HOT_TABLE, ImmutableMap.of(CELL, VALUE), WRITE_TS);
+    }
+
+    @Test
+    public void onlyTablesWithHottestCachePriorityAreCacheable() {
+        assertThat(cache.isCacheable(HOT_TABLE)).isTrue();
+        assertThat(cache.isCacheable(WARM_TABLE)).isFalse();
+        assertThat(cache.isCacheable(TransactionConstants.TRANSACTION_TABLE)).isFalse();
+        assertThat(CrossTransactionReadCache.create(keyValueService, 0, true).isCacheable(HOT_TABLE)).isFalse();
+    }
+
+    @Test
+    public void servesValuesToTransactionsThatCanSeeThem() {
+        cacheValueReadAt(READ_TS, READ_TS);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS)).containsOnlyKeys(CELL);
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), COMMIT_TS + 1)).containsOnlyKeys(CELL);
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), COMMIT_TS)).isEmpty();
+    }
+
+    @Test
+    public void servesLaterTransactionsIfTheCellHasNotBeenWrittenAgain() {
+        cacheValueReadAt(READ_TS, READ_TS);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), 2 * READ_TS).get(CELL)).isEqualTo(VALUE);
+    }
+
+    @Test
+    public void servesTransactionsWithIncreasingStartTimestampsFromMemory() {
+        cacheValueReadAt(READ_TS, READ_TS);
+
+        for (long startTimestamp = READ_TS + 1; startTimestamp <= READ_TS + 1000; startTimestamp++) {
+            assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), startTimestamp).get(CELL)).isEqualTo(VALUE);
+        }
+        verify(keyValueService, never()).getLatestTimestamps(any(), any());
+    }
+
+    @Test
+    public void seesWritesOfOtherTransactionManagersUnlessAssumingASingleWriter() {
+        CrossTransactionReadCache sharedCache = new CrossTransactionReadCache(keyValueService, 1024, false);
+        sharedCache.cacheCommittedValues(
+                HOT_TABLE,
+                ImmutableMap.of(CELL, Value.create(VALUE, WRITE_TS)),
+                ImmutableMap.of(WRITE_TS, COMMIT_TS),
+                READ_TS,
+                READ_TS);
+        assertThat(sharedCache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS + 1).get(CELL)).isEqualTo(VALUE);
+
+        keyValueService.put(HOT_TABLE, ImmutableMap.of(CELL, PtBytes.toBytes("new value")), READ_TS + 2);
+
+        assertThat(sharedCache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS + 4)).isEmpty();
+    }
+
+    @Test
+    public void checksTheKeyValueServiceAfterACommitToTheTable() {
+        cacheValueReadAt(READ_TS, READ_TS);
+        commitWrite(OTHER_CELL, READ_TS + 1, READ_TS + 2);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS + 3).get(CELL)).isEqualTo(VALUE);
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS + 4).get(CELL)).isEqualTo(VALUE);
+        verify(keyValueService, times(1)).getLatestTimestamps(any(), any());
+    }
+
+    @Test
+    public void checksTheKeyValueServiceWhileACommitToTheTableIsInProgress() {
+        cacheValueReadAt(READ_TS, READ_TS);
+        cache.startCommit(ImmutableSet.of(HOT_TABLE));
+        keyValueService.put(HOT_TABLE, ImmutableMap.of(CELL, PtBytes.toBytes("new value")), READ_TS + 1);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS + 3)).isEmpty();
+    }
+
+    @Test
+    public void dropsValuesThatHaveBeenWrittenAgain() {
+        cacheValueReadAt(READ_TS, READ_TS);
+        commitWrite(CELL, READ_TS + 1, READ_TS + 2);
+        cacheValueReadAt(READ_TS, READ_TS);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), 2 * READ_TS)).isEmpty();
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS)).isEmpty();
+    }
+
+    @Test
+    public void doesNotCacheValuesCommittedAfterTheImmutableTimestamp() {
+        cacheValueReadAt(READ_TS, COMMIT_TS);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS)).isEmpty();
+    }
+
+    @Test
+    public void dropsValuesWhenTheirCellsAreCommitted() {
+        cacheValueReadAt(READ_TS, READ_TS);
+        cache.startCommit(ImmutableSet.of(HOT_TABLE));
+        cache.finishCommit(ImmutableMap.of(HOT_TABLE, ImmutableSortedMap.of(CELL, VALUE)), READ_TS + 2);
+
+        assertThat(cache.get(HOT_TABLE, ImmutableSet.of(CELL), READ_TS)).isEmpty();
+    }
+
+    @Test
+    public void rereadsCachePrioritiesPeriodically() {
+        AtomicLong nanos = new AtomicLong();
+        CrossTransactionReadCache cacheWithTicker = new CrossTransactionReadCache(keyValueService, 1024, true,
+                new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                });
+        assertThat(cacheWithTicker.isCacheable(WARM_TABLE)).isFalse();
+
+        keyValueService.putMetadataForTable(WARM_TABLE, metadataWithCachePriority(CachePriority.HOTTEST));
+        assertThat(cacheWithTicker.isCacheable(WARM_TABLE)).isFalse();
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertThat(cacheWithTicker.isCacheable(WARM_TABLE)).isTrue();
+    }
+
+    private void commitWrite(Cell cell, long startTimestamp, long commitTimestamp) {
+        byte[] value = PtBytes.toBytes("new value");
+        cache.startCommit(ImmutableSet.of(HOT_TABLE));
+        keyValueService.put(HOT_TABLE, ImmutableMap.of(cell, value), startTimestamp);
+        cache.finishCommit(ImmutableMap.of(HOT_TABLE, ImmutableSortedMap.of(cell, value)), commitTimestamp);
+    }
+
+    private void cacheValueReadAt(long startTimestamp, long immutableTimestamp) {
+        cache.cacheCommittedValues(
+                HOT_TABLE,
+                ImmutableMap.of(CELL, Value.create(VALUE, WRITE_TS)),
+                ImmutableMap.of(WRITE_TS, COMMIT_TS),
+                startTimestamp,
+                immutableTimestamp);
+    }
+
+    private static byte[] metadataWithCachePriority(CachePriority cachePriority) {
+        return new TableMetadata(
+                new NameMetadataDescription(),
+                new ColumnMetadataDescription(),
+                ConflictHandler.RETRY_ON_WRITE_WRITE,
+                cachePriority,
+                PartitionStrategy.ORDERED,
+                false,
+                0,
+                false,
+                SweepStrategy.CONSERVATIVE,
+                ExpirationStrategy.NEVER,
+                false).persistToBytes();
+    }
+}
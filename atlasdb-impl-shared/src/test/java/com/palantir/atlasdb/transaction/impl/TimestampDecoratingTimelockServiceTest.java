@@ -16,16 +16,30 @@
 
 package com.palantir.atlasdb.transaction.impl;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
 
 import org.junit.After;
 import org.junit.Test;
+import org.mockito.InOrder;
 
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.LockImmutableTimestampResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.timestamp.TimestampRange;
 import com.palantir.timestamp.TimestampService;
 
 public class TimestampDecoratingTimelockServiceTest {
@@ -61,4 +75,26 @@ public class TimestampDecoratingTimelockServiceTest {
         decoratingService.lockImmutableTimestamp(immutableTimestampRequest);
         verify(delegate).lockImmutableTimestamp(eq(immutableTimestampRequest));
     }
+
+    @Test
+    public void freshTimestampsOfBatchesRoutedToDecoratedService() {
+        LockImmutableTimestampResponse immutableTimestampResponse =
+                LockImmutableTimestampResponse.of(1L, LockToken.of(UUID.randomUUID()));
+        when(delegate.batch(any())).thenReturn(ImmutableTimelockBatchResponse.builder()
+                .addLockImmutableTimestampResponses(immutableTimestampResponse)
+                .build());
+        when(decoratedTimestamps.getFreshTimestamps(1)).thenReturn(TimestampRange.createInclusiveRange(2L, 2L));
+
+        LockImmutableTimestampRequest immutableTimestampRequest = LockImmutableTimestampRequest.create();
+        TimelockBatchResponse response = decoratingService.batch(
+                TimelockBatchRequest.startTransaction(immutableTimestampRequest));
+
+        assertThat(response.getLockImmutableTimestampResponses()).containsExactly(immutableTimestampResponse);
+        assertThat(response.getFreshTimestamps()).contains(TimestampRange.createInclusiveRange(2L, 2L));
+        InOrder inOrder = inOrder(delegate, decoratedTimestamps);
+        inOrder.verify(delegate).batch(ImmutableTimelockBatchRequest.builder()
+                .addLockImmutableTimestampRequests(immutableTimestampRequest)
+                .build());
+        inOrder.verify(decoratedTimestamps).getFreshTimestamps(1);
+    }
 }
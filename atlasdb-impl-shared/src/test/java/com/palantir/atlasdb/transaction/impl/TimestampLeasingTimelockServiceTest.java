@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
+import com.palantir.timestamp.TimestampRange;
+
+public class TimestampLeasingTimelockServiceTest {
+    private static final int LEASE_SIZE = 10;
+    private static final long LEASE_MILLIS = 100L;
+    private static final UUID LEADER_TERM = UUID.randomUUID();
+
+    private final TimelockService delegate = mock(TimelockService.class);
+    private final AtomicLong server = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final TimestampLeasingTimelockService timelock =
+            new TimestampLeasingTimelockService(delegate, LEASE_SIZE, nanos::get, metrics);
+
+    private long leaseMillis = LEASE_MILLIS;
+
+    @Before
+    public void setUp() {
+        when(delegate.leaseTimestamps(anyInt())).thenAnswer(invocation -> {
+            int number = (Integer) invocation.getArguments()[0];
+            return TimestampLease.of(LEADER_TERM, freshTimestamps(number), leaseMillis);
+        });
+        when(delegate.getFreshTimestamp()).thenAnswer(invocation -> freshTimestamps(1).getLowerBound());
+    }
+
+    @Test
+    public void servesLaterRequestsFromTheLease() {
+        assertThat(leaseOne()).isEqualTo(1L);
+        assertThat(leaseOne()).isEqualTo(2L);
+        assertThat(leaseOne()).isEqualTo(3L);
+
+        verify(delegate).leaseTimestamps(LEASE_SIZE);
+        assertThat(metrics.meter(meterName("remoteTimestamps")).getCount()).isEqualTo(1L);
+        assertThat(metrics.meter(meterName("localTimestamps")).getCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void leasesAgainWhenTheLeaseRunsOut() {
+        for (int i = 0; i < LEASE_SIZE; i++) {
+            leaseOne();
+        }
+
+        assertThat(leaseOne()).isEqualTo(LEASE_SIZE + 1);
+        verify(delegate, times(2)).leaseTimestamps(LEASE_SIZE);
+    }
+
+    @Test
+    public void leasesAgainWhenTheLeaseExpires() {
+        leaseOne();
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(LEASE_MILLIS));
+
+        assertThat(leaseOne()).isEqualTo(LEASE_SIZE + 1);
+        assertThat(metrics.meter(meterName("unusedTimestamps")).getCount()).isEqualTo(LEASE_SIZE - 1);
+    }
+
+    @Test
+    public void neverLeasesTimestampsBelowOnesObtainedFromTheServer() {
+        leaseOne();
+        long commitTimestamp = timelock.getFreshTimestamp();
+
+        assertThat(leaseOne()).isGreaterThan(commitTimestamp);
+    }
+
+    @Test
+    public void doesNotHoldLeasesRequestedBeforeTimestampsWereObtained() {
+        when(delegate.leaseTimestamps(anyInt())).thenAnswer(invocation -> {
+            TimestampLease lease = TimestampLease.of(LEADER_TERM, freshTimestamps(LEASE_SIZE), LEASE_MILLIS);
+            // another thread takes an immutable timestamp lock while our request is in flight
+            timelock.lockImmutableTimestamp(LockImmutableTimestampRequest.create());
+            return lease;
+        });
+
+        leaseOne();
+        leaseOne();
+
+        verify(delegate, times(2)).leaseTimestamps(LEASE_SIZE);
+    }
+
+    @Test
+    public void onlyRequestsWhatIsNeededFromServicesThatDoNotGrantLeases() {
+        leaseMillis = 0L;
+
+        assertThat(leaseOne()).isEqualTo(1L);
+        assertThat(leaseOne()).isEqualTo(LEASE_SIZE + 1);
+        assertThat(leaseOne()).isEqualTo(LEASE_SIZE + 2);
+
+        verify(delegate).leaseTimestamps(LEASE_SIZE);
+        verify(delegate, times(2)).leaseTimestamps(1);
+    }
+
+    private long leaseOne() {
+        TimestampLease lease = timelock.leaseTimestamps(1);
+        assertThat(lease.getTimestamps().size()).isEqualTo(1L);
+        return lease.getTimestamps().getLowerBound();
+    }
+
+    private TimestampRange freshTimestamps(int number) {
+        long upperBound = server.addAndGet(number);
+        return TimestampRange.createInclusiveRange(upperBound - number + 1, upperBound);
+    }
+
+    private static String meterName(String name) {
+        return MetricRegistry.name(TimestampLeasingTimelockService.class, name);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.atlasdb.encoding.PtBytes;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.impl.Cells;
+
+public class TransactionReadCacheTest {
+    private static final TableReference TABLE = TableReference.createFromFullyQualifiedName("default.table");
+    private static final byte[] ROW = PtBytes.toBytes("row");
+    private static final Cell CELL = Cell.create(ROW, PtBytes.toBytes("col1"));
+    private static final Cell OTHER_CELL = Cell.create(ROW, PtBytes.toBytes("col2"));
+    private static final byte[] VALUE = PtBytes.toBytes("value");
+
+    private final TransactionReadCache cache = new TransactionReadCache(1024);
+
+    @Test
+    public void returnsNullForCellsThatWereNotRead() {
+        assertThat(cache.get(TABLE, CELL)).isNull();
+
+        cache.cacheCells(TABLE, ImmutableMap.of(CELL, VALUE));
+
+        assertThat(cache.get(TABLE, CELL)).isEqualTo(VALUE);
+        assertThat(cache.get(TABLE, OTHER_CELL)).isNull();
+        assertThat(cache.isRowComplete(TABLE, ROW)).isFalse();
+    }
+
+    @Test
+    public void missingColumnsOfCompleteRowsAreEmpty() {
+        cache.cacheRows(TABLE, ImmutableSet.of(ROW), ImmutableMap.of(CELL, VALUE));
+
+        assertThat(cache.isRowComplete(TABLE, ROW)).isTrue();
+        assertThat(cache.get(TABLE, CELL)).isEqualTo(VALUE);
+        assertThat(cache.get(TABLE, OTHER_CELL)).isEmpty();
+        assertThat(cache.getRow(TABLE, ROW)).containsOnlyKeys(CELL);
+    }
+
+    @Test
+    public void stopsCachingOnceTheBudgetIsUsed() {
+        long cellSize = Cells.getApproxSizeOfCell(CELL) + VALUE.length;
+        TransactionReadCache smallCache = new TransactionReadCache(cellSize);
+
+        smallCache.cacheCells(TABLE, ImmutableMap.of(CELL, VALUE));
+        smallCache.cacheCells(TABLE, ImmutableMap.of(OTHER_CELL, VALUE));
+
+        assertThat(smallCache.get(TABLE, CELL)).isEqualTo(VALUE);
+        assertThat(smallCache.get(TABLE, OTHER_CELL)).isNull();
+        assertThat(smallCache.getCachedBytes()).isEqualTo(cellSize);
+    }
+
+    @Test
+    public void cachingTheSameCellTwiceIsOnlyCountedOnce() {
+        cache.cacheCells(TABLE, ImmutableMap.of(CELL, VALUE));
+        cache.cacheCells(TABLE, ImmutableMap.of(CELL, VALUE));
+
+        assertThat(cache.getCachedBytes()).isEqualTo(Cells.getApproxSizeOfCell(CELL) + VALUE.length);
+    }
+
+    @Test
+    public void hiddenTablesAreNotCached() {
+        cache.cacheCells(TransactionConstants.TRANSACTION_TABLE, ImmutableMap.of(CELL, VALUE));
+
+        assertThat(cache.get(TransactionConstants.TRANSACTION_TABLE, CELL)).isNull();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class BatchingTransactionServiceTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void returnsOnlyRequestedCommitTimestamps() {
+        TransactionService delegate = mock(TransactionService.class);
+        when(delegate.get(any())).thenReturn(ImmutableMap.of(1L, 2L, 3L, 4L));
+        TransactionService service = new BatchingTransactionService(delegate, metricRegistry);
+
+        assertThat(service.get(ImmutableList.of(1L, 5L))).isEqualTo(ImmutableMap.of(1L, 2L));
+        assertThat(service.get(3L)).isEqualTo(4L);
+        assertThat(service.get(5L)).isNull();
+    }
+
+    @Test
+    public void doesNotCallDelegateForEmptyLookups() {
+        TransactionService delegate = mock(TransactionService.class);
+        TransactionService service = new BatchingTransactionService(delegate, metricRegistry);
+
+        assertThat(service.get(ImmutableList.of())).isEmpty();
+    }
+
+    @Test
+    public void putUnlessExistsIsPassedThrough() {
+        TransactionService delegate = mock(TransactionService.class);
+        TransactionService service = new BatchingTransactionService(delegate, metricRegistry);
+
+        service.putUnlessExists(1L, 2L);
+
+        verify(delegate).putUnlessExists(1L, 2L);
+    }
+
+    @Test
+    public void coalescesLookupsQueuedWhileAReadIsInFlight() throws Exception {
+        CountDownLatch firstReadStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstRead = new CountDownLatch(1);
+        List<Set<Long>> reads = new CopyOnWriteArrayList<>();
+        TransactionService delegate = new CommittedEverythingTransactionService() {
+            @Override
+            public Map<Long, Long> get(Iterable<Long> startTimestamps) {
+                reads.add(ImmutableSet.copyOf(startTimestamps));
+                if (reads.size() == 1) {
+                    firstReadStarted.countDown();
+                    Uninterruptibles.awaitUninterruptibly(releaseFirstRead);
+                }
+                return super.get(startTimestamps);
+            }
+        };
+        BatchingTransactionService service = new BatchingTransactionService(delegate, metricRegistry);
+
+        Future<Map<Long, Long>> first = executor.submit(() -> service.get(ImmutableList.of(1L)));
+        firstReadStarted.await();
+        List<Future<Map<Long, Long>>> queued = Lists.newArrayList();
+        for (long ts = 2; ts <= 10; ts++) {
+            long startTs = ts;
+            queued.add(executor.submit(() -> service.get(ImmutableList.of(startTs, 2L))));
+        }
+        waitForQueuedLookups(service, queued);
+        releaseFirstRead.countDown();
+
+        assertThat(first.get()).isEqualTo(ImmutableMap.of(1L, 2L));
+        for (int i = 0; i < queued.size(); i++) {
+            long startTs = i + 2;
+            assertThat(queued.get(i).get()).containsEntry(startTs, startTs + 1).containsEntry(2L, 3L);
+        }
+        assertThat(reads).hasSize(2);
+        assertThat(reads.get(1)).isEqualTo(ImmutableSet.of(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L));
+        assertThat(metricRegistry.meter(MetricRegistry.name(BatchingTransactionService.class, "coalescedLookups"))
+                .getCount()).isEqualTo(8L);
+    }
+
+    @Test
+    public void failuresArePropagatedToEveryLookupInTheBatch() {
+        TransactionService delegate = mock(TransactionService.class);
+        when(delegate.get(any())).thenThrow(new IllegalStateException("kvs is down"));
+        TransactionService service = new BatchingTransactionService(delegate, metricRegistry);
+
+        assertThatThrownBy(() -> service.get(1L))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("kvs is down");
+    }
+
+    private static void waitForQueuedLookups(BatchingTransactionService service, List<?> lookups) {
+        // Each queued lookup blocks on the flush lock held by the in-flight read.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (service.pendingLookupCount() < lookups.size() && System.nanoTime() < deadline) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class CommittedEverythingTransactionService implements TransactionService {
+        @Override
+        public Long get(long startTimestamp) {
+            return startTimestamp + 1;
+        }
+
+        @Override
+        public Map<Long, Long> get(Iterable<Long> startTimestamps) {
+            return Maps.asMap(Sets.newHashSet(startTimestamps), startTimestamp -> startTimestamp + 1);
+        }
+
+        @Override
+        public void putUnlessExists(long startTimestamp, long commitTimestamp) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.transaction.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.palantir.atlasdb.keyvalue.api.Cell;
+import com.palantir.atlasdb.keyvalue.api.KeyAlreadyExistsException;
+import com.palantir.atlasdb.keyvalue.api.KeyValueService;
+import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.impl.ForwardingKeyValueService;
+import com.palantir.atlasdb.keyvalue.impl.InMemoryKeyValueService;
+import com.palantir.atlasdb.transaction.impl.TransactionTables;
+
+public class GroupCommitTransactionServiceTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final List<Set<Cell>> puts = new CopyOnWriteArrayList<>();
+    private final CountDownLatch firstPutStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirstPut = new CountDownLatch(1);
+
+    private KeyValueService kvs;
+    private GroupCommitTransactionService service;
+
+    @Before
+    public void setUp() {
+        KeyValueService inMemoryKvs = new InMemoryKeyValueService(false);
+        TransactionTables.createTables(inMemoryKvs);
+        kvs = new ForwardingKeyValueService() {
+            @Override
+            protected KeyValueService delegate() {
+                return inMemoryKvs;
+            }
+
+            @Override
+            public void putUnlessExists(TableReference tableRef, Map<Cell, byte[]> values) {
+                puts.add(ImmutableSet.copyOf(values.keySet()));
+                if (puts.size() == 1) {
+                    firstPutStarted.countDown();
+                    Uninterruptibles.awaitUninterruptibly(releaseFirstPut);
+                }
+                super.putUnlessExists(tableRef, values);
+            }
+        };
+        service = new GroupCommitTransactionService(new SimpleTransactionService(kvs), metricRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        releaseFirstPut.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void uncontendedWritesAreNotDelayed() {
+        releaseFirstPut.countDown();
+
+        service.putUnlessExists(1L, 2L);
+        service.putUnlessExists(3L, 4L);
+
+        assertThat(service.get(1L)).isEqualTo(2L);
+        assertThat(service.get(3L)).isEqualTo(4L);
+        assertThat(puts).hasSize(2);
+    }
+
+    @Test
+    public void groupCommitsWritesQueuedWhileAPutIsInFlight() throws Exception {
+        Future<?> first = executor.submit(() -> service.putUnlessExists(1L, 2L));
+        firstPutStarted.await();
+        List<Future<?>> queued = Lists.newArrayList();
+        for (long startTs = 10; startTs < 20; startTs++) {
+            long ts = startTs;
+            queued.add(executor.submit(() -> service.putUnlessExists(ts, ts + 100)));
+        }
+        waitForQueuedWrites(queued.size());
+        releaseFirstPut.countDown();
+
+        first.get();
+        for (Future<?> future : queued) {
+            future.get();
+        }
+        assertThat(puts).hasSize(2);
+        assertThat(puts.get(1)).hasSize(10);
+        for (long startTs = 10; startTs < 20; startTs++) {
+            assertThat(service.get(startTs)).isEqualTo(startTs + 100);
+        }
+    }
+
+    @Test
+    public void conflictsAreMappedBackToTheirOwnTransactions() throws Exception {
+        releaseFirstPut.countDown();
+        service.putUnlessExists(11L, 12L);
+
+        // Hold the next put open so that the writes below are grouped into a single batch.
+        CountDownLatch secondPutStarted = new CountDownLatch(1);
+        CountDownLatch releaseSecondPut = new CountDownLatch(1);
+        GroupCommitTransactionService blockingService = new GroupCommitTransactionService(
+                new SimpleTransactionService(new ForwardingKeyValueService() {
+                    @Override
+                    protected KeyValueService delegate() {
+                        return kvs;
+                    }
+
+                    @Override
+                    public void putUnlessExists(TableReference tableRef, Map<Cell, byte[]> values) {
+                        if (secondPutStarted.getCount() > 0) {
+                            secondPutStarted.countDown();
+                            Uninterruptibles.awaitUninterruptibly(releaseSecondPut);
+                        }
+                        super.putUnlessExists(tableRef, values);
+                    }
+                }),
+                metricRegistry);
+
+        Future<?> first = executor.submit(() -> blockingService.putUnlessExists(1L, 2L));
+        secondPutStarted.await();
+        Future<?> conflicting = executor.submit(() -> blockingService.putUnlessExists(11L, -1L));
+        List<Future<?>> others = Lists.newArrayList();
+        for (long startTs = 20; startTs < 25; startTs++) {
+            long ts = startTs;
+            others.add(executor.submit(() -> blockingService.putUnlessExists(ts, ts + 1)));
+        }
+        waitForQueuedWrites(blockingService, others.size() + 1);
+        releaseSecondPut.countDown();
+
+        first.get();
+        assertThatThrownBy(conflicting::get).hasCauseInstanceOf(KeyAlreadyExistsException.class);
+        for (Future<?> future : others) {
+            future.get();
+        }
+        assertThat(service.get(11L)).isEqualTo(12L);
+        for (long startTs = 20; startTs < 25; startTs++) {
+            assertThat(service.get(startTs)).isEqualTo(startTs + 1);
+        }
+    }
+
+    @Test
+    public void resolvesEachWriteOfAPartiallyAppliedBatch() throws Exception {
+        releaseFirstPut.countDown();
+        service.putUnlessExists(15L, 99L);
+
+        // Like Cassandra, write cells one at a time in order and stop at the first one that already exists, so that
+        // the batch below is applied up to the conflicting cell and not beyond it.
+        CountDownLatch batchPutStarted = new CountDownLatch(1);
+        CountDownLatch releaseBatchPut = new CountDownLatch(1);
+        List<Integer> cellsPerPut = new CopyOnWriteArrayList<>();
+        GroupCommitTransactionService perCellService = new GroupCommitTransactionService(
+                new SimpleTransactionService(new ForwardingKeyValueService() {
+                    @Override
+                    protected KeyValueService delegate() {
+                        return kvs;
+                    }
+
+                    @Override
+                    public void putUnlessExists(TableReference tableRef, Map<Cell, byte[]> values) {
+                        cellsPerPut.add(values.size());
+                        if (batchPutStarted.getCount() > 0) {
+                            batchPutStarted.countDown();
+                            Uninterruptibles.awaitUninterruptibly(releaseBatchPut);
+                        }
+                        for (Map.Entry<Cell, byte[]> entry : ImmutableSortedMap.copyOf(values).entrySet()) {
+                            super.putUnlessExists(tableRef, ImmutableMap.of(entry.getKey(), entry.getValue()));
+                        }
+                    }
+                }),
+                metricRegistry);
+
+        Future<?> first = executor.submit(() -> perCellService.putUnlessExists(1L, 2L));
+        batchPutStarted.await();
+        Map<Long, Future<?>> batched = Maps.newTreeMap();
+        for (long startTs = 10; startTs < 20; startTs++) {
+            long ts = startTs;
+            batched.put(ts, executor.submit(() -> perCellService.putUnlessExists(ts, ts + 100)));
+        }
+        waitForQueuedWrites(perCellService, batched.size());
+        releaseBatchPut.countDown();
+
+        first.get();
+        assertThatThrownBy(batched.remove(15L)::get).hasCauseInstanceOf(KeyAlreadyExistsException.class);
+        for (Future<?> future : batched.values()) {
+            future.get();
+        }
+        assertThat(service.get(15L)).isEqualTo(99L);
+        for (long startTs : batched.keySet()) {
+            assertThat(service.get(startTs)).isEqualTo(startTs + 100);
+        }
+        // Writes before the conflict were applied by the batch; only the four after it are retried individually.
+        assertThat(cellsPerPut).containsExactly(1, 10, 1, 1, 1, 1);
+    }
+
+    @Test
+    public void duplicateStartTimestampsInABatchOnlySucceedOnce() throws Exception {
+        Future<?> first = executor.submit(() -> service.putUnlessExists(1L, 2L));
+        firstPutStarted.await();
+        Future<?> commit = executor.submit(() -> service.putUnlessExists(5L, 6L));
+        Future<?> rollback = executor.submit(() -> service.putUnlessExists(5L, -1L));
+        waitForQueuedWrites(2);
+        releaseFirstPut.countDown();
+
+        first.get();
+        int failures = 0;
+        for (Future<?> future : ImmutableSet.of(commit, rollback)) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                assertThat(e).hasCauseInstanceOf(KeyAlreadyExistsException.class);
+                failures++;
+            }
+        }
+        assertThat(failures).isEqualTo(1);
+        assertThat(service.get(5L)).isIn(6L, -1L);
+    }
+
+    private void waitForQueuedWrites(int count) {
+        waitForQueuedWrites(service, count);
+    }
+
+    private static void waitForQueuedWrites(GroupCommitTransactionService groupCommitService, int count) {
+        // Each queued write blocks on the flush lock held by the in-flight put.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (groupCommitService.pendingWriteCount() < count && System.nanoTime() < deadline) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+        }
+    }
+}
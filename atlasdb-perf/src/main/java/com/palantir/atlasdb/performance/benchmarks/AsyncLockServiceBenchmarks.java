@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.performance.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.atlasdb.performance.benchmarks.endpoint.AsyncLockServiceEndpoint;
+import com.palantir.atlasdb.performance.benchmarks.endpoint.AsyncLockServiceEndpoint.ThreadDescriptors;
+
+/**
+ * Lock and unlock throughput of the timelock server's lock service, for requests of 1 to 10,000 descriptors. Each
+ * thread locks its own descriptors exclusively, or all threads lock the same descriptors in shared mode, so that
+ * requests never wait and only the cost of the lock table and of granting and releasing locks is measured.
+ */
+public class AsyncLockServiceBenchmarks {
+    @Benchmark
+    @Warmup(time = 1, timeUnit = TimeUnit.SECONDS)
+    @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
+    @Threads(1)
+    public boolean singleThreadLockAndUnlock(AsyncLockServiceEndpoint lockService, ThreadDescriptors descriptors) {
+        return lockService.lockAndUnlock(descriptors.get(), ImmutableSet.of());
+    }
+
+    @Benchmark
+    @Warmup(time = 1, timeUnit = TimeUnit.SECONDS)
+    @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
+    @Threads(8)
+    public boolean fewThreadsLockAndUnlock(AsyncLockServiceEndpoint lockService, ThreadDescriptors descriptors) {
+        return lockService.lockAndUnlock(descriptors.get(), ImmutableSet.of());
+    }
+
+    @Benchmark
+    @Warmup(time = 1, timeUnit = TimeUnit.SECONDS)
+    @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
+    @Threads(64)
+    public boolean manyThreadsLockAndUnlock(AsyncLockServiceEndpoint lockService, ThreadDescriptors descriptors) {
+        return lockService.lockAndUnlock(descriptors.get(), ImmutableSet.of());
+    }
+
+    @Benchmark
+    @Warmup(time = 1, timeUnit = TimeUnit.SECONDS)
+    @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
+    @Threads(8)
+    public boolean fewThreadsLockAndUnlockSharedLocks(AsyncLockServiceEndpoint lockService) {
+        return lockService.lockAndUnlock(ImmutableSet.of(), lockService.getCommonDescriptors());
+    }
+
+    @Benchmark
+    @Warmup(time = 1, timeUnit = TimeUnit.SECONDS)
+    @Measurement(time = 10, timeUnit = TimeUnit.SECONDS)
+    @Threads(64)
+    public boolean manyThreadsLockAndUnlockSharedLocks(AsyncLockServiceEndpoint lockService) {
+        return lockService.lockAndUnlock(ImmutableSet.of(), lockService.getCommonDescriptors());
+    }
+}
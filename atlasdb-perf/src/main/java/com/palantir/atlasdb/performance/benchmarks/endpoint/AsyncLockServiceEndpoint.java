@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.performance.benchmarks.endpoint;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.base.Preconditions;
+import com.palantir.atlasdb.timelock.lock.AsyncLockService;
+import com.palantir.atlasdb.timelock.lock.AsyncResult;
+import com.palantir.atlasdb.timelock.lock.TimeLimit;
+import com.palantir.lock.LockDescriptor;
+import com.palantir.lock.StringLockDescriptor;
+import com.palantir.lock.v2.LockToken;
+
+/**
+ * An in-process {@link AsyncLockService}, as run by the timelock server, with no key value service behind it.
+ */
+@State(Scope.Benchmark)
+public class AsyncLockServiceEndpoint {
+
+    private static final TimeLimit TIMEOUT = TimeLimit.of(10_000L);
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int descriptorsPerRequest;
+
+    private ScheduledExecutorService reaperExecutor;
+    private ScheduledExecutorService timeoutExecutor;
+    private AsyncLockService lockService;
+    private Set<LockDescriptor> commonDescriptors;
+
+    /**
+     * Locks the given descriptors, which must not be locked in a conflicting mode, and unlocks them again.
+     */
+    public boolean lockAndUnlock(Set<LockDescriptor> exclusiveDescriptors, Set<LockDescriptor> sharedDescriptors) {
+        // UUID.randomUUID() would contend on a SecureRandom
+        UUID requestId = new UUID(ThreadLocalRandom.current().nextLong(), ThreadLocalRandom.current().nextLong());
+        AsyncResult<LockToken> result = lockService.lock(requestId, exclusiveDescriptors, sharedDescriptors, TIMEOUT);
+        Preconditions.checkState(result.isCompletedSuccessfully(), "Lock request was not granted immediately");
+        return lockService.unlock(result.get());
+    }
+
+    /**
+     * Returns the same {@link #descriptorsPerRequest} descriptors to every caller.
+     */
+    public Set<LockDescriptor> getCommonDescriptors() {
+        return commonDescriptors;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        reaperExecutor = Executors.newSingleThreadScheduledExecutor();
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor();
+        lockService = AsyncLockService.createDefault(reaperExecutor, timeoutExecutor);
+        commonDescriptors = createDescriptors("common");
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        lockService.close();
+        timeoutExecutor.shutdownNow();
+    }
+
+    private Set<LockDescriptor> createDescriptors(String prefix) {
+        return IntStream.range(0, descriptorsPerRequest)
+                .mapToObj(i -> StringLockDescriptor.of(prefix + "-" + i))
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Descriptors that are locked only by the benchmark thread that owns this state.
+     */
+    @State(Scope.Thread)
+    public static class ThreadDescriptors {
+        private Set<LockDescriptor> descriptors;
+
+        public Set<LockDescriptor> get() {
+            return descriptors;
+        }
+
+        @Setup(Level.Trial)
+        public void setup(AsyncLockServiceEndpoint endpoint) {
+            descriptors = endpoint.createDescriptors(UUID.randomUUID().toString());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.performance.benchmarks.endpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.common.primitives.Longs;
+import com.palantir.paxos.PaxosStateLog;
+import com.palantir.paxos.PaxosStateLogImpl;
+import com.palantir.paxos.PaxosValue;
+import com.palantir.paxos.SegmentedPaxosStateLog;
+
+/**
+ * A Paxos state log on local disk, as written by the acceptors and learners of a timelock server. The log is
+ * created under {@link #directory}, which should be on the disk being measured.
+ */
+@State(Scope.Benchmark)
+public class PaxosStateLogEndpoint {
+
+    public enum LogType {
+        FILE_PER_ROUND,
+        SEGMENTED,
+        SEGMENTED_MEMORY_MAPPED
+    }
+
+    private static final String LEADER_UUID = UUID.randomUUID().toString();
+
+    @Param({"FILE_PER_ROUND", "SEGMENTED", "SEGMENTED_MEMORY_MAPPED"})
+    public LogType logType;
+
+    @Param({"var/data/paxos-benchmark"})
+    public String directory;
+
+    private final AtomicLong nextSeq = new AtomicLong();
+    private File logDirectory;
+    private PaxosStateLog<PaxosValue> log;
+
+    /**
+     * Durably writes the next round, with a timestamp bound sized value, and returns its sequence number.
+     */
+    public long writeRound() {
+        long seq = nextSeq.getAndIncrement();
+        log.writeRound(seq, new PaxosValue(LEADER_UUID, seq, Longs.toByteArray(seq)));
+        return seq;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        logDirectory = new File(directory, UUID.randomUUID().toString());
+        FileUtils.forceMkdir(logDirectory);
+        switch (logType) {
+            case FILE_PER_ROUND:
+                log = new PaxosStateLogImpl<>(logDirectory.getPath());
+                break;
+            case SEGMENTED:
+                log = SegmentedPaxosStateLog.create(logDirectory.getPath());
+                break;
+            case SEGMENTED_MEMORY_MAPPED:
+                log = SegmentedPaxosStateLog.create(
+                        logDirectory.getPath(), SegmentedPaxosStateLog.DEFAULT_SEGMENT_SIZE_BYTES, true);
+                break;
+            default:
+                throw new IllegalStateException("Unknown log type " + logType);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(logDirectory);
+    }
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.BrokenBarrierException;
@@ -26,8 +27,10 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -36,6 +39,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.primitives.UnsignedBytes;
@@ -45,6 +49,7 @@ import com.palantir.atlasdb.encoding.PtBytes;
 import com.palantir.atlasdb.keyvalue.api.BatchColumnRangeSelection;
 import com.palantir.atlasdb.keyvalue.api.Cell;
 import com.palantir.atlasdb.keyvalue.api.RangeRequest;
+import com.palantir.atlasdb.keyvalue.api.RangeRequests;
 import com.palantir.atlasdb.keyvalue.api.RowResult;
 import com.palantir.atlasdb.keyvalue.api.TableReference;
 import com.palantir.atlasdb.transaction.api.AtlasDbConstraintCheckingMode;
@@ -63,6 +68,12 @@ import com.palantir.remoting2.tracing.Tracers;
 
 
 public abstract class AbstractSerializableTransactionTest extends AbstractTransactionTest {
+    private final ExecutorService readVerificationExecutor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutDownReadVerificationExecutor() {
+        readVerificationExecutor.shutdownNow();
+    }
 
     @Override
     protected TransactionManager getManager() {
@@ -103,7 +114,13 @@ public abstract class AbstractSerializableTransactionTest extends AbstractTransa
                 true,
                 timestampCache,
                 AtlasDbConstants.DEFAULT_TRANSACTION_LOCK_ACQUIRE_TIMEOUT_MS,
-                AbstractTransactionTest.GET_RANGES_EXECUTOR) {
+                AbstractTransactionTest.GET_RANGES_EXECUTOR,
+                Optional.empty(),
+                Optional.empty(),
+                Optional.of(readVerificationExecutor),
+                CompactWriteBuffer::new,
+                AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES,
+                CrossTransactionReadCache.disabled()) {
             @Override
             protected Map<Cell, byte[]> transformGetsForTesting(Map<Cell, byte[]> map) {
                 return Maps.transformValues(map, input -> input.clone());
@@ -401,6 +418,69 @@ public abstract class AbstractSerializableTransactionTest extends AbstractTransa
         }
     }
 
+    @Test
+    public void testPhantomReadFailInOneOfManyRanges() {
+        String initialValue = "100";
+        Transaction t0 = startTransaction();
+        put(t0, "row1", "col1", initialValue);
+        put(t0, "row5", "col1", initialValue);
+        t0.commit();
+
+        Transaction t1 = startTransaction();
+        for (String startRow : ImmutableList.of("row0", "row2", "row4", "row6")) {
+            RangeRequest range = RangeRequest.builder()
+                    .startRowInclusive(PtBytes.toBytes(startRow))
+                    .endRowExclusive(RangeRequests.nextLexicographicName(PtBytes.toBytes(startRow)))
+                    .build();
+            BatchingVisitables.copyToList(t1.getRange(TEST_TABLE, range));
+        }
+        get(t1, "row1", "col1");
+        put(t1, "row7", "col1", initialValue);
+
+        Transaction t2 = startTransaction();
+        put(t2, "row4", "col1", initialValue);
+        t2.commit();
+
+        try {
+            t1.commit();
+            fail();
+        } catch (TransactionSerializableConflictException e) {
+            // row4 was written into one of the ranges we read
+        }
+    }
+
+    @Test
+    public void testPhantomReadFailInOneOfManyLazilyPrefetchedRanges() {
+        String initialValue = "100";
+        Transaction t0 = startTransaction();
+        put(t0, "row1", "col1", initialValue);
+        put(t0, "row5", "col1", initialValue);
+        t0.commit();
+
+        Transaction t1 = startTransaction();
+        List<RangeRequest> ranges = Lists.newArrayList();
+        for (String startRow : ImmutableList.of("row0", "row2", "row4", "row6")) {
+            ranges.add(RangeRequest.builder()
+                    .startRowInclusive(PtBytes.toBytes(startRow))
+                    .endRowExclusive(RangeRequests.nextLexicographicName(PtBytes.toBytes(startRow)))
+                    .build());
+        }
+        t1.getRangesLazy(TEST_TABLE, ranges, 2, 1).forEach(BatchingVisitables::copyToList);
+        get(t1, "row1", "col1");
+        put(t1, "row7", "col1", initialValue);
+
+        Transaction t2 = startTransaction();
+        put(t2, "row4", "col1", initialValue);
+        t2.commit();
+
+        try {
+            t1.commit();
+            fail();
+        } catch (TransactionSerializableConflictException e) {
+            // row4 was written into one of the ranges we read
+        }
+    }
+
     @Test
     public void testPhantomReadFail2() {
         String initialValue = "100";
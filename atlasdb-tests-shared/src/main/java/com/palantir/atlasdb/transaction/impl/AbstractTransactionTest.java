@@ -1166,14 +1166,19 @@ public abstract class AbstractTransactionTest extends TransactionTestSetup {
                 t.getRanges(TEST_TABLE, rangeRequests, 2, (rangeRequest, visitable) -> visitable).collect(Collectors.toList());
         List<BatchingVisitable<RowResult<byte[]>>> getRangesLazyImpl =
                 t.getRangesLazy(TEST_TABLE, rangeRequests).collect(Collectors.toList());
+        List<BatchingVisitable<RowResult<byte[]>>> getRangesLazyWithPrefetchingImpl =
+                t.getRangesLazy(TEST_TABLE, rangeRequests, 4, 2).collect(Collectors.toList());
 
         assertEquals(getRangesWithPrefetchingImpl.size(), getRangesLazyImpl.size());
         assertEquals(getRangesLazyImpl.size(), getRangesInParallelImpl.size());
+        assertEquals(getRangesLazyImpl.size(), getRangesLazyWithPrefetchingImpl.size());
 
         for (int i = 0; i < getRangesWithPrefetchingImpl.size(); i++) {
             assertEquals(expectedRangeSize, BatchingVisitables.copyToList(getRangesWithPrefetchingImpl.get(i)).size());
             assertEquals(expectedRangeSize, BatchingVisitables.copyToList(getRangesInParallelImpl.get(i)).size());
             assertEquals(expectedRangeSize, BatchingVisitables.copyToList(getRangesLazyImpl.get(i)).size());
+            assertEquals(expectedRangeSize,
+                    BatchingVisitables.copyToList(getRangesLazyWithPrefetchingImpl.get(i)).size());
         }
     }
 
@@ -1184,9 +1189,12 @@ public abstract class AbstractTransactionTest extends TransactionTestSetup {
                 t.getRanges(TEST_TABLE, rangeRequests, 2, (rangeRequest, visitable) -> visitable).collect(Collectors.toList());
         Iterable<BatchingVisitable<RowResult<byte[]>>> getRangesLazyImpl =
                 t.getRangesLazy(TEST_TABLE, rangeRequests).collect(Collectors.toList());
+        Iterable<BatchingVisitable<RowResult<byte[]>>> getRangesLazyWithPrefetchingImpl =
+                t.getRangesLazy(TEST_TABLE, rangeRequests, 4, 2).collect(Collectors.toList());
 
         assertEquals(expectedNumberOfRows, BatchingVisitables.concat(getRangesWithPrefetchingImpl).count());
         assertEquals(expectedNumberOfRows, BatchingVisitables.concat(getRangesInParallelImpl).count());
         assertEquals(expectedNumberOfRows, BatchingVisitables.concat(getRangesLazyImpl).count());
+        assertEquals(expectedNumberOfRows, BatchingVisitables.concat(getRangesLazyWithPrefetchingImpl).count());
     }
 }
@@ -18,9 +18,11 @@ package com.palantir.atlasdb.transaction.impl;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -28,6 +30,7 @@ import static org.junit.Assert.fail;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -35,7 +38,9 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -43,7 +48,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.commons.lang3.tuple.Pair;
@@ -76,8 +83,10 @@ import com.palantir.atlasdb.keyvalue.api.ColumnRangeSelection;
 import com.palantir.atlasdb.keyvalue.api.ColumnSelection;
 import com.palantir.atlasdb.keyvalue.api.KeyValueService;
 import com.palantir.atlasdb.keyvalue.api.RangeRequest;
+import com.palantir.atlasdb.keyvalue.api.RangeRequests;
 import com.palantir.atlasdb.keyvalue.api.RowResult;
 import com.palantir.atlasdb.keyvalue.api.TableReference;
+import com.palantir.atlasdb.keyvalue.api.Value;
 import com.palantir.atlasdb.keyvalue.impl.ForwardingKeyValueService;
 import com.palantir.atlasdb.keyvalue.impl.TrackingKeyValueService;
 import com.palantir.atlasdb.protos.generated.TableMetadataPersistence.CachePriority;
@@ -88,6 +97,7 @@ import com.palantir.atlasdb.ptobject.EncodingUtils;
 import com.palantir.atlasdb.table.description.ColumnMetadataDescription;
 import com.palantir.atlasdb.table.description.NameMetadataDescription;
 import com.palantir.atlasdb.table.description.TableMetadata;
+import com.palantir.atlasdb.transaction.api.AsyncTransaction;
 import com.palantir.atlasdb.transaction.api.AtlasDbConstraintCheckingMode;
 import com.palantir.atlasdb.transaction.api.ConflictHandler;
 import com.palantir.atlasdb.transaction.api.LockAwareTransactionTask;
@@ -99,6 +109,7 @@ import com.palantir.atlasdb.transaction.api.TransactionReadSentinelBehavior;
 import com.palantir.common.base.AbortingVisitor;
 import com.palantir.common.base.AbortingVisitors;
 import com.palantir.common.base.BatchingVisitable;
+import com.palantir.common.base.BatchingVisitables;
 import com.palantir.common.concurrent.PTExecutors;
 import com.palantir.common.proxy.MultiDelegateProxy;
 import com.palantir.lock.AtlasRowLockDescriptor;
@@ -114,6 +125,7 @@ import com.palantir.lock.SimpleTimeDuration;
 import com.palantir.lock.TimeDuration;
 import com.palantir.lock.impl.LegacyTimelockService;
 import com.palantir.remoting2.tracing.Tracers;
+import com.palantir.util.paging.TokenBackedBasicResultsPage;
 
 @SuppressWarnings("checkstyle:all")
 public class SnapshotTransactionTest extends AtlasDbTestCase {
@@ -752,12 +764,254 @@ public class SnapshotTransactionTest extends AtlasDbTestCase {
         }
     }
 
+    @Test
+    public void pipelinedCommitsDetectWriteWriteConflicts() {
+        Cell cell = Cell.create(PtBytes.toBytes("row1"), PtBytes.toBytes("column1"));
+        ExecutorService pipelinedCommitExecutor = Executors.newCachedThreadPool();
+        try {
+            Transaction t1 = createPipelinedTransaction(pipelinedCommitExecutor);
+            Transaction t2 = createPipelinedTransaction(pipelinedCommitExecutor);
+            t1.put(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("t1")));
+            t2.put(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("t2")));
+            t1.commit();
+            try {
+                t2.commit();
+                fail();
+            } catch (TransactionConflictException e) {
+                // good
+            }
+
+            Transaction t3 = createPipelinedTransaction(pipelinedCommitExecutor);
+            t3.put(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("t3")));
+            t3.commit();
+
+            Transaction readTransaction = txManager.createNewTransaction();
+            assertEquals("t3", PtBytes.toString(readTransaction.get(TABLE, ImmutableSet.of(cell)).get(cell)));
+        } finally {
+            pipelinedCommitExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void lazyRangesWithPrefetchingOnlyReadAheadOfTheConsumerByTheInFlightLimit() {
+        List<RangeRequest> ranges = writeSingleRowRanges(10);
+        AtomicInteger firstPagesRead = new AtomicInteger();
+        KeyValueService countingKvs = new ForwardingKeyValueService() {
+            @Override
+            protected KeyValueService delegate() {
+                return keyValueService;
+            }
+
+            @Override
+            public Map<RangeRequest, TokenBackedBasicResultsPage<RowResult<Value>, byte[]>> getFirstBatchForRanges(
+                    TableReference tableRef, Iterable<RangeRequest> rangeRequests, long timestamp) {
+                firstPagesRead.addAndGet(Iterables.size(rangeRequests));
+                return super.getFirstBatchForRanges(tableRef, rangeRequests, timestamp);
+            }
+        };
+        Transaction t = createTransaction(countingKvs, Optional.empty());
+
+        Iterator<BatchingVisitable<RowResult<byte[]>>> lazyRanges = t.getRangesLazy(TABLE, ranges, 2, 1).iterator();
+        for (int taken = 1; taken <= ranges.size(); taken++) {
+            assertEquals(1, BatchingVisitables.copyToList(lazyRanges.next()).size());
+            assertThat(firstPagesRead.get(), lessThanOrEqualTo(taken + 1));
+        }
+        assertFalse(lazyRanges.hasNext());
+        assertEquals(ranges.size(), firstPagesRead.get());
+    }
+
+    @Test
+    public void closingALazyRangeStreamCancelsReadsOfRangesNotYetTaken() throws InterruptedException {
+        List<RangeRequest> ranges = writeSingleRowRanges(2);
+        CountDownLatch secondRangeStarted = new CountDownLatch(1);
+        CountDownLatch secondRangeInterrupted = new CountDownLatch(1);
+        KeyValueService blockingKvs = new ForwardingKeyValueService() {
+            @Override
+            protected KeyValueService delegate() {
+                return keyValueService;
+            }
+
+            @Override
+            public Map<RangeRequest, TokenBackedBasicResultsPage<RowResult<Value>, byte[]>> getFirstBatchForRanges(
+                    TableReference tableRef, Iterable<RangeRequest> rangeRequests, long timestamp) {
+                if (Iterables.contains(rangeRequests, ranges.get(1))) {
+                    secondRangeStarted.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        secondRangeInterrupted.countDown();
+                        throw Throwables.propagate(e);
+                    }
+                }
+                return super.getFirstBatchForRanges(tableRef, rangeRequests, timestamp);
+            }
+        };
+        Transaction t = createTransaction(blockingKvs, Optional.empty());
+
+        try (Stream<BatchingVisitable<RowResult<byte[]>>> lazyRanges = t.getRangesLazy(TABLE, ranges, 2, 1)) {
+            assertEquals(1, BatchingVisitables.copyToList(lazyRanges.iterator().next()).size());
+            assertTrue(secondRangeStarted.await(10, TimeUnit.SECONDS));
+        }
+        assertTrue(secondRangeInterrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void asyncReadsSeeCommittedAndLocalWrites() throws Exception {
+        Cell committedCell = Cell.create(PtBytes.toBytes("row1"), PtBytes.toBytes("column1"));
+        Cell localCell = Cell.create(PtBytes.toBytes("row2"), PtBytes.toBytes("column1"));
+        writeCells(TABLE, ImmutableMap.of(committedCell, PtBytes.toBytes("committed")));
+
+        ExecutorService asyncExecutor = PTExecutors.newFixedThreadPool(2);
+        try {
+            AsyncTransaction t = (AsyncTransaction) createUnwrappedTransactionManager().createNewTransaction();
+            t.put(TABLE, ImmutableMap.of(localCell, PtBytes.toBytes("local")));
+            CompletableFuture<Map<Cell, byte[]>> cells = t.getAsync(
+                    TABLE, ImmutableSet.of(committedCell, localCell), asyncExecutor);
+            CompletableFuture<SortedMap<byte[], RowResult<byte[]>>> rows = t.getRowsAsync(
+                    TABLE,
+                    ImmutableSet.of(PtBytes.toBytes("row1"), PtBytes.toBytes("row2")),
+                    ColumnSelection.all(),
+                    asyncExecutor);
+            CompletableFuture.allOf(cells, rows).thenCompose(ignored -> t.commitAsync(asyncExecutor)).get();
+
+            assertEquals("committed", PtBytes.toString(cells.get().get(committedCell)));
+            assertEquals("local", PtBytes.toString(cells.get().get(localCell)));
+            assertEquals(2, rows.get().size());
+            assertTrue(!t.isUncommitted() && !t.isAborted());
+            Transaction readTransaction = txManager.createNewTransaction();
+            assertEquals("local",
+                    PtBytes.toString(readTransaction.get(TABLE, ImmutableSet.of(localCell)).get(localCell)));
+        } finally {
+            asyncExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void transactionsRunByTheManagerAreAsync() {
+        Cell cell = Cell.create(PtBytes.toBytes("row1"), PtBytes.toBytes("column1"));
+        writeCells(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("value")));
+
+        ExecutorService asyncExecutor = PTExecutors.newSingleThreadExecutor();
+        try {
+            byte[] value = createUnwrappedTransactionManager().runTaskWithRetry(
+                    tx -> ((AsyncTransaction) tx).getAsync(TABLE, ImmutableSet.of(cell), asyncExecutor)
+                            .join()
+                            .get(cell));
+
+            assertEquals("value", PtBytes.toString(value));
+        } finally {
+            asyncExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void repeatedReadsAreServedFromTheReadCache() {
+        byte[] row = PtBytes.toBytes("row1");
+        Cell cell = Cell.create(row, PtBytes.toBytes("column1"));
+        Cell otherCell = Cell.create(row, PtBytes.toBytes("column2"));
+        writeCells(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("value"), otherCell, PtBytes.toBytes("other")));
+
+        Transaction t = createUnwrappedTransactionManager().createNewTransaction();
+        keyValueServiceWithStats.reset();
+        assertEquals(2, t.getRows(TABLE, ImmutableSet.of(row), ColumnSelection.all()).get(row).getColumns().size());
+        long getCalls = keyValueServiceWithStats.getTableStats().get(TABLE).getTotalGetCalls();
+
+        assertEquals("value", PtBytes.toString(t.get(TABLE, ImmutableSet.of(cell)).get(cell)));
+        assertEquals(2, t.getRows(TABLE, ImmutableSet.of(row), ColumnSelection.all()).get(row).getColumns().size());
+        assertEquals("other", PtBytes.toString(t.getRows(TABLE, ImmutableSet.of(row),
+                ColumnSelection.create(ImmutableSet.of(otherCell.getColumnName()))).get(row).getColumns()
+                .get(otherCell.getColumnName())));
+        assertEquals(getCalls, keyValueServiceWithStats.getTableStats().get(TABLE).getTotalGetCalls());
+    }
+
+    @Test
+    public void localWritesTakePrecedenceOverTheReadCache() {
+        byte[] row = PtBytes.toBytes("row1");
+        Cell cell = Cell.create(row, PtBytes.toBytes("column1"));
+        Cell otherCell = Cell.create(row, PtBytes.toBytes("column2"));
+        writeCells(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("value"), otherCell, PtBytes.toBytes("other")));
+
+        Transaction t = createUnwrappedTransactionManager().createNewTransaction();
+        t.getRows(TABLE, ImmutableSet.of(row), ColumnSelection.all());
+        t.put(TABLE, ImmutableMap.of(cell, PtBytes.toBytes("new value")));
+        t.delete(TABLE, ImmutableSet.of(otherCell));
+
+        RowResult<byte[]> rowResult = t.getRows(TABLE, ImmutableSet.of(row), ColumnSelection.all()).get(row);
+        assertEquals(1, rowResult.getColumns().size());
+        assertEquals("new value", PtBytes.toString(rowResult.getColumns().get(cell.getColumnName())));
+        assertTrue(t.get(TABLE, ImmutableSet.of(otherCell)).isEmpty());
+        List<Map.Entry<Cell, byte[]>> columns = BatchingVisitables.copyToList(t.getRowsColumnRange(
+                TABLE,
+                ImmutableSet.of(row),
+                BatchColumnRangeSelection.create(PtBytes.EMPTY_BYTE_ARRAY, PtBytes.EMPTY_BYTE_ARRAY, 10)).get(row));
+        assertEquals(1, columns.size());
+        assertEquals("new value", PtBytes.toString(columns.get(0).getValue()));
+    }
+
+    private TestTransactionManager createUnwrappedTransactionManager() {
+        // The default test transaction manager wraps its transactions in a CachingTransaction, which is not async.
+        return new TestTransactionManagerImpl(
+                keyValueService,
+                timestampService,
+                lockClient,
+                lockService,
+                transactionService,
+                conflictDetectionManager,
+                sweepStrategyManager);
+    }
+
+    private List<RangeRequest> writeSingleRowRanges(int numRanges) {
+        List<RangeRequest> ranges = Lists.newArrayList();
+        ImmutableMap.Builder<Cell, byte[]> cells = ImmutableMap.builder();
+        for (int i = 0; i < numRanges; i++) {
+            byte[] row = PtBytes.toBytes("row" + i);
+            cells.put(Cell.create(row, PtBytes.toBytes("column")), PtBytes.toBytes("value" + i));
+            ranges.add(RangeRequest.builder()
+                    .startRowInclusive(row)
+                    .endRowExclusive(RangeRequests.nextLexicographicName(row))
+                    .build());
+        }
+        writeCells(TABLE, cells.build());
+        return ranges;
+    }
+
     private void writeCells(TableReference table, ImmutableMap<Cell, byte[]> cellsToWrite) {
         Transaction writeTransaction = txManager.createNewTransaction();
         writeTransaction.put(table, cellsToWrite);
         writeTransaction.commit();
     }
 
+    private Transaction createPipelinedTransaction(ExecutorService pipelinedCommitExecutor) {
+        return createTransaction(keyValueService, Optional.of(pipelinedCommitExecutor));
+    }
+
+    private Transaction createTransaction(KeyValueService kvs, Optional<ExecutorService> pipelinedCommitExecutor) {
+        return new SnapshotTransaction(
+                kvs,
+                new LegacyTimelockService(timestampService, lockService, lockClient),
+                transactionService,
+                NoOpCleaner.INSTANCE,
+                timestampService::getFreshTimestamp,
+                TestConflictDetectionManagers.createWithStaticConflictDetection(
+                        ImmutableMap.of(TABLE, ConflictHandler.RETRY_ON_WRITE_WRITE)),
+                sweepStrategyManager,
+                0L,
+                Optional.empty(),
+                AdvisoryLockPreCommitCheck.NO_OP,
+                AtlasDbConstraintCheckingMode.NO_CONSTRAINT_CHECKING,
+                null,
+                TransactionReadSentinelBehavior.THROW_EXCEPTION,
+                false,
+                timestampCache,
+                AtlasDbConstants.DEFAULT_TRANSACTION_LOCK_ACQUIRE_TIMEOUT_MS,
+                getRangesExecutor,
+                pipelinedCommitExecutor,
+                Optional.empty(),
+                SnapshotTransaction.SKIP_LIST_WRITE_BUFFER,
+                AtlasDbConstants.DEFAULT_TRANSACTION_READ_CACHE_MAX_BYTES,
+                CrossTransactionReadCache.disabled());
+    }
+
     private RowResult<byte[]> readRow(byte[] defaultRow) {
         Transaction readTransaction = txManager.createNewTransaction();
         SortedMap<byte[], RowResult<byte[]>> allRows = readTransaction.getRows(TABLE, ImmutableSet.of(defaultRow), ColumnSelection.all());
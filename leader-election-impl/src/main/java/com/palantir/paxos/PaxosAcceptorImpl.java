@@ -32,7 +32,14 @@ public class PaxosAcceptorImpl implements PaxosAcceptor {
      * @return a new acceptor
      */
     public static PaxosAcceptor newAcceptor(String logDir) {
-        PaxosStateLog<PaxosAcceptorState> log = new PaxosStateLogImpl<PaxosAcceptorState>(logDir);
+        return newAcceptor(new PaxosStateLogImpl<PaxosAcceptorState>(logDir));
+    }
+
+    /**
+     * @param log durable log of the acceptor's state
+     * @return a new acceptor
+     */
+    public static PaxosAcceptor newAcceptor(PaxosStateLog<PaxosAcceptorState> log) {
         return new PaxosAcceptorImpl(
                 new ConcurrentSkipListMap<Long, PaxosAcceptorState>(),
                 log,
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.paxos;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.palantir.common.base.Throwables;
+import com.palantir.common.persist.Persistable;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.UnsafeArg;
+
+/**
+ * A {@link PaxosStateLog} which appends rounds to a sequence of segment files, rather than writing each round to a
+ * file of its own as {@link PaxosStateLogImpl} does.
+ * <p>
+ * Each record holds the sequence number, length and CRC32 checksum of a round, followed by the round itself; a
+ * round written more than once is superseded by its latest record. Concurrent writers append their records and then
+ * wait for them to be synced to disk, and a single fsync covers every record appended before it started, so under
+ * load many rounds share one fsync. Once a segment grows beyond the configured size a new segment is started, and
+ * truncation deletes segments whose rounds have all been truncated. The location of every round is kept in memory,
+ * so reads, and the least and greatest log entries, do not need to list the log directory.
+ * <p>
+ * Segments which are no longer appended to may optionally be memory-mapped for reads. When opened on a directory
+ * written by {@link PaxosStateLogImpl}, the existing rounds are copied into a segment and the per-round files are
+ * deleted; the migration is one-way.
+ */
+public final class SegmentedPaxosStateLog<V extends Persistable & Versionable> implements PaxosStateLog<V> {
+    private static final Logger log = LoggerFactory.getLogger(SegmentedPaxosStateLog.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE_BYTES = 64 * 1024 * 1024;
+    // A segment may overshoot its size by one record, and must still be addressable by a mapped buffer.
+    private static final long MAX_MAPPED_SEGMENT_SIZE_BYTES = Integer.MAX_VALUE / 2;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String TRUNCATION_FILE_NAME = "truncated-through";
+    // Present while the per-round files of a completed migration are being deleted.
+    private static final String MIGRATED_FILE_NAME = "migrated-from-file-per-round";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+    // sequence number, payload length and checksum
+    private static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final File directory;
+    private final long segmentSizeBytes;
+    private final boolean memoryMapped;
+
+    private final NavigableMap<Long, RecordLocation> index = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final AtomicLong syncedPosition = new AtomicLong();
+
+    @GuardedBy("appendLock")
+    private final Map<Long, Long> seqToVersionMap = Maps.newHashMap();
+    @GuardedBy("appendLock")
+    private Segment activeSegment;
+    @GuardedBy("appendLock")
+    private long appendedPosition;
+    private volatile long truncatedThrough;
+
+    private SegmentedPaxosStateLog(File directory, long segmentSizeBytes, boolean memoryMapped) {
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.memoryMapped = memoryMapped;
+    }
+
+    public static <V extends Persistable & Versionable> SegmentedPaxosStateLog<V> create(String path) {
+        return create(path, DEFAULT_SEGMENT_SIZE_BYTES, false);
+    }
+
+    /**
+     * Opens the log in the given directory, creating it or migrating it from the layout of {@link PaxosStateLogImpl}
+     * if necessary.
+     *
+     * @param path directory of the log
+     * @param segmentSizeBytes size beyond which a new segment is started
+     * @param memoryMapped whether to memory-map segments that are no longer appended to for reads
+     */
+    public static <V extends Persistable & Versionable> SegmentedPaxosStateLog<V> create(
+            String path,
+            long segmentSizeBytes,
+            boolean memoryMapped) {
+        Preconditions.checkArgument(segmentSizeBytes > 0, "Segment size must be positive");
+        Preconditions.checkArgument(!memoryMapped || segmentSizeBytes <= MAX_MAPPED_SEGMENT_SIZE_BYTES,
+                "Memory-mapped segments may be at most %s bytes", MAX_MAPPED_SEGMENT_SIZE_BYTES);
+        SegmentedPaxosStateLog<V> stateLog = new SegmentedPaxosStateLog<>(new File(path), segmentSizeBytes,
+                memoryMapped);
+        try {
+            FileUtils.forceMkdir(stateLog.directory);
+            stateLog.recover();
+        } catch (IOException e) {
+            throw new RuntimeException("IO problem related to the path " + stateLog.directory.getAbsolutePath(), e);
+        }
+        return stateLog;
+    }
+
+    @Override
+    public void writeRound(long seq, V round) {
+        byte[] bytes = round.persistToBytes();
+        long position;
+        appendLock.lock();
+        try {
+            // reject old state
+            Long latestVersion = seqToVersionMap.get(seq);
+            if (latestVersion != null && round.getVersion() < latestVersion) {
+                return;
+            }
+
+            index.put(seq, append(seq, bytes));
+            seqToVersionMap.put(seq, round.getVersion());
+            position = appendedPosition;
+        } catch (IOException e) {
+            log.error("problem writing paxos state", e);
+            throw Throwables.throwUncheckedException(e);
+        } finally {
+            appendLock.unlock();
+        }
+        syncThrough(position);
+    }
+
+    @Override
+    public byte[] readRound(long seq) throws IOException {
+        RecordLocation location = index.get(seq);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return location.segment.read(location.offset, location.length, seq);
+        } catch (IOException e) {
+            log.error("Problem reading paxos state, specifically when reading round {} from segment {}",
+                    SafeArg.of("round", seq),
+                    UnsafeArg.of("segment", location.segment.file.getAbsolutePath()));
+            throw e;
+        }
+    }
+
+    @Override
+    public long getLeastLogEntry() {
+        if (truncatedThrough < PaxosAcceptor.NO_LOG_ENTRY) {
+            // Like PaxosStateLogImpl, a log that has never been truncated starts before its first round.
+            return PaxosAcceptor.NO_LOG_ENTRY;
+        }
+        Map.Entry<Long, RecordLocation> least = index.firstEntry();
+        return least == null ? PaxosAcceptor.NO_LOG_ENTRY : least.getKey();
+    }
+
+    @Override
+    public long getGreatestLogEntry() {
+        Map.Entry<Long, RecordLocation> greatest = index.lastEntry();
+        return greatest == null ? PaxosAcceptor.NO_LOG_ENTRY : greatest.getKey();
+    }
+
+    @Override
+    public void truncate(long toDeleteInclusive) {
+        appendLock.lock();
+        try {
+            long greatestLogEntry = getGreatestLogEntry();
+            if (greatestLogEntry >= 0) {
+                // We never want to remove our most recent entry
+                toDeleteInclusive = Math.min(greatestLogEntry - 1, toDeleteInclusive);
+            }
+            if (toDeleteInclusive <= truncatedThrough) {
+                return;
+            }
+            writeTruncatedThrough(toDeleteInclusive);
+            index.headMap(toDeleteInclusive, true).clear();
+            seqToVersionMap.keySet().removeIf(seq -> seq <= truncatedThrough);
+
+            for (Segment segment : Lists.newArrayList(segments.values())) {
+                if (segment != activeSegment && segment.greatestSeq <= truncatedThrough) {
+                    segments.remove(segment.id);
+                    segment.delete();
+                }
+            }
+        } catch (IOException e) {
+            log.error("problem truncating paxos state", e);
+            throw Throwables.throwUncheckedException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record appended up to the given position has been synced to disk, syncing it ourselves if
+     * no other writer is doing so.
+     */
+    private void syncThrough(long position) {
+        if (syncedPosition.get() >= position) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedPosition.get() >= position) {
+                // Someone else's sync covered our record.
+                return;
+            }
+            Segment segment;
+            long target;
+            appendLock.lock();
+            try {
+                segment = activeSegment;
+                target = appendedPosition;
+            } finally {
+                appendLock.unlock();
+            }
+            segment.sync();
+            syncedPosition.accumulateAndGet(target, Math::max);
+        } catch (IOException e) {
+            log.error("problem syncing paxos state", e);
+            throw Throwables.throwUncheckedException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @GuardedBy("appendLock")
+    private RecordLocation append(long seq, byte[] bytes) throws IOException {
+        if (activeSegment == null || activeSegment.size >= segmentSizeBytes) {
+            rollSegment();
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + bytes.length);
+        record.putLong(seq).putInt(bytes.length).putInt(checksum(seq, bytes)).put(bytes);
+        record.flip();
+        long offset = activeSegment.append(record);
+        activeSegment.include(seq);
+        appendedPosition += record.capacity();
+        return new RecordLocation(activeSegment, offset + RECORD_HEADER_BYTES, bytes.length);
+    }
+
+    @GuardedBy("appendLock")
+    private void rollSegment() throws IOException {
+        long id = 0;
+        if (activeSegment != null) {
+            // Sync the old segment first, since writers only ever sync the active one.
+            activeSegment.sync();
+            syncedPosition.accumulateAndGet(appendedPosition, Math::max);
+            activeSegment.seal();
+            id = activeSegment.id + 1;
+        }
+        activeSegment = new Segment(id, new File(directory, getSegmentFileName(id)), memoryMapped);
+        segments.put(id, activeSegment);
+        syncDirectory();
+    }
+
+    private void recover() throws IOException {
+        File truncationFile = new File(directory, TRUNCATION_FILE_NAME);
+        truncatedThrough = truncationFile.exists()
+                ? Long.parseLong(new String(Files.readAllBytes(truncationFile.toPath()), StandardCharsets.UTF_8))
+                : Long.MIN_VALUE;
+
+        File[] segmentFiles = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        for (File file : segmentFiles == null ? new File[0] : segmentFiles) {
+            long id = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            segments.put(id, new Segment(id, file, memoryMapped));
+        }
+        for (Segment segment : segments.values()) {
+            boolean isLast = segment.id == segments.lastKey();
+            segment.scan(isLast, (seq, location) -> {
+                if (seq > truncatedThrough) {
+                    index.put(seq, location);
+                }
+            });
+            if (isLast) {
+                activeSegment = segment;
+            } else {
+                segment.seal();
+            }
+        }
+
+        migrateFromFilePerRound();
+    }
+
+    /**
+     * Copies the rounds of a log written by {@link PaxosStateLogImpl} in the same directory into a segment, and
+     * then deletes them. A marker is written once the copy is durable and before any round is deleted, since the
+     * least remaining round no longer tells how far the old log had been truncated once some have been deleted; if
+     * the marker is present, a previous migration completed and only its deletions are finished.
+     */
+    private void migrateFromFilePerRound() throws IOException {
+        File migratedFile = new File(directory, MIGRATED_FILE_NAME);
+        if (migratedFile.exists()) {
+            log.info("Finishing the migration of paxos state log {} to a segmented log.",
+                    UnsafeArg.of("path", directory.getAbsolutePath()));
+            deleteMigratedRounds(migratedFile);
+            return;
+        }
+
+        File[] roundFiles = directory.listFiles((dir, name) -> isLong(name));
+        if (roundFiles == null || roundFiles.length == 0) {
+            return;
+        }
+        PaxosStateLogImpl<V> legacyLog = new PaxosStateLogImpl<>(directory.getPath());
+        long leastLegacyEntry = legacyLog.getLeastLogEntry();
+        log.info("Migrating paxos state log {} with {} rounds to a segmented log.",
+                UnsafeArg.of("path", directory.getAbsolutePath()),
+                SafeArg.of("rounds", roundFiles.length));
+
+        appendLock.lock();
+        try {
+            List<Long> rounds = Lists.newArrayList();
+            for (File file : roundFiles) {
+                rounds.add(Long.parseLong(file.getName()));
+            }
+            Collections.sort(rounds);
+            for (long seq : rounds) {
+                byte[] bytes = seq == PaxosAcceptor.NO_LOG_ENTRY ? null : readLegacyRound(legacyLog, seq);
+                if (bytes != null) {
+                    index.put(seq, append(seq, bytes));
+                }
+            }
+            if (activeSegment != null) {
+                activeSegment.sync();
+                syncedPosition.accumulateAndGet(appendedPosition, Math::max);
+            }
+            if (leastLegacyEntry > PaxosAcceptor.NO_LOG_ENTRY) {
+                // The old log had been truncated.
+                writeTruncatedThrough(leastLegacyEntry - 1);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        writeAtomically(MIGRATED_FILE_NAME, new byte[0]);
+        deleteMigratedRounds(migratedFile);
+    }
+
+    private void deleteMigratedRounds(File migratedFile) throws IOException {
+        File[] migratedFiles = directory.listFiles((dir, name) -> isLong(name) || name.endsWith(TMP_FILE_SUFFIX));
+        for (File file : migratedFiles == null ? new File[0] : migratedFiles) {
+            Files.deleteIfExists(file.toPath());
+        }
+        syncDirectory();
+        Files.deleteIfExists(migratedFile.toPath());
+        syncDirectory();
+    }
+
+    private static byte[] readLegacyRound(PaxosStateLog<?> legacyLog, long seq) {
+        try {
+            return legacyLog.readRound(seq);
+        } catch (IOException e) {
+            log.warn("Not migrating unreadable paxos round {}", SafeArg.of("round", seq), e);
+            return null;
+        }
+    }
+
+    private void writeTruncatedThrough(long seq) throws IOException {
+        writeAtomically(TRUNCATION_FILE_NAME, Long.toString(seq).getBytes(StandardCharsets.UTF_8));
+        truncatedThrough = seq;
+    }
+
+    private void writeAtomically(String fileName, byte[] bytes) throws IOException {
+        Path tmpFile = new File(directory, fileName + TMP_FILE_SUFFIX).toPath();
+        try (FileChannel channel = FileChannel.open(tmpFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(bytes));
+            channel.force(true);
+        }
+        Files.move(tmpFile, new File(directory, fileName).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not all platforms allow directories to be opened; the rename is then as durable as it gets.
+            log.debug("Could not sync paxos log directory", e);
+        }
+    }
+
+    @VisibleForTesting
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private static String getSegmentFileName(long id) {
+        return String.format("%020d%s", id, SEGMENT_SUFFIX);
+    }
+
+    private static boolean isLong(String name) {
+        try {
+            Long.parseLong(name);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static int checksum(long seq, byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(Longs.toByteArray(seq));
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static final class RecordLocation {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        RecordLocation(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private interface RecordVisitor {
+        void visit(long seq, RecordLocation location);
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private final boolean memoryMapped;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer mappedBuffer;
+        private long size;
+        private long greatestSeq = Long.MIN_VALUE;
+
+        Segment(long id, File file, boolean memoryMapped) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.memoryMapped = memoryMapped;
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        long append(ByteBuffer record) throws IOException {
+            long offset = size;
+            while (record.hasRemaining()) {
+                size += channel.write(record, size);
+            }
+            return offset;
+        }
+
+        void include(long seq) {
+            greatestSeq = Math.max(greatestSeq, seq);
+        }
+
+        void sync() throws IOException {
+            channel.force(false);
+        }
+
+        void seal() throws IOException {
+            if (memoryMapped) {
+                mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        byte[] read(long offset, int length, long seq) throws IOException {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+            long start = offset - RECORD_HEADER_BYTES;
+            MappedByteBuffer mapped = mappedBuffer;
+            if (mapped != null) {
+                ByteBuffer view = mapped.duplicate();
+                view.position((int) start);
+                view.limit((int) start + record.capacity());
+                record.put(view);
+            } else {
+                readFully(record, start);
+            }
+            record.flip();
+            record.position(Long.BYTES + Integer.BYTES);
+            int checksum = record.getInt();
+            byte[] bytes = new byte[length];
+            record.get(bytes);
+            if (checksum != checksum(seq, bytes)) {
+                throw new CorruptLogFileException();
+            }
+            return bytes;
+        }
+
+        /**
+         * Indexes the valid records of this segment. A torn record at the end of the last segment, left by a crash
+         * in the middle of an append, is cut off.
+         */
+        void scan(boolean isLast, RecordVisitor visitor) throws IOException {
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            while (offset + RECORD_HEADER_BYTES <= size) {
+                header.clear();
+                readFully(header, offset);
+                header.flip();
+                long seq = header.getLong();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || offset + RECORD_HEADER_BYTES + length > size) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                readFully(ByteBuffer.wrap(bytes), offset + RECORD_HEADER_BYTES);
+                if (checksum != checksum(seq, bytes)) {
+                    break;
+                }
+                visitor.visit(seq, new RecordLocation(this, offset + RECORD_HEADER_BYTES, length));
+                include(seq);
+                offset += RECORD_HEADER_BYTES + length;
+            }
+            if (offset < size) {
+                log.warn("Ignoring {} bytes of incomplete or corrupt records at the end of paxos log segment {}",
+                        SafeArg.of("bytes", size - offset),
+                        UnsafeArg.of("segment", file.getAbsolutePath()));
+                if (isLast) {
+                    channel.truncate(offset);
+                    size = offset;
+                }
+            }
+        }
+
+        void delete() throws IOException {
+            IOUtils.closeQuietly(channel);
+            Files.deleteIfExists(file.toPath());
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            long current = position;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, current);
+                if (read < 0) {
+                    throw new CorruptLogFileException();
+                }
+                current += read;
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.paxos;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+
+public class SegmentedPaxosStateLogTest {
+    private static final String LEADER_UUID = "leader";
+    private static final long SMALL_SEGMENT_SIZE_BYTES = 256;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void newLogIsEmpty() throws IOException {
+        PaxosStateLog<PaxosValue> log = createLog();
+
+        assertThat(log.getLeastLogEntry()).isEqualTo(PaxosAcceptor.NO_LOG_ENTRY);
+        assertThat(log.getGreatestLogEntry()).isEqualTo(PaxosAcceptor.NO_LOG_ENTRY);
+        assertThat(log.readRound(0)).isNull();
+    }
+
+    @Test
+    public void readsBackRoundsAfterReopening() throws IOException {
+        PaxosStateLog<PaxosValue> log = createLog();
+        for (long seq = 0; seq < 100; seq++) {
+            log.writeRound(seq, value(seq));
+        }
+
+        PaxosStateLog<PaxosValue> reopenedLog = createLog();
+        for (long seq = 0; seq < 100; seq++) {
+            assertThat(readValue(reopenedLog, seq)).isEqualTo(seq);
+        }
+        assertThat(reopenedLog.getLeastLogEntry()).isEqualTo(PaxosAcceptor.NO_LOG_ENTRY);
+        assertThat(reopenedLog.getGreatestLogEntry()).isEqualTo(99L);
+    }
+
+    @Test
+    public void laterWritesOfARoundSupersedeEarlierOnes() throws IOException {
+        PaxosStateLog<PaxosValue> log = createLog();
+        log.writeRound(1, value(1));
+        log.writeRound(1, value(2));
+
+        assertThat(readValue(log, 1)).isEqualTo(2L);
+        assertThat(readValue(createLog(), 1)).isEqualTo(2L);
+    }
+
+    @Test
+    public void truncationDeletesSegmentsButKeepsTheGreatestRound() throws IOException {
+        SegmentedPaxosStateLog<PaxosValue> log = createLog();
+        for (long seq = 0; seq < 100; seq++) {
+            log.writeRound(seq, value(seq));
+        }
+        int segmentCount = log.getSegmentCount();
+
+        log.truncate(Long.MAX_VALUE);
+
+        assertThat(log.getSegmentCount()).isLessThan(segmentCount);
+        assertThat(log.readRound(50)).isNull();
+        assertThat(log.getLeastLogEntry()).isEqualTo(99L);
+        assertThat(log.getGreatestLogEntry()).isEqualTo(99L);
+
+        PaxosStateLog<PaxosValue> reopenedLog = createLog();
+        assertThat(reopenedLog.readRound(98)).isNull();
+        assertThat(reopenedLog.getLeastLogEntry()).isEqualTo(99L);
+        assertThat(readValue(reopenedLog, 99)).isEqualTo(99L);
+    }
+
+    @Test
+    public void ignoresTornRecordAtEndOfLog() throws IOException {
+        PaxosStateLog<PaxosValue> log = createLog();
+        log.writeRound(0, value(0));
+        appendToLastSegment(new byte[] {1, 2, 3});
+
+        PaxosStateLog<PaxosValue> reopenedLog = createLog();
+        assertThat(readValue(reopenedLog, 0)).isEqualTo(0L);
+        reopenedLog.writeRound(1, value(1));
+        assertThat(readValue(createLog(), 1)).isEqualTo(1L);
+    }
+
+    @Test
+    public void throwsOnCorruptRecord() throws IOException {
+        PaxosStateLog<PaxosValue> log = createLog();
+        log.writeRound(0, value(0));
+        try (RandomAccessFile segment = new RandomAccessFile(getLastSegment(), "rw")) {
+            segment.seek(segment.length() - 1);
+            byte lastByte = segment.readByte();
+            segment.seek(segment.length() - 1);
+            segment.writeByte(lastByte + 1);
+        }
+
+        assertThatThrownBy(() -> log.readRound(0)).isInstanceOf(PaxosStateLog.CorruptLogFileException.class);
+    }
+
+    @Test
+    public void migratesLogsWrittenOneFilePerRound() throws IOException {
+        PaxosStateLog<PaxosValue> legacyLog = new PaxosStateLogImpl<>(folder.getRoot().getPath());
+        for (long seq = 0; seq < 10; seq++) {
+            legacyLog.writeRound(seq, value(seq));
+        }
+        legacyLog.truncate(4);
+
+        PaxosStateLog<PaxosValue> log = createLog();
+        assertThat(log.getLeastLogEntry()).isEqualTo(5L);
+        assertThat(log.getGreatestLogEntry()).isEqualTo(9L);
+        for (long seq = 5; seq < 10; seq++) {
+            assertThat(readValue(log, seq)).isEqualTo(seq);
+        }
+        assertThat(folder.getRoot().list((dir, name) -> !name.endsWith(".segment")))
+                .containsExactly("truncated-through");
+    }
+
+    @Test
+    public void finishesMigrationsInterruptedWhileDeletingRounds() throws IOException {
+        PaxosStateLog<PaxosValue> legacyLog = new PaxosStateLogImpl<>(folder.getRoot().getPath());
+        for (long seq = 0; seq < 10; seq++) {
+            legacyLog.writeRound(seq, value(seq));
+        }
+        legacyLog.truncate(4);
+        Map<String, byte[]> undeletedRounds = Maps.newHashMap();
+        for (long seq = 7; seq < 10; seq++) {
+            undeletedRounds.put(Long.toString(seq),
+                    Files.readAllBytes(new File(folder.getRoot(), Long.toString(seq)).toPath()));
+        }
+
+        createLog();
+        // As if the migration had crashed after deleting rounds 5 and 6.
+        for (Map.Entry<String, byte[]> round : undeletedRounds.entrySet()) {
+            Files.write(new File(folder.getRoot(), round.getKey()).toPath(), round.getValue());
+        }
+        assertThat(new File(folder.getRoot(), "migrated-from-file-per-round").createNewFile()).isTrue();
+
+        PaxosStateLog<PaxosValue> log = createLog();
+        assertThat(log.getLeastLogEntry()).isEqualTo(5L);
+        for (long seq = 5; seq < 10; seq++) {
+            assertThat(readValue(log, seq)).isEqualTo(seq);
+        }
+        assertThat(folder.getRoot().list((dir, name) -> !name.endsWith(".segment")))
+                .containsExactly("truncated-through");
+    }
+
+    @Test
+    public void concurrentWritesAreAllPersisted() throws Exception {
+        PaxosStateLog<PaxosValue> log = createLog();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (long seq = 0; seq < 1000; seq++) {
+                long round = seq;
+                futures.add(executor.submit(() -> log.writeRound(round, value(round))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        PaxosStateLog<PaxosValue> reopenedLog = createLog();
+        for (long seq = 0; seq < 1000; seq++) {
+            assertThat(readValue(reopenedLog, seq)).isEqualTo(seq);
+        }
+    }
+
+    @Test
+    public void canReadFromMemoryMappedSegments() throws IOException {
+        PaxosStateLog<PaxosValue> log = SegmentedPaxosStateLog.create(
+                folder.getRoot().getPath(), SMALL_SEGMENT_SIZE_BYTES, true);
+        for (long seq = 0; seq < 100; seq++) {
+            log.writeRound(seq, value(seq));
+        }
+
+        for (long seq = 0; seq < 100; seq++) {
+            assertThat(readValue(log, seq)).isEqualTo(seq);
+        }
+    }
+
+    private SegmentedPaxosStateLog<PaxosValue> createLog() {
+        return SegmentedPaxosStateLog.create(folder.getRoot().getPath(), SMALL_SEGMENT_SIZE_BYTES, false);
+    }
+
+    private static PaxosValue value(long data) {
+        return new PaxosValue(LEADER_UUID, data, Longs.toByteArray(data));
+    }
+
+    private static long readValue(PaxosStateLog<PaxosValue> log, long seq) throws IOException {
+        return Longs.fromByteArray(PaxosValue.BYTES_HYDRATOR.hydrateFromBytes(log.readRound(seq)).getData());
+    }
+
+    private File getLastSegment() {
+        File[] segments = folder.getRoot().listFiles((dir, name) -> name.endsWith(".segment"));
+        return Lists.newArrayList(segments).stream().max(File::compareTo).get();
+    }
+
+    private void appendToLastSegment(byte[] bytes) throws IOException {
+        try (RandomAccessFile segment = new RandomAccessFile(getLastSegment(), "rw")) {
+            segment.seek(segment.length());
+            segment.write(bytes);
+        }
+    }
+}
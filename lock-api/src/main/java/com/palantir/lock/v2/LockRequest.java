@@ -22,8 +22,10 @@ import java.util.UUID;
 
 import org.immutables.value.Value;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableSet;
 import com.palantir.lock.LockDescriptor;
 
 @Value.Immutable
@@ -43,6 +45,17 @@ public interface LockRequest {
     @Value.Parameter
     Optional<String> getClientDescription();
 
+    /**
+     * Descriptors of locks to acquire in shared mode. A shared lock can be held by any number of requests at once,
+     * but not while another request holds it exclusively. The locks in {@link #getLockDescriptors()} are acquired
+     * exclusively, and a descriptor that appears in both sets is locked exclusively.
+     */
+    @Value.Default
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    default Set<LockDescriptor> getSharedLockDescriptors() {
+        return ImmutableSet.of();
+    }
+
     static LockRequest of(Set<LockDescriptor> lockDescriptors, long acquireTimeoutMs) {
         return ImmutableLockRequest.of(
                 UUID.randomUUID(),
@@ -59,4 +72,12 @@ public interface LockRequest {
                 Optional.of(clientDescription));
     }
 
+    static LockRequest of(
+            Set<LockDescriptor> lockDescriptors,
+            Set<LockDescriptor> sharedLockDescriptors,
+            long acquireTimeoutMs) {
+        return ImmutableLockRequest.copyOf(of(lockDescriptors, acquireTimeoutMs))
+                .withSharedLockDescriptors(sharedLockDescriptors);
+    }
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.v2;
+
+import java.util.List;
+import java.util.Set;
+
+import org.immutables.value.Value;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Several {@link TimelockService} operations to be performed in one round trip. The server unlocks
+ * {@link #getUnlockTokens()}, then refreshes {@link #getRefreshLockTokens()}, then serves the immutable timestamp
+ * lock requests, and finally issues the fresh timestamps; so the fresh timestamps of a batch are always greater than
+ * the timestamps locked by its immutable timestamp lock requests, as is needed to start a transaction.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableTimelockBatchRequest.class)
+@JsonDeserialize(as = ImmutableTimelockBatchRequest.class)
+public interface TimelockBatchRequest {
+
+    List<LockImmutableTimestampRequest> getLockImmutableTimestampRequests();
+
+    @Value.Default
+    default int getNumFreshTimestamps() {
+        return 0;
+    }
+
+    Set<LockToken> getRefreshLockTokens();
+
+    Set<LockToken> getUnlockTokens();
+
+    static TimelockBatchRequest startTransaction(LockImmutableTimestampRequest request) {
+        return ImmutableTimelockBatchRequest.builder()
+                .addLockImmutableTimestampRequests(request)
+                .numFreshTimestamps(1)
+                .build();
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.v2;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.immutables.value.Value;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.palantir.timestamp.TimestampRange;
+
+/**
+ * The results of a {@link TimelockBatchRequest}. Immutable timestamp lock responses are in the order of the
+ * requests; the fresh timestamps are present if any were requested, and, as with
+ * {@link TimelockService#getFreshTimestamps(int)}, may be fewer than requested.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableTimelockBatchResponse.class)
+@JsonDeserialize(as = ImmutableTimelockBatchResponse.class)
+public interface TimelockBatchResponse {
+
+    List<LockImmutableTimestampResponse> getLockImmutableTimestampResponses();
+
+    Optional<TimestampRange> getFreshTimestamps();
+
+    Set<LockToken> getRefreshedLockTokens();
+
+    Set<LockToken> getUnlockedTokens();
+
+    /**
+     * The duration of lock leases granted by the server, which clients should refresh their locks well within.
+     * Absent if the server does not report it.
+     */
+    Optional<Long> getLockLeaseMillis();
+
+}
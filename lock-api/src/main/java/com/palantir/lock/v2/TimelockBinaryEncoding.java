@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.v2;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.lock.ByteArrayLockDescriptor;
+import com.palantir.lock.LockDescriptor;
+import com.palantir.timestamp.TimestampRange;
+
+/**
+ * A compact binary encoding of the requests and responses of the hot {@link TimelockService} endpoints: fresh
+ * timestamps, lock, refresh and unlock. It can be used in place of JSON by clients that send and accept the
+ * {@link #MEDIA_TYPE} content type; servers that also produce JSON choose between the two by the Accept header.
+ * <p>
+ * Values are written with {@link DataOutputStream}: timestamps and timeouts as longs, UUIDs as two longs,
+ * collections as an int count followed by their elements, and byte arrays and strings (as UTF-8) as an int length
+ * followed by their bytes. Optional values are preceded by a boolean saying whether they are present.
+ */
+public final class TimelockBinaryEncoding {
+    public static final String MEDIA_TYPE = "application/x-timelock-binary";
+
+    private static final Codec TIMESTAMP = new Codec() {
+        @Override
+        public void write(DataOutputStream out, Object value) throws IOException {
+            out.writeLong((Long) value);
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    private static final Codec TIMESTAMP_RANGE = new Codec() {
+        @Override
+        public void write(DataOutputStream out, Object value) throws IOException {
+            TimestampRange range = (TimestampRange) value;
+            out.writeLong(range.getLowerBound());
+            out.writeLong(range.getUpperBound());
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            return TimestampRange.createInclusiveRange(in.readLong(), in.readLong());
+        }
+    };
+
+    private static final Codec LOCK_TOKENS = new Codec() {
+        @Override
+        public void write(DataOutputStream out, Object value) throws IOException {
+            Set<?> tokens = (Set<?>) value;
+            out.writeInt(tokens.size());
+            for (Object token : tokens) {
+                writeUuid(out, ((LockToken) token).getRequestId());
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            int size = readLength(in);
+            ImmutableSet.Builder<LockToken> tokens = ImmutableSet.builder();
+            for (int i = 0; i < size; i++) {
+                tokens.add(LockToken.of(readUuid(in)));
+            }
+            return tokens.build();
+        }
+    };
+
+    private static final Codec LOCK_REQUEST = new Codec() {
+        @Override
+        public void write(DataOutputStream out, Object value) throws IOException {
+            LockRequest request = (LockRequest) value;
+            writeUuid(out, request.getRequestId());
+            out.writeLong(request.getAcquireTimeoutMs());
+            out.writeBoolean(request.getClientDescription().isPresent());
+            if (request.getClientDescription().isPresent()) {
+                writeBytes(out, request.getClientDescription().get().getBytes(StandardCharsets.UTF_8));
+            }
+            writeLockDescriptors(out, request.getLockDescriptors());
+            writeLockDescriptors(out, request.getSharedLockDescriptors());
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            UUID requestId = readUuid(in);
+            long acquireTimeoutMs = in.readLong();
+            Optional<String> clientDescription = in.readBoolean()
+                    ? Optional.of(new String(readBytes(in), StandardCharsets.UTF_8))
+                    : Optional.empty();
+            return ImmutableLockRequest.builder()
+                    .requestId(requestId)
+                    .acquireTimeoutMs(acquireTimeoutMs)
+                    .clientDescription(clientDescription)
+                    .lockDescriptors(readLockDescriptors(in))
+                    .sharedLockDescriptors(readLockDescriptors(in))
+                    .build();
+        }
+    };
+
+    private static final Codec LOCK_RESPONSE = new Codec() {
+        @Override
+        public void write(DataOutputStream out, Object value) throws IOException {
+            LockResponse response = (LockResponse) value;
+            out.writeBoolean(response.wasSuccessful());
+            if (response.wasSuccessful()) {
+                writeUuid(out, response.getToken().getRequestId());
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream in) throws IOException {
+            return in.readBoolean() ? LockResponse.successful(LockToken.of(readUuid(in))) : LockResponse.timedOut();
+        }
+    };
+
+    private TimelockBinaryEncoding() {
+        // utility
+    }
+
+    /**
+     * Returns whether values of the given type, which may be generic, can be written in this encoding.
+     */
+    public static boolean canEncode(Type type) {
+        return codecFor(type).isPresent();
+    }
+
+    public static void encode(Object value, Type type, OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        getCodec(type).write(out, value);
+        out.flush();
+    }
+
+    public static Object decode(Type type, InputStream inputStream) throws IOException {
+        return getCodec(type).read(new DataInputStream(inputStream));
+    }
+
+    private static Codec getCodec(Type type) {
+        return codecFor(type).orElseThrow(() -> new IllegalArgumentException(
+                "Values of type " + type + " cannot be encoded as " + MEDIA_TYPE));
+    }
+
+    private static Optional<Codec> codecFor(Type type) {
+        if (type == long.class || type == Long.class) {
+            return Optional.of(TIMESTAMP);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            boolean isLockTokenSet = parameterizedType.getRawType() instanceof Class
+                    && Set.class.isAssignableFrom((Class<?>) parameterizedType.getRawType())
+                    && parameterizedType.getActualTypeArguments()[0] == LockToken.class;
+            return isLockTokenSet ? Optional.of(LOCK_TOKENS) : Optional.empty();
+        }
+        if (!(type instanceof Class)) {
+            return Optional.empty();
+        }
+        Class<?> clazz = (Class<?>) type;
+        if (clazz == TimestampRange.class) {
+            return Optional.of(TIMESTAMP_RANGE);
+        } else if (LockRequest.class.isAssignableFrom(clazz)) {
+            return Optional.of(LOCK_REQUEST);
+        } else if (LockResponse.class.isAssignableFrom(clazz)) {
+            return Optional.of(LOCK_RESPONSE);
+        }
+        return Optional.empty();
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeLockDescriptors(DataOutputStream out, Set<LockDescriptor> descriptors)
+            throws IOException {
+        out.writeInt(descriptors.size());
+        for (LockDescriptor descriptor : descriptors) {
+            writeBytes(out, descriptor.getBytes());
+        }
+    }
+
+    private static Set<LockDescriptor> readLockDescriptors(DataInputStream in) throws IOException {
+        int size = readLength(in);
+        ImmutableSet.Builder<LockDescriptor> descriptors = ImmutableSet.builder();
+        for (int i = 0; i < size; i++) {
+            descriptors.add(ByteArrayLockDescriptor.of(readBytes(in)));
+        }
+        return descriptors.build();
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Read a negative length " + length + " from a " + MEDIA_TYPE + " stream");
+        }
+        return length;
+    }
+
+    private interface Codec {
+        void write(DataOutputStream out, Object value) throws IOException;
+
+        Object read(DataInputStream in) throws IOException;
+    }
+}
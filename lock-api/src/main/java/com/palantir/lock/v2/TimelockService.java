@@ -34,12 +34,22 @@ public interface TimelockService {
 
     @POST
     @Path("fresh-timestamp")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     long getFreshTimestamp();
 
     @POST
     @Path("fresh-timestamps")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     TimestampRange getFreshTimestamps(@QueryParam("number") int numTimestampsRequested);
 
+    /**
+     * Leases a range of timestamps that the caller may use as start timestamps of read-only transactions for a
+     * short time; see {@link TimestampLease}. The range may contain fewer timestamps than requested.
+     */
+    @POST
+    @Path("timestamp-lease")
+    TimestampLease leaseTimestamps(@QueryParam("number") int numTimestampsRequested);
+
     @POST
     @Path("lock-immutable-timestamp")
     LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request);
@@ -50,6 +60,8 @@ public interface TimelockService {
 
     @POST
     @Path("lock")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
+    @Consumes({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     LockResponse lock(LockRequest request);
 
     @POST
@@ -58,14 +70,26 @@ public interface TimelockService {
 
     @POST
     @Path("refresh-locks")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
+    @Consumes({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     Set<LockToken> refreshLockLeases(Set<LockToken> tokens);
 
     @POST
     @Path("unlock")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
+    @Consumes({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     Set<LockToken> unlock(Set<LockToken> tokens);
 
     @POST
     @Path("current-time-millis")
     long currentTimeMillis();
 
+    /**
+     * Performs all of the operations in the given request in a single round trip; see {@link TimelockBatchRequest}
+     * for the order in which they are applied.
+     */
+    @POST
+    @Path("batch")
+    TimelockBatchResponse batch(TimelockBatchRequest request);
+
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.v2;
+
+import java.util.UUID;
+
+import org.immutables.value.Value;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.palantir.timestamp.TimestampRange;
+
+/**
+ * A range of timestamps that a client may hand out as start timestamps of read-only transactions without asking
+ * the server again, for {@link #getLeaseMillis()} milliseconds from when it sent the request for the lease and only
+ * while {@link #getLeaderTermId()} is the latest leader term it has seen.
+ * <p>
+ * Every timestamp in the range is greater than any timestamp the server handed out before it received the request,
+ * so a timestamp taken from a valid lease is at most {@link #getLeaseMillis()} stale. Leased timestamps must not be
+ * used where a fresh timestamp is required, such as for commit timestamps.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableTimestampLease.class)
+@JsonDeserialize(as = ImmutableTimestampLease.class)
+public interface TimestampLease {
+
+    @Value.Parameter
+    UUID getLeaderTermId();
+
+    @Value.Parameter
+    TimestampRange getTimestamps();
+
+    @Value.Parameter
+    long getLeaseMillis();
+
+    static TimestampLease of(UUID leaderTermId, TimestampRange timestamps, long leaseMillis) {
+        return ImmutableTimestampLease.of(leaderTermId, timestamps, leaseMillis);
+    }
+
+}
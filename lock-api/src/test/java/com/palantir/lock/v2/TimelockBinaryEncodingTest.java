@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.v2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.lock.StringLockDescriptor;
+import com.palantir.timestamp.TimestampRange;
+
+public class TimelockBinaryEncodingTest {
+    private static final LockToken TOKEN_1 = LockToken.of(UUID.randomUUID());
+    private static final LockToken TOKEN_2 = LockToken.of(UUID.randomUUID());
+
+    @Test
+    public void roundTripsTimestamps() throws Exception {
+        assertEquals(123L, roundTrip(123L, long.class));
+        assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE, Long.class));
+    }
+
+    @Test
+    public void roundTripsTimestampRanges() throws Exception {
+        TimestampRange range = TimestampRange.createInclusiveRange(10L, 20L);
+        TimestampRange decoded = (TimestampRange) roundTrip(range, TimestampRange.class);
+
+        assertEquals(range.getLowerBound(), decoded.getLowerBound());
+        assertEquals(range.getUpperBound(), decoded.getUpperBound());
+    }
+
+    @Test
+    public void roundTripsLockRequests() throws Exception {
+        LockRequest request = LockRequest.of(
+                ImmutableSet.of(StringLockDescriptor.of("foo"), StringLockDescriptor.of("bar")),
+                ImmutableSet.of(StringLockDescriptor.of("baz")),
+                10_000L);
+        LockRequest anonymousRequest = ImmutableLockRequest.copyOf(request).withClientDescription(Optional.empty());
+
+        assertEquals(request, roundTrip(request, LockRequest.class));
+        assertEquals(anonymousRequest, roundTrip(anonymousRequest, LockRequest.class));
+    }
+
+    @Test
+    public void roundTripsLockResponses() throws Exception {
+        assertEquals(LockResponse.successful(TOKEN_1), roundTrip(LockResponse.successful(TOKEN_1), LockResponse.class));
+        assertEquals(LockResponse.timedOut(), roundTrip(LockResponse.timedOut(), ImmutableLockResponse.class));
+    }
+
+    @Test
+    public void encodesLockTokenSetsCompactly() throws Exception {
+        Set<LockToken> tokens = ImmutableSet.of(TOKEN_1, TOKEN_2);
+        Type type = lockTokenSetType();
+
+        assertEquals(tokens, roundTrip(tokens, type));
+        assertEquals(Integer.BYTES + 2 * 2 * Long.BYTES, encode(tokens, type).length);
+    }
+
+    @Test
+    public void onlyEncodesTheTypesOfHotEndpoints() throws Exception {
+        assertTrue(TimelockBinaryEncoding.canEncode(lockTokenSetType()));
+        assertFalse(TimelockBinaryEncoding.canEncode(Set.class));
+        assertFalse(TimelockBinaryEncoding.canEncode(LockImmutableTimestampRequest.class));
+        assertFalse(TimelockBinaryEncoding.canEncode(TimelockBatchRequest.class));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNegativeLengths() throws Exception {
+        TimelockBinaryEncoding.decode(lockTokenSetType(), new ByteArrayInputStream(new byte[] {-1, -1, -1, -1}));
+    }
+
+    private static Type lockTokenSetType() throws NoSuchMethodException {
+        return TimelockService.class.getMethod("unlock", Set.class).getGenericReturnType();
+    }
+
+    private static Object roundTrip(Object value, Type type) throws IOException {
+        return TimelockBinaryEncoding.decode(type, new ByteArrayInputStream(encode(value, type)));
+    }
+
+    private static byte[] encode(Object value, Type type) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TimelockBinaryEncoding.encode(value, type, out);
+        return out.toByteArray();
+    }
+}
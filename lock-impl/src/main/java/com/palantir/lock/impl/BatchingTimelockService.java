@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.impl;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.palantir.common.base.Throwables;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
+import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.LockImmutableTimestampResponse;
+import com.palantir.lock.v2.LockRequest;
+import com.palantir.lock.v2.LockResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
+import com.palantir.lock.v2.WaitForLocksRequest;
+import com.palantir.lock.v2.WaitForLocksResponse;
+import com.palantir.timestamp.TimestampRange;
+
+/**
+ * A {@link TimelockService} that coalesces the fresh timestamp, immutable timestamp lock, refresh, unlock and batch
+ * calls of concurrent callers into calls to {@link TimelockService#batch(TimelockBatchRequest)}, much as
+ * {@code RequestBatchingTimestampService} batches timestamp requests. At most one batch is outstanding at a time;
+ * calls made while it is outstanding join the next batch, which is sent by the thread that started it once the
+ * outstanding batch returns. A batch is never joined once it may have been sent, so the usual freshness guarantees
+ * hold. Calls that may block on the server, such as {@link #lock(LockRequest)}, are not batched.
+ */
+@ThreadSafe
+public class BatchingTimelockService implements TimelockService {
+
+    private final TimelockService delegate;
+
+    private final Object pendingBatchLock = new Object();
+    private final Object sendLock = new Object();
+
+    @GuardedBy("pendingBatchLock")
+    private Batch pendingBatch = null;
+
+    public BatchingTimelockService(TimelockService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public long getFreshTimestamp() {
+        return getFreshTimestamps(1).getLowerBound();
+    }
+
+    @Override
+    public TimestampRange getFreshTimestamps(int numTimestampsRequested) {
+        if (numTimestampsRequested <= 0) {
+            return delegate.getFreshTimestamps(numTimestampsRequested);
+        }
+        Optional<TimestampRange> timestamps = execute(batch -> {
+            long offset = batch.addFreshTimestamps(numTimestampsRequested);
+            return response -> response.getFreshTimestamps()
+                    .flatMap(range -> subRange(range, offset, numTimestampsRequested));
+        });
+        // The server may have issued fewer timestamps than the batch asked for, leaving none for this caller.
+        return timestamps.orElseGet(() -> delegate.getFreshTimestamps(numTimestampsRequested));
+    }
+
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        return delegate.leaseTimestamps(numTimestampsRequested);
+    }
+
+    @Override
+    public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
+        return execute(batch -> {
+            int index = batch.addLockImmutableTimestampRequest(request);
+            return response -> response.getLockImmutableTimestampResponses().get(index);
+        });
+    }
+
+    @Override
+    public long getImmutableTimestamp() {
+        return delegate.getImmutableTimestamp();
+    }
+
+    @Override
+    public LockResponse lock(LockRequest request) {
+        return delegate.lock(request);
+    }
+
+    @Override
+    public WaitForLocksResponse waitForLocks(WaitForLocksRequest request) {
+        return delegate.waitForLocks(request);
+    }
+
+    @Override
+    public Set<LockToken> refreshLockLeases(Set<LockToken> tokens) {
+        return execute(batch -> {
+            batch.refreshLockTokens.addAll(tokens);
+            return response -> Sets.intersection(tokens, response.getRefreshedLockTokens()).immutableCopy();
+        });
+    }
+
+    @Override
+    public Set<LockToken> unlock(Set<LockToken> tokens) {
+        return execute(batch -> {
+            batch.unlockTokens.addAll(tokens);
+            return response -> Sets.intersection(tokens, response.getUnlockedTokens()).immutableCopy();
+        });
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return delegate.currentTimeMillis();
+    }
+
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        List<LockImmutableTimestampRequest> lockRequests = request.getLockImmutableTimestampRequests();
+        int numFreshTimestamps = request.getNumFreshTimestamps();
+        return execute(batch -> {
+            int firstLockIndex = batch.lockImmutableTimestampRequests.size();
+            batch.lockImmutableTimestampRequests.addAll(lockRequests);
+            long offset = batch.addFreshTimestamps(numFreshTimestamps);
+            batch.refreshLockTokens.addAll(request.getRefreshLockTokens());
+            batch.unlockTokens.addAll(request.getUnlockTokens());
+            return response -> ImmutableTimelockBatchResponse.builder()
+                    .lockImmutableTimestampResponses(response.getLockImmutableTimestampResponses()
+                            .subList(firstLockIndex, firstLockIndex + lockRequests.size()))
+                    .freshTimestamps(numFreshTimestamps <= 0
+                            ? Optional.empty()
+                            : response.getFreshTimestamps().flatMap(
+                                    range -> subRange(range, offset, numFreshTimestamps)))
+                    .refreshedLockTokens(Sets.intersection(
+                            request.getRefreshLockTokens(), response.getRefreshedLockTokens()))
+                    .unlockedTokens(Sets.intersection(request.getUnlockTokens(), response.getUnlockedTokens()))
+                    .lockLeaseMillis(response.getLockLeaseMillis())
+                    .build();
+        });
+    }
+
+    /**
+     * Adds an operation to the pending batch, sending the batch if this thread started it, and returns the result
+     * of the operation. The operation is applied to the batch while no other thread can modify it, and returns a
+     * function that picks the operation's result out of the batch's response.
+     */
+    private <T> T execute(Function<Batch, Function<TimelockBatchResponse, T>> operation) {
+        Batch batch;
+        boolean thisThreadOwnsBatch;
+        Function<TimelockBatchResponse, T> resultExtractor;
+        synchronized (pendingBatchLock) {
+            thisThreadOwnsBatch = pendingBatch == null;
+            if (thisThreadOwnsBatch) {
+                pendingBatch = new Batch();
+            }
+            batch = pendingBatch;
+            try {
+                resultExtractor = operation.apply(batch);
+            } catch (RuntimeException e) {
+                if (thisThreadOwnsBatch) {
+                    // Nobody else will send the batch, and it is empty.
+                    pendingBatch = null;
+                }
+                throw e;
+            }
+        }
+
+        if (thisThreadOwnsBatch) {
+            send(batch);
+        }
+
+        try {
+            return resultExtractor.apply(batch.response.join());
+        } catch (CompletionException e) {
+            throw Throwables.rewrapAndThrowUncheckedException(e.getCause());
+        }
+    }
+
+    private void send(Batch batch) {
+        synchronized (sendLock) {
+            TimelockBatchRequest request;
+            synchronized (pendingBatchLock) {
+                // From here on, calls start a new batch; none may join one that may already be on the wire.
+                pendingBatch = null;
+                request = batch.toRequest();
+            }
+            try {
+                batch.response.complete(delegate.batch(request));
+            } catch (Throwable t) {
+                batch.response.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static Optional<TimestampRange> subRange(TimestampRange range, long offset, int size) {
+        long lowerBound = range.getLowerBound() + offset;
+        if (lowerBound > range.getUpperBound()) {
+            return Optional.empty();
+        }
+        long upperBound = Math.min(lowerBound + size - 1, range.getUpperBound());
+        return Optional.of(TimestampRange.createInclusiveRange(lowerBound, upperBound));
+    }
+
+    private static final class Batch {
+        private final List<LockImmutableTimestampRequest> lockImmutableTimestampRequests = Lists.newArrayList();
+        private final Set<LockToken> refreshLockTokens = Sets.newHashSet();
+        private final Set<LockToken> unlockTokens = Sets.newHashSet();
+        private int numFreshTimestamps = 0;
+
+        private final CompletableFuture<TimelockBatchResponse> response = new CompletableFuture<>();
+
+        private int addLockImmutableTimestampRequest(LockImmutableTimestampRequest request) {
+            lockImmutableTimestampRequests.add(request);
+            return lockImmutableTimestampRequests.size() - 1;
+        }
+
+        private long addFreshTimestamps(int numTimestamps) {
+            long offset = numFreshTimestamps;
+            numFreshTimestamps += numTimestamps;
+            return offset;
+        }
+
+        private TimelockBatchRequest toRequest() {
+            return ImmutableTimelockBatchRequest.builder()
+                    .lockImmutableTimestampRequests(lockImmutableTimestampRequests)
+                    .numFreshTimestamps(numFreshTimestamps)
+                    .refreshLockTokens(refreshLockTokens)
+                    .unlockTokens(unlockTokens)
+                    .build();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.palantir.lock.impl;
 
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -37,7 +38,10 @@ import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.lock.v2.WaitForLocksResponse;
 import com.palantir.timestamp.TimestampRange;
@@ -51,6 +55,7 @@ public class LegacyTimelockService implements TimelockService {
     private final TimestampService timestampService;
     private final LockService lockService;
     private final LockClient immutableTsLockClient;
+    private final UUID leaderTermId = UUID.randomUUID();
 
     public LegacyTimelockService(TimestampService timestampService, LockService lockService,
             LockClient immutableTsLockClient) {
@@ -69,6 +74,15 @@ public class LegacyTimelockService implements TimelockService {
         return timestampService.getFreshTimestamps(numTimestampsRequested);
     }
 
+    /**
+     * Returns fresh timestamps with a lease of zero milliseconds, as the timestamp service gives no guarantees about
+     * how long its timestamps stay fresh.
+     */
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        return TimestampLease.of(leaderTermId, timestampService.getFreshTimestamps(numTimestampsRequested), 0L);
+    }
+
     @Override
     public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
         long immutableLockTs = timestampService.getFreshTimestamp();
@@ -122,7 +136,8 @@ public class LegacyTimelockService implements TimelockService {
     }
 
     private com.palantir.lock.LockRequest toLegacyLockRequest(LockRequest request) {
-        SortedMap<LockDescriptor, LockMode> locks = buildLockMap(request.getLockDescriptors(), LockMode.WRITE);
+        SortedMap<LockDescriptor, LockMode> locks = buildLockMap(request.getSharedLockDescriptors(), LockMode.READ);
+        locks.putAll(buildLockMap(request.getLockDescriptors(), LockMode.WRITE));
         return com.palantir.lock.LockRequest.builder(locks)
                 .blockForAtMost(SimpleTimeDuration.of(request.getAcquireTimeoutMs(), TimeUnit.MILLISECONDS))
                 .build();
@@ -160,6 +175,11 @@ public class LegacyTimelockService implements TimelockService {
         return lockService.currentTimeMillis();
     }
 
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        return UnbatchedTimelockService.batchIndividually(this, request);
+    }
+
     private long getImmutableTimestampInternal(long ts) {
         Long minLocked = lockService.getMinLockedInVersionId(immutableTsLockClient.getClientId());
         return minLocked == null ? ts : minLocked;
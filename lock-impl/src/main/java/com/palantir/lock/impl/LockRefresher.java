@@ -17,56 +17,226 @@
 package com.palantir.lock.impl;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.logsafe.SafeArg;
 
+/**
+ * Keeps the leases of registered locks alive. Each token is refreshed once per refresh interval, counted from its
+ * last successful refresh, rather than all tokens on every tick; tokens that fall due at about the same time are
+ * refreshed together, in calls of at most {@code maxBatchSize} tokens. Tokens the server does not refresh have been
+ * lost and are no longer refreshed.
+ * <p>
+ * Refreshes are sent as {@link TimelockService#batch(TimelockBatchRequest) batch} calls, so that they are coalesced
+ * with other calls when request batching is enabled, and so that they report the lease of the server's locks. The
+ * refresh interval starts out as the configured one. Once the server reports the lease of its locks, through a
+ * refresh or through {@link #updateLeaseMillis(long)}, each token is refreshed when half of its lease has elapsed,
+ * leaving the other half for retries. Callers that are about to call the server anyway may also refresh tokens that
+ * are getting close to their deadline along with that call; see {@link #getTokensToPiggyback()}.
+ */
 public class LockRefresher {
 
     private final Logger log = LoggerFactory.getLogger(LockRefresher.class);
 
+    @VisibleForTesting
+    static final int DEFAULT_MAX_BATCH_SIZE = 10_000;
+
+    // Tokens due within this fraction of the refresh interval are refreshed along with those already due.
+    private static final long COALESCING_WINDOW_DIVISOR = 4;
+    // After a failed refresh, or when tokens are about to fall due, wait at least this fraction of the interval.
+    private static final long MIN_DELAY_DIVISOR = 10;
+
     private final ScheduledExecutorService executor;
     private final TimelockService timelockService;
-    private final Set<LockToken> tokensToRefresh = Sets.newConcurrentHashSet();
+    private final int maxBatchSize;
+    private final LongSupplier clockMillis;
+    private final ConcurrentMap<LockToken, Long> refreshDeadlines = new ConcurrentHashMap<>();
+    private final AtomicLong nextPiggybackMillis = new AtomicLong(Long.MIN_VALUE);
+
+    private final Histogram refreshPayloadSize;
+    private final Timer refreshLatency;
+    private final Meter lostTokens;
+
+    private volatile long refreshIntervalMillis;
 
     public LockRefresher(ScheduledExecutorService executor, TimelockService timelockService, long refreshIntervalMillis) {
+        this(executor, timelockService, refreshIntervalMillis, DEFAULT_MAX_BATCH_SIZE, new MetricRegistry());
+    }
+
+    public LockRefresher(
+            ScheduledExecutorService executor,
+            TimelockService timelockService,
+            long refreshIntervalMillis,
+            int maxBatchSize,
+            MetricRegistry metricRegistry) {
+        this(executor, timelockService, refreshIntervalMillis, maxBatchSize, metricRegistry,
+                () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    @VisibleForTesting
+    LockRefresher(
+            ScheduledExecutorService executor,
+            TimelockService timelockService,
+            long refreshIntervalMillis,
+            int maxBatchSize,
+            MetricRegistry metricRegistry,
+            LongSupplier clockMillis) {
         this.executor = executor;
         this.timelockService = timelockService;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.clockMillis = clockMillis;
+        this.refreshPayloadSize = metricRegistry.histogram(
+                MetricRegistry.name(LockRefresher.class, "refreshPayloadSize"));
+        this.refreshLatency = metricRegistry.timer(MetricRegistry.name(LockRefresher.class, "refreshLatency"));
+        this.lostTokens = metricRegistry.meter(MetricRegistry.name(LockRefresher.class, "lostTokens"));
 
         scheduleRefresh(refreshIntervalMillis);
     }
 
-    private void scheduleRefresh(long refreshIntervalMillis) {
-        executor.scheduleAtFixedRate(this::refreshLocks, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    private void scheduleRefresh(long delayMillis) {
+        executor.schedule(this::refreshLocks, delayMillis, TimeUnit.MILLISECONDS);
     }
 
     private void refreshLocks() {
         try {
-            Set<LockToken> toRefresh = ImmutableSet.copyOf(tokensToRefresh);
-            if (toRefresh.isEmpty()) {
-                return;
+            long now = clockMillis.getAsLong();
+            List<LockToken> due = tokensDueBy(now + refreshIntervalMillis / COALESCING_WINDOW_DIVISOR);
+            for (List<LockToken> batch : Iterables.partition(due, maxBatchSize)) {
+                refresh(ImmutableSet.copyOf(batch));
             }
-
-            Set<LockToken> refreshed = timelockService.refreshLockLeases(toRefresh);
-            tokensToRefresh.removeAll(Sets.difference(toRefresh, refreshed));
         } catch (Throwable error) {
             log.warn("Error while refreshing locks. Trying again on next iteration", error);
+        } finally {
+            scheduleRefresh(millisUntilNextRefresh());
+        }
+    }
+
+    private void refresh(Set<LockToken> tokens) {
+        long requestTimeMillis = clockMillis.getAsLong();
+        try {
+            refreshPayloadSize.update(tokens.size());
+            TimelockBatchResponse response;
+            try (Timer.Context ignored = refreshLatency.time()) {
+                response = timelockService.batch(ImmutableTimelockBatchRequest.builder()
+                        .refreshLockTokens(tokens)
+                        .build());
+            }
+            response.getLockLeaseMillis().ifPresent(this::updateLeaseMillis);
+            recordRefreshResult(tokens, response.getRefreshedLockTokens(), requestTimeMillis);
+        } catch (Throwable error) {
+            log.warn("Error while refreshing {} locks. Trying again on next iteration",
+                    SafeArg.of("numLocks", tokens.size()), error);
+        }
+    }
+
+    private List<LockToken> tokensDueBy(long timeMillis) {
+        List<LockToken> due = Lists.newArrayList();
+        for (Map.Entry<LockToken, Long> entry : refreshDeadlines.entrySet()) {
+            if (entry.getValue() <= timeMillis) {
+                due.add(entry.getKey());
+            }
+        }
+        return due;
+    }
+
+    private long millisUntilNextRefresh() {
+        long interval = refreshIntervalMillis;
+        long now = clockMillis.getAsLong();
+        long nextDeadline = now + interval;
+        for (long deadline : refreshDeadlines.values()) {
+            nextDeadline = Math.min(nextDeadline, deadline);
+        }
+        return Math.max(nextDeadline - now, Math.max(interval / MIN_DELAY_DIVISOR, 1));
+    }
+
+    /**
+     * Returns up to {@code maxBatchSize} registered tokens that are more than halfway to their next refresh, which a
+     * caller about to make a batch call to the server can refresh along with it. The caller should pass the outcome
+     * to {@link #recordRefreshResult(Set, Set, long)}.
+     * <p>
+     * Finding these tokens takes a pass over all registered tokens, so it is done at most once per tenth of the refresh
+     * interval, however many calls are made; the other callers get no tokens.
+     */
+    Set<LockToken> getTokensToPiggyback() {
+        long now = clockMillis.getAsLong();
+        long next = nextPiggybackMillis.get();
+        long interval = refreshIntervalMillis;
+        if (now < next || !nextPiggybackMillis.compareAndSet(next, now + Math.max(interval / MIN_DELAY_DIVISOR, 1))) {
+            return ImmutableSet.of();
+        }
+        List<LockToken> due = tokensDueBy(now + interval / 2);
+        return ImmutableSet.copyOf(Iterables.limit(due, maxBatchSize));
+    }
+
+    /**
+     * Records that the given tokens were sent to the server to be refreshed at the given time, as measured by
+     * {@link #currentTimeMillis()}, and that the server refreshed {@code refreshed} of them. Tokens the server did not
+     * refresh are lost, and are unregistered.
+     */
+    void recordRefreshResult(Set<LockToken> requested, Set<LockToken> refreshed, long requestTimeMillis) {
+        long nextDeadline = requestTimeMillis + refreshIntervalMillis;
+        for (LockToken token : requested) {
+            if (refreshed.contains(token)) {
+                refreshDeadlines.computeIfPresent(token, (unused, deadline) -> Math.max(deadline, nextDeadline));
+            } else if (refreshDeadlines.remove(token) != null) {
+                lostTokens.mark();
+            }
         }
     }
 
+    /**
+     * Adopts the lease duration reported by the server; tokens are then refreshed when half their lease has elapsed.
+     */
+    void updateLeaseMillis(long leaseMillis) {
+        long interval = Math.max(leaseMillis / 2, 1);
+        long previousInterval = refreshIntervalMillis;
+        if (interval == previousInterval) {
+            return;
+        }
+        refreshIntervalMillis = interval;
+        if (interval < previousInterval) {
+            long latestDeadline = clockMillis.getAsLong() + interval;
+            refreshDeadlines.replaceAll((token, deadline) -> Math.min(deadline, latestDeadline));
+        }
+        log.info("Refreshing locks every {} ms, as the server grants leases of {} ms",
+                SafeArg.of("refreshIntervalMillis", interval),
+                SafeArg.of("leaseMillis", leaseMillis));
+    }
+
+    long currentTimeMillis() {
+        return clockMillis.getAsLong();
+    }
+
     public void registerLock(LockToken token) {
-        tokensToRefresh.add(token);
+        refreshDeadlines.put(token, clockMillis.getAsLong() + refreshIntervalMillis);
     }
 
     public void unregisterLocks(Collection<LockToken> tokens) {
-        tokensToRefresh.removeAll(tokens);
+        refreshDeadlines.keySet().removeAll(tokens);
     }
 }
@@ -20,13 +20,20 @@ import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.lock.v2.WaitForLocksResponse;
 import com.palantir.timestamp.TimestampRange;
@@ -41,11 +48,18 @@ public class LockRefreshingTimelockService implements TimelockService {
     private final LockRefresher lockRefresher;
 
     public static LockRefreshingTimelockService createDefault(TimelockService timelockService) {
+        return createDefault(timelockService, new MetricRegistry());
+    }
+
+    public static LockRefreshingTimelockService createDefault(
+            TimelockService timelockService,
+            MetricRegistry metricRegistry) {
         ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
                 .setNameFormat(LockRefreshingTimelockService.class.getSimpleName() + "-%d")
                 .setDaemon(true)
                 .build());
-        LockRefresher lockRefresher = new LockRefresher(executor, timelockService, REFRESH_INTERVAL_MILLIS);
+        LockRefresher lockRefresher = new LockRefresher(executor, timelockService, REFRESH_INTERVAL_MILLIS,
+                LockRefresher.DEFAULT_MAX_BATCH_SIZE, metricRegistry);
         return new LockRefreshingTimelockService(timelockService, lockRefresher);
     }
 
@@ -64,6 +78,11 @@ public class LockRefreshingTimelockService implements TimelockService {
         return delegate.getFreshTimestamps(numTimestampsRequested);
     }
 
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        return delegate.leaseTimestamps(numTimestampsRequested);
+    }
+
     @Override
     public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
         LockImmutableTimestampResponse response = delegate.lockImmutableTimestamp(request);
@@ -105,4 +124,33 @@ public class LockRefreshingTimelockService implements TimelockService {
     public long currentTimeMillis() {
         return delegate.currentTimeMillis();
     }
+
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        lockRefresher.unregisterLocks(request.getUnlockTokens());
+
+        // Refresh registered locks that will soon be due along with this request, saving a separate refresh call.
+        Set<LockToken> piggybacked = Sets.difference(
+                lockRefresher.getTokensToPiggyback(), request.getRefreshLockTokens()).immutableCopy();
+        TimelockBatchRequest requestToSend = piggybacked.isEmpty()
+                ? request
+                : ImmutableTimelockBatchRequest.builder().from(request).addAllRefreshLockTokens(piggybacked).build();
+        long requestTimeMillis = lockRefresher.currentTimeMillis();
+
+        TimelockBatchResponse response = delegate.batch(requestToSend);
+
+        response.getLockLeaseMillis().ifPresent(lockRefresher::updateLeaseMillis);
+        lockRefresher.recordRefreshResult(
+                Sets.union(piggybacked, request.getRefreshLockTokens()),
+                response.getRefreshedLockTokens(),
+                requestTimeMillis);
+        for (LockImmutableTimestampResponse lockResponse : response.getLockImmutableTimestampResponses()) {
+            lockRefresher.registerLock(lockResponse.getLock());
+        }
+        if (piggybacked.isEmpty()) {
+            return response;
+        }
+        return ImmutableTimelockBatchResponse.copyOf(response).withRefreshedLockTokens(
+                Sets.intersection(request.getRefreshLockTokens(), response.getRefreshedLockTokens()));
+    }
 }
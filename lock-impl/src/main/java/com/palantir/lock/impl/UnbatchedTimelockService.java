@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.impl;
+
+import java.util.Set;
+
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
+import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.LockImmutableTimestampResponse;
+import com.palantir.lock.v2.LockRequest;
+import com.palantir.lock.v2.LockResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimelockService;
+import com.palantir.lock.v2.TimestampLease;
+import com.palantir.lock.v2.WaitForLocksRequest;
+import com.palantir.lock.v2.WaitForLocksResponse;
+import com.palantir.timestamp.TimestampRange;
+
+/**
+ * A {@link TimelockService} that performs {@link TimelockService#batch(TimelockBatchRequest)} as individual calls to
+ * its delegate, in the order the batch endpoint applies them. Clients use this when request batching is disabled, so
+ * that they can still talk to servers without the batch endpoint.
+ */
+public class UnbatchedTimelockService implements TimelockService {
+
+    private final TimelockService delegate;
+
+    public UnbatchedTimelockService(TimelockService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public long getFreshTimestamp() {
+        return delegate.getFreshTimestamp();
+    }
+
+    @Override
+    public TimestampRange getFreshTimestamps(int numTimestampsRequested) {
+        return delegate.getFreshTimestamps(numTimestampsRequested);
+    }
+
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        return delegate.leaseTimestamps(numTimestampsRequested);
+    }
+
+    @Override
+    public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
+        return delegate.lockImmutableTimestamp(request);
+    }
+
+    @Override
+    public long getImmutableTimestamp() {
+        return delegate.getImmutableTimestamp();
+    }
+
+    @Override
+    public LockResponse lock(LockRequest request) {
+        return delegate.lock(request);
+    }
+
+    @Override
+    public WaitForLocksResponse waitForLocks(WaitForLocksRequest request) {
+        return delegate.waitForLocks(request);
+    }
+
+    @Override
+    public Set<LockToken> refreshLockLeases(Set<LockToken> tokens) {
+        return delegate.refreshLockLeases(tokens);
+    }
+
+    @Override
+    public Set<LockToken> unlock(Set<LockToken> tokens) {
+        return delegate.unlock(tokens);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return delegate.currentTimeMillis();
+    }
+
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        return batchIndividually(delegate, request);
+    }
+
+    static TimelockBatchResponse batchIndividually(TimelockService service, TimelockBatchRequest request) {
+        ImmutableTimelockBatchResponse.Builder response = ImmutableTimelockBatchResponse.builder();
+        if (!request.getUnlockTokens().isEmpty()) {
+            response.unlockedTokens(service.unlock(request.getUnlockTokens()));
+        }
+        if (!request.getRefreshLockTokens().isEmpty()) {
+            response.refreshedLockTokens(service.refreshLockLeases(request.getRefreshLockTokens()));
+        }
+        for (LockImmutableTimestampRequest lockRequest : request.getLockImmutableTimestampRequests()) {
+            response.addLockImmutableTimestampResponses(service.lockImmutableTimestamp(lockRequest));
+        }
+        if (request.getNumFreshTimestamps() > 0) {
+            response.freshTimestamps(service.getFreshTimestamps(request.getNumFreshTimestamps()));
+        }
+        return response.build();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.lock.StringLockDescriptor;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
+import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.LockImmutableTimestampResponse;
+import com.palantir.lock.v2.LockRequest;
+import com.palantir.lock.v2.LockResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimelockService;
+import com.palantir.timestamp.TimestampRange;
+
+public class BatchingTimelockServiceTest {
+
+    private static final LockToken TOKEN_1 = LockToken.of(UUID.randomUUID());
+    private static final LockToken TOKEN_2 = LockToken.of(UUID.randomUUID());
+    private static final LockToken IMMUTABLE_TS_TOKEN = LockToken.of(UUID.randomUUID());
+    private static final TimelockBatchResponse EMPTY_RESPONSE = ImmutableTimelockBatchResponse.builder().build();
+
+    private final List<Thread> callerThreads = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        callerThreads.add(thread);
+        return thread;
+    });
+
+    private final TimelockService delegate = mock(TimelockService.class);
+    private final TimelockService timelock = new BatchingTimelockService(delegate);
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sendsCallsInABatchWhenNoBatchIsOutstanding() {
+        when(delegate.batch(any())).thenReturn(freshTimestampsResponse(10L, 10L));
+
+        assertThat(timelock.getFreshTimestamp()).isEqualTo(10L);
+        verify(delegate).batch(ImmutableTimelockBatchRequest.builder().numFreshTimestamps(1).build());
+    }
+
+    @Test
+    public void coalescesCallsMadeWhileABatchIsOutstanding() throws InterruptedException {
+        LockImmutableTimestampRequest lockRequest = LockImmutableTimestampRequest.create();
+        TimelockBatchResponse secondResponse = ImmutableTimelockBatchResponse.builder()
+                .freshTimestamps(TimestampRange.createInclusiveRange(20L, 25L))
+                .addLockImmutableTimestampResponses(LockImmutableTimestampResponse.of(15L, IMMUTABLE_TS_TOKEN))
+                .addRefreshedLockTokens(TOKEN_1)
+                .addUnlockedTokens(TOKEN_2)
+                .build();
+
+        List<CompletableFuture<Object>> results = callWhileFirstBatchIsOutstanding(secondResponse,
+                () -> timelock.getFreshTimestamp(),
+                () -> timelock.getFreshTimestamps(5),
+                () -> timelock.lockImmutableTimestamp(lockRequest),
+                () -> timelock.refreshLockLeases(ImmutableSet.of(TOKEN_1, TOKEN_2)),
+                () -> timelock.unlock(ImmutableSet.of(TOKEN_2)));
+
+        TimelockBatchRequest secondRequest = getSentBatches().get(1);
+        assertThat(secondRequest.getNumFreshTimestamps()).isEqualTo(6);
+        assertThat(secondRequest.getLockImmutableTimestampRequests()).containsExactly(lockRequest);
+        assertThat(secondRequest.getRefreshLockTokens()).containsOnly(TOKEN_1, TOKEN_2);
+        assertThat(secondRequest.getUnlockTokens()).containsOnly(TOKEN_2);
+
+        long timestamp = (long) results.get(0).join();
+        TimestampRange timestamps = (TimestampRange) results.get(1).join();
+        assertThat(timestamp).isBetween(20L, 25L);
+        assertThat(timestamps.size()).isEqualTo(5L);
+        assertThat(timestamp).isNotBetween(timestamps.getLowerBound(), timestamps.getUpperBound());
+        assertThat(results.get(2).join()).isEqualTo(LockImmutableTimestampResponse.of(15L, IMMUTABLE_TS_TOKEN));
+        assertThat(results.get(3).join()).isEqualTo(ImmutableSet.of(TOKEN_1));
+        assertThat(results.get(4).join()).isEqualTo(ImmutableSet.of(TOKEN_2));
+    }
+
+    @Test
+    public void coalescesTransactionStartsMadeWhileABatchIsOutstanding() throws InterruptedException {
+        LockImmutableTimestampRequest firstRequest = LockImmutableTimestampRequest.create();
+        LockImmutableTimestampRequest secondRequest = LockImmutableTimestampRequest.create();
+        LockImmutableTimestampResponse firstResponse = LockImmutableTimestampResponse.of(15L, TOKEN_1);
+        LockImmutableTimestampResponse secondResponse = LockImmutableTimestampResponse.of(15L, TOKEN_2);
+        TimelockBatchResponse batchResponse = ImmutableTimelockBatchResponse.builder()
+                .freshTimestamps(TimestampRange.createInclusiveRange(20L, 21L))
+                .addLockImmutableTimestampResponses(firstResponse, secondResponse)
+                .lockLeaseMillis(5_000L)
+                .build();
+
+        List<CompletableFuture<Object>> results = callWhileFirstBatchIsOutstanding(batchResponse,
+                () -> timelock.batch(TimelockBatchRequest.startTransaction(firstRequest)),
+                () -> timelock.batch(TimelockBatchRequest.startTransaction(secondRequest)));
+
+        TimelockBatchRequest sentRequest = getSentBatches().get(1);
+        assertThat(sentRequest.getNumFreshTimestamps()).isEqualTo(2);
+        assertThat(sentRequest.getLockImmutableTimestampRequests()).containsOnly(firstRequest, secondRequest);
+
+        TimelockBatchResponse first = (TimelockBatchResponse) results.get(0).join();
+        TimelockBatchResponse second = (TimelockBatchResponse) results.get(1).join();
+        int firstIndex = sentRequest.getLockImmutableTimestampRequests().indexOf(firstRequest);
+        assertThat(first.getLockImmutableTimestampResponses()).containsExactly(
+                batchResponse.getLockImmutableTimestampResponses().get(firstIndex));
+        assertThat(second.getLockImmutableTimestampResponses()).containsExactly(
+                batchResponse.getLockImmutableTimestampResponses().get(1 - firstIndex));
+        assertThat(first.getFreshTimestamps().get().size()).isEqualTo(1L);
+        assertThat(second.getFreshTimestamps().get().size()).isEqualTo(1L);
+        assertThat(first.getFreshTimestamps()).isNotEqualTo(second.getFreshTimestamps());
+        assertThat(first.getLockLeaseMillis()).contains(5_000L);
+        assertThat(second.getLockLeaseMillis()).contains(5_000L);
+    }
+
+    @Test
+    public void fetchesTimestampsDirectlyIfTheBatchGotTooFew() throws InterruptedException {
+        when(delegate.getFreshTimestamps(1)).thenReturn(TimestampRange.createInclusiveRange(30L, 30L));
+
+        List<CompletableFuture<Object>> results = callWhileFirstBatchIsOutstanding(freshTimestampsResponse(20L, 20L),
+                () -> timelock.getFreshTimestamp(),
+                () -> timelock.getFreshTimestamp());
+
+        assertThat(results.get(0).join()).isNotEqualTo(results.get(1).join());
+        verify(delegate).getFreshTimestamps(1);
+    }
+
+    @Test
+    public void failsEveryCallInAFailedBatch() {
+        when(delegate.batch(any())).thenThrow(new IllegalStateException("foo"));
+
+        assertThatThrownBy(() -> timelock.unlock(ImmutableSet.of(TOKEN_1))).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(timelock::getFreshTimestamp).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void doesNotBatchLockRequests() {
+        LockRequest request = LockRequest.of(ImmutableSet.of(StringLockDescriptor.of("foo")), 10_000L);
+        when(delegate.lock(request)).thenReturn(LockResponse.successful(TOKEN_1));
+
+        assertThat(timelock.lock(request)).isEqualTo(LockResponse.successful(TOKEN_1));
+        verify(delegate, times(0)).batch(any());
+    }
+
+    @SafeVarargs
+    private final List<CompletableFuture<Object>> callWhileFirstBatchIsOutstanding(
+            TimelockBatchResponse secondResponse,
+            Supplier<Object>... calls) throws InterruptedException {
+        CountDownLatch firstBatchSent = new CountDownLatch(1);
+        CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        when(delegate.batch(any())).thenAnswer(invocation -> {
+            firstBatchSent.countDown();
+            releaseFirstBatch.await();
+            return EMPTY_RESPONSE;
+        }).thenReturn(secondResponse);
+
+        CompletableFuture<Void> firstCall = CompletableFuture.runAsync(
+                () -> timelock.unlock(ImmutableSet.of()), executor);
+        firstBatchSent.await();
+
+        List<CompletableFuture<Object>> results = new CopyOnWriteArrayList<>();
+        for (Supplier<Object> call : calls) {
+            results.add(CompletableFuture.supplyAsync(call, executor));
+        }
+        awaitAllCallersBlocked(calls.length + 1);
+        releaseFirstBatch.countDown();
+
+        firstCall.join();
+        results.forEach(CompletableFuture::join);
+        return results;
+    }
+
+    private void awaitAllCallersBlocked(int numCallers) throws InterruptedException {
+        while (callerThreads.size() < numCallers
+                || callerThreads.stream().anyMatch(BatchingTimelockServiceTest::isRunning)) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean isRunning(Thread thread) {
+        return thread.getState() == Thread.State.NEW || thread.getState() == Thread.State.RUNNABLE;
+    }
+
+    private List<TimelockBatchRequest> getSentBatches() {
+        ArgumentCaptor<TimelockBatchRequest> captor = ArgumentCaptor.forClass(TimelockBatchRequest.class);
+        verify(delegate, times(2)).batch(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private static TimelockBatchResponse freshTimestampsResponse(long lowerBound, long upperBound) {
+        return ImmutableTimelockBatchResponse.builder()
+                .freshTimestamps(TimestampRange.createInclusiveRange(lowerBound, upperBound))
+                .build();
+    }
+}
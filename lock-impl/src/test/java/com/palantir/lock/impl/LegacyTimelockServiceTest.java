@@ -17,11 +17,13 @@
 package com.palantir.lock.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.math.BigInteger;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.UUID;
@@ -32,6 +34,7 @@ import org.junit.Test;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
@@ -43,11 +46,15 @@ import com.palantir.lock.LockRefreshToken;
 import com.palantir.lock.LockService;
 import com.palantir.lock.SimpleTimeDuration;
 import com.palantir.lock.StringLockDescriptor;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.timestamp.TimestampRange;
 import com.palantir.timestamp.TimestampService;
@@ -90,6 +97,17 @@ public class LegacyTimelockServiceTest {
         assertEquals(range, timelock.getFreshTimestamps(numTimestamps));
     }
 
+    @Test
+    public void leasedTimestampsAreFreshTimestampsWithAnEmptyLease() {
+        TimestampRange range = TimestampRange.createInclusiveRange(21L, 30L);
+        when(timestampService.getFreshTimestamps(10)).thenReturn(range);
+
+        TimestampLease lease = timelock.leaseTimestamps(10);
+
+        assertEquals(range, lease.getTimestamps());
+        assertEquals(0L, lease.getLeaseMillis());
+    }
+
     @Test
     public void lockImmutableTimestampLocksFreshTimestamp() throws InterruptedException {
         long immutableTs = 3L;
@@ -172,6 +190,43 @@ public class LegacyTimelockServiceTest {
         assertEquals(expected, timelock.unlock(ImmutableSet.of(tokenA, tokenB)));
     }
 
+    @Test
+    public void batchLocksImmutableTimestampBeforeIssuingFreshTimestamps() throws InterruptedException {
+        long immutableTs = 3L;
+        TimestampRange range = TimestampRange.createInclusiveRange(6L, 6L);
+        when(timestampService.getFreshTimestamps(1)).thenReturn(range);
+        LockRefreshToken expectedToken = mockImmutableTsLockResponse();
+        mockMinLockedInVersionIdResponse(immutableTs);
+
+        InOrder inOrder = Mockito.inOrder(timestampService, lockService);
+        TimelockBatchResponse response = timelock.batch(
+                TimelockBatchRequest.startTransaction(LockImmutableTimestampRequest.create()));
+
+        assertEquals(ImmutableList.of(LockImmutableTimestampResponse.of(immutableTs, toTokenV2(expectedToken))),
+                response.getLockImmutableTimestampResponses());
+        assertEquals(Optional.of(range), response.getFreshTimestamps());
+        inOrder.verify(lockService).lock(any(), any());
+        inOrder.verify(timestampService).getFreshTimestamps(1);
+    }
+
+    @Test
+    public void batchUnlocksAndRefreshesTokens() {
+        LockToken tokenA = randomLockToken();
+        LockToken tokenB = randomLockToken();
+        when(lockService.unlock(toLegacyToken(tokenA))).thenReturn(true);
+        when(lockService.refreshLockRefreshTokens(ImmutableSet.of(toLegacyToken(tokenB))))
+                .thenReturn(ImmutableSet.of(toLegacyToken(tokenB)));
+
+        TimelockBatchResponse response = timelock.batch(ImmutableTimelockBatchRequest.builder()
+                .addUnlockTokens(tokenA)
+                .addRefreshLockTokens(tokenB)
+                .build());
+
+        assertEquals(ImmutableSet.of(tokenA), response.getUnlockedTokens());
+        assertEquals(ImmutableSet.of(tokenB), response.getRefreshedLockTokens());
+        assertEquals(Optional.empty(), response.getFreshTimestamps());
+    }
+
     private static LockToken randomLockToken() {
         return LockToken.of(UUID.randomUUID());
     }
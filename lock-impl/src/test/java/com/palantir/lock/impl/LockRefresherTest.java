@@ -16,8 +16,10 @@
 
 package com.palantir.lock.impl;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -26,12 +28,17 @@ import static org.mockito.Mockito.when;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jmock.lib.concurrent.DeterministicScheduler;
 import org.junit.Test;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableSet;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
 import com.palantir.lock.v2.TimelockService;
 
 public class LockRefresherTest {
@@ -42,9 +49,11 @@ public class LockRefresherTest {
     private static final LockToken TOKEN_2 = LockToken.of(UUID.randomUUID());
     private static final Set<LockToken> TOKENS = ImmutableSet.of(TOKEN_1, TOKEN_2);
 
+    private final AtomicLong timeMillis = new AtomicLong();
     private final DeterministicScheduler executor = new DeterministicScheduler();
     private final TimelockService timelock = mock(TimelockService.class);
-    private final LockRefresher refresher = new LockRefresher(executor, timelock, REFRESH_INTERVAL_MILLIS);
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final LockRefresher refresher = createRefresher(LockRefresher.DEFAULT_MAX_BATCH_SIZE);
 
     @Test
     public void continuesRefreshingLocksThatAreReturned() {
@@ -101,8 +110,138 @@ public class LockRefresherTest {
         verify(timelock, times(2)).refreshLockLeases(ImmutableSet.of(TOKEN_1));
     }
 
+    @Test
+    public void countsTokensThatAreNotRefreshedAsLost() {
+        when(timelock.refreshLockLeases(TOKENS)).thenReturn(ImmutableSet.of(TOKEN_1));
+        refresher.registerLock(TOKEN_1);
+        refresher.registerLock(TOKEN_2);
+
+        tick();
+        assertThat(metricRegistry.meter(MetricRegistry.name(LockRefresher.class, "lostTokens")).getCount())
+                .isEqualTo(1);
+        assertThat(metricRegistry.histogram(MetricRegistry.name(LockRefresher.class, "refreshPayloadSize"))
+                .getSnapshot().getMax()).isEqualTo(2);
+    }
+
+    @Test
+    public void refreshesInBatchesOfAtMostTheMaxBatchSize() {
+        LockRefresher smallBatchRefresher = createRefresher(1);
+        smallBatchRefresher.registerLock(TOKEN_1);
+        smallBatchRefresher.registerLock(TOKEN_2);
+
+        tick();
+        verify(timelock).refreshLockLeases(ImmutableSet.of(TOKEN_1));
+        verify(timelock).refreshLockLeases(ImmutableSet.of(TOKEN_2));
+        verifyNoMoreInteractions(timelock);
+    }
+
+    @Test
+    public void refreshesEachLockWhenItIsDue() {
+        refreshAllTokens();
+        refresher.registerLock(TOKEN_1);
+        advance(REFRESH_INTERVAL_MILLIS / 2);
+        refresher.registerLock(TOKEN_2);
+
+        tick();
+        verify(timelock).refreshLockLeases(ImmutableSet.of(TOKEN_1));
+        verify(timelock).refreshLockLeases(ImmutableSet.of(TOKEN_2));
+        verify(timelock, never()).refreshLockLeases(TOKENS);
+    }
+
+    @Test
+    public void refreshesWhenHalfOfTheServerLeaseHasElapsed() {
+        refreshAllTokens();
+        refresher.updateLeaseMillis(4 * REFRESH_INTERVAL_MILLIS);
+        refresher.registerLock(TOKEN_1);
+
+        tick();
+        verify(timelock, never()).refreshLockLeases(any());
+
+        tick();
+        verify(timelock).refreshLockLeases(ImmutableSet.of(TOKEN_1));
+    }
+
+    @Test
+    public void adoptsTheLeaseReportedByRefreshes() {
+        TimelockService batchingTimelock = mock(TimelockService.class);
+        when(batchingTimelock.batch(any())).thenAnswer(invocation -> ImmutableTimelockBatchResponse.builder()
+                .refreshedLockTokens(((TimelockBatchRequest) invocation.getArguments()[0]).getRefreshLockTokens())
+                .lockLeaseMillis(4 * REFRESH_INTERVAL_MILLIS)
+                .build());
+        LockRefresher batchingRefresher = createRefresher(batchingTimelock, LockRefresher.DEFAULT_MAX_BATCH_SIZE);
+        batchingRefresher.registerLock(TOKEN_1);
+
+        tick();
+        verify(batchingTimelock, times(1)).batch(any());
+
+        tick();
+        verify(batchingTimelock, times(1)).batch(any());
+
+        tick();
+        verify(batchingTimelock, times(2)).batch(ImmutableTimelockBatchRequest.builder()
+                .addRefreshLockTokens(TOKEN_1)
+                .build());
+    }
+
+    @Test
+    public void offersOnlyTokensMoreThanHalfwayToTheirRefreshForPiggybacking() {
+        refresher.registerLock(TOKEN_1);
+        timeMillis.addAndGet(REFRESH_INTERVAL_MILLIS / 2 + 1);
+        refresher.registerLock(TOKEN_2);
+
+        assertThat(refresher.getTokensToPiggyback()).containsExactly(TOKEN_1);
+    }
+
+    @Test
+    public void looksForTokensToPiggybackAtMostOncePerTenthOfTheRefreshInterval() {
+        refresher.registerLock(TOKEN_1);
+        timeMillis.addAndGet(REFRESH_INTERVAL_MILLIS / 2 - 1);
+        assertThat(refresher.getTokensToPiggyback()).isEmpty();
+
+        timeMillis.addAndGet(2);
+        assertThat(refresher.getTokensToPiggyback()).isEmpty();
+
+        timeMillis.addAndGet(REFRESH_INTERVAL_MILLIS / 10);
+        assertThat(refresher.getTokensToPiggyback()).containsExactly(TOKEN_1);
+    }
+
+    @Test
+    public void doesNotRefreshLocksThatWereRefreshedByPiggybacking() {
+        refreshAllTokens();
+        refresher.registerLock(TOKEN_1);
+        refresher.registerLock(TOKEN_2);
+        advance(REFRESH_INTERVAL_MILLIS / 2);
+
+        refresher.recordRefreshResult(TOKENS, ImmutableSet.of(TOKEN_1), refresher.currentTimeMillis());
+        assertThat(refresher.getTokensToPiggyback()).isEmpty();
+
+        advance(REFRESH_INTERVAL_MILLIS - 1);
+        verify(timelock, never()).refreshLockLeases(any());
+    }
+
+    private LockRefresher createRefresher(int maxBatchSize) {
+        // Refreshes are sent as batch calls; split them so that they can be stubbed and verified individually.
+        return createRefresher(new UnbatchedTimelockService(timelock), maxBatchSize);
+    }
+
+    private LockRefresher createRefresher(TimelockService timelockService, int maxBatchSize) {
+        return new LockRefresher(
+                executor, timelockService, REFRESH_INTERVAL_MILLIS, maxBatchSize, metricRegistry, timeMillis::get);
+    }
+
+    private void refreshAllTokens() {
+        when(timelock.refreshLockLeases(any())).thenAnswer(invocation -> invocation.getArguments()[0]);
+    }
+
     private void tick() {
-        executor.tick(REFRESH_INTERVAL_MILLIS + 1, TimeUnit.MILLISECONDS);
+        advance(REFRESH_INTERVAL_MILLIS + 1);
+    }
+
+    private void advance(long millis) {
+        for (long i = 0; i < millis; i++) {
+            timeMillis.incrementAndGet();
+            executor.tick(1, TimeUnit.MILLISECONDS);
+        }
     }
 
 }
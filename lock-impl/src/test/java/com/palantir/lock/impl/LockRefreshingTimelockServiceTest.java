@@ -18,6 +18,8 @@ package com.palantir.lock.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -33,11 +35,15 @@ import org.mockito.Mockito;
 import com.google.common.collect.ImmutableSet;
 import com.palantir.lock.LockDescriptor;
 import com.palantir.lock.StringLockDescriptor;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
 import com.palantir.lock.v2.TimelockService;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.timestamp.TimestampRange;
@@ -85,6 +91,49 @@ public class LockRefreshingTimelockServiceTest {
         inOrder.verify(delegate).unlock(TOKENS);
     }
 
+    @Test
+    public void registersImmutableTimestampLocksAndUnregistersUnlockedLocksInBatches() {
+        TimelockBatchRequest request = ImmutableTimelockBatchRequest.builder()
+                .addLockImmutableTimestampRequests(LockImmutableTimestampRequest.create())
+                .addUnlockTokens(TOKEN_2)
+                .build();
+        when(delegate.batch(request)).thenReturn(ImmutableTimelockBatchResponse.builder()
+                .addLockImmutableTimestampResponses(LockImmutableTimestampResponse.of(123L, TOKEN_1))
+                .addUnlockedTokens(TOKEN_2)
+                .build());
+        InOrder inOrder = Mockito.inOrder(refresher, delegate);
+
+        timelock.batch(request);
+
+        inOrder.verify(refresher).unregisterLocks(ImmutableSet.of(TOKEN_2));
+        inOrder.verify(delegate).batch(request);
+        inOrder.verify(refresher).registerLock(TOKEN_1);
+    }
+
+    @Test
+    public void piggybacksRefreshesOfLocksThatAreDueSoonOnBatches() {
+        TimelockBatchRequest request = ImmutableTimelockBatchRequest.builder()
+                .addLockImmutableTimestampRequests(LockImmutableTimestampRequest.create())
+                .build();
+        TimelockBatchRequest requestWithRefresh = ImmutableTimelockBatchRequest.builder()
+                .from(request)
+                .addRefreshLockTokens(TOKEN_1)
+                .build();
+        when(refresher.getTokensToPiggyback()).thenReturn(ImmutableSet.of(TOKEN_1));
+        when(delegate.batch(requestWithRefresh)).thenReturn(ImmutableTimelockBatchResponse.builder()
+                .addLockImmutableTimestampResponses(LockImmutableTimestampResponse.of(123L, TOKEN_2))
+                .addRefreshedLockTokens(TOKEN_1)
+                .lockLeaseMillis(20_000L)
+                .build());
+
+        TimelockBatchResponse response = timelock.batch(request);
+
+        verify(refresher).recordRefreshResult(eq(ImmutableSet.of(TOKEN_1)), eq(ImmutableSet.of(TOKEN_1)), anyLong());
+        verify(refresher).updateLeaseMillis(20_000L);
+        verify(refresher).registerLock(TOKEN_2);
+        assertThat(response.getRefreshedLockTokens()).isEmpty();
+    }
+
     @Test
     public void refreshDelegates() {
         timelock.refreshLockLeases(TOKENS);
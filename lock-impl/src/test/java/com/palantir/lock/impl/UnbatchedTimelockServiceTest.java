@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.lock.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.google.common.collect.ImmutableSet;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
+import com.palantir.lock.v2.LockImmutableTimestampRequest;
+import com.palantir.lock.v2.LockImmutableTimestampResponse;
+import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimelockService;
+import com.palantir.timestamp.TimestampRange;
+
+public class UnbatchedTimelockServiceTest {
+
+    private static final LockToken TOKEN_1 = LockToken.of(UUID.randomUUID());
+    private static final LockToken TOKEN_2 = LockToken.of(UUID.randomUUID());
+
+    private final TimelockService delegate = mock(TimelockService.class);
+    private final TimelockService timelock = new UnbatchedTimelockService(delegate);
+
+    @Test
+    public void performsBatchesAsIndividualCallsInOrder() {
+        LockImmutableTimestampRequest lockRequest = LockImmutableTimestampRequest.create();
+        LockImmutableTimestampResponse lockResponse = LockImmutableTimestampResponse.of(5L, TOKEN_2);
+        TimestampRange freshTimestamps = TimestampRange.createInclusiveRange(10L, 10L);
+        when(delegate.unlock(ImmutableSet.of(TOKEN_1))).thenReturn(ImmutableSet.of(TOKEN_1));
+        when(delegate.refreshLockLeases(ImmutableSet.of(TOKEN_2))).thenReturn(ImmutableSet.of(TOKEN_2));
+        when(delegate.lockImmutableTimestamp(lockRequest)).thenReturn(lockResponse);
+        when(delegate.getFreshTimestamps(1)).thenReturn(freshTimestamps);
+
+        TimelockBatchResponse response = timelock.batch(ImmutableTimelockBatchRequest.builder()
+                .addUnlockTokens(TOKEN_1)
+                .addRefreshLockTokens(TOKEN_2)
+                .addLockImmutableTimestampRequests(lockRequest)
+                .numFreshTimestamps(1)
+                .build());
+
+        assertThat(response.getUnlockedTokens()).containsExactly(TOKEN_1);
+        assertThat(response.getRefreshedLockTokens()).containsExactly(TOKEN_2);
+        assertThat(response.getLockImmutableTimestampResponses()).containsExactly(lockResponse);
+        assertThat(response.getFreshTimestamps()).contains(freshTimestamps);
+
+        InOrder inOrder = inOrder(delegate);
+        inOrder.verify(delegate).unlock(ImmutableSet.of(TOKEN_1));
+        inOrder.verify(delegate).refreshLockLeases(ImmutableSet.of(TOKEN_2));
+        inOrder.verify(delegate).lockImmutableTimestamp(lockRequest);
+        inOrder.verify(delegate).getFreshTimestamps(1);
+        verify(delegate, never()).batch(any());
+    }
+}
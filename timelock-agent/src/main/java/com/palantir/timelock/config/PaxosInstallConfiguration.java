@@ -27,6 +27,27 @@ public interface PaxosInstallConfiguration {
         return new File("var/data/paxos");
     }
 
+    /**
+     * If true, the timestamp bounds of all clients are stored in a single Paxos log, so that bounds for many
+     * clients are extended in one Paxos round. Clients are migrated from their own logs on first use; this is a
+     * one-way switch, since the per-client logs are no longer written afterwards.
+     */
+    @JsonProperty("multiplex-timestamp-bounds")
+    @Value.Default
+    default boolean multiplexTimestampBounds() {
+        return false;
+    }
+
+    /**
+     * If true, Paxos acceptors and learners append their state to segmented log files with group commit, rather
+     * than writing one file per round. Existing logs are migrated on startup; this is a one-way switch.
+     */
+    @JsonProperty("segmented-state-logs")
+    @Value.Default
+    default boolean segmentedStateLogs() {
+        return false;
+    }
+
     @Value.Check
     default void check() {
         Preconditions.checkArgument(dataDirectory().mkdirs() || dataDirectory().isDirectory(),
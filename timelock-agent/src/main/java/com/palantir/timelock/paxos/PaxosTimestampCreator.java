@@ -20,6 +20,8 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Supplier;
@@ -27,13 +29,16 @@ import java.util.function.Supplier;
 import javax.net.ssl.SSLSocketFactory;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.palantir.atlasdb.factory.Leaders;
 import com.palantir.atlasdb.timelock.paxos.DelegatingManagedTimestampService;
 import com.palantir.atlasdb.timelock.paxos.ManagedTimestampService;
+import com.palantir.atlasdb.timelock.paxos.MultiplexedTimestampBoundStore;
 import com.palantir.atlasdb.timelock.paxos.PaxosResource;
 import com.palantir.atlasdb.timelock.paxos.PaxosSynchronizer;
+import com.palantir.atlasdb.timelock.paxos.PaxosTimeLockConstants;
 import com.palantir.atlasdb.timelock.paxos.PaxosTimeLockUriUtils;
 import com.palantir.atlasdb.timelock.paxos.PaxosTimestampBoundStore;
 import com.palantir.atlasdb.util.AtlasDbMetrics;
@@ -50,68 +55,133 @@ public class PaxosTimestampCreator {
     private final Set<String> remoteServers;
     private final Optional<SSLSocketFactory> optionalSecurity;
     private final Supplier<PaxosRuntimeConfiguration> paxosRuntime;
+    private final boolean multiplexTimestampBounds;
+
+    private final Supplier<MultiplexedTimestampBoundStore> multiplexedBoundStore =
+            Suppliers.memoize(this::createMultiplexedTimestampBoundStore);
+    private final ConcurrentMap<String, TimestampBoundStore> legacyBoundStores = new ConcurrentHashMap<>();
 
     public PaxosTimestampCreator(PaxosResource paxosResource,
             Set<String> remoteServers,
             Optional<SSLSocketFactory> optionalSecurity,
-            Supplier<PaxosRuntimeConfiguration> paxosRuntime) {
+            Supplier<PaxosRuntimeConfiguration> paxosRuntime,
+            boolean multiplexTimestampBounds) {
         this.paxosResource = paxosResource;
         this.remoteServers = remoteServers;
         this.optionalSecurity = optionalSecurity;
         this.paxosRuntime = paxosRuntime;
+        this.multiplexTimestampBounds = multiplexTimestampBounds;
     }
 
     public Supplier<ManagedTimestampService> createPaxosBackedTimestampService(String client) {
-        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-                .setNameFormat("atlas-consensus-" + client + "-%d")
+        if (multiplexTimestampBounds) {
+            return () -> createManagedPaxosTimestampService(multiplexedBoundStore.get().forClient(client), client);
+        }
+
+        ExecutorService executor = createExecutor(client);
+        List<PaxosAcceptor> acceptors = createAcceptors(client);
+        List<PaxosLearner> learners = createLearners(client);
+        PaxosProposer proposer = instrument(PaxosProposer.class,
+                createProposer(client, acceptors, learners, executor),
+                client);
+
+        PaxosSynchronizer.synchronizeLearner(paxosResource.getPaxosLearner(client), learners);
+
+        return () -> createManagedPaxosTimestampService(
+                multiplexedBoundStore.get().forLegacyClient(client,
+                        createPaxosTimestampBoundStore(proposer, client, acceptors, learners)),
+                client);
+    }
+
+    private MultiplexedTimestampBoundStore createMultiplexedTimestampBoundStore() {
+        String namespace = PaxosTimeLockConstants.MULTIPLEXED_TIMESTAMP_NAMESPACE;
+        ExecutorService executor = createExecutor(namespace);
+        List<PaxosAcceptor> acceptors = createAcceptors(namespace);
+        List<PaxosLearner> learners = createLearners(namespace);
+        PaxosProposer proposer = instrument(PaxosProposer.class,
+                createProposer(namespace, acceptors, learners, executor),
+                namespace);
+
+        PaxosSynchronizer.synchronizeLearner(paxosResource.getPaxosLearner(namespace), learners);
+
+        return new MultiplexedTimestampBoundStore(
+                proposer,
+                paxosResource.getPaxosLearner(namespace),
+                acceptors,
+                learners,
+                paxosRuntime.get().maximumWaitBeforeProposalMs(),
+                client -> legacyBoundStores.computeIfAbsent(client, unused -> createLegacyBoundStore(client, executor))
+                        .getUpperLimit(),
+                executor);
+    }
+
+    /**
+     * Creates a store reading the bound of a client from its own Paxos log, which the multiplexed store consults
+     * whenever the client starts being served. It is created once per client and shares the multiplexed store's
+     * executor.
+     */
+    private TimestampBoundStore createLegacyBoundStore(String client, ExecutorService executor) {
+        List<PaxosAcceptor> acceptors = createAcceptors(client);
+        List<PaxosLearner> learners = createLearners(client);
+        PaxosProposer proposer = createProposer(client, acceptors, learners, executor);
+        return createPaxosTimestampBoundStore(proposer, client, acceptors, learners);
+    }
+
+    private static ExecutorService createExecutor(String namespace) {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("atlas-consensus-" + namespace + "-%d")
                 .setDaemon(true)
                 .build());
+    }
 
-        Set<String> namespacedUris = PaxosTimeLockUriUtils.getClientPaxosUris(remoteServers, client);
-        List<PaxosAcceptor> acceptors = Leaders.createProxyAndLocalList(
+    private List<PaxosAcceptor> createAcceptors(String client) {
+        return Leaders.createProxyAndLocalList(
                 paxosResource.getPaxosAcceptor(client),
-                namespacedUris,
+                PaxosTimeLockUriUtils.getClientPaxosUris(remoteServers, client),
                 optionalSecurity,
                 PaxosAcceptor.class,
                 "timestamp-bound-store." + client);
+    }
 
-        PaxosLearner ourLearner = paxosResource.getPaxosLearner(client);
-        List<PaxosLearner> learners = Leaders.createProxyAndLocalList(
-                ourLearner,
-                namespacedUris,
+    private List<PaxosLearner> createLearners(String client) {
+        return Leaders.createProxyAndLocalList(
+                paxosResource.getPaxosLearner(client),
+                PaxosTimeLockUriUtils.getClientPaxosUris(remoteServers, client),
                 optionalSecurity,
                 PaxosLearner.class,
                 "timestamp-bound-store." + client);
+    }
 
-        PaxosProposer proposer = instrument(PaxosProposer.class,
-                PaxosProposerImpl.newProposer(
-                        ourLearner,
-                        ImmutableList.copyOf(acceptors),
-                        ImmutableList.copyOf(learners),
-                        PaxosRemotingUtils.getQuorumSize(acceptors),
-                        UUID.randomUUID(),
-                        executor),
-                client);
-
-        PaxosSynchronizer.synchronizeLearner(ourLearner, learners);
-
-        return () -> createManagedPaxosTimestampService(proposer, client, acceptors, learners);
+    private PaxosProposer createProposer(String client,
+            List<PaxosAcceptor> acceptors,
+            List<PaxosLearner> learners,
+            ExecutorService executor) {
+        return PaxosProposerImpl.newProposer(
+                paxosResource.getPaxosLearner(client),
+                ImmutableList.copyOf(acceptors),
+                ImmutableList.copyOf(learners),
+                PaxosRemotingUtils.getQuorumSize(acceptors),
+                UUID.randomUUID(),
+                executor);
     }
 
-    private ManagedTimestampService createManagedPaxosTimestampService(
+    private TimestampBoundStore createPaxosTimestampBoundStore(
             PaxosProposer proposer,
             String client,
             List<PaxosAcceptor> acceptors,
             List<PaxosLearner> learners) {
+        return new PaxosTimestampBoundStore(
+                proposer,
+                paxosResource.getPaxosLearner(client),
+                ImmutableList.copyOf(acceptors),
+                ImmutableList.copyOf(learners),
+                paxosRuntime.get().maximumWaitBeforeProposalMs());
+    }
+
+    private ManagedTimestampService createManagedPaxosTimestampService(TimestampBoundStore rawBoundStore,
+            String client) {
         // TODO (jkong): live reload ping
-        TimestampBoundStore boundStore = instrument(TimestampBoundStore.class,
-                new PaxosTimestampBoundStore(
-                        proposer,
-                        paxosResource.getPaxosLearner(client),
-                        ImmutableList.copyOf(acceptors),
-                        ImmutableList.copyOf(learners),
-                        paxosRuntime.get().maximumWaitBeforeProposalMs()),
-                client);
+        TimestampBoundStore boundStore = instrument(TimestampBoundStore.class, rawBoundStore, client);
         PersistentTimestampService persistentTimestampService = PersistentTimestampService.create(boundStore);
         return new DelegatingManagedTimestampService(persistentTimestampService, persistentTimestampService);
     }
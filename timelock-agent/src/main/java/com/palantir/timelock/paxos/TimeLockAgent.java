@@ -23,6 +23,7 @@ import com.palantir.atlasdb.http.BlockingTimeoutExceptionMapper;
 import com.palantir.atlasdb.http.NotCurrentLeaderExceptionMapper;
 import com.palantir.atlasdb.timelock.TimeLockResource;
 import com.palantir.atlasdb.timelock.TimeLockServices;
+import com.palantir.atlasdb.timelock.TimelockBinaryMessageBodyProvider;
 import com.palantir.atlasdb.timelock.TooManyRequestsExceptionMapper;
 import com.palantir.atlasdb.timelock.paxos.ManagedTimestampService;
 import com.palantir.atlasdb.timelock.paxos.PaxosResource;
@@ -62,13 +63,16 @@ public class TimeLockAgent {
         this.runtime = runtime;
         this.registrar = registrar;
 
-        this.paxosResource = PaxosResource.create(install.paxos().dataDirectory().toString());
+        this.paxosResource = PaxosResource.create(
+                install.paxos().dataDirectory().toString(),
+                install.paxos().segmentedStateLogs());
         this.leadershipCreator = new PaxosLeadershipCreator(install, runtime, registrar);
         this.lockCreator = new LockCreator(runtime, deprecated);
         this.timestampCreator = new PaxosTimestampCreator(paxosResource,
                 PaxosRemotingUtils.getRemoteServerPaths(install),
                 PaxosRemotingUtils.getSslConfigurationOptional(install).map(SslSocketFactories::createSslSocketFactory),
-                JavaSuppliers.compose(TimeLockRuntimeConfiguration::paxos, runtime));
+                JavaSuppliers.compose(TimeLockRuntimeConfiguration::paxos, runtime),
+                install.paxos().multiplexTimestampBounds());
         this.timelockCreator = install.asyncLock().useAsyncLockService()
                 ? new AsyncTimeLockServicesCreator(leadershipCreator, install.asyncLock())
                 : new LegacyTimeLockServicesCreator(leadershipCreator);
@@ -77,6 +81,7 @@ public class TimeLockAgent {
     public void createAndRegisterResources() {
         registerPaxosResource();
         registerExceptionMappers();
+        registrar.accept(new TimelockBinaryMessageBodyProvider());
         leadershipCreator.registerLeaderElectionService();
 
         // Finally, register the endpoints associated with the clients.
@@ -34,6 +34,10 @@ import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimelockBinaryEncoding;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.lock.v2.WaitForLocksResponse;
 import com.palantir.timestamp.TimestampRange;
@@ -51,16 +55,24 @@ public class AsyncTimelockResource {
 
     @POST
     @Path("fresh-timestamp")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     public long getFreshTimestamp() {
         return timelock.getFreshTimestamp();
     }
 
     @POST
     @Path("fresh-timestamps")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     public TimestampRange getFreshTimestamps(@QueryParam("number") int numTimestampsRequested) {
         return timelock.getFreshTimestamps(numTimestampsRequested);
     }
 
+    @POST
+    @Path("timestamp-lease")
+    public TimestampLease leaseTimestamps(@QueryParam("number") int numTimestampsRequested) {
+        return timelock.leaseTimestamps(numTimestampsRequested);
+    }
+
     @POST
     @Path("lock-immutable-timestamp")
     public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
@@ -75,6 +87,8 @@ public class AsyncTimelockResource {
 
     @POST
     @Path("lock")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
+    @Consumes({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     public void lock(@Suspended final AsyncResponse response, LockRequest request) {
         AsyncResult<LockToken> result = timelock.lock(request);
         LockLog.registerRequest(request, result);
@@ -107,12 +121,16 @@ public class AsyncTimelockResource {
 
     @POST
     @Path("refresh-locks")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
+    @Consumes({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     public Set<LockToken> refreshLockLeases(Set<LockToken> tokens) {
         return timelock.refreshLockLeases(tokens);
     }
 
     @POST
     @Path("unlock")
+    @Produces({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
+    @Consumes({MediaType.APPLICATION_JSON, TimelockBinaryEncoding.MEDIA_TYPE})
     public Set<LockToken> unlock(Set<LockToken> tokens) {
         return timelock.unlock(tokens);
     }
@@ -122,4 +140,10 @@ public class AsyncTimelockResource {
     public long currentTimeMillis() {
         return timelock.currentTimeMillis();
     }
+
+    @POST
+    @Path("batch")
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        return timelock.batch(request);
+    }
 }
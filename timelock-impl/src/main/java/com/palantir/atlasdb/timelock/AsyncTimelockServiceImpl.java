@@ -17,24 +17,41 @@
 package com.palantir.atlasdb.timelock;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.palantir.atlasdb.timelock.lock.AsyncLockService;
 import com.palantir.atlasdb.timelock.lock.AsyncResult;
+import com.palantir.atlasdb.timelock.lock.LeaseExpirationTimer;
 import com.palantir.atlasdb.timelock.lock.TimeLimit;
 import com.palantir.atlasdb.timelock.paxos.ManagedTimestampService;
+import com.palantir.lock.v2.ImmutableTimelockBatchResponse;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.timestamp.TimestampRange;
 
 public class AsyncTimelockServiceImpl implements AsyncTimelockService {
 
+    /**
+     * How long clients may hand out leased timestamps for, and so how stale a leased timestamp can be.
+     */
+    public static final long TIMESTAMP_LEASE_MILLIS = 100L;
+
     private final AsyncLockService lockService;
     private final ManagedTimestampService timestampService;
 
+    // A new instance is created each time this node gains leadership, so this identifies the leader term.
+    private final UUID leaderTermId = UUID.randomUUID();
+
     public AsyncTimelockServiceImpl(AsyncLockService lockService, ManagedTimestampService timestampService) {
         this.lockService = lockService;
         this.timestampService = timestampService;
@@ -50,6 +67,14 @@ public class AsyncTimelockServiceImpl implements AsyncTimelockService {
         return timestampService.getFreshTimestamps(numTimestampsRequested);
     }
 
+    @Override
+    public TimestampLease leaseTimestamps(int numTimestampsRequested) {
+        return TimestampLease.of(
+                leaderTermId,
+                timestampService.getFreshTimestamps(numTimestampsRequested),
+                TIMESTAMP_LEASE_MILLIS);
+    }
+
     @Override
     public LockImmutableTimestampResponse lockImmutableTimestamp(LockImmutableTimestampRequest request) {
         long timestamp = timestampService.getFreshTimestamp();
@@ -72,6 +97,7 @@ public class AsyncTimelockServiceImpl implements AsyncTimelockService {
         return lockService.lock(
                 request.getRequestId(),
                 request.getLockDescriptors(),
+                request.getSharedLockDescriptors(),
                 TimeLimit.of(request.getAcquireTimeoutMs()));
     }
 
@@ -98,6 +124,44 @@ public class AsyncTimelockServiceImpl implements AsyncTimelockService {
         return System.currentTimeMillis();
     }
 
+    @Override
+    public TimelockBatchResponse batch(TimelockBatchRequest request) {
+        ImmutableTimelockBatchResponse.Builder response = ImmutableTimelockBatchResponse.builder()
+                .unlockedTokens(unlock(request.getUnlockTokens()))
+                .refreshedLockTokens(refreshLockLeases(request.getRefreshLockTokens()))
+                .lockImmutableTimestampResponses(lockImmutableTimestamps(request.getLockImmutableTimestampRequests()))
+                .lockLeaseMillis(LeaseExpirationTimer.LEASE_TIMEOUT_MILLIS);
+        if (request.getNumFreshTimestamps() > 0) {
+            response.freshTimestamps(getFreshTimestamps(request.getNumFreshTimestamps()));
+        }
+        return response.build();
+    }
+
+    private List<LockImmutableTimestampResponse> lockImmutableTimestamps(
+            List<LockImmutableTimestampRequest> requests) {
+        if (requests.isEmpty()) {
+            return ImmutableList.of();
+        }
+        List<LockToken> tokens = Lists.newArrayListWithCapacity(requests.size());
+        long firstTimestamp = Long.MAX_VALUE;
+        while (tokens.size() < requests.size()) {
+            TimestampRange timestamps = timestampService.getFreshTimestamps(requests.size() - tokens.size());
+            firstTimestamp = Math.min(firstTimestamp, timestamps.getLowerBound());
+            for (long timestamp = timestamps.getLowerBound(); timestamp <= timestamps.getUpperBound(); timestamp++) {
+                // this will always return synchronously
+                UUID requestId = requests.get(tokens.size()).getRequestId();
+                tokens.add(lockService.lockImmutableTimestamp(requestId, timestamp).get());
+            }
+        }
+        long immutableTs = lockService.getImmutableTimestamp().orElse(firstTimestamp);
+
+        List<LockImmutableTimestampResponse> responses = Lists.newArrayListWithCapacity(tokens.size());
+        for (LockToken token : tokens) {
+            responses.add(LockImmutableTimestampResponse.of(immutableTs, token));
+        }
+        return responses;
+    }
+
     @Override
     public void fastForwardTimestamp(long currentTimestamp) {
         timestampService.fastForwardTimestamp(currentTimestamp);
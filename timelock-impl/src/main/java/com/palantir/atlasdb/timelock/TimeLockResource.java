@@ -79,6 +79,9 @@ public class TimeLockResource {
                 "The client name '%s' is reserved for the leader election service, and may not be "
                         + "used.",
                 PaxosTimeLockConstants.LEADER_ELECTION_NAMESPACE);
+        Preconditions.checkArgument(!client.equals(PaxosTimeLockConstants.MULTIPLEXED_TIMESTAMP_NAMESPACE),
+                "The client name '%s' is reserved for multiplexed timestamp bounds, and may not be used.",
+                PaxosTimeLockConstants.MULTIPLEXED_TIMESTAMP_NAMESPACE);
 
         if (servicesByClient.size() >= maxNumberOfClients.get()) {
             log.error(
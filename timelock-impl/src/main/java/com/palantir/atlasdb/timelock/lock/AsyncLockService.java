@@ -21,10 +21,6 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableSet;
 import com.palantir.lock.LockDescriptor;
@@ -32,8 +28,6 @@ import com.palantir.lock.v2.LockToken;
 
 public class AsyncLockService implements Closeable {
 
-    private static final Logger log = LoggerFactory.getLogger(AsyncLockService.class);
-
     private final LockCollection locks;
     private final LockAcquirer lockAcquirer;
     private final ScheduledExecutorService reaperExecutor;
@@ -67,23 +61,22 @@ public class AsyncLockService implements Closeable {
         this.awaitedLocks = awaitedLocks;
         this.reaperExecutor = reaperExecutor;
 
-        scheduleExpiredLockReaper();
+        heldLocks.startRemovingExpired(reaperExecutor);
+        lockAcquirer.start();
     }
 
-    private void scheduleExpiredLockReaper() {
-        reaperExecutor.scheduleAtFixedRate(() -> {
-            try {
-                heldLocks.removeExpired();
-            } catch (Throwable t) {
-                log.warn("Error while removing expired lock requests. Trying again on next iteration.", t);
-            }
-        }, 0, LeaseExpirationTimer.LEASE_TIMEOUT_MILLIS / 2, TimeUnit.MILLISECONDS);
+    public AsyncResult<LockToken> lock(UUID requestId, Set<LockDescriptor> lockDescriptors, TimeLimit timeout) {
+        return lock(requestId, lockDescriptors, ImmutableSet.of(), timeout);
     }
 
-    public AsyncResult<LockToken> lock(UUID requestId, Set<LockDescriptor> lockDescriptors, TimeLimit timeout) {
+    public AsyncResult<LockToken> lock(
+            UUID requestId,
+            Set<LockDescriptor> lockDescriptors,
+            Set<LockDescriptor> sharedLockDescriptors,
+            TimeLimit timeout) {
         return heldLocks.getExistingOrAcquire(
                 requestId,
-                () -> acquireLocks(requestId, lockDescriptors, timeout));
+                () -> acquireLocks(requestId, lockDescriptors, sharedLockDescriptors, timeout));
     }
 
     public AsyncResult<LockToken> lockImmutableTimestamp(UUID requestId, long timestamp) {
@@ -103,8 +96,8 @@ public class AsyncLockService implements Closeable {
     }
 
     private AsyncResult<HeldLocks> acquireLocks(UUID requestId, Set<LockDescriptor> lockDescriptors,
-            TimeLimit timeout) {
-        OrderedLocks orderedLocks = locks.getAll(lockDescriptors);
+            Set<LockDescriptor> sharedLockDescriptors, TimeLimit timeout) {
+        OrderedLocks orderedLocks = locks.getAll(lockDescriptors, sharedLockDescriptors);
         return lockAcquirer.acquireLocks(requestId, orderedLocks, timeout);
     }
 
@@ -141,7 +134,9 @@ public class AsyncLockService implements Closeable {
      */
     @Override
     public void close() {
+        heldLocks.stopRemovingExpired();
         reaperExecutor.shutdown();
+        lockAcquirer.close();
         heldLocks.failAllOutstandingRequestsWithNotCurrentLeaderException();
     }
 }
@@ -81,6 +81,13 @@ public class HeldLocks {
         return true;
     }
 
+    /**
+     * Returns how long the lease on these locks has left, assuming they are not refreshed in the meantime.
+     */
+    public long getMillisUntilExpiry() {
+        return expirationTimer.getMillisUntilExpiry();
+    }
+
     public LockToken getToken() {
         return token;
     }
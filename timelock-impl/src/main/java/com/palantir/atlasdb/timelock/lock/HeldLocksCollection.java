@@ -16,10 +16,10 @@
 
 package com.palantir.atlasdb.timelock.lock;
 
-import java.util.Iterator;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -29,16 +29,31 @@ import com.google.common.collect.Sets;
 import com.palantir.leader.NotCurrentLeaderException;
 import com.palantir.lock.v2.LockToken;
 
+/**
+ * Tracks lock requests by request id, from when they are made until they are unlocked, their lease expires, or they
+ * fail or time out.
+ * <p>
+ * Each completed request has a timer on a {@link TimerWheel}, which is ticked on the executor passed to
+ * {@link #startRemovingExpired(ScheduledExecutorService)} while any request is tracked. When the timer fires the
+ * request is removed if it failed, timed out or its lease has expired; otherwise the timer is rescheduled for when
+ * the lease would expire, given its latest refresh. Refreshing a lease therefore costs no more than a volatile
+ * write, and the work done per tick only depends on the number of timers that fire.
+ */
 public class HeldLocksCollection {
 
+    public static final long LEASE_TIMER_TICK_MILLIS = 100;
+    private static final int LEASE_TIMER_BUCKETS = 512;
+
     @VisibleForTesting
     final ConcurrentMap<UUID, AsyncResult<HeldLocks>> heldLocksById = Maps.newConcurrentMap();
 
+    private final TimerWheel leaseTimers = new TimerWheel(LEASE_TIMER_TICK_MILLIS, LEASE_TIMER_BUCKETS);
+
     public AsyncResult<LockToken> getExistingOrAcquire(
             UUID requestId,
             Supplier<AsyncResult<HeldLocks>> lockAcquirer) {
         AsyncResult<HeldLocks> locksFuture = heldLocksById.computeIfAbsent(
-                requestId, ignored -> lockAcquirer.get());
+                requestId, ignored -> acquireAndTrack(requestId, lockAcquirer));
         return locksFuture.map(HeldLocks::getToken);
     }
 
@@ -54,14 +69,26 @@ public class HeldLocksCollection {
         return filter(tokens, HeldLocks::refresh);
     }
 
-    public void removeExpired() {
-        Iterator<AsyncResult<HeldLocks>> iterator = heldLocksById.values().iterator();
-        while (iterator.hasNext()) {
-            AsyncResult<HeldLocks> lockResult = iterator.next();
-            if (shouldRemove(lockResult)) {
-                iterator.remove();
-            }
-        }
+    /**
+     * Starts removing requests whose leases have expired, or which have failed or timed out, on the given executor.
+     * The executor is only used while some request is tracked.
+     */
+    public void startRemovingExpired(ScheduledExecutorService executor) {
+        leaseTimers.tickOn(executor);
+    }
+
+    public void stopRemovingExpired() {
+        leaseTimers.stopTicking();
+    }
+
+    /**
+     * Removes requests whose leases have expired, or which have failed or timed out, since the last call. Must be
+     * called every {@link #LEASE_TIMER_TICK_MILLIS} by a single thread, and only if expired requests are not already
+     * being removed on an executor.
+     */
+    @VisibleForTesting
+    void removeExpired() {
+        leaseTimers.tick();
     }
 
     public void failAllOutstandingRequestsWithNotCurrentLeaderException() {
@@ -69,6 +96,25 @@ public class HeldLocksCollection {
         heldLocksById.values().forEach(result -> result.failIfNotCompleted(ex));
     }
 
+    private AsyncResult<HeldLocks> acquireAndTrack(UUID requestId, Supplier<AsyncResult<HeldLocks>> lockAcquirer) {
+        AsyncResult<HeldLocks> lockResult = lockAcquirer.get();
+        lockResult.onComplete(() -> scheduleExpiryCheck(requestId, lockResult));
+        return lockResult;
+    }
+
+    private void scheduleExpiryCheck(UUID requestId, AsyncResult<HeldLocks> lockResult) {
+        long delayMillis = lockResult.isCompletedSuccessfully() ? lockResult.get().getMillisUntilExpiry() : 0;
+        leaseTimers.schedule(() -> checkExpiry(requestId, lockResult), delayMillis);
+    }
+
+    private void checkExpiry(UUID requestId, AsyncResult<HeldLocks> lockResult) {
+        if (shouldRemove(lockResult)) {
+            heldLocksById.remove(requestId, lockResult);
+        } else {
+            scheduleExpiryCheck(requestId, lockResult);
+        }
+    }
+
     private boolean shouldRemove(AsyncResult<HeldLocks> lockResult) {
         return lockResult.isFailed()
                 || lockResult.isTimedOut()
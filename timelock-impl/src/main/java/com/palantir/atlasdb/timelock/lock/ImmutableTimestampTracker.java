@@ -16,33 +16,39 @@
 
 package com.palantir.atlasdb.timelock.lock;
 
+import java.util.Map;
 import java.util.Optional;
-import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-import com.google.common.collect.Maps;
 import com.palantir.atlasdb.timelock.util.LoggableIllegalStateException;
 import com.palantir.logsafe.SafeArg;
 
-import net.jcip.annotations.GuardedBy;
-
+/**
+ * Tracks the timestamps locked as immutable timestamps by open transactions; the immutable timestamp is the least
+ * of them. Every transaction locks and unlocks a timestamp, so locking, unlocking and reading the minimum must not
+ * contend on a common lock.
+ * <p>
+ * Holders are kept in a {@link ConcurrentSkipListMap}, whose insertions, removals and reads of the first entry are
+ * all lock-free. The minimum is read from the map every time rather than cached, since a cached minimum can miss a
+ * timestamp locked below it while it is being recomputed, and the immutable timestamp must never be too high.
+ */
 public class ImmutableTimestampTracker {
 
-    @GuardedBy("this")
-    private final SortedMap<Long, UUID> holdersByTimestamp = Maps.newTreeMap();
+    private final ConcurrentSkipListMap<Long, UUID> holdersByTimestamp = new ConcurrentSkipListMap<>();
 
-    public synchronized void lock(long timestamp, UUID requestId) {
-        boolean wasAdded = holdersByTimestamp.putIfAbsent(timestamp, requestId) == null;
-        if (!wasAdded) {
+    public void lock(long timestamp, UUID requestId) {
+        UUID currentHolder = holdersByTimestamp.putIfAbsent(timestamp, requestId);
+        if (currentHolder != null) {
             throw new LoggableIllegalStateException(
                     "A request attempted to lock a timestamp that was already locked",
                     SafeArg.of("timestamp", timestamp),
                     SafeArg.of("requestId", requestId),
-                    SafeArg.of("currentHolder", holdersByTimestamp.get(timestamp)));
+                    SafeArg.of("currentHolder", currentHolder));
         }
     }
 
-    public synchronized void unlock(long timestamp, UUID requestId) {
+    public void unlock(long timestamp, UUID requestId) {
         boolean wasRemoved = holdersByTimestamp.remove(timestamp, requestId);
         if (!wasRemoved) {
             throw new LoggableIllegalStateException(
@@ -53,11 +59,9 @@ public class ImmutableTimestampTracker {
         }
     }
 
-    public synchronized Optional<Long> getImmutableTimestamp() {
-        if (holdersByTimestamp.isEmpty()) {
-            return Optional.empty();
-        }
-        return Optional.of(holdersByTimestamp.firstKey());
+    public Optional<Long> getImmutableTimestamp() {
+        Map.Entry<Long, UUID> first = holdersByTimestamp.firstEntry();
+        return first == null ? Optional.empty() : Optional.of(first.getKey());
     }
 
     // TODO(nziebart): should these locks should be created by LockCollection for consistency?
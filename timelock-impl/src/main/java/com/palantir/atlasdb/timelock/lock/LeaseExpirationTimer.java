@@ -35,7 +35,11 @@ public class LeaseExpirationTimer {
     }
 
     public boolean isExpired() {
-        return clock.getTimeMillis() > lastRefreshTimeMillis + LEASE_TIMEOUT_MILLIS;
+        return getMillisUntilExpiry() < 0;
+    }
+
+    public long getMillisUntilExpiry() {
+        return lastRefreshTimeMillis + LEASE_TIMEOUT_MILLIS - clock.getTimeMillis();
     }
 
 }
@@ -16,25 +16,53 @@
 
 package com.palantir.atlasdb.timelock.lock;
 
+import java.io.Closeable;
 import java.util.UUID;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.palantir.logsafe.SafeArg;
 
-public class LockAcquirer {
+public class LockAcquirer implements Closeable {
 
     private static final Logger log = LoggerFactory.getLogger(LockAcquirer.class);
 
+    private static final long TIMEOUT_TICK_MILLIS = 10;
+    private static final int TIMEOUT_WHEEL_BUCKETS = 4096;
+
     private final ScheduledExecutorService timeoutExecutor;
+    private final TimerWheel timeouts;
 
     public LockAcquirer(ScheduledExecutorService timeoutExecutor) {
+        this(timeoutExecutor, TIMEOUT_TICK_MILLIS);
+    }
+
+    @VisibleForTesting
+    LockAcquirer(ScheduledExecutorService timeoutExecutor, long timeoutTickMillis) {
         this.timeoutExecutor = timeoutExecutor;
+        this.timeouts = new TimerWheel(timeoutTickMillis, TIMEOUT_WHEEL_BUCKETS);
+    }
+
+    /**
+     * Starts timing out lock requests on the timeout executor. Requests are not timed out until this is called. The
+     * executor is only used while some request is waiting for its locks.
+     */
+    public void start() {
+        timeouts.tickOn(timeoutExecutor);
+    }
+
+    /**
+     * Stops timing out lock requests, and shuts down the timeout executor.
+     */
+    @Override
+    public void close() {
+        timeouts.stopTicking();
+        timeoutExecutor.shutdown();
     }
 
     public AsyncResult<HeldLocks> acquireLocks(UUID requestId, OrderedLocks locks, TimeLimit timeout) {
@@ -115,7 +143,8 @@ public class LockAcquirer {
                 return;
             }
 
-            timeoutExecutor.schedule(() -> timeoutAll(), timeout.getTimeMillis(), TimeUnit.MILLISECONDS);
+            TimerWheel.Timeout scheduledTimeout = timeouts.schedule(this::timeoutAll, timeout.getTimeMillis());
+            result.onComplete(scheduledTimeout::cancel);
         }
 
         private void timeoutAll() {
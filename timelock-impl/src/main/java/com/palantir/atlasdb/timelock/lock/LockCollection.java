@@ -16,50 +16,142 @@
 
 package com.palantir.atlasdb.timelock.lock;
 
-
-import java.util.Comparator;
-import java.util.List;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.collect.Lists;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.palantir.lock.LockDescriptor;
 
+/**
+ * The table of locks, created on demand and discarded once no request refers to them.
+ * <p>
+ * The table is split into a power-of-two number of shards by descriptor hash, each a concurrent map of weak
+ * references to locks. Looking up an existing lock takes no locks and allocates nothing; locks that have been
+ * garbage collected are removed from a shard whenever a new lock is created in it.
+ */
 public class LockCollection {
 
-    private final LoadingCache<LockDescriptor, ExclusiveLock> locksById;
+    private static final int DEFAULT_NUM_SHARDS = 64;
+
+    private final Shard[] shards;
 
     public LockCollection() {
-        locksById = CacheBuilder.newBuilder()
-                .weakValues()
-                .build(new CacheLoader<LockDescriptor, ExclusiveLock>() {
-                    @Override
-                    public ExclusiveLock load(LockDescriptor descriptor) throws Exception {
-                        return new ExclusiveLock(descriptor);
-                    }
-                });
+        this(DEFAULT_NUM_SHARDS);
+    }
+
+    @VisibleForTesting
+    LockCollection(int numShards) {
+        Preconditions.checkArgument(Integer.bitCount(numShards) == 1, "numShards must be a power of two");
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard();
+        }
     }
 
     public OrderedLocks getAll(Set<LockDescriptor> descriptors) {
-        List<LockDescriptor> orderedDescriptors = sort(descriptors);
+        return getAll(descriptors, ImmutableSet.of());
+    }
+
+    /**
+     * Returns the locks for the given descriptors in a consistent order, such that acquiring them acquires the
+     * {@code exclusiveDescriptors} exclusively and the remaining {@code sharedDescriptors} in shared mode.
+     */
+    public OrderedLocks getAll(Set<LockDescriptor> exclusiveDescriptors, Set<LockDescriptor> sharedDescriptors) {
+        LockDescriptor[] orderedDescriptors = sortedUnion(exclusiveDescriptors, sharedDescriptors);
+
+        AsyncLock[] locks = new AsyncLock[orderedDescriptors.length];
+        for (int i = 0; i < orderedDescriptors.length; i++) {
+            LockDescriptor descriptor = orderedDescriptors[i];
+            SharedLock lock = getLock(descriptor);
+            locks[i] = sharedDescriptors.isEmpty() || exclusiveDescriptors.contains(descriptor) ? lock : lock.shared();
+        }
+        return OrderedLocks.fromOrderedList(ImmutableList.copyOf(locks));
+    }
+
+    @VisibleForTesting
+    int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.removeCollectedLocks();
+            size += shard.locks.size();
+        }
+        return size;
+    }
 
-        List<AsyncLock> locks = Lists.newArrayListWithExpectedSize(descriptors.size());
-        for (LockDescriptor descriptor : orderedDescriptors) {
-            locks.add(getLock(descriptor));
+    private static LockDescriptor[] sortedUnion(Set<LockDescriptor> first, Set<LockDescriptor> second) {
+        LockDescriptor[] descriptors = new LockDescriptor[first.size() + second.size()];
+        int count = 0;
+        for (LockDescriptor descriptor : first) {
+            descriptors[count++] = descriptor;
+        }
+        for (LockDescriptor descriptor : second) {
+            if (!first.contains(descriptor)) {
+                descriptors[count++] = descriptor;
+            }
         }
-        return OrderedLocks.fromOrderedList(locks);
+        Arrays.sort(descriptors, 0, count);
+        return count == descriptors.length ? descriptors : Arrays.copyOf(descriptors, count);
     }
 
-    private List<LockDescriptor> sort(Set<LockDescriptor> descriptors) {
-        List<LockDescriptor> orderedDescriptors = Lists.newArrayList(descriptors);
-        orderedDescriptors.sort(Comparator.naturalOrder());
-        return orderedDescriptors;
+    private SharedLock getLock(LockDescriptor descriptor) {
+        int hash = descriptor.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (shards.length - 1)].get(descriptor);
     }
 
-    private AsyncLock getLock(LockDescriptor descriptor) {
-        return locksById.getUnchecked(descriptor);
+    private static final class Shard {
+        private final ConcurrentMap<LockDescriptor, LockReference> locks = new ConcurrentHashMap<>();
+        private final ReferenceQueue<SharedLock> collectedLocks = new ReferenceQueue<>();
+
+        SharedLock get(LockDescriptor descriptor) {
+            LockReference reference = locks.get(descriptor);
+            SharedLock lock = reference == null ? null : reference.get();
+            return lock != null ? lock : create(descriptor);
+        }
+
+        private SharedLock create(LockDescriptor descriptor) {
+            removeCollectedLocks();
+
+            SharedLock newLock = new SharedLock(descriptor);
+            LockReference newReference = new LockReference(newLock, collectedLocks);
+            while (true) {
+                LockReference existingReference = locks.putIfAbsent(descriptor, newReference);
+                if (existingReference == null) {
+                    return newLock;
+                }
+                SharedLock existingLock = existingReference.get();
+                if (existingLock != null) {
+                    return existingLock;
+                }
+                if (locks.replace(descriptor, existingReference, newReference)) {
+                    return newLock;
+                }
+            }
+        }
+
+        void removeCollectedLocks() {
+            Reference<? extends SharedLock> reference;
+            while ((reference = collectedLocks.poll()) != null) {
+                LockReference lockReference = (LockReference) reference;
+                locks.remove(lockReference.descriptor, lockReference);
+            }
+        }
+    }
+
+    private static final class LockReference extends WeakReference<SharedLock> {
+        private final LockDescriptor descriptor;
+
+        LockReference(SharedLock lock, ReferenceQueue<SharedLock> queue) {
+            super(lock, queue);
+            this.descriptor = lock.getDescriptor();
+        }
     }
 
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.timelock.lock;
+
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.palantir.atlasdb.timelock.util.LoggableIllegalStateException;
+import com.palantir.lock.LockDescriptor;
+import com.palantir.logsafe.SafeArg;
+
+/**
+ * A lock that can be held either exclusively by a single request, or shared by any number of requests.
+ * <p>
+ * Requests are granted strictly in the order they were made: a shared request that arrives while an exclusive
+ * request is waiting queues behind it, so a steady stream of shared requests cannot starve exclusive ones. Any run
+ * of shared requests at the head of the queue is granted together.
+ * <p>
+ * {@link #lock(UUID)} and {@link #waitUntilAvailable(UUID)} act on the lock in exclusive mode, so this lock behaves
+ * as a plain exclusive lock unless it is acquired through {@link #shared()}.
+ * <p>
+ * Uncontended requests are granted, and locks released, with a compare-and-set of the lock state and without
+ * taking the monitor or allocating. Only once a request has to wait is it queued; while any request is queued,
+ * every new request joins the queue, which is processed under the monitor whenever the lock is released.
+ */
+public class SharedLock implements AsyncLock {
+
+    private static final AsyncResult<Void> GRANTED = AsyncResult.completedResult();
+
+    private static final int EXCLUSIVE = 1 << 30;
+    private static final int WAITERS = 1 << 29;
+    private static final int SHARED_COUNT = WAITERS - 1;
+
+    private static final AtomicIntegerFieldUpdater<SharedLock> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(SharedLock.class, "state");
+    private static final AtomicReferenceFieldUpdater<SharedLock, UUID> EXCLUSIVE_HOLDER =
+            AtomicReferenceFieldUpdater.newUpdater(SharedLock.class, UUID.class, "exclusiveHolder");
+
+    private final LockDescriptor descriptor;
+    private final AsyncLock sharedView = new SharedView();
+
+    /**
+     * The {@link #EXCLUSIVE} bit if the lock is held exclusively, the {@link #WAITERS} bit if any request is queued,
+     * and the number of shared holders in the remaining bits.
+     */
+    private volatile int state = 0;
+    private volatile UUID exclusiveHolder = null;
+    private final Set<UUID> sharedHolders = ConcurrentHashMap.newKeySet();
+
+    @GuardedBy("this")
+    private LockRequestQueue queue = null;
+
+    public SharedLock(LockDescriptor descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public AsyncResult<Void> lock(UUID requestId) {
+        if (STATE.compareAndSet(this, 0, EXCLUSIVE)) {
+            exclusiveHolder = requestId;
+            return GRANTED;
+        }
+        return submit(new LockRequest(requestId, false, false));
+    }
+
+    @Override
+    public AsyncResult<Void> waitUntilAvailable(UUID requestId) {
+        if (state == 0) {
+            return GRANTED;
+        }
+        return submit(new LockRequest(requestId, false, true));
+    }
+
+    public AsyncResult<Void> lockShared(UUID requestId) {
+        if (tryLockSharedUncontended(requestId)) {
+            return GRANTED;
+        }
+        return submit(new LockRequest(requestId, true, false));
+    }
+
+    public AsyncResult<Void> waitUntilAvailableForShared(UUID requestId) {
+        if ((state & (EXCLUSIVE | WAITERS)) == 0) {
+            return GRANTED;
+        }
+        return submit(new LockRequest(requestId, true, true));
+    }
+
+    @Override
+    public void unlock(UUID requestId) {
+        UUID holder = exclusiveHolder;
+        if (holder != null && holder.equals(requestId) && EXCLUSIVE_HOLDER.compareAndSet(this, holder, null)) {
+            int previousState = STATE.getAndAdd(this, -EXCLUSIVE);
+            if ((previousState & WAITERS) != 0) {
+                processQueue();
+            }
+        } else if (sharedHolders.remove(requestId)) {
+            int previousState = STATE.getAndDecrement(this);
+            if ((previousState & WAITERS) != 0 && (previousState & SHARED_COUNT) == 1) {
+                processQueue();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void timeout(UUID requestId) {
+        if (queue != null && queue.timeoutAndRemoveIfStillQueued(requestId)) {
+            // an exclusive request at the head of the queue may have been holding back shared requests behind it
+            processQueue();
+        }
+    }
+
+    @Override
+    public LockDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Returns a view of this lock whose {@link AsyncLock#lock(UUID)} and {@link AsyncLock#waitUntilAvailable(UUID)}
+     * act in shared mode.
+     */
+    public AsyncLock shared() {
+        return sharedView;
+    }
+
+    @VisibleForTesting
+    UUID getExclusiveHolder() {
+        return exclusiveHolder;
+    }
+
+    @VisibleForTesting
+    Set<UUID> getSharedHolders() {
+        return ImmutableSet.copyOf(sharedHolders);
+    }
+
+    private boolean tryLockSharedUncontended(UUID requestId) {
+        int current;
+        do {
+            current = state;
+            if ((current & (EXCLUSIVE | WAITERS)) != 0) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, current + 1));
+
+        sharedHolders.add(requestId);
+        return true;
+    }
+
+    private synchronized AsyncResult<Void> submit(LockRequest request) {
+        if (queue == null) {
+            queue = new LockRequestQueue();
+        }
+        queue.enqueue(request);
+        if ((state & WAITERS) == 0) {
+            // from now on new requests queue up, and releases process the queue
+            STATE.getAndAdd(this, WAITERS);
+        }
+        processQueue();
+
+        return request.result;
+    }
+
+    private synchronized void processQueue() {
+        while (queue != null && !queue.isEmpty()) {
+            LockRequest head = queue.peek();
+            if (!tryGrant(head)) {
+                // whoever releases the lock next will process the queue again
+                return;
+            }
+            queue.dequeue();
+            head.result.complete(null);
+        }
+        if ((state & WAITERS) != 0) {
+            STATE.getAndAdd(this, -WAITERS);
+        }
+    }
+
+    /**
+     * Tries to grant the given request while requests are queued. Only releases can change the state concurrently,
+     * as new requests are all queued.
+     */
+    @GuardedBy("this")
+    private boolean tryGrant(LockRequest request) {
+        if (!request.shared) {
+            if (request.releaseImmediately) {
+                return state == WAITERS;
+            }
+            if (STATE.compareAndSet(this, WAITERS, WAITERS | EXCLUSIVE)) {
+                exclusiveHolder = request.requestId;
+                return true;
+            }
+            return false;
+        }
+
+        int current;
+        do {
+            current = state;
+            if ((current & EXCLUSIVE) != 0) {
+                return false;
+            }
+            if (request.releaseImmediately) {
+                return true;
+            }
+        } while (!STATE.compareAndSet(this, current, current + 1));
+
+        sharedHolders.add(request.requestId);
+        return true;
+    }
+
+    private class SharedView implements AsyncLock {
+        @Override
+        public AsyncResult<Void> lock(UUID requestId) {
+            return lockShared(requestId);
+        }
+
+        @Override
+        public AsyncResult<Void> waitUntilAvailable(UUID requestId) {
+            return waitUntilAvailableForShared(requestId);
+        }
+
+        @Override
+        public void unlock(UUID requestId) {
+            SharedLock.this.unlock(requestId);
+        }
+
+        @Override
+        public void timeout(UUID requestId) {
+            SharedLock.this.timeout(requestId);
+        }
+
+        @Override
+        public LockDescriptor getDescriptor() {
+            return descriptor;
+        }
+    }
+
+    private static class LockRequest {
+        private final AsyncResult<Void> result = new AsyncResult<>();
+        private final UUID requestId;
+        private final boolean shared;
+        private final boolean releaseImmediately;
+
+        LockRequest(UUID requestId, boolean shared, boolean releaseImmediately) {
+            this.requestId = requestId;
+            this.shared = shared;
+            this.releaseImmediately = releaseImmediately;
+        }
+    }
+
+    @NotThreadSafe
+    private static class LockRequestQueue {
+
+        @SuppressWarnings("checkstyle:illegaltype")
+        private final LinkedHashMap<UUID, LockRequest> queue = Maps.newLinkedHashMap();
+
+        public void enqueue(LockRequest request) {
+            LockRequest existingRequest = queue.put(request.requestId, request);
+            if (existingRequest != null) {
+                queue.put(request.requestId, existingRequest);
+                throw new LoggableIllegalStateException(
+                        "Cannot enqueue the same request id twice.",
+                        SafeArg.of("requestId", request.requestId));
+            }
+        }
+
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        public LockRequest peek() {
+            return queue.values().iterator().next();
+        }
+
+        public LockRequest dequeue() {
+            return queue.remove(queue.keySet().iterator().next());
+        }
+
+        public boolean timeoutAndRemoveIfStillQueued(UUID requestId) {
+            LockRequest request = queue.remove(requestId);
+            if (request != null) {
+                request.result.timeout();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.timelock.lock;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A hashed timing wheel, which runs tasks after a delay measured in ticks of a fixed duration.
+ * <p>
+ * Scheduling and cancelling a task take constant time and can be done from any thread. Time only advances when
+ * {@link #tick()} is called, which must be done every {@code tickMillis} by a single thread; alternatively,
+ * {@link #tickOn(ScheduledExecutorService)} ticks the wheel on an executor, but only while it has tasks that have
+ * neither run nor been cancelled, so that an idle wheel costs nothing. Each tick only visits the tasks in one
+ * of the wheel's buckets, so its cost does not grow with the total number of scheduled tasks as long as most delays
+ * are shorter than one revolution of the wheel; longer delays are supported, but their tasks are visited once per
+ * revolution.
+ * <p>
+ * Tasks run on the ticking thread, and may run up to one tick late. They should be short, and must not block.
+ */
+@ThreadSafe
+public class TimerWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickMillis;
+    private final int bucketMask;
+    private final Bucket[] buckets;
+
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    private volatile long currentTick = 0;
+
+    private volatile ScheduledExecutorService ticker = null;
+    private volatile ScheduledFuture<?> nextTick = null;
+    private volatile boolean ticking = false;
+
+    public TimerWheel(long tickMillis, int numBuckets) {
+        Preconditions.checkArgument(tickMillis > 0, "tickMillis must be positive");
+        Preconditions.checkArgument(Integer.bitCount(numBuckets) == 1, "numBuckets must be a power of two");
+        this.tickMillis = tickMillis;
+        this.bucketMask = numBuckets - 1;
+        this.buckets = new Bucket[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Schedules {@code task} to run on the first tick at least {@code delayMillis} after the current tick.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long delayTicks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(this, task, currentTick + delayTicks);
+        pendingTimeouts.incrementAndGet();
+        scheduledTimeouts.add(timeout);
+        if (!ticking) {
+            startTicking();
+        }
+        return timeout;
+    }
+
+    /**
+     * Ticks this wheel on {@code executor} from now on, every {@code tickMillis} for as long as it has pending tasks.
+     * Time stands still while no tasks are pending, which does not affect tasks scheduled later, as their delays are
+     * counted from the current tick. {@link #tick()} must not be called by anything else once this has been called.
+     */
+    public synchronized void tickOn(ScheduledExecutorService executor) {
+        Preconditions.checkState(ticker == null, "The wheel is already being ticked on an executor");
+        ticker = executor;
+        if (pendingTimeouts.get() > 0) {
+            startTicking();
+        }
+    }
+
+    /**
+     * Stops ticking this wheel on the executor passed to {@link #tickOn(ScheduledExecutorService)}. Pending tasks do
+     * not run unless the wheel is ticked again.
+     */
+    public synchronized void stopTicking() {
+        ticker = null;
+        ScheduledFuture<?> tick = nextTick;
+        if (tick != null) {
+            tick.cancel(false);
+        }
+        ticking = false;
+    }
+
+    private synchronized void startTicking() {
+        if (ticking || ticker == null) {
+            return;
+        }
+        ticking = true;
+        scheduleNextTick();
+    }
+
+    private void tickWhilePending() {
+        try {
+            tick();
+        } catch (Throwable t) {
+            log.warn("Error while ticking a timer wheel. Trying again on the next tick.", t);
+        }
+        if (pendingTimeouts.get() > 0) {
+            scheduleNextTick();
+        } else {
+            stopTickingIfIdle();
+        }
+    }
+
+    private synchronized void stopTickingIfIdle() {
+        // a task scheduled concurrently may have seen that the wheel was still ticking, so check again once it is not
+        ticking = false;
+        if (pendingTimeouts.get() > 0) {
+            ticking = true;
+            scheduleNextTick();
+        }
+    }
+
+    private void scheduleNextTick() {
+        ScheduledExecutorService executor = ticker;
+        try {
+            if (executor != null) {
+                nextTick = executor.schedule(this::tickWhilePending, tickMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+        } catch (RejectedExecutionException e) {
+            log.info("Stopped ticking a timer wheel, as its executor has been shut down");
+        }
+        ticking = false;
+    }
+
+    /**
+     * Advances the wheel by one tick, running any tasks that have become due. Must only be called by one thread.
+     */
+    public void tick() {
+        long tick = currentTick + 1;
+        currentTick = tick;
+
+        addScheduledTimeouts(tick);
+        removeCancelledTimeouts();
+        buckets[(int) (tick & bucketMask)].expireTimeouts(tick);
+    }
+
+    private void addScheduledTimeouts(long tick) {
+        Timeout timeout;
+        while ((timeout = scheduledTimeouts.poll()) != null) {
+            if (timeout.state == Timeout.PENDING) {
+                // a timeout scheduled concurrently with the previous tick may already be due
+                long deadlineTick = Math.max(timeout.deadlineTick, tick);
+                buckets[(int) (deadlineTick & bucketMask)].add(timeout);
+            }
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A task scheduled on a {@link TimerWheel}.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile int state = PENDING;
+
+        // only accessed by the ticking thread
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the task if it has not yet run, and returns whether it was cancelled.
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.pendingTimeouts.decrementAndGet();
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            wheel.pendingTimeouts.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.warn("Timer task threw an exception", t);
+            }
+        }
+    }
+
+    @NotThreadSafe
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        void expireTimeouts(long tick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= tick) {
+                    remove(timeout);
+                    timeout.expire();
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.timelock.paxos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.palantir.common.base.Throwables;
+import com.palantir.common.remoting.ServiceNotAvailableException;
+import com.palantir.leader.NotCurrentLeaderException;
+import com.palantir.paxos.PaxosAcceptor;
+import com.palantir.paxos.PaxosLearner;
+import com.palantir.paxos.PaxosProposer;
+import com.palantir.paxos.PaxosQuorumChecker;
+import com.palantir.paxos.PaxosResponse;
+import com.palantir.paxos.PaxosRoundFailureException;
+import com.palantir.paxos.PaxosValue;
+import com.palantir.timestamp.MultipleRunningTimestampServiceError;
+import com.palantir.timestamp.TimestampBoundStore;
+
+/**
+ * Stores the timestamp bounds of many clients in a single Paxos log, so that extending the bounds of any number of
+ * clients costs one Paxos round (and one durable log write on each acceptor) rather than one round per client.
+ * <p>
+ * Every value in the log is a snapshot of the bounds of all clients which have been stored so far. Bound extensions
+ * requested through the {@link #forClient(String) per-client views} are queued, and whichever thread holds the
+ * Paxos lock proposes a single snapshot containing all queued extensions at the next sequence number. As with
+ * {@link PaxosTimestampBoundStore}, the round only succeeds if the agreed value was proposed by our proposer;
+ * otherwise another server has become the leader, and every request in the batch fails with
+ * {@link NotCurrentLeaderException}.
+ * <p>
+ * A client's bound is never less than its bound in the per-client log written by {@link PaxosTimestampBoundStore},
+ * which is read through the supplied legacy bound reader; this lets a cluster switch to the multiplexed log without
+ * timestamps going backwards. Once a client's bound is in the multiplexed log the per-client log is no longer
+ * written, so every server must use the multiplexed log: servers that do not use it guard their per-client stores
+ * with {@link #forLegacyClient(String, TimestampBoundStore)}, which fails once the client has been migrated.
+ * Switching back requires fast-forwarding that client's timestamps.
+ */
+@ThreadSafe
+public final class MultiplexedTimestampBoundStore {
+    private static final Logger log = LoggerFactory.getLogger(MultiplexedTimestampBoundStore.class);
+
+    private static final int QUORUM_OF_ONE = 1;
+    private static final boolean ONLY_LOG_ON_QUORUM_FAILURE = true;
+
+    private final PaxosProposer proposer;
+    private final PaxosLearner knowledge;
+    private final List<PaxosAcceptor> acceptors;
+    private final List<PaxosLearner> learners;
+    private final long maximumWaitBeforeProposalMs;
+    private final Function<String, Long> legacyBoundReader;
+    private final ExecutorService executor;
+
+    private final Queue<PendingBound> pendingBounds = new ConcurrentLinkedQueue<>();
+    private final Lock paxosLock = new ReentrantLock();
+
+    @GuardedBy("paxosLock")
+    private SequenceAndBounds agreedState;
+
+    public MultiplexedTimestampBoundStore(PaxosProposer proposer,
+            PaxosLearner knowledge,
+            List<PaxosAcceptor> acceptors,
+            List<PaxosLearner> learners,
+            long maximumWaitBeforeProposalMs,
+            Function<String, Long> legacyBoundReader,
+            ExecutorService executor) {
+        this.proposer = proposer;
+        this.knowledge = knowledge;
+        this.acceptors = ImmutableList.copyOf(acceptors);
+        this.learners = ImmutableList.copyOf(learners);
+        this.maximumWaitBeforeProposalMs = maximumWaitBeforeProposalMs;
+        this.legacyBoundReader = legacyBoundReader;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a bound store for the given client, backed by the multiplexed log.
+     */
+    public TimestampBoundStore forClient(String client) {
+        return new ClientBoundStore(client);
+    }
+
+    /**
+     * Returns a bound store for the given client that reads and writes the given store of its own log, for servers
+     * which do not have multiplexing enabled. Such a store refuses to start serving the client once the client has a
+     * bound in the multiplexed log, as the client's own log may then be behind; this makes a cluster in which only
+     * some servers have multiplexing enabled fail fast, rather than hand out timestamps that go backwards.
+     */
+    public TimestampBoundStore forLegacyClient(String client, TimestampBoundStore legacyStore) {
+        return new LegacyClientBoundStore(client, legacyStore);
+    }
+
+    /**
+     * Returns the greater of the client's bound in the multiplexed log and its bound in its own log. The latter is
+     * still read after the client has been stored in the multiplexed log, in case a server without multiplexing was
+     * the leader in between and only wrote the client's own log.
+     */
+    private long getUpperLimit(String client) {
+        Optional<Long> bound = getAgreedBound(client);
+        long legacyBound = legacyBoundReader.apply(client);
+        if (!bound.isPresent()) {
+            log.info("Client {} has no bound in the multiplexed timestamp log yet; using the bound {} from its"
+                    + " own log.", client, legacyBound);
+            return legacyBound;
+        }
+        if (legacyBound > bound.get()) {
+            log.warn("The bound {} of client {} in its own log is ahead of its bound {} in the multiplexed"
+                    + " timestamp log; using the former. This suggests that a server without multiplexed timestamp"
+                    + " bounds enabled was the leader.", legacyBound, client, bound.get());
+            return legacyBound;
+        }
+        return bound.get();
+    }
+
+    private Optional<Long> getAgreedBound(String client) {
+        paxosLock.lock();
+        try {
+            agreedState = getAgreedState(getLatestSequenceNumberFromAcceptors());
+            return Optional.ofNullable(agreedState.getBounds().get(client));
+        } finally {
+            paxosLock.unlock();
+        }
+    }
+
+    private void storeUpperLimit(String client, long limit) {
+        PendingBound pending = new PendingBound(client, limit);
+        pendingBounds.add(pending);
+
+        // Whenever the Paxos lock is free, our bound is either stored or still queued; in the latter case
+        // we propose it (and everyone else's) ourselves.
+        while (!pending.isDone()) {
+            paxosLock.lock();
+            try {
+                if (!pending.isDone()) {
+                    flush();
+                }
+            } finally {
+                paxosLock.unlock();
+            }
+        }
+        pending.checkStored();
+    }
+
+    @GuardedBy("paxosLock")
+    private void flush() {
+        List<PendingBound> batch = Lists.newArrayList();
+        for (PendingBound pending = pendingBounds.poll(); pending != null; pending = pendingBounds.poll()) {
+            batch.add(pending);
+        }
+
+        try {
+            if (agreedState == null) {
+                agreedState = getAgreedState(getLatestSequenceNumberFromAcceptors());
+            }
+            Map<String, Long> bounds = Maps.newHashMap(agreedState.getBounds());
+            for (PendingBound pending : batch) {
+                bounds.merge(pending.client, pending.limit, Math::max);
+            }
+            long newSeq = agreedState.getSeqId() + 1;
+            PaxosValue value = proposeUntilAgreed(newSeq, encode(bounds));
+            checkAgreedBoundsAreOurs(newSeq, value);
+            agreedState = ImmutableSequenceAndBounds.of(newSeq, decode(value.getData()));
+            for (PendingBound pending : batch) {
+                pending.complete(agreedState.getBounds().getOrDefault(pending.client, Long.MIN_VALUE));
+            }
+        } catch (Throwable t) {
+            for (PendingBound pending : batch) {
+                pending.fail(t);
+            }
+        }
+    }
+
+    private PaxosValue proposeUntilAgreed(long seq, byte[] bounds) {
+        while (true) {
+            try {
+                proposer.propose(seq, bounds);
+                return knowledge.getLearnedValue(seq);
+            } catch (PaxosRoundFailureException e) {
+                waitForRandomBackoff(e);
+            }
+        }
+    }
+
+    private void checkAgreedBoundsAreOurs(long seq, PaxosValue value) {
+        if (!value.getLeaderUUID().equals(proposer.getUuid())) {
+            throw new NotCurrentLeaderException(String.format(
+                    "Multiplexed timestamp bounds changed from under us for sequence '%s' (proposer with UUID '%s'"
+                            + " changed them, our UUID is '%s'). This suggests that we have lost leadership, and"
+                            + " another timelock server has gained leadership and updated the timestamp bounds.",
+                    seq,
+                    value.getLeaderUUID(),
+                    proposer.getUuid()));
+        }
+    }
+
+    /**
+     * Contacts a quorum of acceptors and returns the latest sequence number prepared or accepted by any of them.
+     *
+     * @throws ServiceNotAvailableException if we couldn't contact a quorum
+     */
+    private long getLatestSequenceNumberFromAcceptors() {
+        List<PaxosTimestampBoundStore.PaxosLong> responses = PaxosQuorumChecker.collectQuorumResponses(
+                acceptors,
+                acceptor -> ImmutablePaxosLong.of(acceptor.getLatestSequencePreparedOrAccepted()),
+                proposer.getQuorumSize(),
+                executor,
+                PaxosQuorumChecker.DEFAULT_REMOTE_REQUESTS_TIMEOUT_IN_SECONDS,
+                ONLY_LOG_ON_QUORUM_FAILURE);
+        if (!PaxosQuorumChecker.hasQuorum(responses, proposer.getQuorumSize())) {
+            throw new ServiceNotAvailableException("could not get a quorum");
+        }
+        return Ordering.natural().max(Lists.transform(responses, PaxosTimestampBoundStore.PaxosLong::getValue));
+    }
+
+    /**
+     * Obtains agreement for a given sequence number, with the same semantics as
+     * {@link PaxosTimestampBoundStore#getAgreedState(long)}: values from previous sequence numbers are carried
+     * forward if no value has been learned for this one.
+     */
+    private SequenceAndBounds getAgreedState(long seq) {
+        Optional<SequenceAndBounds> state = getLearnedState(seq);
+        if (state.isPresent()) {
+            return state.get();
+        }
+
+        Optional<SequenceAndBounds> lastState = getLearnedState(seq - 1);
+        if (!lastState.isPresent()) {
+            SequenceAndBounds forced = forceAgreedState(seq - 2, null);
+            lastState = Optional.of(forceAgreedState(seq - 1, encode(forced.getBounds())));
+        }
+
+        return forceAgreedState(seq, encode(lastState.get().getBounds()));
+    }
+
+    private SequenceAndBounds forceAgreedState(long seq, @Nullable byte[] oldState) {
+        if (seq <= PaxosAcceptor.NO_LOG_ENTRY) {
+            return ImmutableSequenceAndBounds.of(PaxosAcceptor.NO_LOG_ENTRY, ImmutableMap.of());
+        }
+
+        Optional<SequenceAndBounds> state = getLearnedState(seq);
+        if (state.isPresent()) {
+            return state.get();
+        }
+
+        while (true) {
+            try {
+                byte[] acceptedValue = proposer.propose(seq, oldState);
+                // propose must never return null.  We only pass in null for things we know are agreed upon already.
+                Preconditions.checkNotNull(acceptedValue, "Proposed value can't be null, but was in sequence %s", seq);
+                return ImmutableSequenceAndBounds.of(seq, decode(acceptedValue));
+            } catch (PaxosRoundFailureException e) {
+                waitForRandomBackoff(e);
+            }
+        }
+    }
+
+    private Optional<SequenceAndBounds> getLearnedState(long seq) {
+        if (seq <= PaxosAcceptor.NO_LOG_ENTRY) {
+            return Optional.of(ImmutableSequenceAndBounds.of(PaxosAcceptor.NO_LOG_ENTRY, ImmutableMap.of()));
+        }
+        List<LearnedBounds> responses = PaxosQuorumChecker.collectQuorumResponses(
+                learners,
+                learner -> getLearnedValue(seq, learner),
+                QUORUM_OF_ONE,
+                executor,
+                PaxosQuorumChecker.DEFAULT_REMOTE_REQUESTS_TIMEOUT_IN_SECONDS,
+                ONLY_LOG_ON_QUORUM_FAILURE);
+        if (responses.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(ImmutableSequenceAndBounds.of(seq, responses.iterator().next().bounds));
+    }
+
+    private static LearnedBounds getLearnedValue(long seq, PaxosLearner learner) {
+        PaxosValue value = learner.getLearnedValue(seq);
+        if (value == null) {
+            throw new NoSuchElementException(
+                    String.format("Tried to get a learned value for sequence number '%d' which didn't exist", seq));
+        }
+        return new LearnedBounds(decode(value.getData()));
+    }
+
+    private void waitForRandomBackoff(PaxosRoundFailureException paxosException) {
+        long backoffTime = (long) (maximumWaitBeforeProposalMs * Math.random() + 1);
+        log.info("Paxos proposal couldn't complete, because we could not connect to a quorum of nodes. We"
+                + " will retry in {} ms.",
+                backoffTime,
+                paxosException);
+        try {
+            Thread.sleep(backoffTime);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @VisibleForTesting
+    static byte[] encode(Map<String, Long> bounds) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(bounds.size());
+            for (Map.Entry<String, Long> entry : ImmutableSortedMap.copyOf(bounds).entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @VisibleForTesting
+    static Map<String, Long> decode(byte[] encoded) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            int size = input.readInt();
+            ImmutableSortedMap.Builder<String, Long> bounds = ImmutableSortedMap.naturalOrder();
+            for (int i = 0; i < size; i++) {
+                bounds.put(input.readUTF(), input.readLong());
+            }
+            return bounds.build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private final class ClientBoundStore implements TimestampBoundStore {
+        private final String client;
+
+        @GuardedBy("this")
+        private Long agreedBound;
+
+        private ClientBoundStore(String client) {
+            this.client = client;
+        }
+
+        @Override
+        public synchronized long getUpperLimit() {
+            agreedBound = MultiplexedTimestampBoundStore.this.getUpperLimit(client);
+            return agreedBound;
+        }
+
+        @Override
+        public synchronized void storeUpperLimit(long limit) throws MultipleRunningTimestampServiceError {
+            if (agreedBound != null) {
+                Preconditions.checkArgument(limit >= agreedBound,
+                        "Tried to store an upper limit %s less than the current limit %s", limit, agreedBound);
+            }
+            MultiplexedTimestampBoundStore.this.storeUpperLimit(client, limit);
+            agreedBound = limit;
+        }
+    }
+
+    private final class LegacyClientBoundStore implements TimestampBoundStore {
+        private final String client;
+        private final TimestampBoundStore delegate;
+
+        private LegacyClientBoundStore(String client, TimestampBoundStore delegate) {
+            this.client = client;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public long getUpperLimit() {
+            getAgreedBound(client).ifPresent(bound -> {
+                throw new IllegalStateException(String.format(
+                        "Client %s has the bound %s in the multiplexed timestamp log, so its own log may be behind."
+                                + " Multiplexed timestamp bounds must be enabled on every server of the cluster.",
+                        client,
+                        bound));
+            });
+            return delegate.getUpperLimit();
+        }
+
+        @Override
+        public void storeUpperLimit(long limit) throws MultipleRunningTimestampServiceError {
+            delegate.storeUpperLimit(limit);
+        }
+    }
+
+    private static final class PendingBound {
+        private final String client;
+        private final long limit;
+        private volatile Long agreedBound;
+        private volatile Throwable failure;
+
+        PendingBound(String client, long limit) {
+            this.client = client;
+            this.limit = limit;
+        }
+
+        boolean isDone() {
+            return agreedBound != null || failure != null;
+        }
+
+        void complete(long bound) {
+            agreedBound = bound;
+        }
+
+        void fail(Throwable throwable) {
+            failure = throwable;
+        }
+
+        void checkStored() {
+            if (failure != null) {
+                throw Throwables.rewrapAndThrowUncheckedException(failure);
+            }
+            if (agreedBound < limit) {
+                // Our own proposal was agreed, so this can only happen if the bound was raised by another server
+                // for the same sequence number in an earlier term; see PaxosTimestampBoundStore#storeUpperLimit.
+                throw new NotCurrentLeaderException(String.format(
+                        "We updated the timestamp limit of client %s to %s, which was less than our target %s.",
+                        client,
+                        agreedBound,
+                        limit));
+            }
+        }
+    }
+
+    @Value.Immutable
+    interface SequenceAndBounds {
+        @Value.Parameter
+        long getSeqId();
+
+        @Value.Parameter
+        Map<String, Long> getBounds();
+    }
+
+    private static final class LearnedBounds implements PaxosResponse {
+        private final Map<String, Long> bounds;
+
+        LearnedBounds(Map<String, Long> bounds) {
+            this.bounds = bounds;
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return true;
+        }
+    }
+}
@@ -26,20 +26,28 @@ import org.immutables.value.Value;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Maps;
 import com.palantir.atlasdb.util.AtlasDbMetrics;
+import com.palantir.common.persist.Persistable;
+import com.palantir.leader.PaxosKnowledgeEventRecorder;
 import com.palantir.paxos.PaxosAcceptor;
 import com.palantir.paxos.PaxosAcceptorImpl;
 import com.palantir.paxos.PaxosLearner;
 import com.palantir.paxos.PaxosLearnerImpl;
+import com.palantir.paxos.PaxosStateLog;
+import com.palantir.paxos.PaxosStateLogImpl;
+import com.palantir.paxos.SegmentedPaxosStateLog;
+import com.palantir.paxos.Versionable;
 
 @Path("/" + PaxosTimeLockConstants.INTERNAL_NAMESPACE
         + "/" + PaxosTimeLockConstants.CLIENT_PAXOS_NAMESPACE
         + "/{client: [a-zA-Z0-9_-]+}")
 public final class PaxosResource {
     private final String logDirectory;
+    private final boolean segmentedStateLogs;
     private final Map<String, PaxosComponents> paxosComponentsByClient = Maps.newConcurrentMap();
 
-    private PaxosResource(String logDirectory) {
+    private PaxosResource(String logDirectory, boolean segmentedStateLogs) {
         this.logDirectory = logDirectory;
+        this.segmentedStateLogs = segmentedStateLogs;
     }
 
     public static PaxosResource create() {
@@ -47,7 +55,15 @@ public final class PaxosResource {
     }
 
     public static PaxosResource create(String logDirectory) {
-        return new PaxosResource(logDirectory);
+        return create(logDirectory, false);
+    }
+
+    /**
+     * Creates a resource whose acceptors and learners keep their state in the given directory, either in a
+     * {@link SegmentedPaxosStateLog} or in a {@link PaxosStateLogImpl} per client.
+     */
+    public static PaxosResource create(String logDirectory, boolean segmentedStateLogs) {
+        return new PaxosResource(logDirectory, segmentedStateLogs);
     }
 
     public PaxosComponents createInstrumentedComponents(String client) {
@@ -55,14 +71,14 @@ public final class PaxosResource {
                 .toString();
         PaxosLearner learner = instrument(
                 PaxosLearner.class,
-                PaxosLearnerImpl.newLearner(learnerLogDir),
+                PaxosLearnerImpl.newLearner(createStateLog(learnerLogDir), PaxosKnowledgeEventRecorder.NO_OP),
                 client);
 
         String acceptorLogDir = Paths.get(logDirectory, client, PaxosTimeLockConstants.ACCEPTOR_SUBDIRECTORY_PATH)
                 .toString();
         PaxosAcceptor acceptor = instrument(
                 PaxosAcceptor.class,
-                PaxosAcceptorImpl.newAcceptor(acceptorLogDir),
+                PaxosAcceptorImpl.newAcceptor(createStateLog(acceptorLogDir)),
                 client);
 
         return ImmutablePaxosComponents.builder()
@@ -71,6 +87,10 @@ public final class PaxosResource {
                 .build();
     }
 
+    private <V extends Persistable & Versionable> PaxosStateLog<V> createStateLog(String logDir) {
+        return segmentedStateLogs ? SegmentedPaxosStateLog.create(logDir) : new PaxosStateLogImpl<>(logDir);
+    }
+
     private static <T> T instrument(Class<T> serviceClass, T service, String client) {
         return AtlasDbMetrics.instrument(serviceClass, service, MetricRegistry.name(serviceClass, client));
     }
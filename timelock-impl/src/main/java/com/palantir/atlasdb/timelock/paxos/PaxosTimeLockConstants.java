@@ -23,6 +23,9 @@ public final class PaxosTimeLockConstants {
     // This is not great, but needed to preserve backwards compatibility for Leader Election Service
     public static final String LEADER_ELECTION_NAMESPACE = "leader";
 
+    // Client namespace of the Paxos log shared by all clients when timestamp bounds are multiplexed
+    public static final String MULTIPLEXED_TIMESTAMP_NAMESPACE = "multiplexed-timestamp-bounds";
+
     public static final String INTERNAL_NAMESPACE = ".internal";
     public static final String LEADER_PAXOS_NAMESPACE = "leaderPaxos";
     public static final String CLIENT_PAXOS_NAMESPACE = "clientPaxos";
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.timelock.paxos;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.palantir.common.concurrent.PTExecutors;
+import com.palantir.leader.NotCurrentLeaderException;
+import com.palantir.paxos.PaxosAcceptor;
+import com.palantir.paxos.PaxosAcceptorImpl;
+import com.palantir.paxos.PaxosLearner;
+import com.palantir.paxos.PaxosLearnerImpl;
+import com.palantir.paxos.PaxosProposer;
+import com.palantir.paxos.PaxosProposerImpl;
+import com.palantir.remoting2.tracing.Tracers;
+import com.palantir.timestamp.TimestampBoundStore;
+
+public class MultiplexedTimestampBoundStoreTest {
+    private static final int NUM_NODES = 5;
+
+    private static final String LOG_DIR = "testlogs/";
+    private static final String LEARNER_DIR_PREFIX = LOG_DIR + "learner/";
+    private static final String ACCEPTOR_DIR_PREFIX = LOG_DIR + "acceptor/";
+    private static final String CLIENT_1 = "client1";
+    private static final String CLIENT_2 = "client2";
+    private static final String LEGACY_CLIENT = "legacy";
+    private static final long TIMESTAMP_1 = 100000;
+    private static final long TIMESTAMP_2 = 200000;
+    private static final long LEGACY_TIMESTAMP = 300000;
+
+    private final ExecutorService executor = Tracers.wrap(PTExecutors.newCachedThreadPool());
+    private final List<PaxosAcceptor> acceptors = Lists.newArrayList();
+    private final List<PaxosLearner> learners = Lists.newArrayList();
+    private final Map<String, Long> legacyBounds = Maps.newConcurrentMap();
+
+    private MultiplexedTimestampBoundStore store;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < NUM_NODES; i++) {
+            acceptors.add(PaxosAcceptorImpl.newAcceptor(ACCEPTOR_DIR_PREFIX + i));
+            learners.add(PaxosLearnerImpl.newLearner(LEARNER_DIR_PREFIX + i));
+        }
+        legacyBounds.put(LEGACY_CLIENT, LEGACY_TIMESTAMP);
+        store = createMultiplexedTimestampBoundStore(0);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException, IOException {
+        try {
+            executor.shutdownNow();
+            boolean terminated = executor.awaitTermination(10, TimeUnit.SECONDS);
+            if (!terminated) {
+                throw new IllegalStateException(
+                        "Some threads are still hanging around! Can't proceed or they might corrupt future tests.");
+            }
+        } finally {
+            FileUtils.deleteDirectory(new File(LOG_DIR));
+        }
+    }
+
+    @Test
+    public void clientsWithoutMultiplexedBoundUseLegacyBound() {
+        assertThat(store.forClient(CLIENT_1).getUpperLimit()).isEqualTo(0L);
+        assertThat(store.forClient(LEGACY_CLIENT).getUpperLimit()).isEqualTo(LEGACY_TIMESTAMP);
+    }
+
+    @Test
+    public void storedBoundsOverrideLegacyBounds() {
+        TimestampBoundStore legacyClientStore = store.forClient(LEGACY_CLIENT);
+        legacyClientStore.getUpperLimit();
+        legacyClientStore.storeUpperLimit(LEGACY_TIMESTAMP + TIMESTAMP_1);
+
+        assertThat(store.forClient(LEGACY_CLIENT).getUpperLimit()).isEqualTo(LEGACY_TIMESTAMP + TIMESTAMP_1);
+    }
+
+    @Test
+    public void legacyBoundsWrittenAfterMigrationAreNotIgnored() {
+        store.forClient(LEGACY_CLIENT).storeUpperLimit(LEGACY_TIMESTAMP + TIMESTAMP_1);
+        legacyBounds.put(LEGACY_CLIENT, LEGACY_TIMESTAMP + TIMESTAMP_2);
+
+        assertThat(store.forClient(LEGACY_CLIENT).getUpperLimit()).isEqualTo(LEGACY_TIMESTAMP + TIMESTAMP_2);
+    }
+
+    @Test
+    public void legacyStoresServeClientsNotYetMigrated() {
+        TimestampBoundStore delegate = mock(TimestampBoundStore.class);
+        when(delegate.getUpperLimit()).thenReturn(LEGACY_TIMESTAMP);
+        TimestampBoundStore legacyStore = store.forLegacyClient(LEGACY_CLIENT, delegate);
+        store.forClient(CLIENT_1).storeUpperLimit(TIMESTAMP_1);
+
+        assertThat(legacyStore.getUpperLimit()).isEqualTo(LEGACY_TIMESTAMP);
+        legacyStore.storeUpperLimit(LEGACY_TIMESTAMP + TIMESTAMP_1);
+        verify(delegate).storeUpperLimit(LEGACY_TIMESTAMP + TIMESTAMP_1);
+    }
+
+    @Test
+    public void legacyStoresRefuseToServeMigratedClients() {
+        store.forClient(CLIENT_1).storeUpperLimit(TIMESTAMP_1);
+
+        MultiplexedTimestampBoundStore additionalStore = createMultiplexedTimestampBoundStore(1);
+        TimestampBoundStore legacyStore =
+                additionalStore.forLegacyClient(CLIENT_1, mock(TimestampBoundStore.class));
+        assertThatThrownBy(legacyStore::getUpperLimit).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void boundsOfDifferentClientsAreIndependent() {
+        store.forClient(CLIENT_1).storeUpperLimit(TIMESTAMP_1);
+        store.forClient(CLIENT_2).storeUpperLimit(TIMESTAMP_2);
+
+        assertThat(store.forClient(CLIENT_1).getUpperLimit()).isEqualTo(TIMESTAMP_1);
+        assertThat(store.forClient(CLIENT_2).getUpperLimit()).isEqualTo(TIMESTAMP_2);
+    }
+
+    @Test
+    public void throwsIfStoringLimitLessThanUpperLimit() {
+        TimestampBoundStore clientStore = store.forClient(CLIENT_1);
+        clientStore.storeUpperLimit(TIMESTAMP_2);
+        assertThat(clientStore.getUpperLimit()).isEqualTo(TIMESTAMP_2);
+        assertThatThrownBy(() -> clientStore.storeUpperLimit(TIMESTAMP_1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void canStoreBoundsForManyClientsConcurrently() throws Exception {
+        List<String> clients = IntStream.range(0, 50).mapToObj(i -> "client" + i).collect(Collectors.toList());
+        List<Future<?>> futures = Lists.newArrayList();
+        for (String client : clients) {
+            futures.add(executor.submit(() -> store.forClient(client).storeUpperLimit(TIMESTAMP_1)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        for (String client : clients) {
+            assertThat(store.forClient(client).getUpperLimit()).isEqualTo(TIMESTAMP_1);
+        }
+    }
+
+    @Test
+    public void canReadBoundsStoredByOtherNodes() {
+        store.forClient(CLIENT_1).storeUpperLimit(TIMESTAMP_1);
+
+        MultiplexedTimestampBoundStore additionalStore = createMultiplexedTimestampBoundStore(1);
+        TimestampBoundStore clientStore = additionalStore.forClient(CLIENT_1);
+        assertThat(clientStore.getUpperLimit()).isEqualTo(TIMESTAMP_1);
+        clientStore.storeUpperLimit(TIMESTAMP_2);
+        assertThat(store.forClient(CLIENT_1).getUpperLimit()).isEqualTo(TIMESTAMP_2);
+    }
+
+    @Test
+    public void throwsIfBoundsUnexpectedlyChangedUnderUs() {
+        TimestampBoundStore clientStore = store.forClient(CLIENT_1);
+        clientStore.getUpperLimit();
+
+        MultiplexedTimestampBoundStore additionalStore = createMultiplexedTimestampBoundStore(1);
+        additionalStore.forClient(CLIENT_2).storeUpperLimit(TIMESTAMP_1);
+
+        assertThatThrownBy(() -> clientStore.storeUpperLimit(TIMESTAMP_2))
+                .isInstanceOf(NotCurrentLeaderException.class);
+    }
+
+    @Test
+    public void boundsSurviveEncoding() {
+        Map<String, Long> bounds = ImmutableMap.of(CLIENT_1, TIMESTAMP_1, CLIENT_2, TIMESTAMP_2);
+        assertThat(MultiplexedTimestampBoundStore.decode(MultiplexedTimestampBoundStore.encode(bounds)))
+                .isEqualTo(bounds);
+    }
+
+    private MultiplexedTimestampBoundStore createMultiplexedTimestampBoundStore(int nodeIndex) {
+        PaxosProposer proposer = PaxosProposerImpl.newProposer(
+                learners.get(nodeIndex),
+                ImmutableList.copyOf(acceptors),
+                ImmutableList.copyOf(learners),
+                NUM_NODES / 2 + 1,
+                UUID.randomUUID(),
+                executor);
+        return new MultiplexedTimestampBoundStore(
+                proposer,
+                learners.get(nodeIndex),
+                acceptors,
+                learners,
+                1000L,
+                client -> legacyBounds.getOrDefault(client, 0L),
+                executor);
+    }
+}
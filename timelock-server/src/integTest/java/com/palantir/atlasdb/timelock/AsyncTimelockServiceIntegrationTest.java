@@ -50,11 +50,15 @@ import com.palantir.lock.LockServerOptions;
 import com.palantir.lock.SimpleHeldLocksToken;
 import com.palantir.lock.SimpleTimeDuration;
 import com.palantir.lock.StringLockDescriptor;
+import com.palantir.lock.v2.ImmutableTimelockBatchRequest;
 import com.palantir.lock.v2.LockImmutableTimestampRequest;
 import com.palantir.lock.v2.LockImmutableTimestampResponse;
 import com.palantir.lock.v2.LockRequest;
 import com.palantir.lock.v2.LockResponse;
 import com.palantir.lock.v2.LockToken;
+import com.palantir.lock.v2.TimelockBatchRequest;
+import com.palantir.lock.v2.TimelockBatchResponse;
+import com.palantir.lock.v2.TimestampLease;
 import com.palantir.lock.v2.WaitForLocksRequest;
 import com.palantir.lock.v2.WaitForLocksResponse;
 import com.palantir.timestamp.TimestampRange;
@@ -176,6 +180,35 @@ public class AsyncTimelockServiceIntegrationTest extends AbstractAsyncTimelockSe
         assertThat(range1.getUpperBound()).isLessThan(range2.getLowerBound());
     }
 
+    @Test
+    public void canStartTransactionAndUnlockInBatches() {
+        TimelockBatchResponse started = cluster.timelockService().batch(
+                TimelockBatchRequest.startTransaction(LockImmutableTimestampRequest.create()));
+        LockImmutableTimestampResponse immutableTsResponse =
+                Iterables.getOnlyElement(started.getLockImmutableTimestampResponses());
+        long startTs = started.getFreshTimestamps().get().getLowerBound();
+
+        assertThat(immutableTsResponse.getImmutableTimestamp()).isLessThan(startTs);
+
+        TimelockBatchResponse unlocked = cluster.timelockService().batch(ImmutableTimelockBatchRequest.builder()
+                .addUnlockTokens(immutableTsResponse.getLock())
+                .build());
+
+        assertThat(unlocked.getUnlockedTokens()).containsExactly(immutableTsResponse.getLock());
+    }
+
+    @Test
+    public void leasedTimestampsAreFreshWhenGranted() {
+        long freshTimestamp = cluster.getFreshTimestamp();
+        TimestampLease lease = cluster.timelockService().leaseTimestamps(10);
+        TimestampLease nextLease = cluster.timelockService().leaseTimestamps(10);
+
+        assertThat(lease.getTimestamps().getLowerBound()).isGreaterThan(freshTimestamp);
+        assertThat(lease.getLeaseMillis()).isPositive();
+        assertThat(nextLease.getTimestamps().getLowerBound()).isGreaterThan(lease.getTimestamps().getUpperBound());
+        assertThat(nextLease.getLeaderTermId()).isEqualTo(lease.getLeaderTermId());
+    }
+
     @Test
     public void lockRequestCanTimeOut() {
         LockToken token = cluster.lock(requestFor(LOCK_A)).getToken();
@@ -62,6 +62,10 @@ public class TimeLockServerConfigurationTest {
                 CLUSTER,
                 ImmutableSet.of(PaxosTimeLockConstants.LEADER_ELECTION_NAMESPACE)))
                 .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> createSimpleConfig(
+                CLUSTER,
+                ImmutableSet.of(PaxosTimeLockConstants.MULTIPLEXED_TIMESTAMP_NAMESPACE)))
+                .isInstanceOf(IllegalStateException.class);
     }
 
     @Test
@@ -32,6 +32,7 @@ import java.util.stream.Collectors;
 import org.junit.Test;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.palantir.common.time.Clock;
 import com.palantir.leader.NotCurrentLeaderException;
@@ -43,6 +44,7 @@ public class AsyncLockServiceEteTest {
 
     private static final UUID REQUEST_1 = UUID.randomUUID();
     private static final UUID REQUEST_2 = UUID.randomUUID();
+    private static final UUID REQUEST_3 = UUID.randomUUID();
 
     private static final String LOCK_A = "a";
     private static final String LOCK_B = "b";
@@ -260,6 +262,47 @@ public class AsyncLockServiceEteTest {
         assertNotLocked(LOCK_B);
     }
 
+    @Test
+    public void sharedLocksCanBeHeldByMultipleRequests() {
+        LockToken request1 = lockSharedSynchronously(REQUEST_1, LOCK_A);
+        LockToken request2 = lockSharedSynchronously(REQUEST_2, LOCK_A);
+        assertLocked(LOCK_A);
+
+        assertTrue(service.unlock(request1));
+        assertLocked(LOCK_A);
+
+        assertTrue(service.unlock(request2));
+        assertNotLocked(LOCK_A);
+    }
+
+    @Test
+    public void sharedLockRequestsWaitBehindQueuedExclusiveRequests() {
+        LockToken request1 = lockSharedSynchronously(REQUEST_1, LOCK_A);
+        AsyncResult<LockToken> request2 = lock(REQUEST_2, LOCK_A);
+        AsyncResult<LockToken> request3 = lockShared(REQUEST_3, LOCK_A);
+        assertThat(request2.isComplete()).isFalse();
+        assertThat(request3.isComplete()).isFalse();
+
+        service.unlock(request1);
+        assertThat(request2.isCompletedSuccessfully()).isTrue();
+        assertThat(request3.isComplete()).isFalse();
+
+        service.unlock(request2.get());
+        assertThat(request3.isCompletedSuccessfully()).isTrue();
+    }
+
+    @Test
+    public void canLockSomeLocksSharedAndOthersExclusively() {
+        LockToken request1 = service.lock(REQUEST_1, descriptors(LOCK_A), descriptors(LOCK_B), TIMEOUT).get();
+        LockToken request2 = lockSharedSynchronously(REQUEST_2, LOCK_B);
+        assertLocked(LOCK_A);
+
+        service.unlock(request1);
+        service.unlock(request2);
+        assertNotLocked(LOCK_A);
+        assertNotLocked(LOCK_B);
+    }
+
     @Test
     public void outstandingRequestsReceiveNotCurrentLeaderExceptionOnClose() {
         lockSynchronously(REQUEST_1, LOCK_A);
@@ -294,6 +337,14 @@ public class AsyncLockServiceEteTest {
         return service.lock(requestId, descriptors(locks), TIMEOUT);
     }
 
+    private LockToken lockSharedSynchronously(UUID requestId, String... locks) {
+        return lockShared(requestId, locks).get();
+    }
+
+    private AsyncResult<LockToken> lockShared(UUID requestId, String... locks) {
+        return service.lock(requestId, ImmutableSet.of(), descriptors(locks), TIMEOUT);
+    }
+
     private AsyncResult<Void> waitForLocks(UUID requestId, String... locks) {
         return service.waitForLocks(requestId, descriptors(locks), TIMEOUT);
     }
@@ -19,7 +19,6 @@ package com.palantir.atlasdb.timelock.lock;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -39,6 +38,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.palantir.lock.LockDescriptor;
 import com.palantir.lock.StringLockDescriptor;
 
@@ -50,7 +50,7 @@ public class AsyncLockServiceTest {
 
     private static final String LOCK_A = "a";
     private static final String LOCK_B = "b";
-    public static final long REAPER_PERIOD_MS = LeaseExpirationTimer.LEASE_TIMEOUT_MILLIS / 2;
+    public static final long REAPER_PERIOD_MS = HeldLocksCollection.LEASE_TIMER_TICK_MILLIS;
 
     private static final TimeLimit DEADLINE = TimeLimit.of(123L);
 
@@ -68,6 +68,7 @@ public class AsyncLockServiceTest {
         when(acquirer.acquireLocks(any(), any(), any())).thenReturn(new AsyncResult<>());
         when(acquirer.waitForLocks(any(), any(), any())).thenReturn(new AsyncResult<>());
         when(locks.getAll(any())).thenReturn(OrderedLocks.fromSingleLock(newLock()));
+        when(locks.getAll(any(), any())).thenReturn(OrderedLocks.fromSingleLock(newLock()));
         when(immutableTimestampTracker.getImmutableTimestamp()).thenReturn(Optional.empty());
         when(immutableTimestampTracker.getLockFor(anyLong())).thenReturn(newLock());
     }
@@ -76,13 +77,25 @@ public class AsyncLockServiceTest {
     public void passesOrderedLocksToAcquirer() {
         OrderedLocks expected = orderedLocks(newLock(), newLock());
         Set<LockDescriptor> descriptors = descriptors(LOCK_A, LOCK_B);
-        when(locks.getAll(descriptors)).thenReturn(expected);
+        when(locks.getAll(descriptors, ImmutableSet.of())).thenReturn(expected);
 
         lockService.lock(REQUEST_ID, descriptors, DEADLINE);
 
         verify(acquirer).acquireLocks(REQUEST_ID, expected, DEADLINE);
     }
 
+    @Test
+    public void passesSharedLocksToAcquirer() {
+        OrderedLocks expected = orderedLocks(newLock(), newLock().shared());
+        Set<LockDescriptor> exclusiveDescriptors = descriptors(LOCK_A);
+        Set<LockDescriptor> sharedDescriptors = descriptors(LOCK_B);
+        when(locks.getAll(exclusiveDescriptors, sharedDescriptors)).thenReturn(expected);
+
+        lockService.lock(REQUEST_ID, exclusiveDescriptors, sharedDescriptors, DEADLINE);
+
+        verify(acquirer).acquireLocks(REQUEST_ID, expected, DEADLINE);
+    }
+
     @Test
     public void passesOrderedLocksToAcquirerWhenWaitingForLocks() {
         OrderedLocks expected = orderedLocks(newLock(), newLock());
@@ -94,12 +107,22 @@ public class AsyncLockServiceTest {
         verify(acquirer).waitForLocks(REQUEST_ID, expected, DEADLINE);
     }
 
+    @Test
+    public void closesTheLockAcquirerOnClose() {
+        verify(acquirer).start();
+
+        lockService.close();
+
+        verify(acquirer).close();
+    }
+
     @Test
     public void doesNotAcquireDuplicateRequests() {
         Set<LockDescriptor> descriptors = descriptors(LOCK_A);
         lockService.lock(REQUEST_ID, descriptors, DEADLINE);
         lockService.lock(REQUEST_ID, descriptors, DEADLINE);
 
+        verify(acquirer).start();
         verify(acquirer, times(1)).acquireLocks(any(), any(), any());
         verifyNoMoreInteractions(acquirer);
     }
@@ -110,6 +133,7 @@ public class AsyncLockServiceTest {
         lockService.waitForLocks(REQUEST_ID, descriptors, DEADLINE);
         lockService.waitForLocks(REQUEST_ID, descriptors, DEADLINE);
 
+        verify(acquirer).start();
         verify(acquirer, times(1)).waitForLocks(any(), any(), any());
         verifyNoMoreInteractions(acquirer);
     }
@@ -127,21 +151,25 @@ public class AsyncLockServiceTest {
     }
 
     @Test
-    public void schedulesReaperAtAppropriateInterval() {
-        triggerNextReaperIteration();
-        triggerNextReaperIteration();
-        triggerNextReaperIteration();
+    public void runsReaperOnlyWhileRequestsAreTracked() {
+        assertThat(reaperExecutor.isIdle()).isTrue();
 
-        verify(heldLocks, times(3)).removeExpired();
+        AsyncResult<HeldLocks> timedOutResult = new AsyncResult<>();
+        timedOutResult.timeout();
+        when(acquirer.acquireLocks(any(), any(), any())).thenReturn(timedOutResult);
+        lockService.lock(REQUEST_ID, descriptors(LOCK_A), DEADLINE);
+        assertThat(reaperExecutor.isIdle()).isFalse();
+
+        triggerNextReaperIteration();
+        assertThat(heldLocks.heldLocksById).isEmpty();
+        assertThat(reaperExecutor.isIdle()).isTrue();
     }
 
     @Test
-    public void reaperDoesNotDieIfItEncountersAnException() {
-        doThrow(new RuntimeException("test")).when(heldLocks).removeExpired();
-        triggerNextReaperIteration();
-        triggerNextReaperIteration();
+    public void stopsReaperOnClose() {
+        lockService.close();
 
-        verify(heldLocks, times(2)).removeExpired();
+        verify(heldLocks).stopRemovingExpired();
     }
 
     @Test
@@ -155,8 +183,8 @@ public class AsyncLockServiceTest {
         assertThat(result.isTimedOut()).isTrue();
     }
 
-    private ExclusiveLock newLock() {
-        return new ExclusiveLock(LOCK_DESCRIPTOR);
+    private SharedLock newLock() {
+        return new SharedLock(LOCK_DESCRIPTOR);
     }
 
     private Set<LockDescriptor> descriptors(String... lockNames) {
@@ -170,7 +198,7 @@ public class AsyncLockServiceTest {
     }
 
     private void triggerNextReaperIteration() {
-        reaperExecutor.tick(REAPER_PERIOD_MS - 1, TimeUnit.MILLISECONDS);
+        reaperExecutor.tick(REAPER_PERIOD_MS, TimeUnit.MILLISECONDS);
     }
 
 }
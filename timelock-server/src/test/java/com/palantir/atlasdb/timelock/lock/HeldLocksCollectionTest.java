@@ -89,6 +89,24 @@ public class HeldLocksCollectionTest {
         assertThat(heldLocksCollection.heldLocksById.size()).isEqualTo(0);
     }
 
+    @Test
+    public void checksLeasesOnlyOnceTheyMayHaveExpired() {
+        long ticksUntilExpiry = 3;
+        mockHeldLocksForNewRequest(heldLocks -> {
+            when(heldLocks.getMillisUntilExpiry())
+                    .thenReturn(ticksUntilExpiry * HeldLocksCollection.LEASE_TIMER_TICK_MILLIS);
+            when(heldLocks.unlockIfExpired()).thenReturn(true);
+        });
+
+        for (int i = 0; i < ticksUntilExpiry - 1; i++) {
+            heldLocksCollection.removeExpired();
+        }
+        assertThat(heldLocksCollection.heldLocksById.size()).isEqualTo(1);
+
+        heldLocksCollection.removeExpired();
+        assertThat(heldLocksCollection.heldLocksById.size()).isEqualTo(0);
+    }
+
     @Test
     public void refreshReturnsSubsetOfUnlockedLocks() {
         LockToken unlockableRequest = mockRefreshableRequest();
@@ -19,11 +19,18 @@ package com.palantir.atlasdb.timelock.lock;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+
 public class ImmutableTimestampTrackerTest {
 
     private static final UUID REQUEST_1 = UUID.randomUUID();
@@ -68,6 +75,76 @@ public class ImmutableTimestampTrackerTest {
         assertThat(tracker.getImmutableTimestamp().get()).isEqualTo(TIMESTAMP_2);
     }
 
+    @Test
+    public void tracksTimestampsLockedBelowTheCurrentMinimum() {
+        lock(TIMESTAMP_2, REQUEST_1);
+        assertThat(tracker.getImmutableTimestamp().get()).isEqualTo(TIMESTAMP_2);
+
+        lock(TIMESTAMP_1, REQUEST_2);
+        assertThat(tracker.getImmutableTimestamp().get()).isEqualTo(TIMESTAMP_1);
+
+        unlock(TIMESTAMP_1, REQUEST_2);
+        assertThat(tracker.getImmutableTimestamp().get()).isEqualTo(TIMESTAMP_2);
+    }
+
+    @Test
+    public void tracksMinimumUnderConcurrentLockingAndUnlocking() throws Exception {
+        lock(TIMESTAMP_1, REQUEST_1);
+        AtomicLong nextTimestamp = new AtomicLong(TIMESTAMP_2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        long timestamp = nextTimestamp.getAndIncrement();
+                        UUID requestId = UUID.randomUUID();
+                        lock(timestamp, requestId);
+                        assertThat(tracker.getImmutableTimestamp().get()).isEqualTo(TIMESTAMP_1);
+                        unlock(timestamp, requestId);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        unlock(TIMESTAMP_1, REQUEST_1);
+        assertThat(tracker.getImmutableTimestamp()).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void neverReportsATimestampAboveOneThatIsLocked() throws Exception {
+        // Each thread locks timestamps below all those locked before, so the minimum keeps moving down under readers.
+        AtomicLong nextTimestamp = new AtomicLong(Long.MAX_VALUE - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        long timestamp = nextTimestamp.getAndDecrement();
+                        UUID requestId = UUID.randomUUID();
+                        lock(timestamp, requestId);
+                        assertThat(tracker.getImmutableTimestamp().get()).isLessThanOrEqualTo(timestamp);
+                        unlock(timestamp, requestId);
+                        tracker.getImmutableTimestamp();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(tracker.getImmutableTimestamp()).isEqualTo(Optional.empty());
+    }
+
     @Test
     public void lockingSameTimestampTwiceThrows() {
         lock(TIMESTAMP_1, REQUEST_1);
@@ -19,9 +19,12 @@ package com.palantir.atlasdb.timelock.lock;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -29,11 +32,14 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.jmock.lib.concurrent.DeterministicScheduler;
+import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
 
@@ -52,11 +58,16 @@ public class LockAcquirerTest {
 
     private final DeterministicScheduler executor = new DeterministicScheduler();
 
-    private final ExclusiveLock lockA = spy(new ExclusiveLock(LOCK_DESCRIPTOR));
-    private final ExclusiveLock lockB = spy(new ExclusiveLock(LOCK_DESCRIPTOR));
-    private final ExclusiveLock lockC = spy(new ExclusiveLock(LOCK_DESCRIPTOR));
+    private final SharedLock lockA = spy(new SharedLock(LOCK_DESCRIPTOR));
+    private final SharedLock lockB = spy(new SharedLock(LOCK_DESCRIPTOR));
+    private final SharedLock lockC = spy(new SharedLock(LOCK_DESCRIPTOR));
 
-    private final LockAcquirer lockAcquirer = new LockAcquirer(executor);
+    private final LockAcquirer lockAcquirer = new LockAcquirer(executor, 1L);
+
+    @Before
+    public void before() {
+        lockAcquirer.start();
+    }
 
     @Test
     public void acquiresLocksInOrder() {
@@ -87,7 +98,7 @@ public class LockAcquirerTest {
     @Test(timeout = 10_000)
     public void doesNotStackOverflowIfLocksAreAcquiredSynchronously() {
         List<AsyncLock> locks = IntStream.range(0, 10_000)
-                .mapToObj(i -> new ExclusiveLock(LOCK_DESCRIPTOR))
+                .mapToObj(i -> new SharedLock(LOCK_DESCRIPTOR))
                 .collect(Collectors.toList());
 
         AsyncResult<HeldLocks> acquisitions = acquire(locks);
@@ -202,6 +213,18 @@ public class LockAcquirerTest {
         assertNotLocked(lockC);
     }
 
+    @Test
+    public void doesNotTimeOutAfterLocksAreAcquired() {
+        acquire(lockB);
+        AsyncResult<?> result = acquire(lockA, lockB, lockC);
+        lockB.unlock(REQUEST_ID);
+
+        executor.tick(TIMEOUT.getTimeMillis() + 1L, TimeUnit.MILLISECONDS);
+
+        verify(lockB, never()).timeout(REQUEST_ID);
+        assertThat(result.isCompletedSuccessfully()).isTrue();
+    }
+
     @Test
     public void doesNotTimeOutBeforeSpecifiedTime() {
         acquire(lockB);
@@ -213,6 +236,38 @@ public class LockAcquirerTest {
         assertThat(result.isTimedOut()).isFalse();
     }
 
+    @Test
+    public void onlyTimesOutRequestsBetweenStartAndClose() {
+        ScheduledExecutorService timeoutExecutor = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> timeoutTick = mock(ScheduledFuture.class);
+        doReturn(timeoutTick).when(timeoutExecutor).schedule(any(Runnable.class), anyLong(), any());
+
+        LockAcquirer acquirer = new LockAcquirer(timeoutExecutor, 1L);
+        acquirer.start();
+        verifyNoMoreInteractions(timeoutExecutor);
+
+        lockA.lock(OTHER_REQUEST_ID);
+        acquirer.acquireLocks(REQUEST_ID, OrderedLocks.fromSingleLock(lockA), TIMEOUT);
+        verify(timeoutExecutor).schedule(any(Runnable.class), eq(1L), eq(TimeUnit.MILLISECONDS));
+
+        acquirer.close();
+        verify(timeoutTick).cancel(false);
+        verify(timeoutExecutor).shutdown();
+    }
+
+    @Test
+    public void onlyTicksWhileRequestsAreWaitingForLocks() {
+        assertThat(executor.isIdle()).isTrue();
+
+        lockA.lock(OTHER_REQUEST_ID);
+        AsyncResult<?> result = acquire(lockA);
+        assertThat(executor.isIdle()).isFalse();
+
+        executor.tick(TIMEOUT.getTimeMillis(), TimeUnit.MILLISECONDS);
+        assertThat(result.isTimedOut()).isTrue();
+        assertThat(executor.isIdle()).isTrue();
+    }
+
     private AsyncResult<Void> waitFor(AsyncLock... locks) {
         return lockAcquirer.waitForLocks(REQUEST_ID, OrderedLocks.fromOrderedList(ImmutableList.copyOf(locks)),
                 TIMEOUT);
@@ -226,7 +281,7 @@ public class LockAcquirerTest {
         return lockAcquirer.acquireLocks(REQUEST_ID, OrderedLocks.fromOrderedList(locks), TIMEOUT);
     }
 
-    private void assertNotLocked(ExclusiveLock lock) {
+    private void assertNotLocked(SharedLock lock) {
         assertThat(lock.lock(UUID.randomUUID()).isCompletedSuccessfully()).isTrue();
     }
 
@@ -28,6 +28,7 @@ import java.util.stream.IntStream;
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.palantir.lock.LockDescriptor;
 import com.palantir.lock.StringLockDescriptor;
 
@@ -71,6 +72,45 @@ public class LockCollectionTest {
         assertThat(actualOrder).isEqualTo(expectedOrder);
     }
 
+    @Test
+    public void sharedAndExclusiveRequestsUseTheSameLock() {
+        UUID sharedRequest = UUID.randomUUID();
+        AsyncLock sharedLock = Iterables.getOnlyElement(
+                lockCollection.getAll(ImmutableSet.of(), descriptors("foo")).get());
+        AsyncLock exclusiveLock = Iterables.getOnlyElement(lockCollection.getAll(descriptors("foo")).get());
+
+        assertThat(sharedLock.lock(sharedRequest).isCompletedSuccessfully()).isTrue();
+        assertThat(exclusiveLock.lock(UUID.randomUUID()).isComplete()).isFalse();
+
+        sharedLock.unlock(sharedRequest);
+    }
+
+    @Test
+    public void descriptorsRequestedInBothModesAreLockedExclusively() {
+        List<AsyncLock> locks = lockCollection.getAll(descriptors("foo", "bar"), descriptors("bar", "baz")).get();
+
+        assertThat(locks).hasSize(3);
+        assertThat(locks.get(0)).isInstanceOf(SharedLock.class);
+        assertThat(locks.get(1)).isNotInstanceOf(SharedLock.class);
+        assertThat(locks.get(2)).isInstanceOf(SharedLock.class);
+    }
+
+    @Test
+    public void createsOneLockPerDescriptorAcrossShards() {
+        LockCollection singleShardCollection = new LockCollection(1);
+        Set<LockDescriptor> descriptors = IntStream.range(0, 100)
+                .mapToObj(i -> StringLockDescriptor.of("lock" + i))
+                .collect(Collectors.toSet());
+
+        List<AsyncLock> locks = lockCollection.getAll(descriptors).get();
+        List<AsyncLock> singleShardLocks = singleShardCollection.getAll(descriptors).get();
+
+        assertThat(lockCollection.size()).isEqualTo(100);
+        assertThat(singleShardCollection.size()).isEqualTo(100);
+        assertThat(lockCollection.getAll(descriptors).get()).isEqualTo(locks);
+        assertThat(singleShardCollection.getAll(descriptors).get()).isEqualTo(singleShardLocks);
+    }
+
     private Set<LockDescriptor> descriptors(String... names) {
         return Arrays.stream(names)
                 .map(StringLockDescriptor::of)
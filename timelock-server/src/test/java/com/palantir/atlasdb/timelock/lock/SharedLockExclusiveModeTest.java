@@ -27,7 +27,7 @@ import org.junit.Test;
 import com.palantir.lock.LockDescriptor;
 import com.palantir.lock.StringLockDescriptor;
 
-public class ExclusiveLockTests {
+public class SharedLockExclusiveModeTest {
 
     private static final UUID REQUEST_1 = UUID.randomUUID();
     private static final UUID REQUEST_2 = UUID.randomUUID();
@@ -35,7 +35,7 @@ public class ExclusiveLockTests {
 
     private static final LockDescriptor LOCK_DESCRIPTOR = StringLockDescriptor.of("foo");
 
-    private final ExclusiveLock lock = new ExclusiveLock(LOCK_DESCRIPTOR);
+    private final SharedLock lock = new SharedLock(LOCK_DESCRIPTOR);
 
     @Test
     public void canLockAndUnlock() {
@@ -90,7 +90,7 @@ public class ExclusiveLockTests {
         lockSynchronously(REQUEST_1);
 
         unlock(UUID.randomUUID());
-        assertThat(lock.getCurrentHolder()).isEqualTo(REQUEST_1);
+        assertThat(lock.getExclusiveHolder()).isEqualTo(REQUEST_1);
     }
 
     @Test
@@ -100,7 +100,7 @@ public class ExclusiveLockTests {
         AsyncResult<Void> request2 = lockAsync(REQUEST_2);
         unlock(REQUEST_2);
 
-        assertThat(lock.getCurrentHolder()).isEqualTo(REQUEST_1);
+        assertThat(lock.getExclusiveHolder()).isEqualTo(REQUEST_1);
         assertThat(request2.isComplete()).isFalse();
 
         // request2 should still get the lock when it's available
@@ -185,7 +185,7 @@ public class ExclusiveLockTests {
         lock.timeout(REQUEST_2);
         unlock(REQUEST_1);
 
-        assertThat(lock.getCurrentHolder()).isNull();
+        assertThat(lock.getExclusiveHolder()).isNull();
         lockSynchronously(REQUEST_1);
     }
 
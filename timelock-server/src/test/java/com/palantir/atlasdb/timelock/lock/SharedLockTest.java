@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.timelock.lock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.palantir.lock.LockDescriptor;
+import com.palantir.lock.StringLockDescriptor;
+
+public class SharedLockTest {
+
+    private static final UUID REQUEST_1 = UUID.randomUUID();
+    private static final UUID REQUEST_2 = UUID.randomUUID();
+    private static final UUID REQUEST_3 = UUID.randomUUID();
+    private static final UUID REQUEST_4 = UUID.randomUUID();
+
+    private static final LockDescriptor LOCK_DESCRIPTOR = StringLockDescriptor.of("foo");
+
+    private final SharedLock lock = new SharedLock(LOCK_DESCRIPTOR);
+
+    @Test
+    public void sharedLockCanBeHeldByMultipleRequests() {
+        lockSharedSynchronously(REQUEST_1);
+        lockSharedSynchronously(REQUEST_2);
+
+        assertThat(lock.getSharedHolders()).containsExactlyInAnyOrder(REQUEST_1, REQUEST_2);
+    }
+
+    @Test
+    public void exclusiveRequestWaitsForAllSharedHolders() {
+        lockSharedSynchronously(REQUEST_1);
+        lockSharedSynchronously(REQUEST_2);
+        AsyncResult<Void> exclusive = lock.lock(REQUEST_3);
+
+        lock.unlock(REQUEST_1);
+        assertThat(exclusive.isComplete()).isFalse();
+
+        lock.unlock(REQUEST_2);
+        assertThat(exclusive.isCompletedSuccessfully()).isTrue();
+        assertThat(lock.getExclusiveHolder()).isEqualTo(REQUEST_3);
+    }
+
+    @Test
+    public void sharedRequestsWaitForExclusiveHolder() {
+        lock.lock(REQUEST_1).get();
+        AsyncResult<Void> shared = lock.lockShared(REQUEST_2);
+
+        assertThat(shared.isComplete()).isFalse();
+
+        lock.unlock(REQUEST_1);
+        assertThat(shared.isCompletedSuccessfully()).isTrue();
+    }
+
+    @Test
+    public void sharedRequestsDoNotOvertakeQueuedExclusiveRequests() {
+        lockSharedSynchronously(REQUEST_1);
+        AsyncResult<Void> exclusive = lock.lock(REQUEST_2);
+        AsyncResult<Void> shared = lock.lockShared(REQUEST_3);
+
+        assertThat(shared.isComplete()).isFalse();
+
+        lock.unlock(REQUEST_1);
+        assertThat(exclusive.isCompletedSuccessfully()).isTrue();
+        assertThat(shared.isComplete()).isFalse();
+
+        lock.unlock(REQUEST_2);
+        assertThat(shared.isCompletedSuccessfully()).isTrue();
+    }
+
+    @Test
+    public void consecutiveQueuedSharedRequestsAreGrantedTogether() {
+        lock.lock(REQUEST_1).get();
+        AsyncResult<Void> shared2 = lock.lockShared(REQUEST_2);
+        AsyncResult<Void> shared3 = lock.lockShared(REQUEST_3);
+        AsyncResult<Void> exclusive = lock.lock(REQUEST_4);
+
+        lock.unlock(REQUEST_1);
+
+        assertThat(shared2.isCompletedSuccessfully()).isTrue();
+        assertThat(shared3.isCompletedSuccessfully()).isTrue();
+        assertThat(exclusive.isComplete()).isFalse();
+    }
+
+    @Test
+    public void timingOutQueuedExclusiveRequestGrantsSharedRequestsBehindIt() {
+        lockSharedSynchronously(REQUEST_1);
+        AsyncResult<Void> exclusive = lock.lock(REQUEST_2);
+        AsyncResult<Void> shared = lock.lockShared(REQUEST_3);
+
+        lock.timeout(REQUEST_2);
+
+        assertThat(exclusive.isTimedOut()).isTrue();
+        assertThat(shared.isCompletedSuccessfully()).isTrue();
+    }
+
+    @Test
+    public void waitUntilAvailableForSharedDoesNotWaitForSharedHolders() {
+        lockSharedSynchronously(REQUEST_1);
+
+        assertThat(lock.waitUntilAvailableForShared(REQUEST_2).isCompletedSuccessfully()).isTrue();
+        assertThat(lock.waitUntilAvailable(REQUEST_3).isComplete()).isFalse();
+        assertThat(lock.getSharedHolders()).containsExactly(REQUEST_1);
+    }
+
+    @Test
+    public void sharedViewAcquiresLockInSharedMode() {
+        AsyncLock sharedView = lock.shared();
+
+        sharedView.lock(REQUEST_1).get();
+        sharedView.lock(REQUEST_2).get();
+        assertThat(sharedView.getDescriptor()).isEqualTo(LOCK_DESCRIPTOR);
+
+        sharedView.unlock(REQUEST_1);
+        sharedView.unlock(REQUEST_2);
+        assertThat(lock.getSharedHolders()).isEmpty();
+    }
+
+    @Test
+    public void unlockByNonHolderNoOps() {
+        lockSharedSynchronously(REQUEST_1);
+
+        lock.unlock(REQUEST_2);
+
+        assertThat(lock.getSharedHolders()).containsExactly(REQUEST_1);
+    }
+
+    @Test
+    public void exclusiveHoldersDoNotOverlapUnderConcurrentRequests() throws Exception {
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = IntStream.range(0, 8)
+                    .mapToObj(i -> executor.submit(() -> {
+                        for (int j = 0; j < 1_000; j++) {
+                            UUID requestId = UUID.randomUUID();
+                            CountDownLatch granted = new CountDownLatch(1);
+                            lock.lock(requestId).onComplete(granted::countDown);
+                            Uninterruptibles.awaitUninterruptibly(granted);
+
+                            if (holders.incrementAndGet() != 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            holders.decrementAndGet();
+                            lock.unlock(requestId);
+                        }
+                    }))
+                    .collect(Collectors.toList());
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(overlaps.get()).isZero();
+        assertThat(lock.getExclusiveHolder()).isNull();
+    }
+
+    private void lockSharedSynchronously(UUID requestId) {
+        lock.lockShared(requestId).get();
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Palantir Technologies, Inc. All rights reserved.
+ *
+ * Licensed under the BSD-3 License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.atlasdb.timelock.lock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.lib.concurrent.DeterministicScheduler;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TimerWheelTest {
+
+    private static final long TICK_MILLIS = 10L;
+    private static final int NUM_BUCKETS = 8;
+
+    private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, NUM_BUCKETS);
+    private final List<String> expired = Lists.newArrayList();
+
+    @Test
+    public void runsTaskOnceItsDelayHasElapsed() {
+        TimerWheel.Timeout timeout = schedule("task", 3 * TICK_MILLIS);
+
+        tick(2);
+        assertThat(expired).isEmpty();
+
+        tick(1);
+        assertThat(expired).containsExactly("task");
+        assertThat(timeout.isExpired()).isTrue();
+
+        tick(2 * NUM_BUCKETS);
+        assertThat(expired).containsExactly("task");
+    }
+
+    @Test
+    public void roundsDelaysUpToWholeTicks() {
+        schedule("zero", 0);
+        schedule("partial", TICK_MILLIS + 1);
+
+        tick(1);
+        assertThat(expired).containsExactly("zero");
+
+        tick(1);
+        assertThat(expired).containsExactly("zero", "partial");
+    }
+
+    @Test
+    public void doesNotRunCancelledTasks() {
+        TimerWheel.Timeout timeout = schedule("task", TICK_MILLIS);
+
+        assertThat(timeout.cancel()).isTrue();
+        tick(1);
+
+        assertThat(expired).isEmpty();
+        assertThat(timeout.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void cannotCancelExpiredTasks() {
+        TimerWheel.Timeout timeout = schedule("task", TICK_MILLIS);
+        tick(1);
+
+        assertThat(timeout.cancel()).isFalse();
+        assertThat(expired).containsExactly("task");
+    }
+
+    @Test
+    public void cancellingOneTaskDoesNotAffectOthersInTheSameBucket() {
+        schedule("first", 2 * TICK_MILLIS);
+        TimerWheel.Timeout second = schedule("second", 2 * TICK_MILLIS);
+        schedule("third", 2 * TICK_MILLIS);
+
+        tick(1);
+        second.cancel();
+        tick(1);
+
+        assertThat(expired).containsExactly("first", "third");
+    }
+
+    @Test
+    public void runsTasksWithDelaysLongerThanOneRevolution() {
+        schedule("short", TICK_MILLIS);
+        schedule("long", (NUM_BUCKETS + 1) * TICK_MILLIS);
+
+        tick(1);
+        assertThat(expired).containsExactly("short");
+
+        tick(NUM_BUCKETS - 1);
+        assertThat(expired).containsExactly("short");
+
+        tick(1);
+        assertThat(expired).containsExactly("short", "long");
+    }
+
+    @Test
+    public void tasksCanScheduleFurtherTasks() {
+        wheel.schedule(() -> schedule("rescheduled", TICK_MILLIS), TICK_MILLIS);
+
+        tick(1);
+        assertThat(expired).isEmpty();
+
+        tick(1);
+        assertThat(expired).containsExactly("rescheduled");
+    }
+
+    @Test
+    public void keepsTickingIfATaskThrows() {
+        wheel.schedule(() -> {
+            throw new RuntimeException("test");
+        }, TICK_MILLIS);
+        schedule("task", TICK_MILLIS);
+
+        tick(1);
+
+        assertThat(expired).containsExactly("task");
+    }
+
+    @Test
+    public void ticksOnAnExecutorOnlyWhileTasksArePending() {
+        DeterministicScheduler executor = new DeterministicScheduler();
+        wheel.tickOn(executor);
+        assertThat(executor.isIdle()).isTrue();
+
+        schedule("task", 2 * TICK_MILLIS);
+        assertThat(executor.isIdle()).isFalse();
+
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(expired).isEmpty();
+
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(expired).containsExactly("task");
+        assertThat(executor.isIdle()).isTrue();
+    }
+
+    @Test
+    public void stopsTickingOnAnExecutorOnceAllTasksAreCancelled() {
+        DeterministicScheduler executor = new DeterministicScheduler();
+        wheel.tickOn(executor);
+
+        schedule("task", 2 * TICK_MILLIS).cancel();
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertThat(executor.isIdle()).isTrue();
+    }
+
+    @Test
+    public void countsDelaysFromWhenTickingResumes() {
+        DeterministicScheduler executor = new DeterministicScheduler();
+        wheel.tickOn(executor);
+        schedule("first", TICK_MILLIS);
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        executor.tick(10 * TICK_MILLIS, TimeUnit.MILLISECONDS);
+        schedule("second", 2 * TICK_MILLIS);
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(expired).containsExactly("first");
+
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+        assertThat(expired).containsExactly("first", "second");
+    }
+
+    @Test
+    public void stopsTickingOnAnExecutorWhenStopped() {
+        DeterministicScheduler executor = new DeterministicScheduler();
+        wheel.tickOn(executor);
+        schedule("task", TICK_MILLIS);
+
+        wheel.stopTicking();
+        executor.tick(TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertThat(expired).isEmpty();
+        assertThat(executor.isIdle()).isTrue();
+    }
+
+    private TimerWheel.Timeout schedule(String name, long delayMillis) {
+        return wheel.schedule(() -> expired.add(name), delayMillis);
+    }
+
+    private void tick(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            wheel.tick();
+        }
+    }
+}